@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler always enabled so every result includes the allocation rate next to the
+ * throughput. Accepts the same command line as the standard JMH runner.
+ */
+public class BenchmarkRunner {
+    static public void main( String ... args ) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+
+        if( cmd.shouldHelp() || cmd.shouldList() ) {
+            Main.main(args);
+            return;
+        }
+        Options options = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build();
+
+        new Runner(options).run();
+    }
+}
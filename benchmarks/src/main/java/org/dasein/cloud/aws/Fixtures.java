@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Offline inputs for the benchmarks. Responses are assembled from recorded items under {@code /fixtures} so the
+ * payload size can be varied without checking in multi-megabyte files.
+ */
+public class Fixtures {
+    static public final Charset UTF8 = Charset.forName("UTF-8");
+
+    static public final String ACCESS_KEY = "AKIDEXAMPLE";
+    static public final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+    static public final String AMZ_DATE   = "20150601T120000Z";
+    static public final String EC2_URL    = "https://ec2.us-east-1.amazonaws.com/";
+
+    /**
+     * Builds the parameters of a DescribeInstances call that names the given number of instances and filters on
+     * state and a tag, which is typical of the calls made while waiting on a launch.
+     * @param instances the number of instance IDs to include
+     * @return the request parameters in the order EC2Method would send them
+     */
+    static public @Nonnull Map<String, String> getDescribeInstancesParameters( int instances ) {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+
+        parameters.put(AWSCloud.P_ACTION, "DescribeInstances");
+        parameters.put(AWSCloud.P_ACCESS, ACCESS_KEY);
+        parameters.put(AWSCloud.P_SIGNATURE_VERSION, AWSCloud.SIGNATURE_V2);
+        parameters.put(AWSCloud.P_SIGNATURE_METHOD, AWSCloud.EC2_ALGORITHM);
+        parameters.put(AWSCloud.P_TIMESTAMP, "2015-06-01T12:00:00.000Z");
+        parameters.put(AWSCloud.P_VERSION, "2014-10-01");
+        parameters.put("Filter.1.Name", "instance-state-name");
+        parameters.put("Filter.1.Value.1", "pending");
+        parameters.put("Filter.1.Value.2", "running");
+        parameters.put("Filter.2.Name", "tag:Name");
+        parameters.put("Filter.2.Value.1", "web server (blue/green) *");
+        for( int i = 1; i <= instances; i++ ) {
+            parameters.put("InstanceId." + i, String.format("i-%08x", 0x1a2b3c00 + i));
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the headers EC2Method signs for a POST to {@link #EC2_URL}
+     */
+    static public @Nonnull Map<String, String> getEc2Headers() {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+
+        headers.put("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+        headers.put(AWSCloud.P_AWS_DATE, AMZ_DATE);
+        headers.put("host", "ec2.us-east-1.amazonaws.com");
+        return headers;
+    }
+
+    /**
+     * Builds a DescribeImages response with the given number of images.
+     * @param items the number of images in the response
+     * @return the response body
+     * @throws IOException the fixture could not be read
+     */
+    static public @Nonnull String getDescribeImagesResponse( int items ) throws IOException {
+        return repeat("<DescribeImagesResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">\n" +
+                "    <requestId>59dbff89-35bd-4eac-99ed-be587EXAMPLE</requestId>\n" +
+                "    <imagesSet>\n",
+                load("describe-images-item.xml"), items,
+                "    </imagesSet>\n" +
+                "</DescribeImagesResponse>\n");
+    }
+
+    /**
+     * Builds a DescribeInstances response with the given number of reservations of one instance each.
+     * @param items the number of instances in the response
+     * @return the response body
+     * @throws IOException the fixture could not be read
+     */
+    static public @Nonnull String getDescribeInstancesResponse( int items ) throws IOException {
+        return repeat("<DescribeInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">\n" +
+                "    <requestId>fdcdcab1-ae5c-489e-9c33-4637c5dda355</requestId>\n" +
+                "    <reservationSet>\n",
+                load("describe-instances-reservation.xml"), items,
+                "    </reservationSet>\n" +
+                "</DescribeInstancesResponse>\n");
+    }
+
+    static private @Nonnull String repeat( @Nonnull String head, @Nonnull String item, int count, @Nonnull String tail ) {
+        StringBuilder str = new StringBuilder(head.length() + tail.length() + item.length() * count);
+
+        str.append(head);
+        for( int i = 0; i < count; i++ ) {
+            // keep IDs distinct so nothing downstream can collapse the items
+            str.append(item.replace("%ID%", String.format("%08x", i)));
+        }
+        str.append(tail);
+        return str.toString();
+    }
+
+    static private @Nonnull String load( @Nonnull String name ) throws IOException {
+        InputStream input = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+
+        if( input == null ) {
+            throw new IOException("No such fixture: " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while( ( read = input.read(buffer) ) != -1 ) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), UTF8);
+        }
+        finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.InternalException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request signing work: V4 authorization for EC2 and S3, the V2 string to sign and value encoding.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SigningBenchmark {
+    static private final String S3_URL = "https://dasein-bench.s3-eu-west-1.amazonaws.com/backups/2015/06/db%20dump.tar.gz?partNumber=3&uploadId=VXBsb2FkIElEIGZvciA2aWWpbmcncyBteS1tb3ZpZS5tMnRzIHVwbG9hZA";
+    static private final String ENCODE_VALUE = "web server (blue/green) * ~ naïve/ünïcode";
+    static private final String ENCODE_PATH = "/backups/2015/06/db dump+copy.tar.gz";
+
+    @Param({"1", "20", "200"})
+    public int instances;
+
+    private AWSCloud            provider;
+    private Map<String, String> parameters;
+    private Map<String, String> ec2Headers;
+    private Map<String, String> s3Headers;
+    private String              bodyHash;
+
+    @Setup
+    public void setUp() throws InternalException {
+        provider = new AWSCloud();
+        parameters = Fixtures.getDescribeInstancesParameters(instances);
+        ec2Headers = Fixtures.getEc2Headers();
+        s3Headers = new LinkedHashMap<String, String>();
+        s3Headers.put("Content-Type", "application/octet-stream");
+        s3Headers.put(AWSCloud.P_AWS_DATE, Fixtures.AMZ_DATE);
+        s3Headers.put("host", "dasein-bench.s3-eu-west-1.amazonaws.com");
+        s3Headers.put("x-amz-meta-owner", "  benchmark   user  ");
+        bodyHash = AWSCloud.computeSHA256Hash("Action=DescribeInstances&Version=2014-10-01");
+    }
+
+    @Benchmark
+    public String v4AuthorizationEc2() throws InternalException {
+        return provider.getV4Authorization(Fixtures.ACCESS_KEY, Fixtures.SECRET_KEY, "POST", Fixtures.EC2_URL, "ec2", ec2Headers, bodyHash);
+    }
+
+    @Benchmark
+    public String v4AuthorizationS3() throws InternalException {
+        return provider.getV4Authorization(Fixtures.ACCESS_KEY, Fixtures.SECRET_KEY, "PUT", S3_URL, "s3", s3Headers, bodyHash);
+    }
+
+    @Benchmark
+    public String ec2AuthString() throws InternalException {
+        return provider.buildEc2AuthString("POST", Fixtures.EC2_URL, parameters);
+    }
+
+    @Benchmark
+    public String encodeValue() throws InternalException {
+        return AWSCloud.encode(ENCODE_VALUE, false);
+    }
+
+    @Benchmark
+    public String encodePath() throws InternalException {
+        return AWSCloud.encode(ENCODE_PATH, true);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the form-encoded body of an EC2 request and hashing it for the V4 signature, as
+ * {@link EC2Method} does for every call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormBodyBenchmark {
+    @Param({"1", "20", "200"})
+    public int instances;
+
+    private AWSCloud            provider;
+    private Map<String, String> parameters;
+
+    @Setup
+    public void setUp() {
+        provider = new AWSCloud();
+        parameters = Fixtures.getDescribeInstancesParameters(instances);
+    }
+
+    @Benchmark
+    public HttpEntity formBody() throws InternalException {
+        return EC2Method.getFormEntity(parameters);
+    }
+
+    @Benchmark
+    public String formBodyHash() throws InternalException, IOException {
+        return provider.getRequestBodyHash(EntityUtils.toString(EC2Method.getFormEntity(parameters)));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.Fixtures;
+import org.dasein.cloud.compute.ImageFilterOptions;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.util.XMLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the DOM path {@link EC2Method} takes by default, which parses the response with {@link XMLParser}, against
+ * the streaming {@link DescribeImagesResponseParser} and {@link DescribeInstancesResponseParser}, all reading the same
+ * response bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+    @Param({"100", "1000"})
+    public int items;
+
+    private byte[] imagesBytes;
+    private byte[] instancesBytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        // every benchmark parses the same encoded bytes, so none of them pays for encoding the response
+        imagesBytes = Fixtures.getDescribeImagesResponse(items).getBytes(Fixtures.UTF8);
+        instancesBytes = Fixtures.getDescribeInstancesResponse(items).getBytes(Fixtures.UTF8);
+    }
+
+    @Benchmark
+    public Document domDescribeImages() throws ParserConfigurationException, SAXException, IOException {
+        return XMLParser.parse(new ByteArrayInputStream(imagesBytes));
+    }
+
+    @Benchmark
+    public List<MachineImage> staxDescribeImages() throws IOException, CloudException, InternalException {
+        List<MachineImage> list = new ArrayList<MachineImage>();
+
+        return new DescribeImagesResponseParser("us-east-1", null, ImageFilterOptions.getInstance(), list).parse(new ByteArrayInputStream(imagesBytes));
+    }
+
+    @Benchmark
+    public Document domDescribeInstances() throws ParserConfigurationException, SAXException, IOException {
+        return XMLParser.parse(new ByteArrayInputStream(instancesBytes));
+    }
+
+    @Benchmark
+    public List<VirtualMachine> staxDescribeInstances() throws IOException, CloudException, InternalException {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+        return new DescribeInstancesResponseParser("123456789012", "us-east-1", null, null, list).parse(new ByteArrayInputStream(instancesBytes));
+    }
+}
@@ -24,10 +24,15 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.http.*;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.params.HttpClientParams;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
@@ -59,19 +64,29 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AWSCloud extends AbstractCloud {
 
@@ -183,14 +198,26 @@ public class AWSCloud extends AbstractCloud {
         return str.toString();
     }
 
+    static private final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * JCE lookups are slow and their results are not thread-safe, so each thread keeps its own instances for signing.
+     */
+    static private final ThreadLocal<Mac>           hmacs   = new ThreadLocal<Mac>();
+    static private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>();
+
     static public byte[] HmacSHA256( String data, byte[] key ) throws InternalException {
 
         final String algorithm = "HmacSHA256";
-        Mac mac;
         try {
-            mac = Mac.getInstance(algorithm);
+            Mac mac = hmacs.get();
+
+            if( mac == null ) {
+                mac = Mac.getInstance(algorithm);
+                hmacs.set(mac);
+            }
             mac.init(new SecretKeySpec(key, algorithm));
-            return mac.doFinal(data.getBytes("UTF-8"));
+            return mac.doFinal(data.getBytes(UTF8));
         }
         catch( NoSuchAlgorithmException e ) {
             throw new InternalException(e);
@@ -198,35 +225,63 @@ public class AWSCloud extends AbstractCloud {
         catch( InvalidKeyException e ) {
             throw new InternalException(e);
         }
-        catch( UnsupportedEncodingException e ) {
-            throw new InternalException(e);
-        }
     }
 
     static public String computeSHA256Hash( String value ) throws InternalException {
+        return new String(Hex.encodeHex(getSHA256Digest().digest(value.getBytes(UTF8)), true));
+    }
+
+    static private @Nonnull MessageDigest getSHA256Digest() throws InternalException {
+        MessageDigest digest = digests.get();
+
+        if( digest == null ) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch( NoSuchAlgorithmException e ) {
+                throw new InternalException(e);
+            }
+            digests.set(digest);
+        }
+        return digest;
+    }
+
+    static public String computeSHA256Hash( byte[] data, int offset, int length ) throws InternalException {
+        MessageDigest digest = getSHA256Digest();
+
+        digest.update(data, offset, length);
+        return new String(Hex.encodeHex(digest.digest(), true));
+    }
+
+    /**
+     * Hashes a stream through a fixed buffer so that payloads of any size can be signed without holding them in
+     * memory. The stream is read to the end but not closed.
+     * @param input the stream to hash
+     * @return the hex-encoded SHA-256 hash of the stream's contents
+     * @throws InternalException the stream could not be read
+     */
+    static public String computeSHA256Hash( InputStream input ) throws InternalException {
+        MessageDigest digest = getSHA256Digest();
+        byte[] buffer = new byte[65536];
+        int read;
+
+        digest.reset();
         try {
-            byte[] valueBytes = value.getBytes("utf-8");
-            BufferedInputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(valueBytes));
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] buffer = new byte[4096];
-            int read;
-            while( ( read = inputStream.read(buffer, 0, buffer.length) ) != -1 ) {
+            while( ( read = input.read(buffer, 0, buffer.length) ) != -1 ) {
                 digest.update(buffer, 0, read);
             }
-            return new String(Hex.encodeHex(digest.digest(), true));
-        }
-        catch( NoSuchAlgorithmException e ) {
-            throw new InternalException(e);
         }
         catch( IOException e ) {
+            digest.reset();
             throw new InternalException(e);
         }
+        return new String(Hex.encodeHex(digest.digest(), true));
     }
 
     public AWSCloud() {
     }
 
-    private String buildEc2AuthString( String method, String serviceUrl, Map<String, String> parameters ) throws InternalException {
+    String buildEc2AuthString( String method, String serviceUrl, Map<String, String> parameters ) throws InternalException {
         StringBuilder authString = new StringBuilder();
         TreeSet<String> sortedKeys;
         URI endpoint;
@@ -522,12 +577,86 @@ public class AWSCloud extends AbstractCloud {
 
     static public final String DSN_ACCESS_KEY = "accessKey";
 
+    /**
+     * Custom property for the maximum number of pooled HTTP connections, across all routes.
+     */
+    static public final String CP_MAX_CONNECTIONS           = "maxConnections";
+    /**
+     * Custom property for the maximum number of pooled HTTP connections to a single endpoint.
+     */
+    static public final String CP_MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+    /**
+     * Custom property for the number of seconds a pooled connection may sit idle before it is evicted.
+     */
+    static public final String CP_CONNECTION_IDLE_TIMEOUT   = "connectionIdleTimeout";
+    /**
+     * Custom property for the number of seconds a connection is kept alive when the server does not say otherwise.
+     */
+    static public final String CP_CONNECTION_KEEP_ALIVE     = "connectionKeepAlive";
+    /**
+     * Custom property for the number of seconds a request waits for a pooled connection before giving up.
+     */
+    static public final String CP_CONNECTION_LEASE_TIMEOUT  = "connectionLeaseTimeout";
+    /**
+     * Custom property for the number of threads servicing asynchronous API requests.
+     */
+    static public final String CP_MAX_ASYNC_REQUESTS        = "maxAsyncRequests";
+    /**
+     * Custom property for the number of threads running follow-up work for launched instances.
+     */
+    static public final String CP_MAX_LAUNCH_TASKS          = "maxLaunchTasks";
+    /**
+     * Custom property for the number of threads sending the batches of bulk start, stop, reboot and terminate calls.
+     */
+    static public final String CP_MAX_LIFECYCLE_CALLS       = "maxLifecycleCalls";
+    /**
+     * Custom property for the number of CloudWatch statistics queries that may be outstanding at once, across all
+     * callers.
+     */
+    static public final String CP_MAX_METRIC_REQUESTS       = "maxMetricRequests";
+    /**
+     * Custom property for the number of threads moving the parts of large S3 uploads and downloads, across all
+     * transfers.
+     */
+    static public final String CP_MAX_TRANSFER_THREADS      = "maxTransferThreads";
+    /**
+     * Custom property for the number of threads listing the prefixes of S3 buckets in parallel, across all listings.
+     */
+    static public final String CP_MAX_LIST_THREADS          = "maxListThreads";
+    /**
+     * Custom property for the number of milliseconds single-ID lookups wait to be batched together. Batching is off
+     * unless this is set.
+     */
+    static public final String CP_BATCH_LOOKUP_WINDOW       = "batchLookupWindow";
+    /**
+     * Custom property for the number of IDs that causes a lookup batch to be sent without waiting out the window.
+     */
+    static public final String CP_BATCH_LOOKUP_SIZE         = "batchLookupSize";
+    /**
+     * Custom property for the number of results requested per page by paginated describe calls.
+     */
+    static public final String CP_DESCRIBE_PAGE_SIZE        = "describePageSize";
+
     @Override
     public @Nonnull ContextRequirements getContextRequirements() {
         return new ContextRequirements(
                 new ContextRequirements.Field(DSN_ACCESS_KEY, "AWS API access keys", ContextRequirements.FieldType.KEYPAIR, ContextRequirements.Field.ACCESS_KEYS, true),
                 new ContextRequirements.Field("proxyHost", "Proxy host", ContextRequirements.FieldType.TEXT, false),
-                new ContextRequirements.Field("proxyPort", "Proxy port", ContextRequirements.FieldType.TEXT, false));
+                new ContextRequirements.Field("proxyPort", "Proxy port", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_CONNECTIONS, "Maximum pooled HTTP connections", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_CONNECTIONS_PER_ROUTE, "Maximum pooled HTTP connections per endpoint", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_CONNECTION_IDLE_TIMEOUT, "Idle HTTP connection timeout (seconds)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_CONNECTION_KEEP_ALIVE, "Default HTTP keep-alive (seconds)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_CONNECTION_LEASE_TIMEOUT, "Wait for a pooled HTTP connection (seconds)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_ASYNC_REQUESTS, "Threads servicing asynchronous API requests", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_LAUNCH_TASKS, "Threads running post-launch work", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_LIFECYCLE_CALLS, "Threads sending bulk lifecycle calls", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_METRIC_REQUESTS, "Maximum concurrent CloudWatch statistics queries", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_TRANSFER_THREADS, "Threads moving parts of large S3 transfers", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_MAX_LIST_THREADS, "Threads listing S3 bucket prefixes in parallel", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_BATCH_LOOKUP_WINDOW, "Window for batching single-ID lookups (milliseconds)", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_BATCH_LOOKUP_SIZE, "Maximum IDs per batched lookup", ContextRequirements.FieldType.TEXT, false),
+                new ContextRequirements.Field(CP_DESCRIBE_PAGE_SIZE, "Results per page of paginated describe calls", ContextRequirements.FieldType.TEXT, false));
     }
 
     public byte[][] getAccessKey() {
@@ -1015,29 +1144,31 @@ public class AWSCloud extends AbstractCloud {
 //                !serviceId.equalsIgnoreCase(IAMMethod.SERVICE_ID) ) {
 //            regionId = getContext().getRegionId();
 //        } else {
-        String host = url.replaceAll("https?:\\/\\/", "");
-        if( host.indexOf('/') > 0 ) {
-            host = host.substring(0, host.indexOf('/', 1));
-        }
         if( !IAMMethod.SERVICE_ID.equalsIgnoreCase(serviceId) ) {
+            int start = url.indexOf("://");
+
+            start = ( start < 0 ? 0 : start + 3 );
+            int end = url.indexOf('/', start + 1);
+            String host = ( end < 0 ? url.substring(start) : url.substring(start, end) );
             String[] urlParts = host.split("\\."); // everywhere except s3 and iam this is: service.region.amazonaws.com
+
             regionId = urlParts[urlParts.length-3];
             if( regionId.startsWith("s3-") ) {
                 regionId = regionId.substring(3);
             }
         }
         String amzDate = extractV4Date(headers);
-        String credentialScope = getV4CredentialScope(amzDate, regionId, serviceId);
-        String signedHeaders = getV4SignedHeaders(headers);
-        String signature = signV4(secretKey, action, url, regionId, serviceId, headers, bodyHash);
+        String[] headerNames = headers.keySet().toArray(new String[headers.size()]);
 
-        return V4_ALGORITHM + " " + "Credential=" + accessKey + "/" + credentialScope + ", " + "SignedHeaders=" + signedHeaders + ", " + "Signature=" + signature;
-    }
+        Arrays.sort(headerNames, String.CASE_INSENSITIVE_ORDER);
+        String signedHeaders = getV4SignedHeaders(headerNames);
+        String canonicalRequest = getV4CanonicalRequest(action, url, headers, headerNames, signedHeaders, bodyHash);
+        String signature = signV4(secretKey, amzDate, regionId, serviceId, canonicalRequest);
 
-    private String signV4( String secretKey, String action, String serviceUrl, String regionId, String serviceId, Map<String, String> headers, String bodyHash ) throws InternalException {
-        final String canonicalRequest = getV4CanonicalRequest(action, serviceUrl, headers, bodyHash);
+        return V4_ALGORITHM + " " + "Credential=" + accessKey + "/" + getV4CredentialScope(amzDate, regionId, serviceId) + ", " + "SignedHeaders=" + signedHeaders + ", " + "Signature=" + signature;
+    }
 
-        String amzDate = extractV4Date(headers);
+    private String signV4( String secretKey, String amzDate, String regionId, String serviceId, String canonicalRequest ) throws InternalException {
         final String stringToSign = getV4StringToSign(amzDate, regionId, serviceId, canonicalRequest);
 
         // signature uses YYYYMMDD
@@ -1047,12 +1178,30 @@ public class AWSCloud extends AbstractCloud {
         return new String(Hex.encodeHex(HmacSHA256(stringToSign, signingKey), true));
     }
 
-    private String extractV4Date( Map<String, String> headers ) throws InternalException {
+    /**
+     * Signs one chunk of a payload sent with {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}. Each chunk's signature
+     * chains from the previous one, starting with the signature of the request headers.
+     * @param secretKey Amazon credential
+     * @param amzDate the x-amz-date of the request
+     * @param credentialScope the credential scope from the request's Authorization header
+     * @param previousSignature the signature of the previous chunk or the seed signature for the first chunk
+     * @param chunkHash the hex-encoded SHA-256 hash of the chunk data
+     * @return the hex-encoded chunk signature
+     * @throws InternalException the signature could not be computed
+     */
+    public String getV4ChunkSignature( String secretKey, String amzDate, String credentialScope, String previousSignature, String chunkHash ) throws InternalException {
+        String[] scope = credentialScope.split("/");
 
-        Map<String, String> lower = new HashMap<String, String>();
-        for( Map.Entry<String, String> entry : headers.entrySet() ) {
-            lower.put(entry.getKey().toLowerCase(), entry.getValue());
+        if( scope.length != 4 ) {
+            throw new InternalException("Invalid credential scope: " + credentialScope);
         }
+        String stringToSign = V4_ALGORITHM + "-PAYLOAD\n" + amzDate + "\n" + credentialScope + "\n" + previousSignature + "\n" + computeSHA256Hash("") + "\n" + chunkHash;
+        byte[] signingKey = getV4SigningKey(secretKey, scope[0], scope[1], scope[2]);
+
+        return new String(Hex.encodeHex(HmacSHA256(stringToSign, signingKey), true));
+    }
+
+    private String extractV4Date( Map<String, String> headers ) throws InternalException {
         String amzDate = headers.get(P_AWS_DATE);
         // expecting YYYYMMDDTHHMMSSZ
         if( amzDate != null ) {
@@ -1062,25 +1211,60 @@ public class AWSCloud extends AbstractCloud {
             return amzDate;
         }
 
-        String date = lower.get("date");
+        String date = null;
+        for( Map.Entry<String, String> entry : headers.entrySet() ) {
+            if( "date".equalsIgnoreCase(entry.getKey()) ) {
+                date = entry.getValue();
+            }
+        }
         if( date == null ) {
             throw new InternalException("request is missing date header");
         }
-        SimpleDateFormat parser = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz");
         try {
-            return getV4HeaderDate(parser.parse(date));
+            return getV4HeaderDate(httpDateFormat.get().parse(date));
 
         } catch( ParseException e ) {
             throw new InternalException("request has invalid date header format");
         }
     }
 
+    /**
+     * Derived signing keys by date stamp, then by region, service and secret key. A key only changes when the UTC
+     * day does, so each one is derived once per day instead of once per request.
+     */
+    static private final ConcurrentHashMap<String, ConcurrentHashMap<String, byte[]>> signingKeys = new ConcurrentHashMap<String, ConcurrentHashMap<String, byte[]>>();
+
     private byte[] getV4SigningKey( String secretKey, String dateStamp, String regionId, String serviceId ) throws InternalException {
-        byte[] withSecret = ( "AWS4" + secretKey ).getBytes();
-        byte[] withDate = HmacSHA256(dateStamp, withSecret);
-        byte[] withRegion = HmacSHA256(regionId, withDate);
-        byte[] withService = HmacSHA256(serviceId, withRegion);
-        return HmacSHA256("aws4_request", withService);
+        ConcurrentHashMap<String, byte[]> keys = signingKeys.get(dateStamp);
+
+        if( keys == null ) {
+            // the day has rolled over; keys for earlier days will not be asked for again
+            for( String day : signingKeys.keySet() ) {
+                if( day.compareTo(dateStamp) < 0 ) {
+                    signingKeys.remove(day);
+                }
+            }
+            ConcurrentHashMap<String, byte[]> created = new ConcurrentHashMap<String, byte[]>();
+
+            keys = signingKeys.putIfAbsent(dateStamp, created);
+            if( keys == null ) {
+                keys = created;
+            }
+        }
+        // region and service IDs never contain a slash, so the secret can safely come last
+        String cacheKey = regionId + "/" + serviceId + "/" + secretKey;
+        byte[] signingKey = keys.get(cacheKey);
+
+        if( signingKey == null ) {
+            byte[] withSecret = ( "AWS4" + secretKey ).getBytes();
+            byte[] withDate = HmacSHA256(dateStamp, withSecret);
+            byte[] withRegion = HmacSHA256(regionId, withDate);
+            byte[] withService = HmacSHA256(serviceId, withRegion);
+
+            signingKey = HmacSHA256("aws4_request", withService);
+            keys.put(cacheKey, signingKey);
+        }
+        return signingKey;
     }
 
     private String getV4StringToSign( String dateStamp, String regionId, String serviceId, String canonicalRequest ) throws InternalException {
@@ -1091,7 +1275,10 @@ public class AWSCloud extends AbstractCloud {
         return dateStamp.substring(0, 8) + "/" + regionId + "/" + serviceId + "/" + V4_TERMINATION;
     }
 
-    private String getV4CanonicalRequest( String action, String serviceUrl, Map<String, String> headers, String bodyHash ) throws InternalException {
+    /**
+     * @param headerNames the names of the request headers, sorted without regard to case
+     */
+    private String getV4CanonicalRequest( String action, String serviceUrl, Map<String, String> headers, String[] headerNames, String signedHeaders, String bodyHash ) throws InternalException {
     /*
         CanonicalRequest =
         HTTPRequestMethod + '\n' +
@@ -1102,41 +1289,162 @@ public class AWSCloud extends AbstractCloud {
         HexEncode(Hash(Payload))
     */
 
-        final URI endpoint;
-        try {
-            endpoint = new URI(serviceUrl.replace(" ", "%20")).normalize();
-        } catch( URISyntaxException e ) {
-            throw new InternalException(e);
-        }
+        // the URL is split by hand rather than parsed into a URI for every request that is signed
+        int start = serviceUrl.indexOf("://");
+
+        start = ( start < 0 ? 0 : start + 3 );
+        int end = serviceUrl.indexOf('#', start);
+
+        end = ( end < 0 ? serviceUrl.length() : end );
+        int query = serviceUrl.indexOf('?', start);
 
-        final StringBuilder s = new StringBuilder();
-        s.append(action.toUpperCase()).append("\n");
+        query = ( query < 0 || query > end ? end : query );
+        int pathStart = serviceUrl.indexOf('/', start);
 
-        String path = endpoint.getPath();
-        if( path == null || path.length() == 0 ) {
+        pathStart = ( pathStart < 0 || pathStart > query ? query : pathStart );
+
+        final StringBuilder s = new StringBuilder(256);
+        s.append(action.toUpperCase()).append('\n');
+
+        String path = decodeV4Path(normalizeV4Path(serviceUrl.substring(pathStart, query)));
+        if( path.length() == 0 ) {
             path = "/";
         }
-        s.append(encode(path, true)).append("\n");
-        s.append(getV4CanonicalQueryString(endpoint)).append("\n");
+        s.append(encode(path, true)).append('\n');
+        s.append(getV4CanonicalQueryString(query < end ? serviceUrl.substring(query + 1, end) : null)).append('\n');
+
+        for( String header : headerNames ) {
+            appendCollapsed(s, header.toLowerCase(Locale.ENGLISH), false);
+            s.append(':');
+            appendCollapsed(s, headers.get(header), true);
+            s.append('\n');
+        }
+        s.append('\n').append(signedHeaders).append('\n').append(bodyHash);
 
-        List<String> sortedHeaders = new ArrayList<String>();
-        sortedHeaders.addAll(headers.keySet());
-        Collections.sort(sortedHeaders, String.CASE_INSENSITIVE_ORDER);
+        return s.toString();
+    }
 
-        for( String header : sortedHeaders ) {
-            String value = headers.get(header).trim().replaceAll("\\s+", " ");
-            header = header.toLowerCase().replaceAll("\\s+", " ");
-            s.append(header).append(":").append(value).append("\n");
+    /**
+     * Appends a header name or value with each run of whitespace collapsed to a single space, as if by
+     * {@code value.replaceAll("\\s+", " ")} but without compiling a pattern for every header.
+     * @param trim true to also strip leading and trailing whitespace and control characters as {@link String#trim()} does
+     */
+    static private void appendCollapsed( StringBuilder s, String value, boolean trim ) {
+        int start = 0;
+        int end = value.length();
+
+        if( trim ) {
+            while( start < end && value.charAt(start) <= ' ' ) {
+                start++;
+            }
+            while( end > start && value.charAt(end - 1) <= ' ' ) {
+                end--;
+            }
         }
-        s.append("\n").append(getV4SignedHeaders(headers)).append("\n").append(bodyHash);
+        boolean space = false;
+
+        for( int i = start; i < end; i++ ) {
+            char c = value.charAt(i);
+
+            if( c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' ) {
+                space = true;
+            }
+            else {
+                if( space ) {
+                    s.append(' ');
+                    space = false;
+                }
+                s.append(c);
+            }
+        }
+        if( space ) {
+            s.append(' ');
+        }
+    }
+
+    /**
+     * Removes empty, {@code .} and {@code ..} segments from a raw URL path the way {@link URI#normalize()} does.
+     * @param path the raw path, still percent-encoded
+     * @return the normalized path
+     */
+    static String normalizeV4Path( String path ) {
+        if( path.indexOf("//") < 0 && path.indexOf("/.") < 0 ) {
+            return path;
+        }
+        String[] segments = path.split("/");
+        LinkedList<String> kept = new LinkedList<String>();
+        int lastKept = -1;
+
+        for( int i = 0; i < segments.length; i++ ) {
+            String segment = segments[i];
 
+            if( segment.length() == 0 || segment.equals(".") ) {
+                continue;
+            }
+            if( segment.equals("..") && !kept.isEmpty() && !kept.getLast().equals("..") ) {
+                kept.removeLast();
+                lastKept = -1;
+                continue;
+            }
+            kept.add(segment);
+            lastKept = i;
+        }
+        StringBuilder s = new StringBuilder(path.length());
+
+        for( String segment : kept ) {
+            s.append('/').append(segment);
+        }
+        // a path that ended in a slash or in a removed segment still names a directory
+        if( s.length() == 0 || path.endsWith("/") || lastKept != segments.length - 1 ) {
+            s.append('/');
+        }
+        return s.toString();
+    }
+
+    /**
+     * Decodes the percent-escapes of a raw URL path as UTF-8, as {@link URI#getPath()} does.
+     * @param path the raw path
+     * @return the decoded path
+     */
+    static String decodeV4Path( String path ) {
+        if( path.indexOf('%') < 0 ) {
+            return path;
+        }
+        StringBuilder s = new StringBuilder(path.length());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 0;
+
+        while( i < path.length() ) {
+            if( !isEscape(path, i) ) {
+                s.append(path.charAt(i++));
+                continue;
+            }
+            // a multi-byte character is escaped as a run of bytes
+            bytes.reset();
+            while( isEscape(path, i) ) {
+                bytes.write(Character.digit(path.charAt(i + 1), 16) * 16 + Character.digit(path.charAt(i + 2), 16));
+                i += 3;
+            }
+            s.append(new String(bytes.toByteArray(), UTF8));
+        }
         return s.toString();
     }
 
-    private String getV4CanonicalQueryString( URI endpoint ) throws InternalException {
+    static private boolean isEscape( String s, int i ) {
+        return ( i + 2 < s.length() && s.charAt(i) == '%' && Character.digit(s.charAt(i + 1), 16) >= 0 && Character.digit(s.charAt(i + 2), 16) >= 0 );
+    }
+
+    private String getV4CanonicalQueryString( @Nullable String rawQuery ) throws InternalException {
+        if( rawQuery == null ) {
+            return "";
+        }
         // parse query params and translate to another form of tuple that is comparable on both key and value
 
-        List<NameValuePair> parsedParams = URLEncodedUtils.parse(endpoint, "UTF-8");
+        List<NameValuePair> parsedParams = new ArrayList<NameValuePair>();
+
+        if( rawQuery.length() > 0 ) {
+            URLEncodedUtils.parse(parsedParams, new Scanner(rawQuery), "UTF-8");
+        }
         List<KeyValuePair> queryParams = new ArrayList<KeyValuePair>(parsedParams.size());
         for( NameValuePair param : parsedParams ) {
             String key = encode(param.getName(), false);
@@ -1157,28 +1465,47 @@ public class AWSCloud extends AbstractCloud {
         return sb.toString();
     }
 
-    private String getV4SignedHeaders( Map<String, String> headers ) {
-        // move to set to lower case and remove dupes
-        Set<String> sorted = new TreeSet<String>();
-        for( String header : headers.keySet() ) {
-            sorted.add(header.toLowerCase());
-        }
-
+    /**
+     * @param headerNames the names of the request headers, sorted without regard to case
+     */
+    private String getV4SignedHeaders( String[] headerNames ) {
         StringBuilder sb = new StringBuilder();
-        for( String header : sorted ) {
+        String last = null;
+
+        for( String header : headerNames ) {
+            // names differing only in case sort next to each other and are signed once
+            if( last != null && last.equalsIgnoreCase(header) ) {
+                continue;
+            }
             if( sb.length() > 0 ) {
                 sb.append(";");
             }
-            sb.append(header.toLowerCase());
+            sb.append(header.toLowerCase(Locale.ENGLISH));
+            last = header;
         }
-
         return sb.toString();
     }
 
+    static private final ThreadLocal<SimpleDateFormat> v4DateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+
+            fmt.setTimeZone(new SimpleTimeZone(0, "GMT"));
+            return fmt;
+        }
+    };
+
+    static private final ThreadLocal<SimpleDateFormat> httpDateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        }
+    };
+
     public String getV4HeaderDate( Date date ) {
-        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
-        Calendar cal = Calendar.getInstance(new SimpleTimeZone(0, "GMT"));
-        fmt.setCalendar(cal);
+        SimpleDateFormat fmt = v4DateFormat.get();
+
         if( date == null ) {
             return fmt.format(new Date());
         }
@@ -1437,6 +1764,325 @@ public class AWSCloud extends AbstractCloud {
         return getClient(false);
     }
 
+    static private final int  DEFAULT_MAX_CONNECTIONS           = 200;
+    static private final int  DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    static private final int  DEFAULT_CONNECTION_IDLE_TIMEOUT   = 60;
+    static private final int  DEFAULT_CONNECTION_KEEP_ALIVE     = 30;
+    static private final int  DEFAULT_CONNECTION_LEASE_TIMEOUT  = 60;
+    static private final long EVICTION_INTERVAL                 = 5000L;
+    static private final int  DEFAULT_MAX_ASYNC_REQUESTS        = 32;
+    static private final int  DEFAULT_MAX_LAUNCH_TASKS          = 8;
+    static private final int  DEFAULT_MAX_LIFECYCLE_CALLS       = 8;
+    static private final int  DEFAULT_MAX_METRIC_REQUESTS       = 16;
+    static private final int  DEFAULT_MAX_TRANSFER_THREADS      = 16;
+    static private final int  DEFAULT_MAX_LIST_THREADS          = 16;
+    static private final int  DEFAULT_BATCH_LOOKUP_SIZE         = 100;
+    static private final int  DEFAULT_DESCRIBE_PAGE_SIZE        = 1000;
+
+    /**
+     * Connection pools are shared by every provider instance configured with the same limits. Dasein callers tend to
+     * create a fresh provider per operation, so pooling per instance would give almost no reuse.
+     */
+    static private final ConcurrentHashMap<String, PoolingClientConnectionManager> connectionManagers = new ConcurrentHashMap<String, PoolingClientConnectionManager>();
+    // each pool is swept on its own schedule, so a busy pool cannot put off the sweep of an idle one
+    static private final ConcurrentHashMap<String, AtomicLong> lastEvictions = new ConcurrentHashMap<String, AtomicLong>();
+    static private volatile ExecutorService requestExecutor;
+    static private volatile ExecutorService launchExecutor;
+    static private volatile ExecutorService lifecycleExecutor;
+    static private volatile Semaphore       metricPermits;
+    static private volatile ExecutorService transferExecutor;
+    static private volatile ExecutorService listExecutor;
+    static private final ConcurrentHashMap<String, LookupBatcher<?>> lookupBatchers = new ConcurrentHashMap<String, LookupBatcher<?>>();
+    static private final ConcurrentHashMap<String, StateWaiter<?>> stateWaiters = new ConcurrentHashMap<String, StateWaiter<?>>();
+
+    private int getIntProperty( @Nullable Properties props, @Nonnull String name, int defaultValue ) {
+        if( props == null ) {
+            return defaultValue;
+        }
+        String value = props.getProperty(name);
+
+        if( value == null || value.trim().length() < 1 ) {
+            return defaultValue;
+        }
+        try {
+            int i = Integer.parseInt(value.trim());
+
+            return ( i > 0 ? i : defaultValue );
+        }
+        catch( NumberFormatException e ) {
+            logger.warn("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private @Nonnull PoolingClientConnectionManager getConnectionManager( @Nullable Properties props ) {
+        int maxTotal = getIntProperty(props, CP_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+        int maxPerRoute = Math.min(maxTotal, getIntProperty(props, CP_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+        String key = maxTotal + "/" + maxPerRoute;
+        PoolingClientConnectionManager manager = connectionManagers.get(key);
+
+        if( manager == null ) {
+            PoolingClientConnectionManager created = new PoolingClientConnectionManager(SchemeRegistryFactory.createDefault());
+
+            created.setMaxTotal(maxTotal);
+            created.setDefaultMaxPerRoute(maxPerRoute);
+            manager = connectionManagers.putIfAbsent(key, created);
+            if( manager == null ) {
+                manager = created;
+            }
+            else {
+                created.shutdown();
+            }
+        }
+        AtomicLong lastEviction = lastEvictions.get(key);
+
+        if( lastEviction == null ) {
+            AtomicLong created = new AtomicLong(0L);
+
+            lastEviction = lastEvictions.putIfAbsent(key, created);
+            if( lastEviction == null ) {
+                lastEviction = created;
+            }
+        }
+        long now = System.currentTimeMillis();
+        long last = lastEviction.get();
+
+        if( now - last > EVICTION_INTERVAL && lastEviction.compareAndSet(last, now) ) {
+            manager.closeExpiredConnections();
+            manager.closeIdleConnections(getIntProperty(props, CP_CONNECTION_IDLE_TIMEOUT, DEFAULT_CONNECTION_IDLE_TIMEOUT), TimeUnit.SECONDS);
+        }
+        return manager;
+    }
+
+    /**
+     * Provides the page size for paginated describe calls from the {@link #CP_DESCRIBE_PAGE_SIZE} property, kept
+     * within the 5 to 1000 results EC2 accepts for {@code MaxResults}.
+     * @return the number of results to request per page
+     */
+    public int getDescribePageSize() {
+        ProviderContext ctx = getContext();
+        int size = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_DESCRIBE_PAGE_SIZE, DEFAULT_DESCRIBE_PAGE_SIZE);
+
+        return Math.max(5, Math.min(DEFAULT_DESCRIBE_PAGE_SIZE, size));
+    }
+
+    /**
+     * Provides the batcher that gathers single-ID lookups of the given resource type into multi-ID describe calls.
+     * Batchers are shared by provider instances using the same credentials in the same region. Batching is opt-in
+     * through the {@link #CP_BATCH_LOOKUP_WINDOW} property.
+     * @param resourceType a name for the kind of resource being looked up, e.g. {@code instance}
+     * @return the batcher for that resource type or null if batching is not enabled for this context
+     */
+    @SuppressWarnings("unchecked")
+    public @Nullable <V> LookupBatcher<V> getLookupBatcher( @Nonnull String resourceType ) {
+        ProviderContext ctx = getContext();
+
+        if( ctx == null ) {
+            return null;
+        }
+        Properties props = ctx.getCustomProperties();
+        int window = getIntProperty(props, CP_BATCH_LOOKUP_WINDOW, 0);
+
+        if( window < 1 ) {
+            return null;
+        }
+        int size = getIntProperty(props, CP_BATCH_LOOKUP_SIZE, DEFAULT_BATCH_LOOKUP_SIZE);
+        String key = resourceType + "/" + ctx.getRegionId() + "/" + new String(getAccessKey()[0]) + "/" + window + "/" + size;
+        LookupBatcher<?> batcher = lookupBatchers.get(key);
+
+        if( batcher == null ) {
+            LookupBatcher<V> created = new LookupBatcher<V>(window, size);
+
+            batcher = lookupBatchers.putIfAbsent(key, created);
+            if( batcher == null ) {
+                batcher = created;
+            }
+        }
+        return ( LookupBatcher<V> ) batcher;
+    }
+
+    /**
+     * Provides the waiter that tracks pending state changes of the given resource type. Waiters are shared by
+     * provider instances using the same credentials in the same region, so waits started by many concurrent
+     * operations are polled together.
+     * @param resourceType a name for the kind of resource being waited on, e.g. {@code instance}
+     * @param minInterval milliseconds before a wait is first polled
+     * @param maxInterval the most milliseconds a wait backs off to between polls
+     * @return the waiter for that resource type
+     */
+    @SuppressWarnings("unchecked")
+    public @Nonnull <V> StateWaiter<V> getStateWaiter( @Nonnull String resourceType, long minInterval, long maxInterval ) throws CloudException {
+        ProviderContext ctx = getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was established for this request");
+        }
+        String key = resourceType + "/" + ctx.getRegionId() + "/" + new String(getAccessKey()[0]) + "/" + minInterval + "/" + maxInterval;
+        StateWaiter<?> waiter = stateWaiters.get(key);
+
+        if( waiter == null ) {
+            StateWaiter<V> created = new StateWaiter<V>(resourceType, getRequestExecutor(), minInterval, maxInterval);
+
+            waiter = stateWaiters.putIfAbsent(key, created);
+            if( waiter == null ) {
+                waiter = created;
+            }
+        }
+        return ( StateWaiter<V> ) waiter;
+    }
+
+    /**
+     * Provides the executor that services asynchronous API requests such as
+     * {@link EC2Method#invokeAsync()}. The executor is shared by all provider instances in the JVM and is sized
+     * from the {@link #CP_MAX_ASYNC_REQUESTS} property of the first context to ask for it. Its threads are daemons
+     * and time out when idle, so there is nothing to shut down.
+     * @return the shared request executor
+     */
+    public @Nonnull ExecutorService getRequestExecutor() {
+        if( requestExecutor == null ) {
+            synchronized( AWSCloud.class ) {
+                if( requestExecutor == null ) {
+                    ProviderContext ctx = getContext();
+                    int threads = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_MAX_ASYNC_REQUESTS, DEFAULT_MAX_ASYNC_REQUESTS);
+
+                    requestExecutor = newDaemonExecutor(threads, "AWS Request");
+                }
+            }
+        }
+        return requestExecutor;
+    }
+
+    /**
+     * Provides the executor that runs the follow-up work of launching instances, such as attaching volumes and
+     * enabling IP forwarding. It is kept apart from the {@link #getRequestExecutor() request executor} because
+     * these tasks make several calls each and a large launch should not crowd out other asynchronous requests.
+     * Like the request executor, it is shared JVM-wide and sized from the {@link #CP_MAX_LAUNCH_TASKS} property of
+     * the first context to ask for it.
+     * @return the shared launch executor
+     */
+    public @Nonnull ExecutorService getLaunchExecutor() {
+        if( launchExecutor == null ) {
+            synchronized( AWSCloud.class ) {
+                if( launchExecutor == null ) {
+                    ProviderContext ctx = getContext();
+                    int threads = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_MAX_LAUNCH_TASKS, DEFAULT_MAX_LAUNCH_TASKS);
+
+                    launchExecutor = newDaemonExecutor(threads, "AWS Launch");
+                }
+            }
+        }
+        return launchExecutor;
+    }
+
+    /**
+     * Provides the executor that sends the batches of bulk lifecycle calls such as
+     * {@link org.dasein.cloud.aws.compute.EC2Instance#stopVirtualMachines(java.util.Collection, boolean)}. The
+     * callers wait for the batches and are often request executor threads themselves, so the batches are kept off
+     * the {@link #getRequestExecutor() request executor} where they could wait behind their own callers. Like the
+     * other executors, it is shared JVM-wide and sized from the {@link #CP_MAX_LIFECYCLE_CALLS} property of the first
+     * context to ask for it.
+     * @return the shared lifecycle executor
+     */
+    public @Nonnull ExecutorService getLifecycleExecutor() {
+        if( lifecycleExecutor == null ) {
+            synchronized( AWSCloud.class ) {
+                if( lifecycleExecutor == null ) {
+                    ProviderContext ctx = getContext();
+                    int threads = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_MAX_LIFECYCLE_CALLS, DEFAULT_MAX_LIFECYCLE_CALLS);
+
+                    lifecycleExecutor = newDaemonExecutor(threads, "AWS Lifecycle");
+                }
+            }
+        }
+        return lifecycleExecutor;
+    }
+
+    /**
+     * Provides the executor that moves the parts of large S3 transfers. Part transfers hold a connection for as long
+     * as it takes to move many megabytes, so they are kept off the {@link #getRequestExecutor() request executor}
+     * where they would delay short API calls. Like the other executors, it is shared JVM-wide and sized from the
+     * {@link #CP_MAX_TRANSFER_THREADS} property of the first context to ask for it.
+     * @return the shared transfer executor
+     */
+    public @Nonnull ExecutorService getTransferExecutor() {
+        if( transferExecutor == null ) {
+            synchronized( AWSCloud.class ) {
+                if( transferExecutor == null ) {
+                    ProviderContext ctx = getContext();
+                    int threads = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_MAX_TRANSFER_THREADS, DEFAULT_MAX_TRANSFER_THREADS);
+
+                    transferExecutor = newDaemonExecutor(threads, "AWS Transfer");
+                }
+            }
+        }
+        return transferExecutor;
+    }
+
+    /**
+     * Provides the executor that lists the prefixes of S3 buckets in parallel. Listings feed callers that work
+     * through the objects on the {@link #getRequestExecutor() request} and {@link #getTransferExecutor() transfer}
+     * executors and block until more objects arrive, so the listing must not wait for threads those callers hold.
+     * Like the other executors, it is shared JVM-wide and sized from the {@link #CP_MAX_LIST_THREADS} property of the
+     * first context to ask for it.
+     * @return the shared listing executor
+     */
+    public @Nonnull ExecutorService getListExecutor() {
+        if( listExecutor == null ) {
+            synchronized( AWSCloud.class ) {
+                if( listExecutor == null ) {
+                    ProviderContext ctx = getContext();
+                    int threads = getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_MAX_LIST_THREADS, DEFAULT_MAX_LIST_THREADS);
+
+                    listExecutor = newDaemonExecutor(threads, "AWS List");
+                }
+            }
+        }
+        return listExecutor;
+    }
+
+    /**
+     * Provides the permits that bound outstanding CloudWatch statistics queries. A permit is taken before a query is
+     * submitted to the {@link #getRequestExecutor() request executor} and given back when it completes, so that a
+     * report across a large fleet cannot fill the executor's queue ahead of other requests. The permits are shared
+     * JVM-wide and sized from the {@link #CP_MAX_METRIC_REQUESTS} property of the first context to ask for them.
+     * @return the shared metric query permits
+     */
+    public @Nonnull Semaphore getMetricRequestPermits() {
+        if( metricPermits == null ) {
+            synchronized( AWSCloud.class ) {
+                if( metricPermits == null ) {
+                    ProviderContext ctx = getContext();
+
+                    metricPermits = new Semaphore(getIntProperty(ctx == null ? null : ctx.getCustomProperties(), CP_MAX_METRIC_REQUESTS, DEFAULT_MAX_METRIC_REQUESTS));
+                }
+            }
+        }
+        return metricPermits;
+    }
+
+    static private @Nonnull ExecutorService newDaemonExecutor( int threads, @Nonnull final String name ) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(0);
+
+            public Thread newThread( @Nonnull Runnable r ) {
+                Thread t = new Thread(r, name + " " + count.incrementAndGet());
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Provides an HTTP client backed by a shared, pooled connection manager. Callers must release the connection
+     * by consuming or closing the response entity and must <b>not</b> shut down the connection manager.
+     * @param multipart true if the request body is not character data
+     * @return an HTTP client for a single request
+     * @throws InternalException no context was specified for this request
+     */
     public @Nonnull HttpClient getClient(boolean multipart) throws InternalException {
         ProviderContext ctx = getContext();
         if( ctx == null ) {
@@ -1465,7 +2111,20 @@ public class AWSCloud extends AbstractCloud {
                 );
             }
         }
-        DefaultHttpClient client = new DefaultHttpClient(params);
+        // an exhausted pool fails the request after a while rather than blocking the caller forever
+        HttpClientParams.setConnectionManagerTimeout(params, TimeUnit.SECONDS.toMillis(getIntProperty(p, CP_CONNECTION_LEASE_TIMEOUT, DEFAULT_CONNECTION_LEASE_TIMEOUT)));
+        final long keepAlive = TimeUnit.SECONDS.toMillis(getIntProperty(p, CP_CONNECTION_KEEP_ALIVE, DEFAULT_CONNECTION_KEEP_ALIVE));
+        DefaultHttpClient client = new DefaultHttpClient(getConnectionManager(p), params);
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy serverStrategy = new DefaultConnectionKeepAliveStrategy();
+
+            public long getKeepAliveDuration( HttpResponse response, HttpContext context ) {
+                long duration = serverStrategy.getKeepAliveDuration(response, context);
+
+                // honour the server's Keep-Alive header if there is one, otherwise fall back to our own limit
+                return ( duration > 0 ? Math.min(duration, keepAlive) : keepAlive );
+            }
+        });
         client.addRequestInterceptor(new HttpRequestInterceptor() {
             public void process(
                     final HttpRequest request,
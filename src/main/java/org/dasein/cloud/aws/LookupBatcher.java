@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers single-ID lookups that arrive close together into one multi-ID describe call. The first caller to arrive
+ * opens a batch and waits up to the batch window for others to join; the batch is sent as soon as the window
+ * closes or the batch is full, and each caller receives the entry for its own ID.
+ * <p>AWS fails a whole describe call when any one of its IDs does not exist. A batch that fails with an
+ * {@link #isUnknownId(CloudException) unknown ID} error is therefore split into single-ID lookups so one bad ID only
+ * affects its own caller. Any other failure is passed to every caller in the batch.</p>
+ * @param <V> the type of resource being looked up
+ * @see AWSCloud#getLookupBatcher(String)
+ */
+public class LookupBatcher<V> {
+    static private final Logger logger = AWSCloud.getLogger(LookupBatcher.class);
+
+    public interface Lookup<V> {
+        /**
+         * Describes the given resources in a single call.
+         * @param ids the IDs of the resources to describe
+         * @return the resources that were found, keyed by ID
+         * @throws CloudException the call failed; for single IDs, a missing resource should simply be left out
+         * @throws InternalException the call could not be made
+         */
+        public @Nonnull Map<String, V> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException;
+    }
+
+    private final long window;
+    private final int  maxBatchSize;
+    private Batch<V>   open;
+
+    /**
+     * @param window the number of milliseconds the first lookup in a batch waits for others to join
+     * @param maxBatchSize the number of IDs that causes a batch to be sent immediately
+     */
+    public LookupBatcher( @Nonnegative long window, @Nonnegative int maxBatchSize ) {
+        this.window = window;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    /**
+     * Looks up a single resource as part of the next batch.
+     * @param id the ID of the resource
+     * @param lookup performs the describe call if this caller ends up sending the batch
+     * @return the matching resource or null if it does not exist
+     * @throws CloudException the lookup failed in the cloud
+     * @throws InternalException the lookup failed locally or the wait was interrupted
+     */
+    public @Nullable V get( @Nonnull String id, @Nonnull Lookup<V> lookup ) throws CloudException, InternalException {
+        Batch<V> batch;
+        boolean sender = false;
+
+        synchronized( this ) {
+            if( open == null ) {
+                open = new Batch<V>();
+                sender = true;
+            }
+            batch = open;
+            batch.ids.add(id);
+            if( batch.ids.size() >= maxBatchSize ) {
+                open = null;
+                batch.full.countDown();
+            }
+        }
+        if( sender ) {
+            send(batch, lookup);
+        }
+        return batch.await(id);
+    }
+
+    private void send( @Nonnull Batch<V> batch, @Nonnull Lookup<V> lookup ) {
+        try {
+            batch.full.await(window, TimeUnit.MILLISECONDS);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        Set<String> ids;
+
+        synchronized( this ) {
+            if( open == batch ) {
+                open = null;
+            }
+            ids = batch.ids;
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Looking up " + ids.size() + " resources in one call");
+        }
+        try {
+            batch.complete(lookup.lookup(ids), null);
+        }
+        catch( CloudException e ) {
+            if( ids.size() > 1 && isUnknownId(e) ) {
+                split(batch, ids, lookup);
+            }
+            else {
+                batch.complete(null, e);
+            }
+        }
+        catch( InternalException e ) {
+            batch.complete(null, e);
+        }
+        catch( RuntimeException e ) {
+            batch.complete(null, e);
+        }
+        catch( Error e ) {
+            // never leave the other callers waiting
+            batch.complete(null, new InternalException(e));
+            throw e;
+        }
+    }
+
+    /**
+     * Indicates whether a failed describe call was rejected because one of its IDs does not exist, in which case
+     * the IDs are worth looking up one at a time.
+     * @param e the failure of the describe call
+     * @return true if the error code names an unknown or malformed resource ID
+     */
+    static public boolean isUnknownId( @Nonnull CloudException e ) {
+        String code = e.getProviderCode();
+
+        if( code == null ) {
+            return false;
+        }
+        return ( code.endsWith(".NotFound") || code.endsWith(".Malformed") || code.startsWith("InvalidInstanceID") || code.equals("InvalidParameterValue") );
+    }
+
+    private void split( @Nonnull Batch<V> batch, @Nonnull Set<String> ids, @Nonnull Lookup<V> lookup ) {
+        Map<String, V> results = new HashMap<String, V>();
+        Map<String, Exception> errors = new HashMap<String, Exception>();
+
+        for( String id : ids ) {
+            try {
+                results.putAll(lookup.lookup(Collections.singletonList(id)));
+            }
+            catch( CloudException e ) {
+                errors.put(id, e);
+            }
+            catch( InternalException e ) {
+                errors.put(id, e);
+            }
+            catch( RuntimeException e ) {
+                errors.put(id, e);
+            }
+        }
+        batch.errors = errors;
+        batch.complete(results, null);
+    }
+
+    static private class Batch<V> {
+        final Set<String>    ids    = new LinkedHashSet<String>();
+        final CountDownLatch full   = new CountDownLatch(1);
+        final CountDownLatch done   = new CountDownLatch(1);
+
+        volatile Map<String, V>         results;
+        volatile Map<String, Exception> errors = Collections.emptyMap();
+        volatile Exception              error;
+
+        void complete( @Nullable Map<String, V> results, @Nullable Exception error ) {
+            this.results = results;
+            this.error = error;
+            done.countDown();
+        }
+
+        @Nullable V await( @Nonnull String id ) throws CloudException, InternalException {
+            try {
+                done.await();
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            Exception e = ( error == null ? errors.get(id) : error );
+
+            if( e instanceof CloudException ) {
+                throw ( CloudException ) e;
+            }
+            else if( e instanceof InternalException ) {
+                throw ( InternalException ) e;
+            }
+            else if( e instanceof RuntimeException ) {
+                throw ( RuntimeException ) e;
+            }
+            return results.get(id);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+
+/**
+ * Keeps a paginating populator thread no more than one page ahead of whoever consumes its results. The populator
+ * calls {@link #awaitPage(long)} before requesting each page and the consumer iterates through {@link #track(Iterable)},
+ * so at most the page being consumed and the page being fetched are held in memory at any time.
+ * <p>A consumer that stops iterating without reaching the end cannot be told apart from a slow one, so the populator
+ * only waits so long before it carries on regardless. That keeps abandoned listings from pinning a thread.</p>
+ */
+public class PrefetchWindow {
+    static private final Logger logger = AWSCloud.getLogger(PrefetchWindow.class);
+
+    static private final long DEFAULT_STALL_TIMEOUT = 120000L;
+
+    private final long stallTimeout;
+    private long       consumed;
+    private long       pushed;
+    private long       lastPage;
+
+    public PrefetchWindow() {
+        this(DEFAULT_STALL_TIMEOUT);
+    }
+
+    /**
+     * @param stallTimeout milliseconds the populator waits for the consumer to make progress before fetching anyway
+     */
+    public PrefetchWindow( long stallTimeout ) {
+        this.stallTimeout = stallTimeout;
+    }
+
+    /**
+     * Called by the populator before it requests another page. Returns once the consumer has moved past every page
+     * except the most recent one.
+     * @param pageItems the number of items the populator pushed from the page it fetched last
+     */
+    public synchronized void awaitPage( long pageItems ) {
+        lastPage = pushed;
+        pushed += pageItems;
+
+        long deadline = System.currentTimeMillis() + stallTimeout;
+        long seen = consumed;
+
+        while( consumed < lastPage ) {
+            long wait = deadline - System.currentTimeMillis();
+
+            if( wait <= 0L ) {
+                if( consumed == seen ) {
+                    logger.debug("Consumer stalled at " + consumed + " of " + pushed + " items, prefetching anyway");
+                    return;
+                }
+                seen = consumed;
+                deadline = System.currentTimeMillis() + stallTimeout;
+                continue;
+            }
+            try {
+                wait(wait);
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of items the consumer has taken so far
+     */
+    public synchronized long getConsumed() {
+        return consumed;
+    }
+
+    private synchronized void consume() {
+        consumed++;
+        if( consumed >= lastPage ) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wraps the populator's results so that consuming them lets the populator fetch further pages.
+     * @param results the results being populated
+     * @return the same results, counted as they are consumed
+     */
+    public @Nonnull <T> Iterable<T> track( @Nonnull final Iterable<T> results ) {
+        return new Iterable<T>() {
+            @Override
+            public @Nonnull Iterator<T> iterator() {
+                final Iterator<T> it = results.iterator();
+
+                return new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        T item = it.next();
+
+                        consume();
+                        return item;
+                    }
+
+                    @Override
+                    public void remove() {
+                        it.remove();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client-side token buckets that meter outgoing API requests per account, region, service and class of action.
+ * Each bucket adapts to the service: a throttling response halves its rate and every successful request wins some
+ * of it back, so a busy JVM settles just below the point where AWS starts pushing back.
+ * <p>Limits are read from the {@link #CP_MAX_REQUEST_RATE} and {@link #CP_REQUEST_BURST} custom properties of the
+ * context that first uses a bucket.</p>
+ */
+public class RequestRateLimiter {
+    static private final Logger logger = AWSCloud.getLogger(RequestRateLimiter.class);
+
+    /**
+     * Custom property for the highest number of requests per second a bucket will allow.
+     */
+    static public final String CP_MAX_REQUEST_RATE = "maxRequestRate";
+    /**
+     * Custom property for the number of requests a bucket will allow in a burst after being idle.
+     */
+    static public final String CP_REQUEST_BURST    = "requestBurst";
+
+    static public final String ACTION_CLASS_READ  = "read";
+    static public final String ACTION_CLASS_WRITE = "write";
+
+    static public final double DEFAULT_MAX_RATE = 50.0;
+    static public final int    DEFAULT_BURST    = 100;
+
+    static private final double MIN_RATE           = 0.5;
+    static private final long   DECREASE_INTERVAL  = 1000L;
+    static private final int    RECOVERY_REQUESTS  = 100;
+
+    static private final Set<String> THROTTLING_CODES = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "Throttling", "ThrottlingException", "RequestLimitExceeded", "RequestThrottled", "SlowDown", "PriorRequestNotComplete"
+    )));
+
+    static private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * @param code an AWS error code
+     * @return true if the code means the caller is sending requests too quickly
+     */
+    static public boolean isThrottling( @Nullable String code ) {
+        return ( code != null && THROTTLING_CODES.contains(code) );
+    }
+
+    /**
+     * Classifies a query API action as a read or a write, since AWS meters them separately.
+     * @param action the API action, e.g. DescribeInstances
+     * @return {@link #ACTION_CLASS_READ} or {@link #ACTION_CLASS_WRITE}
+     */
+    static public @Nonnull String getActionClass( @Nullable String action ) {
+        if( action != null && ( action.startsWith("Describe") || action.startsWith("List") || action.startsWith("Get") ) ) {
+            return ACTION_CLASS_READ;
+        }
+        return ACTION_CLASS_WRITE;
+    }
+
+    /**
+     * Provides the bucket for requests from the given context to the given service.
+     * @param ctx the context making the request
+     * @param serviceId the service identifier, e.g. {@code ec2}
+     * @param actionClass the class of action as returned by {@link #getActionClass(String)}
+     * @return the shared bucket for that combination
+     */
+    static public @Nonnull Bucket getBucket( @Nonnull ProviderContext ctx, @Nonnull String serviceId, @Nonnull String actionClass ) {
+        String key = ctx.getAccountNumber() + "/" + ctx.getRegionId() + "/" + serviceId.toLowerCase() + "/" + actionClass;
+        Bucket bucket = buckets.get(key);
+
+        if( bucket == null ) {
+            Properties props = ctx.getCustomProperties();
+            double rate = DEFAULT_MAX_RATE;
+            int burst = DEFAULT_BURST;
+
+            if( props != null ) {
+                try {
+                    String value = props.getProperty(CP_MAX_REQUEST_RATE);
+
+                    if( value != null && Double.parseDouble(value) > 0 ) {
+                        rate = Double.parseDouble(value);
+                    }
+                    value = props.getProperty(CP_REQUEST_BURST);
+                    if( value != null && Integer.parseInt(value) > 0 ) {
+                        burst = Integer.parseInt(value);
+                    }
+                }
+                catch( NumberFormatException e ) {
+                    logger.warn("Ignoring invalid request rate settings: " + e.getMessage());
+                }
+            }
+            Bucket created = new Bucket(key, rate, burst);
+
+            bucket = buckets.putIfAbsent(key, created);
+            if( bucket == null ) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the number of threads currently waiting on any bucket in this JVM
+     */
+    static public int getQueueDepth() {
+        int depth = 0;
+
+        for( Bucket bucket : buckets.values() ) {
+            depth += bucket.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * @param accountNumber the account whose requests should be counted
+     * @return the number of threads currently waiting to send requests for the given account
+     */
+    static public int getQueueDepth( @Nonnull String accountNumber ) {
+        String prefix = accountNumber + "/";
+        int depth = 0;
+
+        for( Bucket bucket : buckets.values() ) {
+            if( bucket.getKey().startsWith(prefix) ) {
+                depth += bucket.getQueueDepth();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * A token bucket with additive-increase, multiplicative-decrease control over its refill rate. Callers reserve
+     * their slot under the lock and then wait outside it, so waiting threads are served in arrival order.
+     */
+    static public class Bucket {
+        private final String        key;
+        private final double        maxRate;
+        private final int           burst;
+        private final AtomicInteger waiting = new AtomicInteger(0);
+
+        private double rate;
+        private double tokens;
+        private long   lastRefill;
+        private long   lastDecrease;
+
+        Bucket( @Nonnull String key, double maxRate, int burst ) {
+            this.key = key;
+            this.maxRate = maxRate;
+            this.burst = burst;
+            this.rate = maxRate;
+            this.tokens = burst;
+            this.lastRefill = System.currentTimeMillis();
+        }
+
+        public @Nonnull String getKey() {
+            return key;
+        }
+
+        public synchronized double getRate() {
+            return rate;
+        }
+
+        /**
+         * @return the number of threads currently waiting for a token from this bucket
+         */
+        public int getQueueDepth() {
+            return waiting.get();
+        }
+
+        private synchronized long reserve() {
+            long now = System.currentTimeMillis();
+
+            tokens = Math.min(burst, tokens + ( ( now - lastRefill ) * rate ) / 1000.0);
+            lastRefill = now;
+            tokens -= 1.0;
+            if( tokens >= 0.0 ) {
+                return 0L;
+            }
+            // a negative balance is the queue ahead of us; wait until it has been paid off
+            return (long)Math.ceil(( -tokens * 1000.0 ) / rate);
+        }
+
+        /**
+         * Waits until the bucket allows another request.
+         * @return false if the thread was interrupted while waiting
+         */
+        public boolean acquire() {
+            long delay = reserve();
+
+            if( delay < 1L ) {
+                return true;
+            }
+            waiting.incrementAndGet();
+            try {
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Delaying request to " + key + " by " + delay + "ms");
+                }
+                Thread.sleep(delay);
+                return true;
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        /**
+         * Recovers a fraction of the maximum rate after a request that was not throttled.
+         */
+        public synchronized void onSuccess() {
+            if( rate < maxRate ) {
+                rate = Math.min(maxRate, rate + maxRate / RECOVERY_REQUESTS);
+            }
+        }
+
+        /**
+         * Halves the rate after a throttling response. Throttling responses to requests that were already in flight
+         * when the rate was last cut are ignored so that one burst does not collapse the rate to the floor.
+         */
+        public synchronized void onThrottle() {
+            long now = System.currentTimeMillis();
+
+            if( now - lastDecrease < DECREASE_INTERVAL ) {
+                return;
+            }
+            lastDecrease = now;
+            rate = Math.max(MIN_RATE, rate / 2.0);
+            tokens = Math.min(tokens, 0.0);
+            logger.warn("Throttled by " + key + "; reducing request rate to " + rate + "/s");
+        }
+    }
+}
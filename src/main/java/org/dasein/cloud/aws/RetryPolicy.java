@@ -0,0 +1,253 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which failed AWS requests are worth retrying and how long to wait before doing so. Delays grow
+ * exponentially up to a cap and are drawn uniformly from zero to that bound ("full jitter") so that many clients
+ * failing together do not retry together.
+ * <p>Synchronous callers wait out the delay with {@link #backoff(int)}. Asynchronous work submitted through
+ * {@link #submit(Executor, Callable)} is re-queued by a shared timer instead, so no thread is parked between
+ * attempts.</p>
+ */
+public class RetryPolicy {
+    static private final Logger logger = AWSCloud.getLogger(RetryPolicy.class);
+
+    static public final int  DEFAULT_MAX_ATTEMPTS = 5;
+    static public final long DEFAULT_BASE_DELAY   = 200L;
+    static public final long DEFAULT_MAX_DELAY    = 20000L;
+
+    static private final Set<String> COMMON_CODES = codes("Throttling", "ThrottlingException", "RequestLimitExceeded", "RequestThrottled", "ServiceUnavailable", "Unavailable", "InternalError", "InternalFailure");
+    // RequestTimeTooSkewed is left out: the local clock is still wrong after any backoff
+    static private final Set<String> S3_CODES = codes("SlowDown", "RequestTimeout", "ServiceUnavailable", "InternalError");
+    static private final Set<String> ROUTE53_CODES = codes("Throttling", "PriorRequestNotComplete", "ServiceUnavailable", "InternalError");
+
+    static private final Random random = new Random();
+
+    static private Set<String> codes( String ... codes ) {
+        return Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(codes)));
+    }
+
+    /**
+     * Provides the retry policy for the named service.
+     * @param serviceId the service identifier, e.g. {@code ec2} or {@code s3}
+     * @return the retry policy that classifies that service's error codes
+     */
+    static public @Nonnull RetryPolicy getInstance( @Nullable String serviceId ) {
+        if( "s3".equalsIgnoreCase(serviceId) ) {
+            return new RetryPolicy(S3_CODES, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+        }
+        else if( "route53".equalsIgnoreCase(serviceId) ) {
+            return new RetryPolicy(ROUTE53_CODES, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+        }
+        return new RetryPolicy(COMMON_CODES, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    static private final class SchedulerHolder {
+        static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread( @Nonnull Runnable r ) {
+                Thread t = new Thread(r, "AWS Retry Scheduler");
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private final Set<String> retryableCodes;
+    private final int         maxAttempts;
+    private final long        baseDelay;
+    private final long        maxDelay;
+
+    public RetryPolicy( @Nonnull Set<String> retryableCodes, int maxAttempts, long baseDelay, long maxDelay ) {
+        this.retryableCodes = retryableCodes;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Indicates whether a response is transient: a server-side failure or one of this service's throttling or
+     * temporary error codes.
+     * @param status the HTTP status code of the response
+     * @param code the AWS error code, if one was returned
+     * @return true if the same request may succeed if sent again
+     */
+    public boolean isRetryable( int status, @Nullable String code ) {
+        if( code != null && retryableCodes.contains(code) ) {
+            return true;
+        }
+        return ( status == 500 || status == 502 || status == 503 || status == 504 );
+    }
+
+    public boolean isRetryable( @Nonnull CloudException e ) {
+        return isRetryable(e.getHttpCode(), e.getProviderCode());
+    }
+
+    /**
+     * @param attempt the number of attempts made so far, starting at 1
+     * @param status the HTTP status code of the last response
+     * @param code the AWS error code of the last response, if any
+     * @return true if another attempt should be made
+     */
+    public boolean shouldRetry( int attempt, int status, @Nullable String code ) {
+        return ( attempt < maxAttempts && isRetryable(status, code) );
+    }
+
+    public boolean shouldRetry( int attempt, @Nonnull CloudException e ) {
+        return shouldRetry(attempt, e.getHttpCode(), e.getProviderCode());
+    }
+
+    /**
+     * Calculates a delay drawn uniformly between zero and the exponential bound for the given attempt.
+     * @param attempt the number of attempts made so far, starting at 1
+     * @return the number of milliseconds to wait before the next attempt
+     */
+    public long getDelay( int attempt ) {
+        long bound = maxDelay;
+
+        // stop doubling well before the shift overflows
+        if( attempt < 30 ) {
+            bound = Math.min(maxDelay, baseDelay << Math.max(0, attempt - 1));
+        }
+        if( bound < 1L ) {
+            return 0L;
+        }
+        synchronized( random ) {
+            return (long)(random.nextDouble() * bound);
+        }
+    }
+
+    /**
+     * Blocks the calling thread for the jittered delay of the given attempt.
+     * @param attempt the number of attempts made so far, starting at 1
+     * @return false if the thread was interrupted and the caller should give up
+     */
+    public boolean backoff( int attempt ) {
+        long delay = getDelay(attempt);
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Retrying attempt " + ( attempt + 1 ) + " in " + delay + "ms");
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs the given attempt on the executor, re-queueing it after a jittered delay whenever it fails with a
+     * retryable {@link CloudException}. No thread waits during the delay.
+     * @param executor the executor that runs each attempt
+     * @param attempt a single, self-contained attempt at the request
+     * @return a future for the result of the first successful attempt or the final failure
+     */
+    public @Nonnull <T> Future<T> submit( @Nonnull Executor executor, @Nonnull Callable<T> attempt ) {
+        RetryFuture<T> future = new RetryFuture<T>();
+
+        executor.execute(new Attempt<T>(executor, attempt, future, 1));
+        return future;
+    }
+
+    private class Attempt<T> implements Runnable {
+        private final Executor         executor;
+        private final Callable<T>      callable;
+        private final RetryFuture<T>   future;
+        private final int              attempt;
+
+        Attempt( Executor executor, Callable<T> callable, RetryFuture<T> future, int attempt ) {
+            this.executor = executor;
+            this.callable = callable;
+            this.future = future;
+            this.attempt = attempt;
+        }
+
+        public void run() {
+            if( future.isDone() ) {
+                return;
+            }
+            try {
+                future.complete(callable.call());
+            }
+            catch( Throwable t ) {
+                if( t instanceof CloudException && shouldRetry(attempt, ( CloudException ) t) ) {
+                    final Attempt<T> next = new Attempt<T>(executor, callable, future, attempt + 1);
+
+                    SchedulerHolder.scheduler.schedule(new Runnable() {
+                        public void run() {
+                            executor.execute(next);
+                        }
+                    }, getDelay(attempt), TimeUnit.MILLISECONDS);
+                }
+                else {
+                    future.fail(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A future completed by whichever attempt finishes last rather than by running a task of its own.
+     */
+    static private class RetryFuture<T> extends FutureTask<T> {
+        RetryFuture() {
+            super(new Callable<T>() {
+                public T call() throws Exception {
+                    throw new IllegalStateException("Retry futures are completed by their attempts");
+                }
+            });
+        }
+
+        void complete( T value ) {
+            set(value);
+        }
+
+        void fail( Throwable t ) {
+            setException(t);
+        }
+    }
+}
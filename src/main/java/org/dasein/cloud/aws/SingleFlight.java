@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Collapses concurrent identical calls into one. The first caller for a key makes the call; callers arriving with the
+ * same key while it is in flight wait for it and receive its result or its failure. Nothing is cached once the call
+ * completes, so results are never older than the request that produced them.
+ * <p>Results that are not safe to share between threads are handed to each waiting caller through a {@link Copier}.</p>
+ * @param <V> the type of result being shared
+ */
+public class SingleFlight<V> {
+    public interface Call<V> {
+        public V call() throws CloudException, InternalException;
+    }
+
+    public interface Copier<V> {
+        public V copy( @Nonnull V value );
+    }
+
+    private final ConcurrentHashMap<String, Flight<V>> flights = new ConcurrentHashMap<String, Flight<V>>();
+    private final Copier<V>                            copier;
+
+    /**
+     * @param copier makes private copies of a result for callers that did not make the call, or null if results
+     * are immutable and may be shared as they are
+     */
+    public SingleFlight( @Nullable Copier<V> copier ) {
+        this.copier = copier;
+    }
+
+    /**
+     * @return the number of distinct calls currently in flight
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * Makes the call for the given key or joins an identical call that is already in flight.
+     * @param key a key that is equal for calls that would produce the same result
+     * @param call the call to make if none is in flight
+     * @return the result of the call
+     * @throws CloudException the call failed in the cloud
+     * @throws InternalException the call failed locally or the wait was interrupted
+     */
+    public V execute( @Nonnull String key, @Nonnull Call<V> call ) throws CloudException, InternalException {
+        while( true ) {
+            Flight<V> flight = new Flight<V>();
+            Flight<V> current = flights.putIfAbsent(key, flight);
+
+            if( current == null ) {
+                return lead(key, flight, call);
+            }
+            if( current.join() ) {
+                return current.await(copier);
+            }
+            // the flight landed between lookup and join; try to start a fresh one
+        }
+    }
+
+    private V lead( @Nonnull String key, @Nonnull Flight<V> flight, @Nonnull Call<V> call ) throws CloudException, InternalException {
+        V value = null;
+        Throwable error = null;
+
+        try {
+            value = call.call();
+            return value;
+        }
+        catch( CloudException e ) {
+            error = e;
+            throw e;
+        }
+        catch( InternalException e ) {
+            error = e;
+            throw e;
+        }
+        catch( RuntimeException e ) {
+            error = e;
+            throw e;
+        }
+        catch( Error e ) {
+            error = e;
+            throw e;
+        }
+        finally {
+            flights.remove(key, flight);
+            if( flight.close() && error == null && value != null && copier != null ) {
+                // the leader keeps the original, so followers copy from a snapshot nobody else touches
+                flight.land(copier.copy(value), null);
+            }
+            else {
+                flight.land(value, error);
+            }
+        }
+    }
+
+    static private class Flight<V> {
+        private final CountDownLatch landed = new CountDownLatch(1);
+
+        private boolean   closed    = false;
+        private int       followers = 0;
+        private V         value;
+        private Throwable error;
+
+        synchronized boolean join() {
+            if( closed ) {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        /**
+         * Stops further callers from joining.
+         * @return true if anyone joined while the call was in flight
+         */
+        synchronized boolean close() {
+            closed = true;
+            return ( followers > 0 );
+        }
+
+        void land( @Nullable V value, @Nullable Throwable error ) {
+            this.value = value;
+            this.error = error;
+            landed.countDown();
+        }
+
+        V await( @Nullable Copier<V> copier ) throws CloudException, InternalException {
+            try {
+                landed.await();
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            if( error instanceof CloudException ) {
+                throw ( CloudException ) error;
+            }
+            else if( error instanceof InternalException ) {
+                throw ( InternalException ) error;
+            }
+            else if( error instanceof RuntimeException ) {
+                throw ( RuntimeException ) error;
+            }
+            else if( error instanceof Error ) {
+                throw ( Error ) error;
+            }
+            if( value == null || copier == null ) {
+                return value;
+            }
+            synchronized( this ) {
+                return copier.copy(value);
+            }
+        }
+    }
+}
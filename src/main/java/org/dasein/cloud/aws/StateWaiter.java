@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for resources to reach a desired state without a sleeping thread per wait. Every pending wait for a resource
+ * type is tracked in one place; when waits come due they are polled together in multi-ID describe calls, and each
+ * wait backs off on its own from the minimum to the maximum poll interval until its condition holds or it times out.
+ * <p>Timing for all waiters runs on a single shared scheduler thread. The describe calls themselves run on the
+ * executor the waiter was created with, so a slow call never holds up the schedule of other resource types.</p>
+ * <p>As with {@link LookupBatcher}, a describe call that fails because one of its IDs is unknown is split into
+ * single-ID calls so one bad ID does not stall the others.</p>
+ * @param <V> the type of resource being waited on
+ * @see AWSCloud#getStateWaiter(String, long, long)
+ */
+public class StateWaiter<V> {
+    static private final Logger logger = AWSCloud.getLogger(StateWaiter.class);
+
+    static private final int MAX_BATCH_SIZE = 100;
+
+    public interface Condition<V> {
+        /**
+         * @param resource the current state of the resource, or null if it was not found
+         * @return true if the wait is over
+         */
+        public boolean isSatisfied( @Nullable V resource );
+    }
+
+    /**
+     * @return a condition satisfied as soon as the resource can be found
+     */
+    static public @Nonnull <V> Condition<V> exists() {
+        return new Condition<V>() {
+            @Override
+            public boolean isSatisfied( @Nullable V resource ) {
+                return ( resource != null );
+            }
+        };
+    }
+
+    static private ScheduledExecutorService scheduler;
+
+    static private synchronized @Nonnull ScheduledExecutorService getScheduler() {
+        if( scheduler == null ) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread( @Nonnull Runnable r ) {
+                    Thread t = new Thread(r, "AWS State Waiter");
+
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+            scheduler = executor;
+        }
+        return scheduler;
+    }
+
+    private final String                resourceType;
+    private final Executor              executor;
+    private final long                  minInterval;
+    private final long                  maxInterval;
+    private final List<Wait<V>>         pending = new ArrayList<Wait<V>>();
+    private LookupBatcher.Lookup<V>     lookup;
+    private ScheduledFuture<?>          scheduled;
+    private long                        scheduledAt;
+    private boolean                     polling;
+
+    /**
+     * @param resourceType a name for the kind of resource being waited on, used in log messages
+     * @param executor the executor that runs the describe calls
+     * @param minInterval milliseconds before a wait is first polled
+     * @param maxInterval the most milliseconds a wait backs off to between polls
+     */
+    public StateWaiter( @Nonnull String resourceType, @Nonnull Executor executor, long minInterval, long maxInterval ) {
+        this.resourceType = resourceType;
+        this.executor = executor;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+    }
+
+    /**
+     * @return the number of waits that have not completed yet
+     */
+    public synchronized int getPendingCount() {
+        int count = 0;
+
+        for( Wait<V> wait : pending ) {
+            if( !wait.isDone() ) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Starts waiting for a resource to satisfy a condition.
+     * @param id the ID of the resource
+     * @param condition the state being waited for
+     * @param timeout milliseconds to wait before failing, or 0 to wait indefinitely
+     * @param lookup describes resources of this type; the most recent lookup given to the waiter is used for all
+     * of its polls, so lookups should not depend on anything but the IDs
+     * @return the pending wait, which completes with the resource as last described; a wait that times out fails with
+     * a {@link TimeoutException}
+     */
+    public @Nonnull Wait<V> waitFor( @Nonnull String id, @Nonnull Condition<V> condition, long timeout, @Nonnull LookupBatcher.Lookup<V> lookup ) {
+        long now = System.currentTimeMillis();
+        Wait<V> wait = new Wait<V>(id, condition, timeout > 0 ? now + timeout : Long.MAX_VALUE, minInterval);
+
+        synchronized( this ) {
+            this.lookup = lookup;
+            pending.add(wait);
+        }
+        reschedule();
+        return wait;
+    }
+
+    private void reschedule() {
+        synchronized( this ) {
+            if( polling || pending.isEmpty() ) {
+                return;
+            }
+            long next = Long.MAX_VALUE;
+
+            for( Wait<V> wait : pending ) {
+                next = Math.min(next, Math.min(wait.nextPoll, wait.deadline));
+            }
+            if( scheduled != null ) {
+                if( scheduledAt <= next ) {
+                    return;
+                }
+                scheduled.cancel(false);
+            }
+            scheduledAt = next;
+            scheduled = getScheduler().schedule(new Runnable() {
+                public void run() {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            poll();
+                        }
+                    });
+                }
+            }, Math.max(0L, next - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        Map<String, List<Wait<V>>> due = new LinkedHashMap<String, List<Wait<V>>>();
+        List<Wait<V>> expired = new ArrayList<Wait<V>>();
+        LookupBatcher.Lookup<V> current;
+
+        synchronized( this ) {
+            if( polling ) {
+                return;
+            }
+            polling = true;
+            scheduled = null;
+            current = lookup;
+
+            long now = System.currentTimeMillis();
+            // waits coming due shortly ride along so that waits started together keep being polled together
+            long horizon = now + minInterval / 2;
+            Iterator<Wait<V>> it = pending.iterator();
+
+            while( it.hasNext() ) {
+                Wait<V> wait = it.next();
+
+                if( wait.isDone() ) {
+                    it.remove();
+                }
+                else if( wait.deadline <= now ) {
+                    it.remove();
+                    expired.add(wait);
+                }
+                else if( wait.nextPoll <= horizon ) {
+                    List<Wait<V>> waits = due.get(wait.id);
+
+                    if( waits == null ) {
+                        waits = new ArrayList<Wait<V>>();
+                        due.put(wait.id, waits);
+                    }
+                    waits.add(wait);
+                }
+            }
+        }
+        try {
+            for( Wait<V> wait : expired ) {
+                wait.complete(null, new TimeoutException("Timed out waiting for " + resourceType + " " + wait.id));
+            }
+            List<String> ids = new ArrayList<String>(due.keySet());
+
+            if( logger.isDebugEnabled() && !ids.isEmpty() ) {
+                logger.debug("Polling " + ids.size() + " " + resourceType + " resources for " + getPendingCount() + " waits");
+            }
+            for( int i = 0; i < ids.size(); i += MAX_BATCH_SIZE ) {
+                poll(current, ids.subList(i, Math.min(ids.size(), i + MAX_BATCH_SIZE)), due);
+            }
+        }
+        catch( RuntimeException e ) {
+            logger.error("Unexpected error polling " + resourceType + " resources: " + e.getMessage(), e);
+        }
+        finally {
+            synchronized( this ) {
+                polling = false;
+                // anything scheduled before this poll started is out of date now
+                if( scheduled != null ) {
+                    scheduled.cancel(false);
+                    scheduled = null;
+                }
+                for( List<Wait<V>> waits : due.values() ) {
+                    for( Wait<V> wait : waits ) {
+                        if( wait.isDone() ) {
+                            pending.remove(wait);
+                        }
+                    }
+                }
+            }
+            reschedule();
+        }
+    }
+
+    private void poll( @Nonnull LookupBatcher.Lookup<V> lookup, @Nonnull List<String> ids, @Nonnull Map<String, List<Wait<V>>> due ) {
+        Map<String, V> resources;
+
+        try {
+            resources = lookup.lookup(ids);
+        }
+        catch( CloudException e ) {
+            if( RetryPolicy.getInstance(null).isRetryable(e) ) {
+                backOff(ids, due);
+            }
+            else if( ids.size() > 1 && LookupBatcher.isUnknownId(e) ) {
+                for( String id : ids ) {
+                    poll(lookup, Collections.singletonList(id), due);
+                }
+            }
+            else {
+                fail(ids, due, e);
+            }
+            return;
+        }
+        catch( InternalException e ) {
+            fail(ids, due, e);
+            return;
+        }
+        for( String id : ids ) {
+            V resource = resources.get(id);
+
+            for( Wait<V> wait : due.get(id) ) {
+                boolean satisfied;
+
+                try {
+                    satisfied = wait.condition.isSatisfied(resource);
+                }
+                catch( RuntimeException e ) {
+                    wait.complete(null, e);
+                    continue;
+                }
+                if( satisfied ) {
+                    wait.complete(resource, null);
+                }
+                else {
+                    wait.backOff(maxInterval);
+                }
+            }
+        }
+    }
+
+    private void backOff( @Nonnull List<String> ids, @Nonnull Map<String, List<Wait<V>>> due ) {
+        for( String id : ids ) {
+            for( Wait<V> wait : due.get(id) ) {
+                wait.backOff(maxInterval);
+            }
+        }
+    }
+
+    private void fail( @Nonnull List<String> ids, @Nonnull Map<String, List<Wait<V>>> due, @Nonnull Exception error ) {
+        for( String id : ids ) {
+            for( Wait<V> wait : due.get(id) ) {
+                wait.complete(null, error);
+            }
+        }
+    }
+
+    /**
+     * A pending wait for one resource. Besides being a {@link Future}, a wait runs listeners when it completes, so
+     * follow-up work can be chained without a thread blocking on it.
+     */
+    static public class Wait<V> implements Future<V> {
+        private final String         id;
+        private final Condition<V>   condition;
+        private final long           deadline;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<Runnable> listeners = new ArrayList<Runnable>();
+        private long                 interval;
+        private volatile long        nextPoll;
+        private V                    resource;
+        private Exception            error;
+        private boolean              cancelled;
+
+        private Wait( @Nonnull String id, @Nonnull Condition<V> condition, long deadline, long interval ) {
+            this.id = id;
+            this.condition = condition;
+            this.deadline = deadline;
+            this.interval = interval;
+            this.nextPoll = System.currentTimeMillis() + interval;
+        }
+
+        public @Nonnull String getId() {
+            return id;
+        }
+
+        private void backOff( long maxInterval ) {
+            interval = Math.min(maxInterval, interval * 2);
+            nextPoll = System.currentTimeMillis() + interval;
+        }
+
+        private boolean complete( @Nullable V resource, @Nullable Exception error ) {
+            List<Runnable> toRun;
+
+            synchronized( this ) {
+                if( done.getCount() == 0 ) {
+                    return false;
+                }
+                this.resource = resource;
+                this.error = error;
+                done.countDown();
+                toRun = new ArrayList<Runnable>(listeners);
+                listeners.clear();
+            }
+            for( Runnable listener : toRun ) {
+                run(listener);
+            }
+            return true;
+        }
+
+        private void run( @Nonnull Runnable listener ) {
+            try {
+                listener.run();
+            }
+            catch( RuntimeException e ) {
+                logger.error("Listener for " + id + " failed: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Runs the listener once this wait completes, or right away on the calling thread if it already has.
+         * Listeners run on the thread that completes the wait and should hand anything slow to an executor.
+         * @param listener the listener to run
+         */
+        public void addListener( @Nonnull Runnable listener ) {
+            synchronized( this ) {
+                if( done.getCount() > 0 ) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            run(listener);
+        }
+
+        @Override
+        public boolean cancel( boolean mayInterruptIfRunning ) {
+            synchronized( this ) {
+                if( done.getCount() == 0 ) {
+                    return false;
+                }
+                cancelled = true;
+            }
+            return complete(null, new CancellationException());
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return ( done.getCount() == 0 );
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            done.await();
+            return getResult();
+        }
+
+        @Override
+        public V get( long timeout, @Nonnull TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+            if( !done.await(timeout, unit) ) {
+                throw new TimeoutException("Still waiting for " + id);
+            }
+            return getResult();
+        }
+
+        private synchronized V getResult() throws ExecutionException {
+            if( cancelled ) {
+                throw new CancellationException();
+            }
+            if( error != null ) {
+                throw new ExecutionException(error);
+            }
+            return resource;
+        }
+    }
+}
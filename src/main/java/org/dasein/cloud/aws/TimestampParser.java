@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws;
+
+import javax.annotation.Nullable;
+
+/**
+ * Parses the ISO 8601 timestamps AWS puts in its responses, such as {@code 2015-06-01T12:30:45.000Z}, without the
+ * per-call allocation and locking of {@link java.text.SimpleDateFormat}. It holds no state, so one call site can
+ * parse millions of timestamps from any number of threads. Timestamps are read as UTC unless they carry an offset.
+ */
+public final class TimestampParser {
+    private TimestampParser() { }
+
+    /**
+     * Parses {@code yyyy-MM-ddTHH:mm:ss}, with an optional fraction of a second, followed by {@code Z} or an offset
+     * of the form {@code +hh:mm}.
+     * @param value the timestamp
+     * @return the timestamp in milliseconds since the epoch, or -1 if the value is missing or not in this form
+     */
+    static public long parse( @Nullable CharSequence value ) {
+        if( value == null || value.length() < 19 ) {
+            return -1L;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+
+        if( year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60 ) {
+            return -1L;
+        }
+        if( value.charAt(4) != '-' || value.charAt(7) != '-' || ( value.charAt(10) != 'T' && value.charAt(10) != 't' ) || value.charAt(13) != ':' || value.charAt(16) != ':' ) {
+            return -1L;
+        }
+        int i = 19, millis = 0;
+
+        if( i < value.length() && value.charAt(i) == '.' ) {
+            int scale = 100;
+
+            i++;
+            if( i >= value.length() || !Character.isDigit(value.charAt(i)) ) {
+                return -1L;
+            }
+            // anything finer than a millisecond is dropped
+            while( i < value.length() && Character.isDigit(value.charAt(i)) ) {
+                millis += ( value.charAt(i) - '0' ) * scale;
+                scale /= 10;
+                i++;
+            }
+        }
+        long offset;
+
+        if( i == value.length() - 1 && ( value.charAt(i) == 'Z' || value.charAt(i) == 'z' ) ) {
+            offset = 0L;
+        }
+        else if( i == value.length() - 6 && ( value.charAt(i) == '+' || value.charAt(i) == '-' ) && value.charAt(i + 3) == ':' ) {
+            int hours = digits(value, i + 1, 2);
+            int minutes = digits(value, i + 4, 2);
+
+            if( hours < 0 || minutes < 0 ) {
+                return -1L;
+            }
+            offset = ( hours * 60L + minutes ) * 60000L * ( value.charAt(i) == '-' ? -1 : 1 );
+        }
+        else {
+            return -1L;
+        }
+        long seconds = ( ( toEpochDay(year, month, day) * 24L + hour ) * 60L + minute ) * 60L + second;
+
+        return seconds * 1000L + millis - offset;
+    }
+
+    /**
+     * Counts days from 1970-01-01 to the given date in the proleptic Gregorian calendar.
+     */
+    static private long toEpochDay( int year, int month, int day ) {
+        // shift the year to start in March so the leap day falls at its end
+        long y = ( month <= 2 ? year - 1 : year );
+        long era = ( y >= 0 ? y : y - 399 ) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    static private int digits( CharSequence value, int start, int count ) {
+        int n = 0;
+
+        for( int i=start; i<start + count; i++ ) {
+            char c = value.charAt(i);
+
+            if( c < '0' || c > '9' ) {
+                return -1;
+            }
+            n = n * 10 + ( c - '0' );
+        }
+        return n;
+    }
+}
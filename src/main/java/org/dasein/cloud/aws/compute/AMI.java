@@ -22,6 +22,8 @@ package org.dasein.cloud.aws.compute;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.LookupBatcher;
+import org.dasein.cloud.aws.StateWaiter;
 import org.dasein.cloud.aws.storage.S3Method;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.identity.ServiceAction;
@@ -39,6 +41,7 @@ import javax.annotation.Nullable;
 import java.io.UnsupportedEncodingException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @version 2013.01.1 Fixed a data consistency issue with AWS (issue #21)
@@ -98,28 +101,32 @@ public class AMI extends AbstractImageSupport<AWSCloud> {
             if( task != null ) {
                 task.setStartTime(System.currentTimeMillis());
             }
-            VirtualMachine vm = null;
+            VirtualMachine vm;
 
-            long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 30L);
-
-            while( timeout > System.currentTimeMillis() ) {
-                try {
-                    //noinspection ConstantConditions
-                    vm = getProvider(). getComputeServices().getVirtualMachineSupport().getVirtualMachine(options.getVirtualMachineId());
-                    if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
-                        break;
-                    }
-
-                    if( getCapabilities().canImage(vm.getCurrentState()) ) {
-                        break;
+            try {
+                vm = new EC2Instance(getProvider()).waitForInstance(options.getVirtualMachineId(), new StateWaiter.Condition<VirtualMachine>() {
+                    @Override
+                    public boolean isSatisfied( @Nullable VirtualMachine instance ) {
+                        if( instance == null || VmState.TERMINATED.equals(instance.getCurrentState()) ) {
+                            return true;
+                        }
+                        try {
+                            return getCapabilities().canImage(instance.getCurrentState());
+                        }
+                        catch( Exception ignore ) {
+                            return false;
+                        }
                     }
-                    
-                }
-                catch( Throwable ignore ) {
-                    // ignore
-                }
-                try { Thread.sleep(15000L); }
-                catch( InterruptedException ignore ) { }
+                }, CalendarWrapper.MINUTE * 30L).get();
+            }
+            catch( ExecutionException e ) {
+                // timed out; go with whatever state the instance is in now
+                //noinspection ConstantConditions
+                vm = getProvider(). getComputeServices().getVirtualMachineSupport().getVirtualMachine(options.getVirtualMachineId());
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
             }
             if( vm == null ) {
                 throw new CloudException("No such virtual machine: " + options.getVirtualMachineId());
@@ -1087,25 +1094,7 @@ public class AMI extends AbstractImageSupport<AWSCloud> {
         if( accountIds == null || accountIds.length < 1 ) {
             return;
         }
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 30L);
-
-        while( timeout > System.currentTimeMillis() ) {
-            try {
-                MachineImage img = getMachineImage(imageId);
-
-                if( img == null ) {
-                    throw new CloudException("The machine image " + imageId + " disappeared while waiting to set sharing");
-                }
-                if( MachineImageState.ACTIVE.equals(img.getCurrentState()) ) {
-                    break;
-                }
-            }
-            catch( Throwable ignore ) {
-                // ignore
-            }
-            try { Thread.sleep(15000L); }
-            catch( InterruptedException ignore ) { }
-        }
+        waitUntilActive(imageId);
         Map<String,String> parameters = getProvider(). getStandardParameters(getProvider(). getContext(), EC2Method.MODIFY_IMAGE_ATTRIBUTE);
         EC2Method method;
         NodeList blocks;
@@ -1175,25 +1164,7 @@ public class AMI extends AbstractImageSupport<AWSCloud> {
     }
 
     private void setPublicShare(@Nonnull String imageId, boolean allowed) throws CloudException, InternalException {
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 30L);
-
-        while( timeout > System.currentTimeMillis() ) {
-            try {
-                MachineImage img = getMachineImage(imageId);
-
-                if( img == null ) {
-                    throw new CloudException("The machine image " + imageId + " disappeared while waiting to set sharing");
-                }
-                if( MachineImageState.ACTIVE.equals(img.getCurrentState()) ) {
-                    break;
-                }
-            }
-            catch( Throwable ignore ) {
-                // ignore
-            }
-            try { Thread.sleep(15000L); }
-            catch( InterruptedException ignore ) { }
-        }
+        waitUntilActive(imageId);
         Map<String,String> parameters = getProvider(). getStandardParameters(getProvider(). getContext(), EC2Method.MODIFY_IMAGE_ATTRIBUTE);
         EC2Method method;
         NodeList blocks;
@@ -1245,6 +1216,85 @@ public class AMI extends AbstractImageSupport<AWSCloud> {
         }
     }
 
+    /**
+     * Waits up to 30 minutes for an image to become active before its sharing is changed. An image that cannot be
+     * found is waited on as well, since new images take a while to show up.
+     * @throws CloudException the image did not become active in time
+     * @throws InternalException the wait was interrupted
+     */
+    private void waitUntilActive( @Nonnull String imageId ) throws CloudException, InternalException {
+        StateWaiter<MachineImage> waiter = getProvider().getStateWaiter("image", 5000L, 15000L);
+        StateWaiter.Wait<MachineImage> wait = waiter.waitFor(imageId, new StateWaiter.Condition<MachineImage>() {
+            @Override
+            public boolean isSatisfied( @Nullable MachineImage img ) {
+                return ( img != null && MachineImageState.ACTIVE.equals(img.getCurrentState()) );
+            }
+        }, CalendarWrapper.MINUTE * 30L, getImageLookup());
+
+        try {
+            wait.get();
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw ( CloudException ) cause;
+            }
+            throw new CloudException("Image " + imageId + " did not become active: " + cause.getMessage(), cause);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * @return a multi-ID image lookup that leaves out unknown images when given one ID and fails when given several,
+     * so batches naming an unknown image are split up
+     */
+    private @Nonnull LookupBatcher.Lookup<MachineImage> getImageLookup() {
+        return new LookupBatcher.Lookup<MachineImage>() {
+            @Override
+            public @Nonnull Map<String, MachineImage> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                Map<String, MachineImage> images = new HashMap<String, MachineImage>();
+
+                if( ids.size() < 2 || !getProvider(). getEC2Provider().isAWS() ) {
+                    for( String id : ids ) {
+                        MachineImage img = getImage(id);
+
+                        if( img != null ) {
+                            images.put(id, img);
+                        }
+                    }
+                    return images;
+                }
+                Map<String,String> parameters = getProvider(). getStandardParameters(getProvider(). getContext(), EC2Method.DESCRIBE_IMAGES);
+                NodeList blocks;
+                Document doc;
+
+                AWSCloud.addIndexedParameters(parameters, "ImageId", ids.toArray(new String[ids.size()]));
+                doc = new EC2Method(getProvider(), parameters).invoke();
+                blocks = doc.getElementsByTagName("imagesSet");
+                for( int i=0; i<blocks.getLength(); i++ ) {
+                    NodeList items = blocks.item(i).getChildNodes();
+
+                    for( int j=0; j<items.getLength(); j++ ) {
+                        Node item = items.item(j);
+
+                        if( item.getNodeName().equals("item") ) {
+                            MachineImage image = toMachineImage(item);
+
+                            if( image != null && ids.contains(image.getProviderMachineImageId()) ) {
+                                images.put(image.getProviderMachineImageId(), image);
+                            }
+                        }
+                    }
+                }
+                return images;
+            }
+        };
+    }
+
     private @Nonnull List<String> sharesAsList(@Nonnull String forMachineImageId) throws CloudException, InternalException {
         Map<String,String> parameters = getProvider(). getStandardParameters(getProvider(). getContext(), EC2Method.DESCRIBE_IMAGE_ATTRIBUTE);
         ArrayList<String> list = new ArrayList<String>();
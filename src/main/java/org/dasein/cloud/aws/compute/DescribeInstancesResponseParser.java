@@ -0,0 +1,591 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VirtualMachineLifecycle;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.compute.Volume;
+import org.dasein.cloud.network.IpAddress;
+import org.dasein.cloud.network.RawAddress;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Streaming parser for DescribeInstances responses. Each instance is turned into a {@link VirtualMachine} as soon as
+ * its {@code item} element ends and is matched against the filter options right away, so the response is never
+ * held in memory as a whole.
+ * <p>Only the direct children of an instance are mapped; nested sets such as network interfaces are read for the
+ * fields Dasein exposes and otherwise skipped.</p>
+ *
+ * @see EC2Instance#listVirtualMachines(VMFilterOptions)
+ */
+public class DescribeInstancesResponseParser implements XmlStreamParser<VirtualMachine> {
+    static private final Logger logger = AWSCloud.getLogger(DescribeInstancesResponseParser.class);
+
+    private final List<VirtualMachine>          list;
+    private final String                        providerOwnerId;
+    private final String                        regionId;
+    private final VMFilterOptions               filterOptions;
+    private final Future<Iterable<IpAddress>>   addressFuture;
+    private Map<String, String>                 addressIds;
+    private SimpleDateFormat                    launchTimeFormat;
+    private String                              nextToken;
+
+    /**
+     * @param providerOwnerId the account that owns the instances
+     * @param regionId the region being described
+     * @param filterOptions options the instances must match to be included, or null to include all of them
+     * @param addresses the IP address pool used to identify assigned elastic IPs; it is only waited on once a
+     * response has been parsed and contained a public IP, so it may still be loading while parsing runs
+     * @param list the list to add matching virtual machines to
+     */
+    public DescribeInstancesResponseParser( @Nullable String providerOwnerId, @Nullable String regionId, @Nullable VMFilterOptions filterOptions, @Nullable Future<Iterable<IpAddress>> addresses, @Nonnull List<VirtualMachine> list ) {
+        this.providerOwnerId = providerOwnerId;
+        this.regionId = regionId;
+        this.filterOptions = filterOptions;
+        this.addressFuture = addresses;
+        this.list = list;
+    }
+
+    @Override
+    public List<VirtualMachine> parse( InputStream stream ) throws IOException, CloudException, InternalException {
+        // a failed parse may be retried, so take back anything this attempt added
+        int start = list.size();
+        boolean done = false;
+        XMLStreamReader reader = null;
+
+        nextToken = null;
+        try {
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamConstants.START_ELEMENT ) {
+                    String name = reader.getLocalName();
+
+                    if( "instancesSet".equals(name) ) {
+                        readInstances(reader);
+                    }
+                    else if( "nextToken".equals(name) ) {
+                        nextToken = trim(text(reader));
+                    }
+                }
+            }
+            assignAddresses(start);
+            done = true;
+            return list;
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            if( !done ) {
+                list.subList(start, list.size()).clear();
+            }
+            if( reader != null ) {
+                try {
+                    reader.close();
+                }
+                catch( XMLStreamException ignore ) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the token for the next page of a paginated DescribeInstances call, or null if the last parsed response
+     * was the final page
+     */
+    public @Nullable String getNextToken() {
+        return nextToken;
+    }
+
+    private void readInstances( @Nonnull XMLStreamReader reader ) throws XMLStreamException, CloudException {
+        while( reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.START_ELEMENT ) {
+                if( "item".equals(reader.getLocalName()) ) {
+                    VirtualMachine vm = readInstance(reader);
+
+                    if( vm != null && ( filterOptions == null || filterOptions.matches(vm) ) ) {
+                        list.add(vm);
+                    }
+                }
+                else {
+                    skip(reader);
+                }
+            }
+            else if( event == XMLStreamConstants.END_ELEMENT ) {
+                return;
+            }
+        }
+    }
+
+    private @Nullable VirtualMachine readInstance( @Nonnull XMLStreamReader reader ) throws XMLStreamException, CloudException {
+        String rootDeviceName = null;
+        VirtualMachine server = new VirtualMachine();
+
+        server.setPersistent(false);
+        server.setProviderOwnerId(providerOwnerId);
+        server.setCurrentState(VmState.PENDING);
+        server.setName(null);
+        server.setDescription(null);
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            String name = reader.getLocalName();
+
+            if( name.equals("instanceState") ) {
+                String value = readChild(reader, "name");
+
+                if( value != null ) {
+                    server.setCurrentState(EC2Instance.getServerState(value));
+                }
+            }
+            else if( name.equals("placement") ) {
+                String value = readChild(reader, "availabilityZone");
+
+                if( value != null ) {
+                    server.setProviderDataCenterId(value);
+                }
+            }
+            else if( name.equals("iamInstanceProfile") ) {
+                String value = readChild(reader, "arn");
+
+                if( value != null ) {
+                    server.setProviderRoleId(value);
+                }
+            }
+            else if( name.equals("tagSet") ) {
+                Map<String, String> tags = readTags(reader);
+
+                if( tags.size() > 0 ) {
+                    server.setTags(tags);
+                    for( Map.Entry<String, String> entry : tags.entrySet() ) {
+                        if( entry.getKey().equalsIgnoreCase("name") ) {
+                            server.setName(entry.getValue());
+                        }
+                        else if( entry.getKey().equalsIgnoreCase("description") ) {
+                            server.setDescription(entry.getValue());
+                        }
+                    }
+                }
+            }
+            else if( name.equals("groupSet") ) {
+                List<String> firewalls = readItemValues(reader, "groupId");
+
+                if( firewalls.size() > 0 ) {
+                    server.setProviderFirewallIds(firewalls.toArray(new String[firewalls.size()]));
+                }
+            }
+            else if( name.equals("networkInterfaceSet") ) {
+                List<String> networkInterfaceIds = readItemValues(reader, "networkInterfaceId");
+
+                if( networkInterfaceIds.size() > 0 ) {
+                    server.setProviderNetworkInterfaceIds(networkInterfaceIds.toArray(new String[networkInterfaceIds.size()]));
+                }
+            }
+            else if( name.equals("blockDeviceMapping") ) {
+                List<Volume> volumes = readVolumes(reader);
+
+                if( volumes.size() > 0 ) {
+                    server.setVolumes(volumes.toArray(new Volume[volumes.size()]));
+                }
+            }
+            else if( name.equals("rootDeviceName") ) {
+                rootDeviceName = text(reader);
+            }
+            else if( !readValue(reader, name, server) ) {
+                skip(reader);
+            }
+        }
+        if( server.getProviderVirtualMachineId() == null ) {
+            return null;
+        }
+        if( server.getPlatform() == null ) {
+            server.setPlatform(Platform.UNKNOWN);
+        }
+        server.setProviderRegionId(regionId);
+        if( server.getName() == null ) {
+            server.setName(server.getProviderVirtualMachineId());
+        }
+        if( server.getDescription() == null ) {
+            server.setDescription(server.getName() + " (" + server.getProductId() + ")");
+        }
+        if( server.getArchitecture() == null && server.getProductId() != null ) {
+            server.setArchitecture(EC2Instance.getArchitecture(server.getProductId()));
+        }
+        else if( server.getArchitecture() == null ) {
+            server.setArchitecture(Architecture.I64);
+        }
+        // find the root device in the volumes list and set boolean value
+        if( rootDeviceName != null && server.getVolumes() != null ) {
+            for( Volume volume : server.getVolumes() ) {
+                if( rootDeviceName.equals(volume.getDeviceId()) ) {
+                    volume.setRootVolume(true);
+                    break;
+                }
+            }
+        }
+        return server;
+    }
+
+    /**
+     * Maps a simple text element of an instance onto the virtual machine.
+     * @return false if the element is not a simple value this parser knows, in which case it has not been consumed
+     */
+    private boolean readValue( @Nonnull XMLStreamReader reader, @Nonnull String name, @Nonnull VirtualMachine server ) throws XMLStreamException, CloudException {
+        if( !isSimpleValue(name) ) {
+            return false;
+        }
+        String value = text(reader);
+
+        if( value == null ) {
+            return true;
+        }
+        if( name.equals("instanceId") ) {
+            server.setProviderVirtualMachineId(value.trim());
+        }
+        else if( name.equals("architecture") ) {
+            server.setArchitecture(value.trim().equalsIgnoreCase("i386") ? Architecture.I32 : Architecture.I64);
+        }
+        else if( name.equals("imageId") ) {
+            server.setProviderMachineImageId(value.trim());
+        }
+        else if( name.equals("kernelId") ) {
+            server.setTag("kernelImageId", value.trim());
+            server.setProviderKernelImageId(value.trim());
+        }
+        else if( name.equals("ramdiskId") ) {
+            server.setTag("ramdiskImageId", value.trim());
+            server.setProviderRamdiskImageId(value.trim());
+        }
+        else if( name.equalsIgnoreCase("subnetId") ) {
+            server.setProviderSubnetId(value.trim());
+        }
+        else if( name.equalsIgnoreCase("vpcId") ) {
+            server.setProviderVlanId(value.trim());
+        }
+        else if( name.equals("privateDnsName") ) {
+            RawAddress[] addrs = server.getPrivateAddresses();
+
+            server.setPrivateDnsAddress(value);
+            if( addrs == null || addrs.length < 1 ) {
+                String guess = EC2Instance.guess(value);
+
+                if( guess != null ) {
+                    server.setPrivateAddresses(new RawAddress(guess));
+                }
+            }
+        }
+        else if( name.equals("dnsName") ) {
+            server.setPublicDnsAddress(value);
+        }
+        else if( name.equals("privateIpAddress") ) {
+            server.setPrivateAddresses(new RawAddress(value));
+        }
+        else if( name.equals("ipAddress") ) {
+            server.setPublicAddresses(new RawAddress(value));
+        }
+        else if( name.equals("rootDeviceType") ) {
+            server.setPersistent(value.equalsIgnoreCase("ebs"));
+        }
+        else if( name.equals("instanceType") ) {
+            server.setProductId(value.trim());
+        }
+        else if( name.equals("launchTime") ) {
+            if( launchTimeFormat == null ) {
+                launchTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+                launchTimeFormat.setCalendar(Calendar.getInstance(new SimpleTimeZone(0, "GMT")));
+            }
+            try {
+                server.setLastBootTimestamp(launchTimeFormat.parse(value.trim()).getTime());
+                server.setCreationTimestamp(server.getLastBootTimestamp());
+            }
+            catch( ParseException e ) {
+                logger.error(e);
+                throw new CloudException(e);
+            }
+        }
+        else if( name.equals("platform") ) {
+            Platform platform = Platform.guess(value);
+
+            if( platform.equals(Platform.UNKNOWN) ) {
+                platform = Platform.UNIX;
+            }
+            server.setPlatform(platform);
+        }
+        else if( name.equals("keyName") ) {
+            server.setProviderKeypairId(value);
+        }
+        else if( name.equals("ebsOptimized") ) {
+            server.setIoOptimized(Boolean.valueOf(value));
+        }
+        else if( name.equals("sourceDestCheck") ) {
+            // a value of true means this instance cannot function as a NAT instance
+            server.setIpForwardingAllowed(!Boolean.valueOf(value));
+        }
+        else if( name.equals("stateReasonMessage") ) {
+            server.setStateReasonMessage(value);
+        }
+        else if( name.equals("instanceLifecycle") ) {
+            if( "spot".equalsIgnoreCase(value) ) {
+                server.setLifecycle(VirtualMachineLifecycle.SPOT);
+            }
+        }
+        else if( name.equals("spot-instance-request-id") ) {
+            server.setSpotRequestId(value);
+        }
+        else if( name.equals("clientToken") ) {
+            server.setClientRequestToken(value);
+        }
+        return true;
+    }
+
+    static private boolean isSimpleValue( @Nonnull String name ) {
+        return name.equals("instanceId") || name.equals("architecture") || name.equals("imageId") || name.equals("kernelId")
+                || name.equals("ramdiskId") || name.equalsIgnoreCase("subnetId") || name.equalsIgnoreCase("vpcId")
+                || name.equals("privateDnsName") || name.equals("dnsName") || name.equals("privateIpAddress")
+                || name.equals("ipAddress") || name.equals("rootDeviceType") || name.equals("instanceType")
+                || name.equals("launchTime") || name.equals("platform") || name.equals("keyName")
+                || name.equals("ebsOptimized") || name.equals("sourceDestCheck")
+                || name.equals("stateReasonMessage") || name.equals("instanceLifecycle")
+                || name.equals("spot-instance-request-id") || name.equals("clientToken");
+    }
+
+    /**
+     * Joins the virtual machines added since the given index with the IP address pool on their public IP.
+     */
+    private void assignAddresses( int start ) {
+        for( int i = start; i < list.size(); i++ ) {
+            VirtualMachine vm = list.get(i);
+            RawAddress[] publicAddresses = vm.getPublicAddresses();
+
+            if( publicAddresses != null && publicAddresses.length > 0 ) {
+                String addressId = getAddressIds().get(publicAddresses[0].getIpAddress());
+
+                if( addressId != null ) {
+                    vm.setProviderAssignedIpAddressId(addressId);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the IDs of the addresses in the pool keyed by IP, loaded the first time they are needed and kept for
+     * any further pages this parser reads
+     */
+    private @Nonnull Map<String, String> getAddressIds() {
+        if( addressIds == null ) {
+            Iterable<IpAddress> addresses = null;
+
+            if( addressFuture != null ) {
+                try {
+                    addresses = addressFuture.get(30, TimeUnit.SECONDS);
+                }
+                catch( InterruptedException e ) {
+                    logger.error(e.getMessage());
+                    Thread.currentThread().interrupt();
+                }
+                catch( ExecutionException e ) {
+                    logger.error(e.getMessage());
+                }
+                catch( TimeoutException e ) {
+                    logger.error(e.getMessage());
+                }
+            }
+            addressIds = indexAddresses(addresses);
+        }
+        return addressIds;
+    }
+
+    static @Nonnull Map<String, String> indexAddresses( @Nullable Iterable<IpAddress> addresses ) {
+        if( addresses == null ) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> ids = new HashMap<String, String>();
+
+        for( IpAddress addr : addresses ) {
+            String ip = addr.getRawAddress().getIpAddress();
+
+            // keep the first match, as the linear scan this replaces did
+            if( !ids.containsKey(ip) ) {
+                ids.put(ip, addr.getProviderIpAddressId());
+            }
+        }
+        return ids;
+    }
+
+    private @Nonnull Map<String, String> readTags( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        Map<String, String> tags = new HashMap<String, String>();
+
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            String key = null, value = null;
+
+            while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+                String name = reader.getLocalName();
+
+                if( name.equalsIgnoreCase("key") ) {
+                    key = trim(text(reader));
+                }
+                else if( name.equalsIgnoreCase("value") ) {
+                    value = trim(text(reader));
+                }
+                else {
+                    skip(reader);
+                }
+            }
+            if( key != null && value != null ) {
+                tags.put(key, value);
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * Reads the named value out of each {@code item} of a set such as {@code groupSet}.
+     */
+    private @Nonnull List<String> readItemValues( @Nonnull XMLStreamReader reader, @Nonnull String child ) throws XMLStreamException {
+        List<String> values = new ArrayList<String>();
+
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            String value = readChild(reader, child);
+
+            if( value != null ) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private @Nonnull List<Volume> readVolumes( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        List<Volume> volumes = new ArrayList<Volume>();
+
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            Volume volume = new Volume();
+
+            while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+                String name = reader.getLocalName();
+
+                if( "deviceName".equals(name) ) {
+                    volume.setDeviceId(text(reader));
+                }
+                else if( "ebs".equals(name) ) {
+                    while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+                        name = reader.getLocalName();
+                        if( "volumeId".equals(name) ) {
+                            volume.setProviderVolumeId(text(reader));
+                        }
+                        else if( "status".equals(name) ) {
+                            volume.setCurrentState(EBSVolume.toVolumeState(text(reader)));
+                        }
+                        else if( "deleteOnTermination".equals(name) ) {
+                            volume.setDeleteOnVirtualMachineTermination(Boolean.valueOf(text(reader)));
+                        }
+                        else {
+                            skip(reader);
+                        }
+                    }
+                }
+                else {
+                    skip(reader);
+                }
+            }
+            if( volume.getDeviceId() != null ) {
+                volumes.add(volume);
+            }
+        }
+        return volumes;
+    }
+
+    /**
+     * Reads the trimmed text of one child of the current element and consumes the rest of the element.
+     */
+    private @Nullable String readChild( @Nonnull XMLStreamReader reader, @Nonnull String child ) throws XMLStreamException {
+        String value = null;
+
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            if( child.equalsIgnoreCase(reader.getLocalName()) ) {
+                value = trim(text(reader));
+            }
+            else {
+                skip(reader);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the text of a text-only element, or null if it is empty, as the DOM parser would report it
+     */
+    static private @Nullable String text( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        String value = reader.getElementText();
+
+        return ( value.length() == 0 ? null : value );
+    }
+
+    static private @Nullable String trim( @Nullable String value ) {
+        return ( value == null ? null : value.trim() );
+    }
+
+    /**
+     * Skips past the end of the current element, including everything inside it.
+     */
+    static private void skip( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        int depth = 1;
+
+        while( depth > 0 && reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.START_ELEMENT ) {
+                depth++;
+            }
+            else if( event == XMLStreamConstants.END_ELEMENT ) {
+                depth--;
+            }
+        }
+    }
+}
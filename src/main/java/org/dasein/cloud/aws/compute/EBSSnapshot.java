@@ -31,6 +31,7 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.LookupBatcher;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.util.APITrace;
@@ -158,42 +159,16 @@ public class EBSSnapshot extends AbstractSnapshotSupport<AWSCloud> {
                 throw new CloudException("No context exists for this request.");
             }
             if( getProvider().getEC2Provider().isAWS() ) {
-                Map<String,String> parameters = getProvider().getStandardParameters(getContext(), EC2Method.DESCRIBE_SNAPSHOTS);
-                EC2Method method;
-                NodeList blocks;
-                Document doc;
+                LookupBatcher<Snapshot> batcher = getProvider().getLookupBatcher("snapshot");
 
-                parameters.put("SnapshotId.1", snapshotId);
-                method = new EC2Method(getProvider(), parameters);
-                try {
-                    doc = method.invoke();
-                }
-                catch( EC2Exception e ) {
-                    String code = e.getCode();
-
-                    if( code != null && (code.startsWith("InvalidSnapshot.NotFound") || code.equals("InvalidParameterValue")) ) {
-                        return null;
-                    }
-                    logger.error(e.getSummary());
-                    throw new CloudException(e);
-                }
-                blocks = doc.getElementsByTagName("snapshotSet");
-                for( int i=0; i<blocks.getLength(); i++ ) {
-                    NodeList items = blocks.item(i).getChildNodes();
-
-                    for( int j=0; j<items.getLength(); j++ ) {
-                        Node item = items.item(j);
-
-                        if( item.getNodeName().equals("item") ) {
-                            Snapshot snapshot = toSnapshot(item);
-
-                            if( snapshot != null && snapshot.getProviderSnapshotId().equals(snapshotId) ) {
-                                return snapshot;
-                            }
+                if( batcher != null ) {
+                    return batcher.get(snapshotId, new LookupBatcher.Lookup<Snapshot>() {
+                        public @Nonnull Map<String, Snapshot> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                            return describeSnapshots(ids);
                         }
-                    }
+                    });
                 }
-                return null;
+                return describeSnapshots(Collections.singletonList(snapshotId)).get(snapshotId);
             }
             else {
                 for( Snapshot snapshot : listSnapshots() ) {
@@ -209,6 +184,54 @@ public class EBSSnapshot extends AbstractSnapshotSupport<AWSCloud> {
         }
     }
 
+    /**
+     * Describes the given snapshots in one call. A single unknown snapshot yields an empty map; when several snapshots
+     * are requested the error is thrown so the caller can tell which ID was at fault.
+     */
+    private @Nonnull Map<String, Snapshot> describeSnapshots( @Nonnull Collection<String> snapshotIds ) throws InternalException, CloudException {
+        Map<String,String> parameters = getProvider().getStandardParameters(getContext(), EC2Method.DESCRIBE_SNAPSHOTS);
+        Map<String, Snapshot> snapshots = new HashMap<String, Snapshot>();
+        EC2Method method;
+        NodeList blocks;
+        Document doc;
+
+        AWSCloud.addIndexedParameters(parameters, "SnapshotId.", snapshotIds.toArray(new String[snapshotIds.size()]));
+        method = new EC2Method(getProvider(), parameters);
+        try {
+            doc = method.invoke();
+        }
+        catch( EC2Exception e ) {
+            String code = e.getCode();
+
+            if( code != null && (code.startsWith("InvalidSnapshot.NotFound") || code.equals("InvalidParameterValue")) ) {
+                if( snapshotIds.size() > 1 ) {
+                    throw e;
+                }
+                return snapshots;
+            }
+            logger.error(e.getSummary());
+            // rethrown as is so batched lookups can still read the error code
+            throw e;
+        }
+        blocks = doc.getElementsByTagName("snapshotSet");
+        for( int i=0; i<blocks.getLength(); i++ ) {
+            NodeList items = blocks.item(i).getChildNodes();
+
+            for( int j=0; j<items.getLength(); j++ ) {
+                Node item = items.item(j);
+
+                if( item.getNodeName().equals("item") ) {
+                    Snapshot snapshot = toSnapshot(item);
+
+                    if( snapshot != null && snapshotIds.contains(snapshot.getProviderSnapshotId()) ) {
+                        snapshots.put(snapshot.getProviderSnapshotId(), snapshot);
+                    }
+                }
+            }
+        }
+        return snapshots;
+    }
+
     @Override
     public @Nonnull Requirement identifyAttachmentRequirement() throws InternalException, CloudException {
         return getCapabilities().identifyAttachmentRequirement();
@@ -32,6 +32,7 @@ import org.dasein.cloud.Requirement;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.Tag;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.LookupBatcher;
 import org.dasein.cloud.aws.model.*;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.compute.VolumeProduct;
@@ -276,47 +277,71 @@ public class EBSVolume extends AbstractVolumeSupport<AWSCloud> {
             if( ctx == null ) {
                 throw new CloudException("No context exists for this request.");
             }
-            Map<String,String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_VOLUMES);
-            EC2Method method;
-            NodeList blocks;
-            Document doc;
+            LookupBatcher<Volume> batcher = getProvider().getLookupBatcher("volume");
 
-            parameters.put("VolumeId.1", volumeId);
-            method = new EC2Method(getProvider(), parameters);
-            try {
-                doc = method.invoke();
+            if( batcher != null ) {
+                final ProviderContext batchContext = ctx;
+
+                return batcher.get(volumeId, new LookupBatcher.Lookup<Volume>() {
+                    public @Nonnull Map<String, Volume> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                        return describeVolumes(batchContext, ids);
+                    }
+                });
             }
-            catch( EC2Exception e ) {
-                String code = e.getCode();
+            return describeVolumes(ctx, Collections.singletonList(volumeId)).get(volumeId);
+        }
+        finally {
+            APITrace.end();
+        }
+	}
 
-                if( code != null && (code.startsWith("InvalidVolume.NotFound") || code.equals("InvalidParameterValue")) ) {
-                    return null;
+    /**
+     * Describes the given volumes in one call. A single unknown volume yields an empty map; when several volumes are
+     * requested the error is thrown so the caller can tell which ID was at fault.
+     */
+    private @Nonnull Map<String, Volume> describeVolumes( @Nonnull ProviderContext ctx, @Nonnull Collection<String> volumeIds ) throws InternalException, CloudException {
+        Map<String,String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_VOLUMES);
+        Map<String, Volume> volumes = new HashMap<String, Volume>();
+        EC2Method method;
+        NodeList blocks;
+        Document doc;
+
+        AWSCloud.addIndexedParameters(parameters, "VolumeId.", volumeIds.toArray(new String[volumeIds.size()]));
+        method = new EC2Method(getProvider(), parameters);
+        try {
+            doc = method.invoke();
+        }
+        catch( EC2Exception e ) {
+            String code = e.getCode();
+
+            if( code != null && (code.startsWith("InvalidVolume.NotFound") || code.equals("InvalidParameterValue")) ) {
+                if( volumeIds.size() > 1 ) {
+                    throw e;
                 }
-                logger.error(e.getSummary());
-                throw new CloudException(e);
+                return volumes;
             }
-            blocks = doc.getElementsByTagName("volumeSet");
-            for( int i=0; i<blocks.getLength(); i++ ) {
-                NodeList items = blocks.item(i).getChildNodes();
+            logger.error(e.getSummary());
+            // rethrown as is so batched lookups can still read the error code
+            throw e;
+        }
+        blocks = doc.getElementsByTagName("volumeSet");
+        for( int i=0; i<blocks.getLength(); i++ ) {
+            NodeList items = blocks.item(i).getChildNodes();
 
-                for( int j=0; j<items.getLength(); j++ ) {
-                    Node item = items.item(j);
+            for( int j=0; j<items.getLength(); j++ ) {
+                Node item = items.item(j);
 
-                    if( item.getNodeName().equals("item") ) {
-                        Volume volume = toVolume(ctx, item);
+                if( item.getNodeName().equals("item") ) {
+                    Volume volume = toVolume(ctx, item);
 
-                        if( volume != null && volume.getProviderVolumeId().equals(volumeId) ) {
-                            return volume;
-                        }
+                    if( volume != null && volumeIds.contains(volume.getProviderVolumeId()) ) {
+                        volumes.put(volume.getProviderVolumeId(), volume);
                     }
                 }
             }
-            return null;
         }
-        finally {
-            APITrace.end();
-        }
-	}
+        return volumes;
+    }
 
     @Override
     public @Nonnull Requirement getVolumeProductRequirement() throws InternalException, CloudException {
@@ -684,9 +709,16 @@ public class EBSVolume extends AbstractVolumeSupport<AWSCloud> {
 	}
 
   static public @Nullable VolumeState toVolumeState( Node node ) {
-    String s = AWSCloud.getTextValue( node );
+    return toVolumeState( AWSCloud.getTextValue( node ) );
+  }
+
+  static public @Nullable VolumeState toVolumeState( @Nullable String s ) {
     VolumeState state;
 
+    if( s == null ) {
+      return null;
+    }
+
     if( s.equals("creating") || s.equals("attaching") || s.equals("attached") || s.equals("detaching") || s.equals("detached") ) {
       state = VolumeState.PENDING;
     }
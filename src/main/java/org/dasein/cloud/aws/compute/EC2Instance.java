@@ -20,26 +20,24 @@
 package org.dasein.cloud.aws.compute;
 
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.aws.AWSCloud;
 import org.dasein.cloud.aws.AWSResourceNotFoundException;
+import org.dasein.cloud.aws.LookupBatcher;
+import org.dasein.cloud.aws.PrefetchWindow;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.StateWaiter;
+import org.dasein.cloud.aws.TimestampParser;
 import org.dasein.cloud.compute.*;
+import org.dasein.cloud.dc.DataCenter;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.*;
 import org.dasein.cloud.util.APITrace;
-import org.dasein.cloud.util.Cache;
-import org.dasein.cloud.util.CacheLevel;
 import org.dasein.util.CalendarWrapper;
-import org.dasein.util.uom.storage.Gigabyte;
-import org.dasein.util.uom.storage.Megabyte;
-import org.dasein.util.uom.storage.Storage;
-import org.dasein.util.uom.time.Day;
-import org.dasein.util.uom.time.TimePeriod;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.dasein.util.Jiterator;
+import org.dasein.util.JiteratorPopulator;
+import org.dasein.util.PopulatorThread;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -53,6 +51,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class EC2Instance extends AbstractVMSupport<AWSCloud> {
     static private final Logger   logger       = Logger.getLogger(EC2Instance.class);
@@ -159,44 +158,40 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         }
     }
 
-    static private class Metric implements Comparable<Metric> {
-        int    samples   = 0;
-        long   timestamp = -1L;
-        double minimum   = -1.0;
-        double maximum   = 0.0;
-        double average   = 0.0;
+    static private final String[] INSTANCE_METRICS = { "CPUUtilization", "DiskReadBytes", "DiskReadOps", "DiskWriteBytes", "DiskWriteOps", "NetworkIn", "NetworkOut" };
+    static private final String[] VOLUME_METRICS   = { null, "VolumeReadBytes", "VolumeReadOps", "VolumeWriteBytes", "VolumeWriteOps", null, null };
+    static private final String[] METRIC_UNITS     = { "Percent", "Bytes", "Count", "Bytes", "Count", "Bytes", "Bytes" };
 
-        public int compareTo( Metric other ) {
-            if( other == this ) {
-                return 0;
-            }
-            return ( Long.valueOf(timestamp) ).compareTo(other.timestamp);
-        }
-    }
-
-    private Set<Metric> calculate( String metric, String unit, String id, boolean idIsVolumeId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
+    /**
+     * Fetches one metric at one-minute resolution and records its datapoints. Disk metrics are read from the root
+     * volume when a volume ID is given.
+     * @param metric the metric slice of {@link MetricBuckets} to fetch
+     */
+    private void queryMetric( int metric, @Nonnull String instanceId, @Nullable String volumeId, @Nonnull MetricBuckets into, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "calculateVMAnalytics");
         try {
             if( !getProvider().getEC2Provider().isAWS() ) {
-                return new TreeSet<Metric>();
+                return;
             }
+            boolean idIsVolumeId = ( volumeId != null && VOLUME_METRICS[metric] != null );
             Map<String, String> parameters = getProvider().getStandardCloudWatchParameters(getContext(), EC2Method.GET_METRIC_STATISTICS);
             SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
-            fmt.setCalendar(UTC_CALENDAR);
+            // queries run concurrently, so each format needs its own calendar rather than the shared one
+            fmt.setTimeZone(UTC_CALENDAR.getTimeZone());
             EC2Method method;
-            NodeList blocks;
             Document doc;
 
             parameters.put("EndTime", fmt.format(new Date(endTimestamp)));
             parameters.put("StartTime", fmt.format(new Date(startTimestamp)));
-            parameters.put("MetricName", metric);
+            parameters.put("MetricName", idIsVolumeId ? VOLUME_METRICS[metric] : INSTANCE_METRICS[metric]);
             parameters.put("Namespace", idIsVolumeId ? "AWS/EBS" : "AWS/EC2");
-            parameters.put("Unit", unit);
+            parameters.put("Unit", METRIC_UNITS[metric]);
             parameters.put("Dimensions.member.Name.1", idIsVolumeId ? "VolumeId" : "InstanceId");
-            parameters.put("Dimensions.member.Value.1", id);
+            parameters.put("Dimensions.member.Value.1", idIsVolumeId ? volumeId : instanceId);
             parameters.put("Statistics.member.1", "Average");
             parameters.put("Statistics.member.2", "Minimum");
             parameters.put("Statistics.member.3", "Maximum");
+            parameters.put("Statistics.member.4", "SampleCount");
             parameters.put("Period", "60");
             method = new EC2Method("monitoring", getProvider(), parameters);
             try {
@@ -205,169 +200,300 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
                 logger.error(e.getSummary());
                 throw new CloudException(e);
             }
-            TreeSet<Metric> metrics = new TreeSet<Metric>();
-            fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-            fmt.setCalendar(UTC_CALENDAR);
-            blocks = doc.getElementsByTagName("member");
-            for( int i = 0; i < blocks.getLength(); i++ ) {
-                NodeList items = blocks.item(i).getChildNodes();
-                Metric m = new Metric();
+            recordDatapoints(metric, doc, into);
+        } finally {
+            APITrace.end();
+        }
+    }
 
-                for( int j = 0; j < items.getLength(); j++ ) {
-                    Node item = items.item(j);
+    /**
+     * Records the datapoints of a GetMetricStatistics response at their own timestamps.
+     * @param metric the metric slice of {@link MetricBuckets} the response is for
+     * @param doc the response
+     * @param into the buckets to record into
+     * @throws InternalException a datapoint timestamp could not be parsed
+     */
+    static void recordDatapoints( int metric, @Nonnull Document doc, @Nonnull MetricBuckets into ) throws InternalException {
+        NodeList blocks = doc.getElementsByTagName("member");
 
-                    if( item.getNodeName().equals("Timestamp") ) {
-                        String dateString = item.getFirstChild().getNodeValue();
+        for( int i = 0; i < blocks.getLength(); i++ ) {
+            NodeList items = blocks.item(i).getChildNodes();
+            long timestamp = -1L;
+            double average = 0.0, minimum = 0.0, maximum = 0.0;
+            int samples = 0;
 
-                        try {
-                            m.timestamp = fmt.parse(dateString).getTime();
-                        } catch( ParseException e ) {
-                            logger.error(e);
-                            throw new InternalException(e);
-                        }
-                    }
-                    else if( item.getNodeName().equals("Average") ) {
-                        m.average = Double.parseDouble(item.getFirstChild().getNodeValue());
-                    }
-                    else if( item.getNodeName().equals("Minimum") ) {
-                        m.minimum = Double.parseDouble(item.getFirstChild().getNodeValue());
-                    }
-                    else if( item.getNodeName().equals("Maximum") ) {
-                        m.maximum = Double.parseDouble(item.getFirstChild().getNodeValue());
-                    }
-                    else if( item.getNodeName().equals("Samples") ) {
-                        m.samples = ( int ) Double.parseDouble(item.getFirstChild().getNodeValue());
+            for( int j = 0; j < items.getLength(); j++ ) {
+                Node item = items.item(j);
+
+                if( !item.hasChildNodes() ) {
+                    continue;
+                }
+                String value = item.getFirstChild().getNodeValue();
+
+                if( item.getNodeName().equals("Timestamp") ) {
+                    timestamp = TimestampParser.parse(value.trim());
+                    if( timestamp < 0L ) {
+                        throw new InternalException("Invalid datapoint timestamp: " + value);
                     }
                 }
-                metrics.add(m);
+                else if( item.getNodeName().equals("Average") ) {
+                    average = Double.parseDouble(value);
+                }
+                else if( item.getNodeName().equals("Minimum") ) {
+                    minimum = Double.parseDouble(value);
+                }
+                else if( item.getNodeName().equals("Maximum") ) {
+                    maximum = Double.parseDouble(value);
+                }
+                else if( item.getNodeName().equals("SampleCount") ) {
+                    samples = ( int ) Double.parseDouble(value);
+                }
+            }
+            if( timestamp > -1L ) {
+                into.record(metric, timestamp, samples, average, minimum, maximum);
             }
-            return metrics;
-        } finally {
-            APITrace.end();
         }
     }
 
-    private interface ApplyCalcs {
-        public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum );
+    /**
+     * Fetches one metric of one instance into its buckets.
+     */
+    interface MetricSource {
+        public void query( int metric, @Nonnull String instanceId, @Nullable String volumeId, @Nonnull MetricBuckets into, long startTimestamp, long endTimestamp ) throws CloudException, InternalException;
     }
 
-    private void calculate( VmStatistics stats, String metricName, String unit, String id, boolean idIsVolumeId, long startTimestamp, long endTimestamp, ApplyCalcs apply ) throws CloudException, InternalException {
-        Set<Metric> metrics = calculate(metricName, unit, id, idIsVolumeId, startTimestamp, endTimestamp);
-        double minimum = -1.0, maximum = 0.0, sum = 0.0;
-        long start = -1L, end = 0L;
-        int samples = 0;
-
-        for( Metric metric : metrics ) {
-            if( start < 0L ) {
-                start = metric.timestamp;
-            }
-            if( metric.timestamp > end ) {
-                end = metric.timestamp;
-            }
-            samples++;
-            if( metric.minimum < minimum || minimum < 0.0 ) {
-                minimum = metric.minimum;
+    /**
+     * @return metric queries against CloudWatch on the provider's request executor
+     */
+    private @Nonnull MetricQueries newMetricQueries() {
+        return new MetricQueries(getProvider().getRequestExecutor(), getProvider().getMetricRequestPermits(), new MetricSource() {
+            @Override
+            public void query( int metric, @Nonnull String instanceId, @Nullable String volumeId, @Nonnull MetricBuckets into, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
+                queryMetric(metric, instanceId, volumeId, into, startTimestamp, endTimestamp);
             }
-            if( metric.maximum > maximum ) {
-                maximum = metric.maximum;
+        });
+    }
+
+    /**
+     * Runs metric queries on an executor, normally the provider's request executor. Each query holds one of the
+     * provider's {@link AWSCloud#getMetricRequestPermits() metric permits} from submission until it finishes, so
+     * submitting blocks while the permits are in use. Once a query fails the remaining ones are skipped.
+     */
+    static class MetricQueries {
+        private final ExecutorService executor;
+        private final Semaphore       permits;
+        private final MetricSource    source;
+        private final List<Future<?>> pending = new ArrayList<Future<?>>();
+        private volatile boolean      failed  = false;
+
+        MetricQueries( @Nonnull ExecutorService executor, @Nonnull Semaphore permits, @Nonnull MetricSource source ) {
+            this.executor = executor;
+            this.permits = permits;
+            this.source = source;
+        }
+
+        /**
+         * Starts one query per metric for an instance.
+         * @param done run on the executor after the last of the instance's queries finishes, if no query has failed
+         */
+        void submit( @Nonnull final String instanceId, @Nullable final String volumeId, @Nonnull final MetricBuckets into, final long startTimestamp, final long endTimestamp, @Nullable final Runnable done ) throws CloudException, InternalException {
+            final AtomicInteger remaining = new AtomicInteger(MetricBuckets.METRICS);
+
+            for( int m = 0; m < MetricBuckets.METRICS; m++ ) {
+                final int metric = m;
+
+                check();
+                try {
+                    permits.acquire();
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalException(e);
+                }
+                try {
+                    pending.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            try {
+                                if( !failed ) {
+                                    source.query(metric, instanceId, volumeId, into, startTimestamp, endTimestamp);
+                                }
+                            } catch( Exception e ) {
+                                failed = true;
+                                throw e;
+                            } finally {
+                                permits.release();
+                            }
+                            if( remaining.decrementAndGet() == 0 && done != null && !failed ) {
+                                done.run();
+                            }
+                            return null;
+                        }
+                    }));
+                } catch( RejectedExecutionException e ) {
+                    permits.release();
+                    throw new InternalException(e);
+                }
             }
-            sum += metric.average;
         }
-        if( start < 0L ) {
-            start = startTimestamp;
-        }
-        if( end < 0L ) {
-            end = endTimestamp;
-            if( end < 1L ) {
-                end = System.currentTimeMillis();
+
+        /**
+         * Throws the failure of any finished query and forgets the ones that succeeded.
+         */
+        void check() throws CloudException, InternalException {
+            Iterator<Future<?>> it = pending.iterator();
+
+            while( it.hasNext() ) {
+                Future<?> future = it.next();
+
+                if( future.isDone() ) {
+                    get(future);
+                    it.remove();
+                }
             }
         }
-        if( minimum < 0.0 ) {
-            minimum = 0.0;
+
+        /**
+         * Waits for every submitted query, throwing the first failure.
+         */
+        void await() throws CloudException, InternalException {
+            for( Future<?> future : pending ) {
+                get(future);
+            }
+            pending.clear();
         }
-        apply.apply(stats, start, end, samples, samples == 0 ? 0.0 : sum / samples, minimum, maximum);
-    }
 
-    private void calculateCpuUtilization( VmStatistics statistics, String instanceId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setSamples(samples);
-                stats.setStartTimestamp(start);
-                stats.setMinimumCpuUtilization(minimum);
-                stats.setAverageCpuUtilization(average);
-                stats.setMaximumCpuUtilization(maximum);
-                stats.setEndTimestamp(end);
+        private void get( @Nonnull Future<?> future ) throws CloudException, InternalException {
+            try {
+                future.get();
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            } catch( ExecutionException e ) {
+                Throwable cause = e.getCause();
+
+                if( cause instanceof CloudException ) {
+                    throw ( CloudException ) cause;
+                }
+                if( cause instanceof InternalException ) {
+                    throw ( InternalException ) cause;
+                }
+                throw new InternalException(cause);
             }
-        };
-        calculate(statistics, "CPUUtilization", "Percent", instanceId, false, startTimestamp, endTimestamp, apply);
+        }
     }
 
-    private void calculateDiskReadBytes( VmStatistics statistics, String id, boolean idIsVolumeId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setMinimumDiskReadBytes(minimum);
-                stats.setAverageDiskReadBytes(average);
-                stats.setMaximumDiskReadBytes(maximum);
-            }
-        };
-        calculate(statistics, idIsVolumeId ? "VolumeReadBytes" : "DiskReadBytes", "Bytes", id, idIsVolumeId, startTimestamp, endTimestamp, apply);
+    /**
+     * @return the root volume whose disk metrics stand in for the instance's, or null to use the instance's own
+     */
+    static private @Nullable String getMetricVolumeId( @Nonnull AWSCloud provider, @Nonnull VirtualMachine vm ) {
+        if( vm.isPersistent() && vm.getProviderVolumeIds(provider).length > 0 ) {
+            return vm.getProviderVolumeIds(provider)[0];
+        }
+        return null;
     }
 
-    private void calculateDiskReadOps( VmStatistics statistics, String id, boolean idIsVolumeId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setMinimumDiskReadOperations(minimum);
-                stats.setAverageDiskReadOperations(average);
-                stats.setMaximumDiskReadOperations(maximum);
+    static private final int FILTER_BATCH_SIZE = 100;
+
+    /**
+     * Looks up the given instances through an instance-id filter, which leaves out unknown instances rather than
+     * failing the request.
+     */
+    private @Nonnull Map<String, VirtualMachine> findInstances( @Nonnull Collection<String> instanceIds ) throws InternalException, CloudException {
+        ProviderContext ctx = getProvider().getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was established for this request");
+        }
+        Map<String, VirtualMachine> found = new HashMap<String, VirtualMachine>();
+        List<String> ids = new ArrayList<String>(instanceIds);
+
+        for( int i = 0; i < ids.size(); i += FILTER_BATCH_SIZE ) {
+            Map<String, String> parameters = getProvider().getStandardParameters(ctx, EC2Method.DESCRIBE_INSTANCES);
+            List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+
+            AWSCloud.addFilterParameters(parameters, 1, "instance-id", ids.subList(i, Math.min(ids.size(), i + FILTER_BATCH_SIZE)));
+            try {
+                new EC2Method(getProvider(), parameters).invoke(new DescribeInstancesResponseParser(ctx.getAccountNumber(), ctx.getRegionId(), null, null, vms));
+            } catch( EC2Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
             }
-        };
-        calculate(statistics, idIsVolumeId ? "VolumeReadOps" : "DiskReadOps", "Count", id, idIsVolumeId, startTimestamp, endTimestamp, apply);
+            for( VirtualMachine vm : vms ) {
+                found.put(vm.getProviderVirtualMachineId(), vm);
+            }
+        }
+        return found;
     }
 
-    private void calculateDiskWriteBytes( VmStatistics statistics, String id, boolean idIsVolumeId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setMinimumDiskWriteBytes(minimum);
-                stats.setAverageDiskWriteBytes(average);
-                stats.setMaximumDiskWriteBytes(maximum);
-            }
-        };
-        calculate(statistics, idIsVolumeId ? "VolumeWriteBytes" : "DiskWriteBytes", "Bytes", id, idIsVolumeId, startTimestamp, endTimestamp, apply);
+    /**
+     * Fetches per-minute metrics for many instances. The instances are looked up in batches to find their root
+     * volumes, then their queries are spread over the request executor under the provider's global limit on
+     * outstanding metric queries.
+     * @return the reduced metrics for every instance that exists, in the order the IDs were given
+     */
+    private @Nonnull <T> Map<String, T> collectFleetMetrics( @Nonnull Collection<String> instanceIds, long startTimestamp, long endTimestamp, @Nonnull MetricReducer<T> reducer ) throws InternalException, CloudException {
+        Set<String> ids = new LinkedHashSet<String>(instanceIds);
+        Map<String, String> volumeIds = new HashMap<String, String>();
+
+        for( VirtualMachine vm : findInstances(ids).values() ) {
+            volumeIds.put(vm.getProviderVirtualMachineId(), getMetricVolumeId(getProvider(), vm));
+        }
+        return collectFleetMetrics(ids, volumeIds, startTimestamp, endTimestamp, reducer, newMetricQueries());
     }
 
-    private void calculateDiskWriteOps( VmStatistics statistics, String id, boolean idIsVolumeId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setMinimumDiskWriteOperations(minimum);
-                stats.setAverageDiskWriteOperations(average);
-                stats.setMaximumDiskWriteOperations(maximum);
+    /**
+     * Queries the metrics of every instance that exists. Each instance's buckets are reduced as soon as its own
+     * queries finish, so only the instances in flight hold raw datapoints.
+     * @param instanceIds the instances asked for
+     * @param volumeIds the instances that exist, mapped to the volume their disk metrics come from, if any
+     * @return the reduced metrics for every instance that exists, in the order the IDs were given
+     */
+    static @Nonnull <T> Map<String, T> collectFleetMetrics( @Nonnull Collection<String> instanceIds, @Nonnull Map<String, String> volumeIds, final long startTimestamp, final long endTimestamp, @Nonnull final MetricReducer<T> reducer, @Nonnull MetricQueries queries ) throws InternalException, CloudException {
+        final ConcurrentHashMap<String, T> reduced = new ConcurrentHashMap<String, T>();
+
+        for( final String id : instanceIds ) {
+            if( !volumeIds.containsKey(id) ) {
+                continue;
             }
-        };
-        calculate(statistics, idIsVolumeId ? "VolumeWriteOps" : "DiskWriteOps", "Count", id, idIsVolumeId, startTimestamp, endTimestamp, apply);
-    }
+            final MetricBuckets buckets = new MetricBuckets(startTimestamp, endTimestamp);
+
+            queries.submit(id, volumeIds.get(id), buckets, startTimestamp, endTimestamp, new Runnable() {
+                @Override
+                public void run() {
+                    reduced.put(id, reducer.reduce(buckets));
+                }
+            });
+        }
+        queries.await();
+
+        Map<String, T> results = new LinkedHashMap<String, T>();
 
-    private void calculateNetworkIn( VmStatistics statistics, String instanceId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setMinimumNetworkIn(minimum);
-                stats.setAverageNetworkIn(average);
-                stats.setMaximumNetworkIn(maximum);
+        for( String id : instanceIds ) {
+            T value = reduced.get(id);
+
+            if( value != null ) {
+                results.put(id, value);
             }
-        };
-        calculate(statistics, "NetworkIn", "Bytes", instanceId, false, startTimestamp, endTimestamp, apply);
+        }
+        return results;
     }
 
-    private void calculateNetworkOut( VmStatistics statistics, String instanceId, long startTimestamp, long endTimestamp ) throws CloudException, InternalException {
-        ApplyCalcs apply = new ApplyCalcs() {
-            public void apply( VmStatistics stats, long start, long end, int samples, double average, double minimum, double maximum ) {
-                stats.setMinimumNetworkOut(minimum);
-                stats.setAverageNetworkOut(average);
-                stats.setMaximumNetworkOut(maximum);
-            }
-        };
-        calculate(statistics, "NetworkOut", "Bytes", instanceId, false, startTimestamp, endTimestamp, apply);
+    interface MetricReducer<T> {
+        public @Nonnull T reduce( @Nonnull MetricBuckets buckets );
     }
 
+    static final MetricReducer<VmStatistics> SUMMARY = new MetricReducer<VmStatistics>() {
+        public @Nonnull VmStatistics reduce( @Nonnull MetricBuckets buckets ) {
+            return buckets.summarize();
+        }
+    };
+
+    static final MetricReducer<Iterable<VmStatistics>> PER_MINUTE = new MetricReducer<Iterable<VmStatistics>>() {
+        public @Nonnull Iterable<VmStatistics> reduce( @Nonnull MetricBuckets buckets ) {
+            return buckets.toStatistics();
+        }
+    };
+
     @Override
     public @Nonnull VirtualMachine clone( @Nonnull String vmId, @Nonnull String intoDcId, @Nonnull String name, @Nonnull String description, boolean powerOn, @Nullable String... firewallIds ) throws InternalException, CloudException {
         throw new OperationNotSupportedException("AWS instances cannot be cloned.");
@@ -395,7 +521,7 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         }
     }
 
-    private Architecture getArchitecture( String size ) {
+    static Architecture getArchitecture( String size ) {
         if( size.equals("m1.small") || size.equals("c1.medium") ) {
             return Architecture.I32;
         }
@@ -676,6 +802,14 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
     }
 
     private @Nonnull List<VirtualMachine> describeInstances(@Nonnull String ... instanceIds) throws InternalException, CloudException {
+        return describeInstances(true, instanceIds);
+    }
+
+    /**
+     * @param ignoreNotFound true to treat a request naming an unknown instance as returning no instances; when false
+     * the error is thrown so a batch of IDs can be split up
+     */
+    private @Nonnull List<VirtualMachine> describeInstances(boolean ignoreNotFound, @Nonnull String ... instanceIds) throws InternalException, CloudException {
         List<VirtualMachine> results = new ArrayList<VirtualMachine>();
         ProviderContext ctx = getProvider().getContext();
 
@@ -683,81 +817,82 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
             throw new CloudException("No context was established for this request");
         }
 
-        Future<Iterable<IpAddress>> ipPoolFuture = null;
-        Iterable<IpAddress> addresses;
-        if( getProvider().hasNetworkServices() ) {
-            NetworkServices services = getProvider().getNetworkServices();
-
-            if( services != null ) {
-                if( services.hasIpAddressSupport() ) {
-                    IpAddressSupport support = services.getIpAddressSupport();
-
-                    if( support != null ) {
-                        ipPoolFuture = support.listIpPoolConcurrently(IPVersion.IPV4, false);
-                    }
-                }
-            }
-        }
-
-
+        Future<Iterable<IpAddress>> ipPoolFuture = listIpPoolConcurrently();
         Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_INSTANCES);
+        List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
         EC2Method method;
-        NodeList blocks;
-        Document doc;
 
         AWSCloud.addIndexedParameters(parameters, "InstanceId", instanceIds);
 
         method = new EC2Method(getProvider(), parameters);
         try {
-            doc = method.invoke();
+            method.invoke(new DescribeInstancesResponseParser(ctx.getAccountNumber(), ctx.getRegionId(), null, ipPoolFuture, vms));
         } catch( EC2Exception e ) {
             String code = e.getCode();
 
             if( code != null && code.startsWith("InvalidInstanceID") ) {
+                if( !ignoreNotFound ) {
+                    throw e;
+                }
                 return results;
             }
             logger.error(e.getSummary());
-            throw new CloudException(e);
+            // rethrown as is so batched lookups can still read the error code
+            throw e;
         }
-        blocks = doc.getElementsByTagName("instancesSet");
-        for( int i = 0; i < blocks.getLength(); i++ ) {
-            NodeList instances = blocks.item(i).getChildNodes();
+        Set<String> requested = new HashSet<String>(Arrays.asList(instanceIds));
 
-            for( int j = 0; j < instances.getLength(); j++ ) {
-                Node instance = instances.item(j);
-
-                if( instance.getNodeName().equals("item") ) {
-                    try {
-                        if( ipPoolFuture != null ) {
-                            addresses = ipPoolFuture.get(30, TimeUnit.SECONDS);
-                        }
-                        else {
-                            addresses = Collections.emptyList();
-                        }
-                    } catch( InterruptedException e ) {
-                        logger.error(e.getMessage());
-                        addresses = Collections.emptyList();
-                    } catch( ExecutionException e ) {
-                        logger.error(e.getMessage());
-                        addresses = Collections.emptyList();
-                    } catch( TimeoutException e ) {
-                        logger.error(e.getMessage());
-                        addresses = Collections.emptyList();
-                    }
-                    VirtualMachine server = toVirtualMachine(ctx, instance, addresses);
-                    if( server != null && Arrays.binarySearch(instanceIds, server.getProviderVirtualMachineId()) >= 0) {
-                        results.add(server);
-                    }
-                }
+        for( VirtualMachine server : vms ) {
+            if( requested.contains(server.getProviderVirtualMachineId()) ) {
+                results.add(server);
             }
         }
         return results;
     }
 
+    /**
+     * @return a multi-ID lookup that leaves out unknown instances when given one ID and fails when given several, so
+     * batches naming an unknown instance are split up
+     */
+    private @Nonnull LookupBatcher.Lookup<VirtualMachine> getInstanceLookup() {
+        return new LookupBatcher.Lookup<VirtualMachine>() {
+            public @Nonnull Map<String, VirtualMachine> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                Map<String, VirtualMachine> vms = new HashMap<String, VirtualMachine>();
+
+                for( VirtualMachine vm : describeInstances(ids.size() < 2, ids.toArray(new String[ids.size()])) ) {
+                    vms.put(vm.getProviderVirtualMachineId(), vm);
+                }
+                return vms;
+            }
+        };
+    }
+
+    static private final long WAIT_MIN_INTERVAL = 2000L;
+    static private final long WAIT_MAX_INTERVAL = 15000L;
+
+    /**
+     * Waits for an instance to satisfy a condition through the provider's shared instance waiter, which polls all
+     * waiting instances together.
+     * @param instanceId the instance to wait for
+     * @param condition the state being waited for; it is given null while the instance cannot be found
+     * @param timeout milliseconds to wait, or 0 to wait indefinitely
+     * @return the pending wait
+     */
+    @Nonnull StateWaiter.Wait<VirtualMachine> waitForInstance( @Nonnull String instanceId, @Nonnull StateWaiter.Condition<VirtualMachine> condition, long timeout ) throws CloudException {
+        StateWaiter<VirtualMachine> waiter = getProvider().getStateWaiter("instance", WAIT_MIN_INTERVAL, WAIT_MAX_INTERVAL);
+
+        return waiter.waitFor(instanceId, condition, timeout, getInstanceLookup());
+    }
+
     @Override
     public @Nullable VirtualMachine getVirtualMachine( @Nonnull String instanceId ) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "getVirtualMachine");
         try {
+            LookupBatcher<VirtualMachine> batcher = getProvider().getLookupBatcher("instance");
+
+            if( batcher != null ) {
+                return batcher.get(instanceId, getInstanceLookup());
+            }
             List<VirtualMachine> instances = describeInstances(instanceId);
             if( instances.size() == 1 ) {
                 return instances.get(0);
@@ -776,17 +911,14 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
 
     @Override
     public @Nullable VirtualMachineProduct getProduct( @Nonnull String sizeId ) throws CloudException, InternalException {
-        for( Architecture a : getCapabilities().listSupportedArchitectures() ) {
-            for( VirtualMachineProduct prd : listProducts(a) ) {
-                if( prd.getProviderProductId().equals(sizeId) ) {
-                    return prd;
-                }
-            }
+        ProviderContext ctx = getProvider().getContext();
+        if( ctx == null ) {
+            throw new CloudException("No context was set for this request");
         }
-        return null;
+        return getProductCatalog(ctx).get(ctx.getRegionId(), sizeId);
     }
 
-    private VmState getServerState( String state ) {
+    static VmState getServerState( String state ) {
         if( state.equals("pending") ) {
             return VmState.PENDING;
         }
@@ -812,44 +944,46 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         return VmState.PENDING;
     }
 
+    static private final long STATISTICS_MAX_AGE        = 2L * CalendarWrapper.DAY;
+    static private final long PERIOD_STATISTICS_MAX_AGE = CalendarWrapper.DAY;
+
+    /**
+     * Clamps a requested range to one CloudWatch can answer: ending no later than now, reaching back no further
+     * than the given age and spanning at least two minutes.
+     * @return the start and end timestamps
+     */
+    static private @Nonnull long[] getStatisticsRange( long startTimestamp, long endTimestamp, long maxAge ) {
+        if( endTimestamp < 1L ) {
+            endTimestamp = System.currentTimeMillis() + 1000L;
+        }
+        if( startTimestamp < ( System.currentTimeMillis() - maxAge ) ) {
+            startTimestamp = System.currentTimeMillis() - maxAge;
+            if( startTimestamp > ( endTimestamp - ( 2L * CalendarWrapper.MINUTE ) ) ) {
+                endTimestamp = startTimestamp + ( 2L * CalendarWrapper.MINUTE );
+            }
+        }
+        else if( startTimestamp > ( endTimestamp - ( 2L * CalendarWrapper.MINUTE ) ) ) {
+            startTimestamp = endTimestamp - ( 2L * CalendarWrapper.MINUTE );
+        }
+        return new long[] { startTimestamp, endTimestamp };
+    }
+
     @Override
     public @Nonnull VmStatistics getVMStatistics( @Nonnull String instanceId, @Nonnegative long startTimestamp, @Nonnegative long endTimestamp ) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "getVMStatistics");
         try {
-            VmStatistics statistics = new VmStatistics();
+            long[] range = getStatisticsRange(startTimestamp, endTimestamp, STATISTICS_MAX_AGE);
+            VirtualMachine vm = getVirtualMachine(instanceId);
 
-            if( endTimestamp < 1L ) {
-                endTimestamp = System.currentTimeMillis() + 1000L;
-            }
-            if( startTimestamp < ( System.currentTimeMillis() - ( 2L * CalendarWrapper.DAY ) ) ) {
-                startTimestamp = System.currentTimeMillis() - ( 2L * CalendarWrapper.DAY );
-                if( startTimestamp > ( endTimestamp - ( 2L * CalendarWrapper.MINUTE ) ) ) {
-                    endTimestamp = startTimestamp + ( 2L * CalendarWrapper.MINUTE );
-                }
-            }
-            else if( startTimestamp > ( endTimestamp - ( 2L * CalendarWrapper.MINUTE ) ) ) {
-                startTimestamp = endTimestamp - ( 2L * CalendarWrapper.MINUTE );
+            if( vm == null ) {
+                return new VmStatistics();
             }
+            MetricBuckets buckets = new MetricBuckets(range[0], range[1]);
+            MetricQueries queries = newMetricQueries();
 
-            String id = instanceId;
-            boolean idIsVolumeId = false;
-            VirtualMachine vm = getVirtualMachine(instanceId);
-            if( vm != null ) {
-                if( vm.isPersistent() ) {
-                    if( vm.getProviderVolumeIds(getProvider()).length > 0 ) {
-                        id = vm.getProviderVolumeIds(getProvider())[0];
-                        idIsVolumeId = true;
-                    }
-                }
-                calculateCpuUtilization(statistics, instanceId, startTimestamp, endTimestamp);
-                calculateDiskReadBytes(statistics, id, idIsVolumeId, startTimestamp, endTimestamp);
-                calculateDiskReadOps(statistics, id, idIsVolumeId, startTimestamp, endTimestamp);
-                calculateDiskWriteBytes(statistics, id, idIsVolumeId, startTimestamp, endTimestamp);
-                calculateDiskWriteOps(statistics, id, idIsVolumeId, startTimestamp, endTimestamp);
-                calculateNetworkIn(statistics, instanceId, startTimestamp, endTimestamp);
-                calculateNetworkOut(statistics, instanceId, startTimestamp, endTimestamp);
-            }
-            return statistics;
+            queries.submit(instanceId, getMetricVolumeId(getProvider(), vm), buckets, range[0], range[1], null);
+            queries.await();
+            return buckets.summarize();
         } finally {
             APITrace.end();
         }
@@ -859,154 +993,56 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
     public @Nonnull Iterable<VmStatistics> getVMStatisticsForPeriod( @Nonnull String instanceId, long startTimestamp, long endTimestamp ) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "getVMStatisticsForPeriod");
         try {
-            if( endTimestamp < 1L ) {
-                endTimestamp = System.currentTimeMillis() + 1000L;
-            }
-            if( startTimestamp < ( System.currentTimeMillis() - CalendarWrapper.DAY ) ) {
-                startTimestamp = System.currentTimeMillis() - CalendarWrapper.DAY;
-                if( startTimestamp > ( endTimestamp - ( 2L * CalendarWrapper.MINUTE ) ) ) {
-                    endTimestamp = startTimestamp + ( 2L * CalendarWrapper.MINUTE );
-                }
-            }
-            else if( startTimestamp > ( endTimestamp - ( 2L * CalendarWrapper.MINUTE ) ) ) {
-                startTimestamp = endTimestamp - ( 2L * CalendarWrapper.MINUTE );
-            }
-            TreeMap<Integer, VmStatistics> statMap = new TreeMap<Integer, VmStatistics>();
-            int minutes = ( int ) ( ( endTimestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-
-            for( int i = 1; i <= minutes; i++ ) {
-                statMap.put(i, new VmStatistics());
-            }
-            Set<Metric> metrics = calculate("CPUUtilization", "Percent", instanceId, false, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
-
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageCpuUtilization(m.average);
-                stats.setMaximumCpuUtilization(m.maximum);
-                stats.setMinimumCpuUtilization(m.minimum);
-                stats.setStartTimestamp(m.timestamp);
-                stats.setEndTimestamp(m.timestamp);
-                stats.setSamples(m.samples);
-            }
-            String id = instanceId;
-            boolean idIsVolumeId = false;
+            long[] range = getStatisticsRange(startTimestamp, endTimestamp, PERIOD_STATISTICS_MAX_AGE);
             VirtualMachine vm = getVirtualMachine(instanceId);
-            if( vm != null && vm.isPersistent() ) {
-                if( vm.getProviderVolumeIds(getProvider()).length > 0 ) {
-                    id = vm.getProviderVolumeIds(getProvider())[0];
-                    idIsVolumeId = true;
-                }
-            }
-            metrics = calculate(idIsVolumeId ? "VolumeReadBytes" : "DiskReadBytes", "Bytes", id, idIsVolumeId, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
-
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageDiskReadBytes(m.average);
-                stats.setMinimumDiskReadBytes(m.minimum);
-                stats.setMaximumDiskReadBytes(m.maximum);
-                if( stats.getSamples() < 1 ) {
-                    stats.setSamples(m.samples);
-                }
-            }
-            metrics = calculate(idIsVolumeId ? "VolumeReadOps" : "DiskReadOps", "Count", id, idIsVolumeId, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
-
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageDiskReadOperations(m.average);
-                stats.setMinimumDiskReadOperations(m.minimum);
-                stats.setMaximumDiskReadOperations(m.maximum);
-                if( stats.getSamples() < 1 ) {
-                    stats.setSamples(m.samples);
-                }
-            }
-            metrics = calculate(idIsVolumeId ? "VolumeWriteBytes" : "DiskWriteBytes", "Bytes", id, idIsVolumeId, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
+            MetricBuckets buckets = new MetricBuckets(range[0], range[1]);
+            MetricQueries queries = newMetricQueries();
 
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageDiskWriteBytes(m.average);
-                stats.setMinimumDiskWriteBytes(m.minimum);
-                stats.setMaximumDiskWriteBytes(m.maximum);
-                if( stats.getSamples() < 1 ) {
-                    stats.setSamples(m.samples);
-                }
-            }
-            metrics = calculate(idIsVolumeId ? "VolumeWriteOps" : "DiskWriteOps", "Count", id, idIsVolumeId, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
+            queries.submit(instanceId, vm == null ? null : getMetricVolumeId(getProvider(), vm), buckets, range[0], range[1], null);
+            queries.await();
+            return buckets.toStatistics();
+        } finally {
+            APITrace.end();
+        }
+    }
 
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageDiskWriteOperations(m.average);
-                stats.setMinimumDiskWriteOperations(m.minimum);
-                stats.setMaximumDiskWriteOperations(m.maximum);
-                if( stats.getSamples() < 1 ) {
-                    stats.setSamples(m.samples);
-                }
-            }
-            metrics = calculate("NetworkIn", "Bytes", instanceId, false, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
+    /**
+     * Provides summary statistics for many instances at once, fetching them concurrently under the provider's
+     * {@link AWSCloud#CP_MAX_METRIC_REQUESTS global limit} on outstanding CloudWatch queries.
+     * @param instanceIds the instances to report on
+     * @param startTimestamp the start of the range, clamped as for {@link #getVMStatistics(String, long, long)}
+     * @param endTimestamp the end of the range
+     * @return the statistics of every instance that exists, keyed by instance ID in the order given
+     * @throws CloudException a metric query failed
+     * @throws InternalException the report could not be run
+     */
+    public @Nonnull Map<String, VmStatistics> getVMStatistics( @Nonnull Collection<String> instanceIds, @Nonnegative long startTimestamp, @Nonnegative long endTimestamp ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "getFleetStatistics");
+        try {
+            long[] range = getStatisticsRange(startTimestamp, endTimestamp, STATISTICS_MAX_AGE);
 
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageNetworkIn(m.average);
-                stats.setMinimumNetworkIn(m.minimum);
-                stats.setMaximumNetworkIn(m.maximum);
-                if( stats.getSamples() < 1 ) {
-                    stats.setSamples(m.samples);
-                }
-            }
-            metrics = calculate("NetworkOut", "Bytes", instanceId, false, startTimestamp, endTimestamp);
-            for( Metric m : metrics ) {
-                int minute = 1 + ( int ) ( ( m.timestamp - startTimestamp ) / CalendarWrapper.MINUTE );
-                VmStatistics stats = statMap.get(minute);
+            return collectFleetMetrics(instanceIds, range[0], range[1], SUMMARY);
+        } finally {
+            APITrace.end();
+        }
+    }
 
-                if( stats == null ) {
-                    stats = new VmStatistics();
-                    statMap.put(minute, stats);
-                }
-                stats.setAverageNetworkOut(m.average);
-                stats.setMinimumNetworkOut(m.minimum);
-                stats.setMaximumNetworkOut(m.maximum);
-                if( stats.getSamples() < 1 ) {
-                    stats.setSamples(m.samples);
-                }
-            }
-            ArrayList<VmStatistics> list = new ArrayList<VmStatistics>();
-            for( Map.Entry<Integer, VmStatistics> entry : statMap.entrySet() ) {
-                VmStatistics stats = entry.getValue();
+    /**
+     * Provides per-minute statistics for many instances at once, fetching them concurrently under the provider's
+     * {@link AWSCloud#CP_MAX_METRIC_REQUESTS global limit} on outstanding CloudWatch queries.
+     * @param instanceIds the instances to report on
+     * @param startTimestamp the start of the range, clamped as for {@link #getVMStatisticsForPeriod(String, long, long)}
+     * @param endTimestamp the end of the range
+     * @return the statistics of every instance that exists, keyed by instance ID in the order given
+     * @throws CloudException a metric query failed
+     * @throws InternalException the report could not be run
+     */
+    public @Nonnull Map<String, Iterable<VmStatistics>> getVMStatisticsForPeriod( @Nonnull Collection<String> instanceIds, long startTimestamp, long endTimestamp ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "getFleetStatisticsForPeriod");
+        try {
+            long[] range = getStatisticsRange(startTimestamp, endTimestamp, PERIOD_STATISTICS_MAX_AGE);
 
-                if( stats != null && stats.getSamples() > 0 ) {
-                    list.add(stats);
-                }
-            }
-            return list;
+            return collectFleetMetrics(instanceIds, range[0], range[1], PER_MINUTE);
         } finally {
             APITrace.end();
         }
@@ -1197,248 +1233,26 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
             throw new CloudException("No context was set for this request");
         }
         // FIXME: until core fixes the annotation for architecture let's assume it's nullable
-        String cacheName = "productsALL";
-        if( architecture != null ) {
-            cacheName = "products" + architecture.name();
+        List<VirtualMachineProduct> products = getProductCatalog(ctx).list(ctx.getRegionId(), architecture);
+
+        if( options == null ) {
+            return products;
         }
-        Cache<VirtualMachineProduct> cache = Cache.getInstance(getProvider(), cacheName, VirtualMachineProduct.class, CacheLevel.REGION, new TimePeriod<Day>(1, TimePeriod.DAY));
-        Iterable<VirtualMachineProduct> products = cache.get(ctx);
+        List<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
 
-        if( products == null ) {
-            List<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
+        for( VirtualMachineProduct prd : products ) {
+            if( options.matches(prd) ) {
+                list.add(prd);
+            }
+        }
+        return list;
+    }
 
-            try {
-                InputStream input = EC2Instance.class.getResourceAsStream("/org/dasein/cloud/aws/vmproducts.json");
-
-                if( input != null ) {
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-                    StringBuilder json = new StringBuilder();
-                    String line;
-
-                    while( ( line = reader.readLine() ) != null ) {
-                        json.append(line);
-                        json.append("\n");
-                    }
-                    JSONArray arr = new JSONArray(json.toString());
-                    JSONObject toCache = null;
-
-                    for( int i = 0; i < arr.length(); i++ ) {
-                        JSONObject productSet = arr.getJSONObject(i);
-                        String cloud, providerName;
-
-                        if( productSet.has("cloud") ) {
-                            cloud = productSet.getString("cloud");
-                        }
-                        else {
-                            continue;
-                        }
-                        if( productSet.has("provider") ) {
-                            providerName = productSet.getString("provider");
-                        }
-                        else {
-                            continue;
-                        }
-                        if( !productSet.has("products") ) {
-                            continue;
-                        }
-                        if( toCache == null || ( providerName.equals("AWS") && cloud.equals("AWS") ) ) {
-                            toCache = productSet;
-                        }
-                        if( providerName.equalsIgnoreCase(getProvider().getProviderName()) && cloud.equalsIgnoreCase(getProvider().getCloudName()) ) {
-                            toCache = productSet;
-                            break;
-                        }
-                    }
-                    if( toCache == null ) {
-                        logger.warn("No products were defined");
-                        return Collections.emptyList();
-                    }
-                    JSONArray plist = toCache.getJSONArray("products");
-
-                    for( int i = 0; i < plist.length(); i++ ) {
-                        JSONObject product = plist.getJSONObject(i);
-                        boolean supported = false;
-
-                        if( architecture != null ) {
-                            if( product.has("architectures") ) {
-                                JSONArray architectures = product.getJSONArray("architectures");
-
-                                for( int j = 0; j < architectures.length(); j++ ) {
-                                    String a = architectures.getString(j);
-
-                                    if( architecture.name().equals(a) ) {
-                                        supported = true;
-                                        break;
-                                    }
-                                }
-                            }
-                            if( !supported ) {
-                                continue;
-                            }
-                        }
-                        if( product.has("excludesRegions") ) {
-                            JSONArray regions = product.getJSONArray("excludesRegions");
-
-                            for( int j = 0; j < regions.length(); j++ ) {
-                                String r = regions.getString(j);
-
-                                if( r.equals(ctx.getRegionId()) ) {
-                                    supported = false;
-                                    break;
-                                }
-                            }
-                        }
-                        if( !supported ) {
-                            continue;
-                        }
-                        VirtualMachineProduct prd = toProduct(product);
-
-                        if( prd != null ) {
-                            if( options != null) {
-                                if( options.matches(prd) ) {
-                                    list.add(prd);
-                                }
-                            }
-                            else {
-                                list.add(prd);
-                            }
-                        }
-
-                    }
-
-                }
-                else {
-                    logger.warn("No standard products resource exists for /org/dasein/cloud/aws/vmproducts.json");
-                }
-                input = EC2Instance.class.getResourceAsStream("/org/dasein/cloud/aws/vmproducts-custom.json");
-                if( input != null ) {
-                    ArrayList<VirtualMachineProduct> customList = new ArrayList<VirtualMachineProduct>();
-                    TreeSet<String> discard = new TreeSet<String>();
-                    boolean discardAll = false;
-
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(input));
-                    StringBuilder json = new StringBuilder();
-                    String line;
-
-                    while( ( line = reader.readLine() ) != null ) {
-                        json.append(line);
-                        json.append("\n");
-                    }
-                    JSONArray arr = new JSONArray(json.toString());
-                    JSONObject toCache = null;
-
-                    for( int i = 0; i < arr.length(); i++ ) {
-                        JSONObject listing = arr.getJSONObject(i);
-                        String cloud, providerName, endpoint = null;
-
-                        if( listing.has("cloud") ) {
-                            cloud = listing.getString("cloud");
-                        }
-                        else {
-                            continue;
-                        }
-                        if( listing.has("provider") ) {
-                            providerName = listing.getString("provider");
-                        }
-                        else {
-                            continue;
-                        }
-                        if( listing.has("endpoint") ) {
-                            endpoint = listing.getString("endpoint");
-                        }
-                        if( !cloud.equals(getProvider().getCloudName()) || !providerName.equals(getProvider().getProviderName()) ) {
-                            continue;
-                        }
-                        if( endpoint != null && endpoint.equals(ctx.getCloud().getEndpoint()) ) {
-                            toCache = listing;
-                            break;
-                        }
-                        if( endpoint == null && toCache == null ) {
-                            toCache = listing;
-                        }
-                    }
-                    if( toCache != null ) {
-                        if( toCache.has("discardDefaults") ) {
-                            discardAll = toCache.getBoolean("discardDefaults");
-                        }
-                        if( toCache.has("discard") ) {
-                            JSONArray dlist = toCache.getJSONArray("discard");
-
-                            for( int i = 0; i < dlist.length(); i++ ) {
-                                discard.add(dlist.getString(i));
-                            }
-                        }
-                        if( toCache.has("products") ) {
-                            JSONArray plist = toCache.getJSONArray("products");
-
-                            for( int i = 0; i < plist.length(); i++ ) {
-                                JSONObject product = plist.getJSONObject(i);
-                                boolean supported = false;
-                                if( architecture != null ) {
-
-                                    if( product.has("architectures") ) {
-                                        JSONArray architectures = product.getJSONArray("architectures");
-
-                                        for( int j = 0; j < architectures.length(); j++ ) {
-                                            String a = architectures.getString(j);
-
-                                            if( architecture.name().equals(a) ) {
-                                                supported = true;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                    if( !supported ) {
-                                        continue;
-                                    }
-                                }
-                                if( product.has("excludesRegions") ) {
-                                    JSONArray regions = product.getJSONArray("excludesRegions");
-
-                                    for( int j = 0; j < regions.length(); j++ ) {
-                                        String r = regions.getString(j);
-
-                                        if( r.equals(ctx.getRegionId()) ) {
-                                            supported = false;
-                                            break;
-                                        }
-                                    }
-                                }
-                                if( !supported ) {
-                                    continue;
-                                }
-                                VirtualMachineProduct prd = toProduct(product);
-
-                                if( prd != null ) {
-                                    customList.add(prd);
-                                }
-                            }
-                        }
-                        if( !discardAll ) {
-                            for( VirtualMachineProduct product : list ) {
-                                if( !discard.contains(product.getProviderProductId()) ) {
-                                    customList.add(product);
-                                }
-                            }
-                        }
-                        list = customList;
-                    }
-                }
-                products = list;
-                cache.put(ctx, products);
-
-            } catch( IOException e ) {
-                throw new InternalException(e);
-            } catch( JSONException e ) {
-                throw new InternalException(e);
-            }
-        }
-        return products;
+    private @Nonnull VmProductCatalog getProductCatalog( @Nonnull ProviderContext ctx ) throws InternalException {
+        return VmProductCatalog.getInstance(getProvider().getProviderName(), getProvider().getCloudName(), ctx.getCloud() == null ? null : ctx.getCloud().getEndpoint());
     }
 
-
-
-    private String guess( String privateDnsAddress ) {
+    static String guess( String privateDnsAddress ) {
         String dnsAddress = privateDnsAddress;
         String[] parts = dnsAddress.split("\\.");
 
@@ -1655,7 +1469,7 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
                 Node instance = instances.item(j);
 
                 if( instance.getNodeName().equals("item") ) {
-                    VirtualMachine server = toVirtualMachine(ctx, instance, new ArrayList<IpAddress>() /* can't be an elastic IP */);
+                    VirtualMachine server = toVirtualMachine(ctx, instance, Collections.<String, String>emptyMap() /* can't be an elastic IP */);
                     if( server != null ) {
                         servers.add(server);
                         instanceIds.add(server.getProviderVirtualMachineId());
@@ -1665,20 +1479,20 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         }
 
         // Wait for EC2 to figure out the server exists
-        List<VirtualMachine> serversCopy = describeInstances(instanceIds.toArray(new String[instanceIds.size()]));
-        long timeout = System.currentTimeMillis() + CalendarWrapper.MINUTE;
-        while( timeout > System.currentTimeMillis() && serversCopy.size() < servers.size()) {
-            try {
-                Thread.sleep(5000L);
-            } catch( InterruptedException ignore ) {
-            }
-            try {
-                serversCopy = describeInstances(instanceIds.toArray(new String[instanceIds.size()]));
-            } catch( Throwable ignore ) {
-            }
+        List<StateWaiter.Wait<VirtualMachine>> visible = new ArrayList<StateWaiter.Wait<VirtualMachine>>();
+
+        for( String id : instanceIds ) {
+            visible.add(waitForInstance(id, StateWaiter.<VirtualMachine>exists(), CalendarWrapper.MINUTE));
         }
+        // The instances are running and billed whether or not EC2 admits to them yet, so all of them are returned;
+        // only tagging has to skip the ones it does not know about, since one unknown ID fails the whole call
+        List<String> invisible = awaitVisible(visible);
+        List<String> taggable = new ArrayList<String>(instanceIds);
 
-        // FIXME: not clear what is to be done if time is out but `serversCopy` is still less than `servers`
+        if( !invisible.isEmpty() ) {
+            logger.warn("Instances " + invisible + " were launched but are not yet visible; returning them untagged");
+            taggable.removeAll(invisible);
+        }
 
         // Set all instances their tags
         List<Tag> tags = new ArrayList<Tag>();
@@ -1695,112 +1509,132 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         if( cfg.getVirtualMachineGroup() != null ) {
             tags.add(new Tag("dsnVMGroup", cfg.getVirtualMachineGroup()));
         }
-        getProvider().createTags(EC2Method.SERVICE_ID, instanceIds.toArray(new String[instanceIds.size()]), tags.toArray(new Tag[tags.size()]));
+        if( !taggable.isEmpty() ) {
+            getProvider().createTags(EC2Method.SERVICE_ID, taggable.toArray(new String[taggable.size()]), tags.toArray(new Tag[tags.size()]));
+        }
 
-        // Set all instances their passwords and attach volumes
+        // Hand the remaining per-instance work to the launch executor; attaching volumes and enabling IP forwarding
+        // run independently of each other and of the caller
         for( VirtualMachine server : servers ) {
+            final String sid = server.getProviderVirtualMachineId();
+
             if( cfg.isIpForwardingAllowed() ) {
-                enableIpForwarding(server.getProviderVirtualMachineId());
+                enableIpForwarding(sid);
             }
-            if( cfg.isIpForwardingAllowed() ) {
-                enableIpForwarding(server.getProviderVirtualMachineId());
+            if( cfg.getBootstrapKey() != null ) {
+                // Windows only generates its password some minutes after launch, so leave fetching it to the caller;
+                // the platform stays as the image reports it
+                server.setRootPassword(null);
+                server.setPasswordCallback(new GetPassCallable(sid, getProvider()));
             }
-            if( server != null && cfg.getBootstrapKey() != null ) {
+            if( !existingVolumes.isEmpty() && computeServices != null ) {
+                getProvider().hold();
                 try {
-                    final String sid = server.getProviderVirtualMachineId();
-                    try {
-                        Callable<String> callable = new GetPassCallable(sid, getProvider());
-                        String password = callable.call();
-
-                        if( password == null ) {
-                            server.setRootPassword(null);
-                            server.setPasswordCallback(callable);
-                        }
-                        else {
-                            server.setRootPassword(password);
+                    getProvider().getLaunchExecutor().execute(new Runnable() {
+                        public void run() {
+                            try {
+                                for( VolumeAttachment a : existingVolumes ) {
+                                    try {
+                                        computeServices.getVolumeSupport().attach(a.existingVolumeId, sid, a.deviceId);
+                                    } catch( Throwable t ) {
+                                        logger.warn("Unable to attach " + a.existingVolumeId + " to " + sid + ": " + t.getMessage());
+                                    }
+                                }
+                            } finally {
+                                getProvider().release();
+                            }
                         }
-                        server.setPlatform(Platform.WINDOWS);
-                    } catch( CloudException e ) {
-                        logger.warn(e.getMessage());
-                    }
-                } catch( Throwable t ) {
-                    logger.warn("Unable to retrieve password for " + server.getProviderVirtualMachineId() + ", Let's hope it's Unix: " + t.getMessage());
+                    });
+                } catch( RuntimeException e ) {
+                    getProvider().release();
+                    throw e;
                 }
             }
+        }
+        return servers;
+    }
 
-            if( !existingVolumes.isEmpty() ) {
-                final VirtualMachine vm = server;
+    /**
+     * Waits for newly launched instances to become visible to EC2.
+     * @param waits the pending visibility waits, one per instance
+     * @return the IDs of the instances that did not become visible, in the order of their waits; if the thread is
+     * interrupted, every instance not yet known to be visible is reported
+     */
+    static @Nonnull <V> List<String> awaitVisible( @Nonnull List<StateWaiter.Wait<V>> waits ) {
+        List<String> invisible = new ArrayList<String>();
 
-                getProvider().hold();
-                Thread thread = new Thread() {
-                    public void run() {
-                        try {
-                            for( VolumeAttachment a : existingVolumes ) {
-                                try {
-                                    if( computeServices != null ) {
-                                        computeServices.getVolumeSupport().attach(a.existingVolumeId, vm.getProviderMachineImageId(), a.deviceId);
-                                    }
-                                } catch( Throwable t ) {
-                                    // ignore all errors
-                                }
-                            }
-                        } finally {
-                            getProvider().release();
-                        }
-                    }
-                };
+        for( int i = 0; i < waits.size(); i++ ) {
+            StateWaiter.Wait<V> wait = waits.get(i);
 
-                thread.setName("Volume Mounter for " + server);
-                thread.start();
+            try {
+                wait.get();
+            } catch( ExecutionException e ) {
+                logger.warn("Instance " + wait.getId() + " is not yet visible: " + e.getCause().getMessage());
+                invisible.add(wait.getId());
+            } catch( CancellationException e ) {
+                invisible.add(wait.getId());
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                for( StateWaiter.Wait<V> rest : waits.subList(i, waits.size()) ) {
+                    invisible.add(rest.getId());
+                }
+                break;
             }
         }
-        return servers;
+        return invisible;
     }
 
     private void enableIpForwarding( final String instanceId ) throws CloudException {
+        final StateWaiter.Wait<VirtualMachine> visible;
 
-        Thread t = new Thread() {
-            public void run() {
-                APITrace.begin(getProvider(), "enableIpForwarding");
+        getProvider().hold();
+        try {
+            // the attribute can only be changed once EC2 knows about the instance
+            visible = waitForInstance(instanceId, StateWaiter.<VirtualMachine>exists(), CalendarWrapper.MINUTE);
+        } catch( CloudException e ) {
+            getProvider().release();
+            throw e;
+        } catch( RuntimeException e ) {
+            getProvider().release();
+            throw e;
+        }
 
-                long timeout = System.currentTimeMillis() + CalendarWrapper.MINUTE;
+        visible.addListener(new Runnable() {
+            public void run() {
+                try {
+                    // the wait is over, so this only reports how it ended
+                    visible.get();
+                } catch( Exception e ) {
+                    Throwable cause = ( e instanceof ExecutionException ? e.getCause() : e );
 
-                while( timeout > System.currentTimeMillis() ) {
-                    try {
-                        Map<String, String> params = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.MODIFY_INSTANCE_ATTRIBUTE);
-                        EC2Method m;
-
-                        params.put("InstanceId", instanceId);
-                        params.put("SourceDestCheck.Value", "false");
-                        m = new EC2Method(getProvider(), params);
-
-                        m.invoke();
-                        return;
-                    } catch( EC2Exception ex ) {
-                        if( ex.getStatus() != 404 ) {
-                            logger.error("Unable to modify instance attributes on " + instanceId + ".", ex);
-                            return;
+                    logger.warn("Not enabling IP forwarding on " + instanceId + "; it never became visible: " + cause);
+                    getProvider().release();
+                    return;
+                }
+                try {
+                    getProvider().getLaunchExecutor().execute(new Runnable() {
+                        public void run() {
+                            APITrace.begin(getProvider(), "enableIpForwarding");
+                            try {
+                                Map<String, String> params = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.MODIFY_INSTANCE_ATTRIBUTE);
+
+                                params.put("InstanceId", instanceId);
+                                params.put("SourceDestCheck.Value", "false");
+                                new EC2Method(getProvider(), params).invoke();
+                            } catch( Throwable ex ) {
+                                logger.error("Unable to modify instance attributes on " + instanceId + ".", ex);
+                            } finally {
+                                APITrace.end();
+                                getProvider().release();
+                            }
                         }
-                    } catch( Throwable ex ) {
-                        logger.error("Unable to modify instance attributes on " + instanceId + ".", ex);
-                        return;
-                    } finally {
-                        APITrace.end();
-                    }
-
-                    try {
-                        Thread.sleep(5000L);
-                    } catch( InterruptedException ignore ) {
-                    }
+                    });
+                } catch( RuntimeException e ) {
+                    logger.error("Unable to schedule IP forwarding for " + instanceId + ": " + e.getMessage());
+                    getProvider().release();
                 }
-
             }
-        };
-
-        t.setName(EC2Method.MODIFY_INSTANCE_ATTRIBUTE + " thread");
-        t.setDaemon(true);
-        t.start();
-
+        });
     }
 
     @Override
@@ -1815,30 +1649,16 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
             Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_INSTANCES);
             EC2Method method = new EC2Method(getProvider(), parameters);
             ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
-            NodeList blocks;
-            Document doc;
+            List<VirtualMachine> vms = new ArrayList<VirtualMachine>();
 
             try {
-                doc = method.invoke();
+                method.invoke(new DescribeInstancesResponseParser(ctx.getAccountNumber(), ctx.getRegionId(), null, null, vms));
             } catch( EC2Exception e ) {
                 logger.error(e.getSummary());
                 throw new CloudException(e);
             }
-            blocks = doc.getElementsByTagName("instancesSet");
-            for( int i = 0; i < blocks.getLength(); i++ ) {
-                NodeList instances = blocks.item(i).getChildNodes();
-
-                for( int j = 0; j < instances.getLength(); j++ ) {
-                    Node instance = instances.item(j);
-
-                    if( instance.getNodeName().equals("item") ) {
-                        ResourceStatus status = toStatus(instance);
-
-                        if( status != null ) {
-                            list.add(status);
-                        }
-                    }
-                }
+            for( VirtualMachine vm : vms ) {
+                list.add(new ResourceStatus(vm.getProviderVirtualMachineId(), vm.getCurrentState()));
             }
             return list;
         } finally {
@@ -1866,6 +1686,25 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         return listVirtualMachinesWithParams(filterParameters, options);
     }
 
+    /**
+     * Starts loading the IP address pool so it can be matched against instances while their description is parsed.
+     * @return the pending pool or null if this cloud has no IP address support
+     */
+    private @Nullable Future<Iterable<IpAddress>> listIpPoolConcurrently() throws InternalException, CloudException {
+        if( getProvider().hasNetworkServices() ) {
+            NetworkServices services = getProvider().getNetworkServices();
+
+            if( services != null && services.hasIpAddressSupport() ) {
+                IpAddressSupport support = services.getIpAddressSupport();
+
+                if( support != null ) {
+                    return support.listIpPoolConcurrently(IPVersion.IPV4, false);
+                }
+            }
+        }
+        return null;
+    }
+
     private Map<String, String> createFilterParametersFrom( @Nullable VMFilterOptions options ) {
         if( options == null || options.isMatchesAny() ) {
             return Collections.emptyMap();
@@ -1893,85 +1732,70 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         return extraParameters;
     }
 
-    private @Nonnull Iterable<VirtualMachine> listVirtualMachinesWithParams( Map<String, String> extraParameters, @Nullable VMFilterOptions options ) throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "listVirtualMachines");
-        try {
-            ProviderContext ctx = getProvider().getContext();
-
-            if( ctx == null ) {
-                throw new CloudException("No context was established for this request");
-            }
-
-            Future<Iterable<IpAddress>> ipPoolFuture = null;
-            Iterable<IpAddress> addresses;
-            if( getProvider().hasNetworkServices() ) {
-                NetworkServices services = getProvider().getNetworkServices();
-
-                if( services != null ) {
-                    if( services.hasIpAddressSupport() ) {
-                        IpAddressSupport support = services.getIpAddressSupport();
-
-                        if( support != null ) {
-                            ipPoolFuture = support.listIpPoolConcurrently(IPVersion.IPV4, false);
-                        }
-                    }
-                }
-            }
-
-            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_INSTANCES);
-
-            AWSCloud.addExtraParameters(parameters, extraParameters);
-
-            EC2Method method = new EC2Method(getProvider(), parameters);
-            ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
-            NodeList blocks;
-            Document doc;
-
-            try {
-                doc = method.invoke();
-            } catch( EC2Exception e ) {
-                logger.error(e.getSummary());
-                throw new CloudException(e);
-            }
-            blocks = doc.getElementsByTagName("instancesSet");
-            for( int i = 0; i < blocks.getLength(); i++ ) {
-                NodeList instances = blocks.item(i).getChildNodes();
-
-                for( int j = 0; j < instances.getLength(); j++ ) {
-                    Node instance = instances.item(j);
+    /**
+     * Lists virtual machines one page of {@link AWSCloud#getDescribePageSize()} results at a time. Pages are fetched
+     * on a populator thread that stays one page ahead of the caller, so the first results are available as soon as
+     * the first page is parsed and no more than two pages are held at once.
+     */
+    private @Nonnull Iterable<VirtualMachine> listVirtualMachinesWithParams( final Map<String, String> extraParameters, final @Nullable VMFilterOptions options ) throws InternalException, CloudException {
+        final ProviderContext ctx = getProvider().getContext();
 
-                    if( instance.getNodeName().equals("item") ) {
+        if( ctx == null ) {
+            throw new CloudException("No context was established for this request");
+        }
+        final Future<Iterable<IpAddress>> ipPoolFuture = listIpPoolConcurrently();
+        final PrefetchWindow window = new PrefetchWindow();
 
-                        try {
-                            if( ipPoolFuture != null ) {
-                                addresses = ipPoolFuture.get(30, TimeUnit.SECONDS);
+        getProvider().hold();
+        PopulatorThread<VirtualMachine> populator = new PopulatorThread<VirtualMachine>(new JiteratorPopulator<VirtualMachine>() {
+            @Override
+            public void populate( @Nonnull Jiterator<VirtualMachine> iterator ) throws Exception {
+                APITrace.begin(getProvider(), "listVirtualMachines");
+                try {
+                    try {
+                        // EC2 clones may not understand MaxResults, so they get everything in one response
+                        String pageSize = ( getProvider().getEC2Provider().isAWS() ? String.valueOf(getProvider().getDescribePageSize()) : null );
+                        List<VirtualMachine> page = new ArrayList<VirtualMachine>();
+                        // one parser for all pages so the address pool is only indexed once
+                        DescribeInstancesResponseParser parser = new DescribeInstancesResponseParser(ctx.getAccountNumber(), ctx.getRegionId(), options, ipPoolFuture, page);
+                        String nextToken = null;
+
+                        do {
+                            window.awaitPage(page.size());
+                            page.clear();
+
+                            Map<String, String> parameters = getProvider().getStandardParameters(ctx, EC2Method.DESCRIBE_INSTANCES);
+
+                            AWSCloud.addExtraParameters(parameters, extraParameters);
+                            AWSCloud.addValueIfNotNull(parameters, "MaxResults", pageSize);
+                            AWSCloud.addValueIfNotNull(parameters, "NextToken", nextToken);
+
+                            EC2Method method = new EC2Method(getProvider(), parameters);
+
+                            try {
+                                method.invoke(parser);
+                            } catch( EC2Exception e ) {
+                                logger.error(e.getSummary());
+                                throw new CloudException(e);
                             }
-                            else {
-                                addresses = Collections.emptyList();
+                            for( VirtualMachine vm : page ) {
+                                iterator.push(vm);
                             }
-                        } catch( InterruptedException e ) {
-                            logger.error(e.getMessage());
-                            addresses = Collections.emptyList();
-                        } catch( ExecutionException e ) {
-                            logger.error(e.getMessage());
-                            addresses = Collections.emptyList();
-                        } catch( TimeoutException e ) {
-                            logger.error(e.getMessage());
-                            addresses = Collections.emptyList();
-                        }
-
-                        VirtualMachine vm = toVirtualMachine(ctx, instance, addresses);
-
-                        if( options == null || options.matches(vm) ) {
-                            list.add(vm);
-                        }
+                            nextToken = parser.getNextToken();
+                        } while( nextToken != null );
+                    }
+                    finally {
+                        getProvider().release();
                     }
                 }
+                finally {
+                    APITrace.end();
+                }
             }
-            return list;
-        } finally {
-            APITrace.end();
-        }
+        });
+
+        populator.populate();
+        return window.track(populator.getResult());
     }
 
     @Override
@@ -2014,130 +1838,374 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         else if( action.equals(VirtualMachineSupport.VIEW_CONSOLE) ) {
             return new String[]{EC2Method.EC2_PREFIX + EC2Method.GET_CONSOLE_OUTPUT};
         }
-        return new String[0];
+        return new String[0];
+    }
+
+    @Override
+    public void stop( @Nonnull String instanceId, boolean force ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "stopVM");
+        try {
+            VirtualMachine vm = getVirtualMachine(instanceId);
+
+            if( vm == null ) {
+                throw new CloudException("No such instance: " + instanceId);
+            }
+            if( !vm.isPersistent() ) {
+                throw new OperationNotSupportedException("Instances backed by ephemeral drives are not start/stop capable");
+            }
+            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.STOP_INSTANCES);
+            EC2Method method;
+
+            parameters.put("InstanceId.1", instanceId);
+            if( force ) {
+                parameters.put("Force", "true");
+            }
+            method = new EC2Method(getProvider(), parameters);
+            try {
+                method.invoke();
+            } catch( EC2Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    @Override
+    public void reboot( @Nonnull String instanceId ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "rebootVM");
+        try {
+            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.REBOOT_INSTANCES);
+            EC2Method method;
+
+            parameters.put("InstanceId.1", instanceId);
+            method = new EC2Method(getProvider(), parameters);
+            try {
+                method.invoke();
+            } catch( EC2Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    @Override
+    public void resume( @Nonnull String vmId ) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Suspend/resume not supported by the EC2 API");
+    }
+
+    @Override
+    public void suspend( @Nonnull String vmId ) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Suspend/resume not supported by the EC2 API");
+    }
+
+    @Override
+    public void terminate( @Nonnull String instanceId, @Nullable String explanation ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "terminateVM");
+        try {
+            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.TERMINATE_INSTANCES);
+            EC2Method method;
+
+            parameters.put("InstanceId.1", instanceId);
+            method = new EC2Method(getProvider(), parameters);
+            try {
+                method.invoke();
+            } catch( EC2Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * AWS accepts up to 1000 IDs per lifecycle call but recommends smaller batches, which also keeps a batch that
+     * has to be split after an error cheap to retry.
+     */
+    static private final int LIFECYCLE_BATCH_SIZE = 100;
+
+    /**
+     * Starts many instances with as few StartInstances calls as possible. Unlike {@link #start(String)}, no
+     * instance is described first; EC2 reports instances that cannot be started as errors in the results.
+     * @param instanceIds the instances to start
+     * @return the outcome for each instance, in the order the IDs were given
+     */
+    public @Nonnull Map<String, VmStateChange> startVirtualMachines( @Nonnull Collection<String> instanceIds ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "startVMs");
+        try {
+            return changeStates(EC2Method.START_INSTANCES, null, instanceIds);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Stops many instances with as few StopInstances calls as possible, without describing them first.
+     * @param instanceIds the instances to stop
+     * @param force true to force the instances to stop
+     * @return the outcome for each instance, in the order the IDs were given
+     */
+    public @Nonnull Map<String, VmStateChange> stopVirtualMachines( @Nonnull Collection<String> instanceIds, boolean force ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "stopVMs");
+        try {
+            return changeStates(EC2Method.STOP_INSTANCES, force ? Collections.singletonMap("Force", "true") : null, instanceIds);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Reboots many instances with as few RebootInstances calls as possible. EC2 does not report states for reboots,
+     * so successful results carry none.
+     * @param instanceIds the instances to reboot
+     * @return the outcome for each instance, in the order the IDs were given
+     */
+    public @Nonnull Map<String, VmStateChange> rebootVirtualMachines( @Nonnull Collection<String> instanceIds ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "rebootVMs");
+        try {
+            return changeStates(EC2Method.REBOOT_INSTANCES, null, instanceIds);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Terminates many instances with as few TerminateInstances calls as possible.
+     * @param instanceIds the instances to terminate
+     * @return the outcome for each instance, in the order the IDs were given
+     */
+    public @Nonnull Map<String, VmStateChange> terminateVirtualMachines( @Nonnull Collection<String> instanceIds ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "terminateVMs");
+        try {
+            return changeStates(EC2Method.TERMINATE_INSTANCES, null, instanceIds);
+        } finally {
+            APITrace.end();
+        }
+    }
+
+    /**
+     * Sends one lifecycle call for a batch of instances.
+     */
+    interface StateChangeCall {
+        /**
+         * @param ids the instances in the batch
+         * @return the state changes EC2 reported, keyed by instance ID
+         * @throws CloudException the call failed for the whole batch
+         * @throws InternalException the call could not be made
+         */
+        @Nonnull Map<String, VmStateChange> invoke( @Nonnull List<String> ids ) throws CloudException, InternalException;
+    }
+
+    /**
+     * Sends a lifecycle action for the given instances in batches of {@link #LIFECYCLE_BATCH_SIZE}.
+     */
+    private @Nonnull Map<String, VmStateChange> changeStates( @Nonnull final String action, @Nullable final Map<String, String> extraParameters, @Nonnull Collection<String> instanceIds ) throws InternalException, CloudException {
+        final ProviderContext ctx = getProvider().getContext();
+
+        if( ctx == null ) {
+            throw new CloudException("No context was established for this request");
+        }
+        return changeStates(action, instanceIds, LIFECYCLE_BATCH_SIZE, !EC2Method.REBOOT_INSTANCES.equals(action), getProvider().getLifecycleExecutor(), new StateChangeCall() {
+            @Override
+            public @Nonnull Map<String, VmStateChange> invoke( @Nonnull List<String> ids ) throws CloudException, InternalException {
+                return invokeStateChange(ctx, action, extraParameters, ids);
+            }
+        });
     }
 
-    @Override
-    public void stop( @Nonnull String instanceId, boolean force ) throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "stopVM");
-        try {
-            VirtualMachine vm = getVirtualMachine(instanceId);
+    /**
+     * Sends a lifecycle action in batches and reports an outcome for every instance. The batches run in parallel on
+     * the given executor, which must not be one the caller may be running on; a single batch is sent from the
+     * calling thread. A batch that fails only fails the instances in it.
+     * @param action the lifecycle action, used in error messages
+     * @param instanceIds the instances to change
+     * @param batchSize the most instances sent in one call
+     * @param statesReported true if EC2 lists each changed instance in its response; when it does, an instance
+     * missing from the response is reported as failed
+     * @param executor the executor to send the batches on
+     * @param call sends the call for one batch
+     * @return the outcome for each instance, in the order the IDs were given
+     */
+    static @Nonnull Map<String, VmStateChange> changeStates( @Nonnull final String action, @Nonnull Collection<String> instanceIds, int batchSize, boolean statesReported, @Nonnull ExecutorService executor, @Nonnull final StateChangeCall call ) {
+        List<String> ids = new ArrayList<String>(new LinkedHashSet<String>(instanceIds));
+        Map<String, VmStateChange> results = new LinkedHashMap<String, VmStateChange>();
+        Map<String, VmStateChange> changes = new HashMap<String, VmStateChange>();
 
-            if( vm == null ) {
-                throw new CloudException("No such instance: " + instanceId);
-            }
-            if( !vm.isPersistent() ) {
-                throw new OperationNotSupportedException("Instances backed by ephemeral drives are not start/stop capable");
+        if( ids.size() <= batchSize ) {
+            changes.putAll(changeBatchStates(action, ids, call));
+        }
+        else {
+            List<List<String>> batches = new ArrayList<List<String>>();
+            List<Future<Map<String, VmStateChange>>> futures = new ArrayList<Future<Map<String, VmStateChange>>>();
+
+            for( int i = 0; i < ids.size(); i += batchSize ) {
+                final List<String> batch = ids.subList(i, Math.min(ids.size(), i + batchSize));
+
+                batches.add(batch);
+                futures.add(executor.submit(new Callable<Map<String, VmStateChange>>() {
+                    @Override
+                    public Map<String, VmStateChange> call() {
+                        return changeBatchStates(action, batch, call);
+                    }
+                }));
             }
-            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.STOP_INSTANCES);
-            EC2Method method;
+            boolean interrupted = false;
 
-            parameters.put("InstanceId.1", instanceId);
-            if( force ) {
-                parameters.put("Force", "true");
+            for( int i = 0; i < futures.size(); i++ ) {
+                Future<Map<String, VmStateChange>> future = futures.get(i);
+
+                if( interrupted ) {
+                    // the batch may still be sent; its outcome is unknown to the caller either way
+                    future.cancel(false);
+                    fail(changes, action, batches.get(i), new InternalException("Interrupted while waiting for " + action));
+                    continue;
+                }
+                try {
+                    changes.putAll(future.get());
+                }
+                catch( InterruptedException e ) {
+                    interrupted = true;
+                    i--;
+                }
+                catch( ExecutionException e ) {
+                    Throwable cause = e.getCause();
+
+                    fail(changes, action, batches.get(i), cause instanceof Exception ? ( Exception ) cause : new InternalException(cause));
+                }
             }
-            method = new EC2Method(getProvider(), parameters);
-            try {
-                method.invoke();
-            } catch( EC2Exception e ) {
-                logger.error(e.getSummary());
-                throw new CloudException(e);
+            if( interrupted ) {
+                Thread.currentThread().interrupt();
             }
-        } finally {
-            APITrace.end();
         }
+        for( String id : ids ) {
+            VmStateChange change = changes.get(id);
+
+            if( change == null ) {
+                if( statesReported ) {
+                    change = new VmStateChange(id, new CloudException(action + " did not report a state change for " + id));
+                }
+                else {
+                    change = new VmStateChange(id, null, null);
+                }
+            }
+            results.put(id, change);
+        }
+        return results;
     }
 
-    @Override
-    public void reboot( @Nonnull String instanceId ) throws CloudException, InternalException {
-        APITrace.begin(getProvider(), "rebootVM");
-        try {
-            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.REBOOT_INSTANCES);
-            EC2Method method;
+    /**
+     * Sends one lifecycle call for a batch. A batch that fails for a reason other than a transient one is split
+     * into single-instance calls so one bad instance does not fail the others; any other failure is recorded
+     * against every instance in the batch.
+     */
+    static private @Nonnull Map<String, VmStateChange> changeBatchStates( @Nonnull String action, @Nonnull List<String> ids, @Nonnull StateChangeCall call ) {
+        Map<String, VmStateChange> changes = new HashMap<String, VmStateChange>();
 
-            parameters.put("InstanceId.1", instanceId);
-            method = new EC2Method(getProvider(), parameters);
-            try {
-                method.invoke();
-            } catch( EC2Exception e ) {
-                logger.error(e.getSummary());
-                throw new CloudException(e);
+        try {
+            changes.putAll(call.invoke(ids));
+        }
+        catch( CloudException e ) {
+            if( ids.size() < 2 || RetryPolicy.getInstance(null).isRetryable(e) ) {
+                fail(changes, action, ids, e);
+            }
+            else {
+                for( String id : ids ) {
+                    changes.putAll(changeBatchStates(action, Collections.singletonList(id), call));
+                }
             }
-        } finally {
-            APITrace.end();
         }
+        catch( InternalException e ) {
+            fail(changes, action, ids, e);
+        }
+        catch( RuntimeException e ) {
+            fail(changes, action, ids, e);
+        }
+        return changes;
     }
 
-    @Override
-    public void resume( @Nonnull String vmId ) throws CloudException, InternalException {
-        throw new OperationNotSupportedException("Suspend/resume not supported by the EC2 API");
+    static private void fail( @Nonnull Map<String, VmStateChange> changes, @Nonnull String action, @Nonnull List<String> ids, @Nonnull Exception e ) {
+        logger.error(action + " failed for " + ids.size() + " instances: " + e.getMessage());
+        for( String id : ids ) {
+            changes.put(id, new VmStateChange(id, e));
+        }
     }
 
-    @Override
-    public void suspend( @Nonnull String vmId ) throws CloudException, InternalException {
-        throw new OperationNotSupportedException("Suspend/resume not supported by the EC2 API");
+    private @Nonnull Map<String, VmStateChange> invokeStateChange( @Nonnull ProviderContext ctx, @Nonnull String action, @Nullable Map<String, String> extraParameters, @Nonnull List<String> ids ) throws InternalException, CloudException {
+        Map<String, String> parameters = getProvider().getStandardParameters(ctx, action);
+
+        AWSCloud.addIndexedParameters(parameters, "InstanceId", ids.toArray(new String[ids.size()]));
+        AWSCloud.addExtraParameters(parameters, extraParameters);
+        return toStateChanges(new EC2Method(getProvider(), parameters).invoke());
     }
 
-    @Override
-    public void terminate( @Nonnull String instanceId, @Nullable String explanation ) throws InternalException, CloudException {
-        APITrace.begin(getProvider(), "terminateVM");
-        try {
-            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.TERMINATE_INSTANCES);
-            EC2Method method;
+    /**
+     * Reads the state changes from a StartInstances, StopInstances or TerminateInstances response.
+     * @param doc the response
+     * @return the reported state changes, keyed by instance ID
+     */
+    static @Nonnull Map<String, VmStateChange> toStateChanges( @Nonnull Document doc ) {
+        Map<String, VmStateChange> changes = new HashMap<String, VmStateChange>();
+        NodeList blocks = doc.getElementsByTagName("instancesSet");
 
-            parameters.put("InstanceId.1", instanceId);
-            method = new EC2Method(getProvider(), parameters);
-            try {
-                method.invoke();
-            } catch( EC2Exception e ) {
-                logger.error(e.getSummary());
-                throw new CloudException(e);
+        for( int i = 0; i < blocks.getLength(); i++ ) {
+            NodeList items = blocks.item(i).getChildNodes();
+
+            for( int j = 0; j < items.getLength(); j++ ) {
+                Node item = items.item(j);
+
+                if( item.getNodeName().equals("item") ) {
+                    VmStateChange change = toStateChange(item);
+
+                    if( change != null ) {
+                        changes.put(change.getInstanceId(), change);
+                    }
+                }
             }
-        } finally {
-            APITrace.end();
         }
+        return changes;
     }
 
-    @Override
-    public void unpause( @Nonnull String vmId ) throws CloudException, InternalException {
-        throw new OperationNotSupportedException("Pause/unpause not supported by the EC2 API");
-    }
-
-    private @Nullable ResourceStatus toStatus( @Nullable Node instance ) {
-        if( instance == null ) {
-            return null;
-        }
-        NodeList attrs = instance.getChildNodes();
-        VmState state = VmState.PENDING;
-        String vmId = null;
+    static private @Nullable VmStateChange toStateChange( @Nonnull Node item ) {
+        NodeList attrs = item.getChildNodes();
+        String instanceId = null;
+        VmState previous = null, current = null;
 
         for( int i = 0; i < attrs.getLength(); i++ ) {
             Node attr = attrs.item(i);
-            String name;
+            String name = attr.getNodeName();
 
-            name = attr.getNodeName();
-            if( name.equals("instanceId") ) {
-                vmId = attr.getFirstChild().getNodeValue().trim();
+            if( name.equals("instanceId") && attr.hasChildNodes() ) {
+                instanceId = attr.getFirstChild().getNodeValue().trim();
             }
-            else if( name.equals("instanceState") ) {
+            else if( name.equals("previousState") || name.equals("currentState") ) {
                 NodeList details = attr.getChildNodes();
 
                 for( int j = 0; j < details.getLength(); j++ ) {
                     Node detail = details.item(j);
 
-                    name = detail.getNodeName();
-                    if( name.equals("name") ) {
-                        String value = detail.getFirstChild().getNodeValue().trim();
+                    if( detail.getNodeName().equals("name") && detail.hasChildNodes() ) {
+                        VmState state = getServerState(detail.getFirstChild().getNodeValue().trim());
 
-                        state = getServerState(value);
+                        if( name.equals("previousState") ) {
+                            previous = state;
+                        }
+                        else {
+                            current = state;
+                        }
                     }
                 }
             }
         }
-        if( vmId == null ) {
-            return null;
-        }
-        return new ResourceStatus(vmId, state);
+        return ( instanceId == null ? null : new VmStateChange(instanceId, previous, current) );
+    }
+
+    @Override
+    public void unpause( @Nonnull String vmId ) throws CloudException, InternalException {
+        throw new OperationNotSupportedException("Pause/unpause not supported by the EC2 API");
     }
 
     private @Nullable VmStatus toVmStatus( @Nonnull String status ) {
@@ -2157,7 +2225,7 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         }
     }
 
-    private @Nullable VirtualMachine toVirtualMachine( @Nonnull ProviderContext ctx, @Nullable Node instance, @Nonnull Iterable<IpAddress> addresses ) throws CloudException {
+    private @Nullable VirtualMachine toVirtualMachine( @Nonnull ProviderContext ctx, @Nullable Node instance, @Nonnull Map<String, String> addressIds ) throws CloudException {
         if( instance == null ) {
             return null;
         }
@@ -2260,11 +2328,8 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
                     String value = attr.getFirstChild().getNodeValue();
 
                     server.setPublicAddresses(new RawAddress(value));
-                    for( IpAddress addr : addresses ) {
-                        if( value.equals(addr.getRawAddress().getIpAddress()) ) {
-                            server.setProviderAssignedIpAddressId(addr.getProviderIpAddressId());
-                            break;
-                        }
+                    if( addressIds.containsKey(value) ) {
+                        server.setProviderAssignedIpAddressId(addressIds.get(value));
                     }
                 }
             }
@@ -2593,114 +2658,6 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
         }
     }
 
-    private @Nullable VirtualMachineProduct toProduct( @Nonnull JSONObject json ) throws InternalException {
-        /*
-                    {
-                "architectures":["I32"],
-                "id":"m1.small",
-                "name":"Small Instance (m1.small)",
-                "description":"Small Instance (m1.small)",
-                "cpuCount":1,
-                "rootVolumeSizeInGb":160,
-                "ramSizeInMb": 1700,
-                "generation":"current",
-                "vt":["hvm"],
-                "rdt":["ebs","instance"]
-
-            },
-         */
-        VirtualMachineProduct prd = new VirtualMachineProduct();
-
-        try {
-            if( json.has("id") ) {
-                prd.setProviderProductId(json.getString("id"));
-            }
-            else {
-                return null;
-            }
-            if( json.has("name") ) {
-                prd.setName(json.getString("name"));
-            }
-            else {
-                prd.setName(prd.getProviderProductId());
-            }
-            if( json.has("description") ) {
-                prd.setDescription(json.getString("description"));
-            }
-            else {
-                prd.setDescription(prd.getName());
-            }
-            if( json.has("cpuCount") ) {
-                prd.setCpuCount(json.getInt("cpuCount"));
-            }
-            else {
-                prd.setCpuCount(1);
-            }
-            if( json.has("rootVolumeSizeInGb") ) {
-                prd.setRootVolumeSize(new Storage<Gigabyte>(json.getInt("rootVolumeSizeInGb"), Storage.GIGABYTE));
-            }
-            else {
-                prd.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
-            }
-            if( json.has("ramSizeInMb") ) {
-                prd.setRamSize(new Storage<Megabyte>(json.getInt("ramSizeInMb"), Storage.MEGABYTE));
-            }
-            else {
-                prd.setRamSize(new Storage<Megabyte>(512, Storage.MEGABYTE));
-            }
-            if( json.has("generation") && json.getString("generation").equalsIgnoreCase("previous")) {      	
-                   prd.setStatusDeprecated();
-            }
-            if( json.has("standardHourlyRates") ) {
-                JSONArray rates = json.getJSONArray("standardHourlyRates");
-
-                for( int i = 0; i < rates.length(); i++ ) {
-                    JSONObject rate = rates.getJSONObject(i);
-
-                    if( rate.has("rate") ) {
-                        prd.setStandardHourlyRate(( float ) rate.getDouble("rate"));
-                    }
-                }
-            }
-            if( json.has("architectures") ) {
-                List<Architecture> architectures = new ArrayList<Architecture>();
-                JSONArray values = json.getJSONArray("architectures");
-                for( int i=0; i<values.length(); i++ ) {
-                    String arch = values.getString(i);
-                    architectures.add(Architecture.valueOf(arch));
-                }
-                prd.setArchitectures(architectures.toArray(new Architecture[architectures.size()]));
-            }
-            if( json.has("vt") ) {
-                JSONArray vts = json.getJSONArray("vt");
-                StringBuilder sb = new StringBuilder();
-                for( int i=0; i<vts.length(); i++ ) {
-                    String vt = vts.getString(i);
-                    if( sb.length() > 0 ) {
-                        sb.append(",");
-                    }
-                    sb.append(vt);
-                }
-                prd.getProviderMetadata().put("vt", sb.toString());
-            }
-            if( json.has("rdt") ) {
-                JSONArray types = json.getJSONArray("rdt");
-                StringBuilder sb = new StringBuilder();
-                for( int i=0; i<types.length(); i++ ) {
-                    String type = types.getString(i);
-                    if( sb.length() > 0 ) {
-                        sb.append(",");
-                    }
-                    sb.append(type);
-                }
-                prd.getProviderMetadata().put("rdt", sb.toString());
-            }
-        } catch( JSONException e ) {
-            throw new InternalException(e);
-        }
-        return prd;
-    }
-
     @Override
     public void updateTags( @Nonnull String vmId, @Nonnull Tag... tags ) throws CloudException, InternalException {
         getProvider().createTags(EC2Method.SERVICE_ID, vmId, tags);
@@ -2875,31 +2832,95 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
 
     @Override
     public Iterable<SpotPriceHistory> listSpotPriceHistories( @Nullable SpotPriceHistoryFilterOptions options ) throws CloudException, InternalException {
-        if( getProvider().getEC2Provider().isAWS() ) {
+        APITrace.begin(getProvider(), "listSpotPriceHistories");
+        try {
+            List<SpotPriceHistory> list = new ArrayList<SpotPriceHistory>();
 
-            try {
-                APITrace.begin(getProvider(), "listSpotPriceHistories");
-                Map<Pair<String, String>, List<SpotPrice>> prices = new HashMap<Pair<String, String>, List<SpotPrice>>();
-                String token = null;
-                do {
-                    token = fetchSpotPriceHistories(prices, options, token);
-                } while( token != null );
-
-                List<SpotPriceHistory> list = new ArrayList<SpotPriceHistory>();
-                for( Pair<String, String> pair : prices.keySet() ) {
-                    SpotPriceHistory sph = SpotPriceHistory.getInstance(pair.getRight(), pair.getLeft(), prices.get(pair).toArray(new SpotPrice[prices.get(pair).size()]));
-                    if( options != null && options.matches(sph) ) {
-                        list.add(sph);
-                    }
+            for( SpotPriceStore.Series series : loadSpotPriceHistory(options).getSeries() ) {
+                SpotPriceHistory sph = series.toHistory();
+
+                if( options == null || options.matches(sph) ) {
+                    list.add(sph);
                 }
-                return list;
-            } finally {
-                APITrace.end();
             }
+            return list;
+        } finally {
+            APITrace.end();
         }
-        else {
+    }
+
+    /**
+     * Loads spot price history into a compact store suited to analysis over long periods. The history of each
+     * availability zone and requested product is pulled in parallel on the provider's request executor, each
+     * paging through its own results, and streamed straight into the store.
+     * @param options the products and time range to load, or null for the recent history of every product
+     * @return the sealed store of price history
+     * @throws CloudException the history could not be loaded
+     * @throws InternalException the request could not be made
+     */
+    public @Nonnull SpotPriceStore loadSpotPriceHistory( @Nullable final SpotPriceHistoryFilterOptions options ) throws CloudException, InternalException {
+        if( !getProvider().getEC2Provider().isAWS() ) {
             throw new OperationNotSupportedException("Spot VMs are not supported in " + getProvider().getCloudName());
         }
+        APITrace.begin(getProvider(), "loadSpotPriceHistory");
+        try {
+            ProviderContext ctx = getProvider().getContext();
+
+            if( ctx == null ) {
+                throw new CloudException("No context was established for this request");
+            }
+            final SpotPriceStore store = new SpotPriceStore();
+            List<String> zones = new ArrayList<String>();
+            List<String> products = new ArrayList<String>();
+
+            for( DataCenter dc : getProvider().getDataCenterServices().listDataCenters(ctx.getRegionId()) ) {
+                zones.add(dc.getProviderDataCenterId());
+            }
+            if( zones.isEmpty() ) {
+                zones.add(null);
+            }
+            if( options != null && options.getProductIds() != null && options.getProductIds().length > 0 ) {
+                products.addAll(Arrays.asList(options.getProductIds()));
+            }
+            else {
+                products.add(null);
+            }
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+            for( final String zone : zones ) {
+                for( final String product : products ) {
+                    futures.add(getProvider().getRequestExecutor().submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            fetchSpotPriceHistory(store, options, zone, product);
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for( Future<Void> future : futures ) {
+                try {
+                    future.get();
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalException(e);
+                } catch( ExecutionException e ) {
+                    Throwable cause = e.getCause();
+
+                    if( cause instanceof CloudException ) {
+                        throw ( CloudException ) cause;
+                    }
+                    if( cause instanceof InternalException ) {
+                        throw ( InternalException ) cause;
+                    }
+                    throw new InternalException(cause);
+                }
+            }
+            store.seal();
+            return store;
+        } finally {
+            APITrace.end();
+        }
     }
 
     @Override
@@ -2978,101 +2999,45 @@ public class EC2Instance extends AbstractVMSupport<AWSCloud> {
     }
 
     /**
-     * @param prices
-     * @param options
-     * @param nextToken
-     * @return
-     * @throws CloudException
-     * @throws InternalException
+     * Pages through the spot price history of one zone and product into the store.
+     * @param zone the availability zone, or null for every zone
+     * @param product the instance type, or null for every type
      */
-    private String fetchSpotPriceHistories( Map<Pair<String, String>, List<SpotPrice>> prices, @Nullable SpotPriceHistoryFilterOptions options, String nextToken ) throws CloudException, InternalException {
-        Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_SPOT_PRICE_HISTORY);
-        EC2Method method;
-        Document doc;
-        NodeList blocks;
-        int productIndex = 1;
-        if( options != null ) {
-            if( options.getProductIds() != null ) {
-                for( String product : options.getProductIds() ) {
-                    parameters.put(String.format("InstanceType.%d", productIndex), product);
-                    productIndex++;
-                }
-            }
-            if( options.hasCriteria() && options.getStartTimestamp() > 0 ) {
-                parameters.put("StartTime", getProvider().getTimestamp(options.getStartTimestamp(), true));
-                parameters.put("EndTime", getProvider().getTimestamp(options.getEndTimestamp(), true));
-            }
-        }
-        if( nextToken != null ) {
-            parameters.put("NextToken", nextToken);
-        }
-        method = new EC2Method(getProvider(), parameters);
-        try {
-            doc = method.invoke();
-        } catch( EC2Exception e ) {
-            logger.error(e.getSummary());
-            throw new CloudException(e);
-        }
-        blocks = doc.getElementsByTagName("spotPriceHistorySet");
+    private void fetchSpotPriceHistory( @Nonnull SpotPriceStore store, @Nullable SpotPriceHistoryFilterOptions options, @Nullable String zone, @Nullable String product ) throws CloudException, InternalException {
+        long start = 0L, end = 0L;
 
-        for( int i = 0; i < blocks.getLength(); i++ ) {
-            NodeList items = blocks.item(i).getChildNodes();
+        if( options != null && options.hasCriteria() && options.getStartTimestamp() > 0 ) {
+            start = options.getStartTimestamp();
+            end = options.getEndTimestamp();
+        }
+        SpotPriceHistoryResponseParser parser = new SpotPriceHistoryResponseParser(store, start, end);
+        String nextToken = null;
 
-            for( int j = 0; j < items.getLength(); j++ ) {
-                Node item = items.item(j);
+        do {
+            Map<String, String> parameters = getProvider().getStandardParameters(getProvider().getContext(), EC2Method.DESCRIBE_SPOT_PRICE_HISTORY);
 
-                if( "item".equals(item.getNodeName()) ) {
-                    NodeList attrs = item.getChildNodes();
-                    long timestamp = -1;
-                    float spotPrice = -1.0f;
-                    String product = null;
-                    String availabilityZone = null;
-
-                    for( int k = 0; k < attrs.getLength(); k++ ) {
-                        Node attr = attrs.item(k);
-                        String name = attr.getNodeName();
-                        if( "instanceType".equals(name) ) {
-                            product = attr.getFirstChild().getNodeValue().trim();
-                        }
-                        else if( "spotPrice".equals(name) ) {
-                            spotPrice = Float.valueOf(attr.getFirstChild().getNodeValue().trim());
-                        }
-                        else if( "timestamp".equals(name) ) {
-                            timestamp = AWSCloud.getTimestampValue(attr);
-                        }
-                        else if( "availabilityZone".equals(name) ) {
-                            availabilityZone = attr.getFirstChild().getNodeValue().trim();
-                        }
-                    }
-                    if( product == null || spotPrice < 0 || availabilityZone == null || timestamp < 0 ) {
-                        continue;
-                    }
-                    // AWS is not returning the prices precisely in the time-bounds requested,
-                    // so filter out what is out of bounds.
-                    if( options != null && options.getStartTimestamp() > 0 && ( timestamp < options.getStartTimestamp() || options.getEndTimestamp() < timestamp ) ) {
-                        // this timestamp is out of bounds, skip this price
-                        continue;
-                    }
-                    SpotPrice price = SpotPrice.getInstance(timestamp, spotPrice);
-                    Pair<String, String> key = Pair.of(product, availabilityZone);
-                    List<SpotPrice> subList = prices.get(key);
-                    if( subList == null ) {
-                        subList = new ArrayList<SpotPrice>();
-                        prices.put(key, subList);
-                    }
-                    subList.add(price);
-                }
+            if( zone != null ) {
+                parameters.put("AvailabilityZone", zone);
             }
-        }
-        nextToken = "";
-        blocks = doc.getElementsByTagName("nextToken");
-        if( blocks.getLength() > 0 ) {
-            nextToken = AWSCloud.getTextValue(blocks.item(0));
-            if( nextToken != null && nextToken.trim().length() == 0 ) {
-                nextToken = null;
+            if( product != null ) {
+                parameters.put("InstanceType.1", product);
             }
-        }
-        return nextToken;
+            if( start > 0 ) {
+                parameters.put("StartTime", getProvider().getTimestamp(start, true));
+                parameters.put("EndTime", getProvider().getTimestamp(end, true));
+            }
+            parameters.put("MaxResults", String.valueOf(getProvider().getDescribePageSize()));
+            if( nextToken != null ) {
+                parameters.put("NextToken", nextToken);
+            }
+            try {
+                new EC2Method(getProvider(), parameters).invoke(parser);
+            } catch( EC2Exception e ) {
+                logger.error(e.getSummary());
+                throw new CloudException(e);
+            }
+            nextToken = parser.getNextToken();
+        } while( nextToken != null );
     }
 
     private SpotVirtualMachineRequest toSpotVmRequest( @Nonnull Node node, SpotVirtualMachineRequestCreateOptions options ) throws CloudException {
@@ -32,6 +32,9 @@ import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.admin.PrepaymentSupport;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RequestRateLimiter;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.SingleFlight;
 import org.dasein.cloud.aws.identity.IAMMethod;
 import org.dasein.cloud.compute.*;
 import org.dasein.cloud.identity.ServiceAction;
@@ -46,13 +49,21 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class EC2Method {
     static private final Logger logger = AWSCloud.getLogger(EC2Method.class);
@@ -584,6 +595,39 @@ public class EC2Method {
         return new ServiceAction[0];
     }
 
+    /**
+     * Actions whose responses depend only on their parameters and have no side effects, so identical concurrent
+     * requests may share a response. Actions such as {@link #GET_PASSWORD_DATA} are left out on purpose.
+     */
+    static private final Set<String> COALESCED_ACTIONS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            DESCRIBE_ACCOUNT_ATTRIBUTES, DESCRIBE_ADDRESSES, DESCRIBE_ALARMS, DESCRIBE_AUTO_SCALING_GROUPS,
+            DESCRIBE_BUNDLE_TASKS, DESCRIBE_CUSTOMER_GATEWAYS, DESCRIBE_DHCP_OPTIONS, DESCRIBE_IMAGE_ATTRIBUTE,
+            DESCRIBE_IMAGES, DESCRIBE_INSTANCE_ATTRIBUTE, DESCRIBE_INSTANCE_STATUS, DESCRIBE_INSTANCES,
+            DESCRIBE_INTERNET_GATEWAYS, DESCRIBE_KEY_PAIRS, DESCRIBE_LAUNCH_CONFIGURATIONS, DESCRIBE_NETWORK_ACLS,
+            DESCRIBE_NICS, DESCRIBE_NOTIFICATION_CONFIGURATIONS, DESCRIBE_RESERVED_INSTANCES,
+            DESCRIBE_RESERVED_INSTANCES_OFFERINGS, DESCRIBE_ROUTE_TABLES, DESCRIBE_SCALING_POLICIES,
+            DESCRIBE_SECURITY_GROUPS, DESCRIBE_SNAPSHOT_ATTRIBUTE, DESCRIBE_SNAPSHOTS, DESCRIBE_SPOT_INSTANCE_REQUESTS,
+            DESCRIBE_SPOT_PRICE_HISTORY, DESCRIBE_SUBNETS, DESCRIBE_TAGS, DESCRIBE_VOLUMES, DESCRIBE_VPCS,
+            DESCRIBE_VPN_CONNECTIONS, DESCRIBE_VPN_GATEWAYS, GET_METRIC_STATISTICS, LIST_METRICS)));
+
+    /**
+     * @param action the API action of a request
+     * @return true if concurrent identical requests for the action may share one response
+     */
+    static boolean isCoalesced( @Nullable String action ) {
+        return ( action != null && COALESCED_ACTIONS.contains(action) );
+    }
+
+    /**
+     * Concurrent identical read-only requests share one round trip. DOM documents are not safe to read from several
+     * threads, so each caller that joins a request in flight gets its own copy of the response.
+     */
+    static private final SingleFlight<Document> describeFlights = new SingleFlight<Document>(new SingleFlight.Copier<Document>() {
+        public Document copy( @Nonnull Document doc ) {
+            return ( Document ) doc.cloneNode(true);
+        }
+    });
+
     private int                 attempts   = 0;
     private Map<String, String> parameters = null;
     private AWSCloud            provider   = null;
@@ -649,7 +693,143 @@ public class EC2Method {
         this.invoke(false, callback);
     }
 
-    private Document invoke( boolean debug, XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
+    /**
+     * Submits this request to the provider's shared request executor and returns immediately. The response
+     * is parsed into a DOM document once it arrives. Retryable failures are re-queued after a backoff delay
+     * without holding an executor thread.
+     * <p>An EC2Method instance represents a single request and must not be invoked more than once concurrently.</p>
+     *
+     * @return a future holding the parsed response or the failure that prevented it
+     * @see org.dasein.cloud.aws.AWSCloud#getRequestExecutor()
+     */
+    public @Nonnull Future<Document> invokeAsync() {
+        return RetryPolicy.getInstance(serviceId).submit(provider.getRequestExecutor(), new Callable<Document>() {
+            public Document call() throws EC2Exception, CloudException, InternalException {
+                return invokeOnce(false, null);
+            }
+        });
+    }
+
+    /**
+     * Submits this request to the provider's shared request executor and returns immediately. The response
+     * is handed to the callback on the executor thread and never materialised as a DOM document. Retryable
+     * failures are re-queued after a backoff delay without holding an executor thread.
+     * <p>An EC2Method instance represents a single request and must not be invoked more than once concurrently.</p>
+     *
+     * @param callback the stream parser for the successful response
+     * @return a future holding whatever the callback parsed, or the failure that prevented it
+     * @see org.dasein.cloud.aws.AWSCloud#getRequestExecutor()
+     */
+    public @Nonnull <T> Future<List<T>> invokeAsync( @Nonnull final XmlStreamParser<T> callback ) {
+        return RetryPolicy.getInstance(serviceId).submit(provider.getRequestExecutor(), new Callable<List<T>>() {
+            public List<T> call() throws EC2Exception, CloudException, InternalException {
+                final List<T> results = new ArrayList<T>();
+
+                invokeOnce(false, new XmlStreamParser<T>() {
+                    public List<T> parse( InputStream stream ) throws IOException, CloudException, InternalException {
+                        List<T> parsed = callback.parse(stream);
+
+                        if( parsed != null ) {
+                            results.addAll(parsed);
+                        }
+                        return parsed;
+                    }
+                });
+                return results;
+            }
+        });
+    }
+
+    private Document invoke( final boolean debug, XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
+        if( callback == null && isCoalesced(parameters.get(AWSCloud.P_ACTION)) ) {
+            return describeFlights.execute(getFlightKey(), new SingleFlight.Call<Document>() {
+                public Document call() throws CloudException, InternalException {
+                    return invokeWithRetries(debug, null);
+                }
+            });
+        }
+        return invokeWithRetries(debug, callback);
+    }
+
+    /**
+     * Identifies requests that would return the same response: same endpoint, same credentials and the same
+     * parameters regardless of the order in which they were added.
+     */
+    private @Nonnull String getFlightKey() {
+        StringBuilder key = new StringBuilder();
+
+        key.append(url).append('\n').append(new String(provider.getAccessKey()[0]));
+        for( Map.Entry<String, String> entry : new TreeMap<String, String>(parameters).entrySet() ) {
+            key.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return key.toString();
+    }
+
+    private Document invokeWithRetries( boolean debug, XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance(serviceId);
+
+        while( true ) {
+            try {
+                return invokeOnce(debug, callback);
+            }
+            catch( EC2Exception e ) {
+                if( !policy.shouldRetry(attempts, e) ) {
+                    if( attempts > 1 && policy.isRetryable(e) ) {
+                        logger.error("Giving up on " + parameters.get(AWSCloud.P_ACTION) + " after " + attempts + " attempts: " + e.getSummary());
+                    }
+                    throw e;
+                }
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Retryable error from " + parameters.get(AWSCloud.P_ACTION) + ": " + e.getSummary());
+                }
+                if( !policy.backoff(attempts) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Document invokeOnce( boolean debug, XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
+        RequestRateLimiter.Bucket bucket = RequestRateLimiter.getBucket(provider.getContext(), serviceId, RequestRateLimiter.getActionClass(parameters.get(AWSCloud.P_ACTION)));
+
+        if( !bucket.acquire() ) {
+            throw new InternalException("Interrupted while waiting to send " + parameters.get(AWSCloud.P_ACTION));
+        }
+        try {
+            Document doc = send(debug, callback);
+
+            bucket.onSuccess();
+            return doc;
+        }
+        catch( EC2Exception e ) {
+            if( RequestRateLimiter.isThrottling(e.getCode()) ) {
+                bucket.onThrottle();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the form-encoded request body for the given request parameters.
+     * @param parameters the request parameters
+     * @return the entity to post
+     * @throws InternalException UTF-8 is not supported
+     */
+    static @Nonnull HttpEntity getFormEntity( @Nonnull Map<String, String> parameters ) throws InternalException {
+        List<NameValuePair> params = new ArrayList<NameValuePair>();
+
+        for( Map.Entry<String, String> entry : parameters.entrySet() ) {
+            params.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
+        }
+        try {
+            return new UrlEncodedFormEntity(params, "UTF-8");
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    private Document send( boolean debug, XmlStreamParser callback ) throws EC2Exception, CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("ENTER - " + EC2Method.class.getName() + ".invoke(" + debug + ")");
         }
@@ -657,16 +837,14 @@ public class EC2Method {
             wire.debug("");
             wire.debug("--------------------------------------------------------------------------------------");
         }
-        HttpClient client = null;
+        HttpResponse response = null;
         try {
             if( logger.isDebugEnabled() ) {
                 logger.debug("Talking to server at " + url);
             }
 
             HttpPost post = new HttpPost(url);
-            client = provider.getClient();
-
-            HttpResponse response;
+            HttpClient client = provider.getClient();
 
             attempts++;
             post.addHeader("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
@@ -683,17 +861,7 @@ public class EC2Method {
                 post.addHeader(strategy.getHeaderName(), strategy.getRequestId());
             }
 
-            List<NameValuePair> params = new ArrayList<NameValuePair>();
-
-            for( Map.Entry<String, String> entry : parameters.entrySet() ) {
-                params.add(new BasicNameValuePair(entry.getKey(), entry.getValue()));
-            }
-            try {
-                post.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
-            }
-            catch( UnsupportedEncodingException e ) {
-                throw new InternalException(e);
-            }
+            post.setEntity(getFormEntity(parameters));
 
             Map<String, String> headers = new HashMap<String, String>();
             for( Header header : post.getAllHeaders() ) {
@@ -855,42 +1023,32 @@ public class EC2Method {
                     logger.debug("Received " + status + " from " + parameters.get(AWSCloud.P_ACTION));
                 }
                 if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-                    if( attempts >= 5 ) {
-                        String msg;
+                    String msg;
 
-                        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-                            msg = "Cloud service is currently unavailable.";
-                        }
-                        else {
-                            msg = "The cloud service encountered a server error while processing your request.";
-                            try {
-                                HttpEntity entity = response.getEntity();
+                    if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+                        msg = "Cloud service is currently unavailable.";
+                    }
+                    else {
+                        msg = "The cloud service encountered a server error while processing your request.";
+                        try {
+                            HttpEntity entity = response.getEntity();
 
-                                if( entity == null ) {
-                                    throw EC2Exception.create(status);
-                                }
+                            if( entity != null ) {
                                 msg = msg + "Response from server was:\n" + EntityUtils.toString(entity);
                             }
-                            catch( IOException ignore ) {
-                                // ignore me
-                            }
-                            catch( RuntimeException ignore ) {
-                                // ignore me
-                            }
-                            catch( Error ignore ) {
-                                // ignore me
-                            }
                         }
-                        logger.error(msg);
-                        throw new CloudException(msg);
-                    }
-                    else {
-                        try {
-                            Thread.sleep(5000L);
+                        catch( IOException ignore ) {
+                            // ignore me
+                        }
+                        catch( RuntimeException ignore ) {
+                            // ignore me
+                        }
+                        catch( Error ignore ) {
+                            // ignore me
                         }
-                        catch( InterruptedException e ) { /* ignore */ }
-                        return invoke();
                     }
+                    // classified and, if attempts remain, retried by the caller
+                    throw EC2Exception.create(status, null, null, msg);
                 }
                 try {
                     HttpEntity entity = response.getEntity();
@@ -955,9 +1113,7 @@ public class EC2Method {
             }
         }
         finally {
-            if( client != null ) {
-                client.getConnectionManager().shutdown();
-            }
+            releaseQuietly(response);
             if( logger.isTraceEnabled() ) {
                 logger.trace("EXIT - " + EC2Method.class.getName() + ".invoke()");
             }
@@ -969,6 +1125,22 @@ public class EC2Method {
         }
     }
 
+    /**
+     * Makes sure the connection behind the response goes back to the shared pool.
+     * @param response the response to release, may be null
+     */
+    static private void releaseQuietly( HttpResponse response ) {
+        if( response == null ) {
+            return;
+        }
+        try {
+            EntityUtils.consume(response.getEntity());
+        }
+        catch( IOException ignore ) {
+            // the connection will be discarded by the pool
+        }
+    }
+
     private Document parseResponse( String responseBody ) throws CloudException, InternalException {
         try {
             if( wire.isDebugEnabled() ) {
@@ -995,6 +1167,21 @@ public class EC2Method {
     }
 
     private Document parseResponse( InputStream responseBodyAsStream ) throws CloudException, InternalException {
+        if( !wire.isDebugEnabled() ) {
+            // nothing needs the text of the response, so skip copying it into a string first
+            try {
+                return XMLParser.parse(responseBodyAsStream);
+            }
+            catch( IOException e ) {
+                throw new CloudException(e);
+            }
+            catch( ParserConfigurationException e ) {
+                throw new CloudException(e);
+            }
+            catch( SAXException e ) {
+                throw new CloudException(e);
+            }
+        }
         BufferedReader in = null;
         try {
             in = new BufferedReader(new InputStreamReader(responseBodyAsStream));
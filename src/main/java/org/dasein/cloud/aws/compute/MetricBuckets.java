@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.VmStatistics;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects CloudWatch datapoints for one instance into per-minute buckets held in flat primitive arrays, one slice
+ * per metric. Each metric is written by a single query, so concurrent queries for different metrics may record
+ * into the same buckets without locking; readers must wait for those queries to complete first.
+ */
+final class MetricBuckets {
+    static final int CPU              = 0;
+    static final int DISK_READ_BYTES  = 1;
+    static final int DISK_READ_OPS    = 2;
+    static final int DISK_WRITE_BYTES = 3;
+    static final int DISK_WRITE_OPS   = 4;
+    static final int NETWORK_IN       = 5;
+    static final int NETWORK_OUT      = 6;
+    static final int METRICS          = 7;
+
+    private final long     startTimestamp;
+    private final long     endTimestamp;
+    private final int      buckets;
+    private final long[]   timestamps;
+    private final int[]    samples;
+    private final double[] average;
+    private final double[] minimum;
+    private final double[] maximum;
+
+    MetricBuckets( long startTimestamp, long endTimestamp ) {
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+        // one extra bucket for a datapoint stamped exactly at the end of the range
+        this.buckets = 1 + ( int ) ( Math.max(0L, endTimestamp - startTimestamp) / CalendarWrapper.MINUTE );
+        this.timestamps = new long[METRICS * buckets];
+        this.samples = new int[METRICS * buckets];
+        this.average = new double[METRICS * buckets];
+        this.minimum = new double[METRICS * buckets];
+        this.maximum = new double[METRICS * buckets];
+    }
+
+    /**
+     * Records one datapoint in the bucket for its minute, keeping its own timestamp. Datapoints outside the range
+     * are dropped.
+     * @param metric the metric slice, such as {@link #CPU}
+     * @param timestamp the datapoint timestamp
+     * @param sampleCount the number of raw samples behind the datapoint; datapoints always count as at least one
+     */
+    void record( int metric, long timestamp, int sampleCount, double avg, double min, double max ) {
+        if( timestamp < startTimestamp ) {
+            return;
+        }
+        long bucket = ( timestamp - startTimestamp ) / CalendarWrapper.MINUTE;
+
+        if( bucket >= buckets ) {
+            return;
+        }
+        int i = metric * buckets + ( int ) bucket;
+
+        timestamps[i] = timestamp;
+        samples[i] = Math.max(1, sampleCount);
+        average[i] = avg;
+        minimum[i] = min;
+        maximum[i] = max;
+    }
+
+    /**
+     * @return one statistics entry per minute that has data for any metric, in time order, stamped with the
+     * timestamp of the first metric's datapoint in that minute
+     */
+    @Nonnull List<VmStatistics> toStatistics() {
+        List<VmStatistics> list = new ArrayList<VmStatistics>();
+
+        for( int b = 0; b < buckets; b++ ) {
+            VmStatistics stats = null;
+
+            for( int m = 0; m < METRICS; m++ ) {
+                int i = m * buckets + b;
+
+                if( samples[i] < 1 ) {
+                    continue;
+                }
+                if( stats == null ) {
+                    stats = new VmStatistics();
+                    stats.setStartTimestamp(timestamps[i]);
+                    stats.setEndTimestamp(timestamps[i]);
+                    stats.setSamples(samples[i]);
+                }
+                apply(stats, m, average[i], minimum[i], maximum[i]);
+            }
+            if( stats != null ) {
+                list.add(stats);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Summarizes the whole range: the lowest minimum, highest maximum and mean of the averages of each metric. The
+     * sample count and time span are those of the CPU datapoints.
+     * @return the summary for the range
+     */
+    @Nonnull VmStatistics summarize() {
+        VmStatistics stats = new VmStatistics();
+
+        for( int m = 0; m < METRICS; m++ ) {
+            double min = 0.0, max = 0.0, sum = 0.0;
+            long start = -1L, end = -1L;
+            int count = 0;
+
+            for( int b = 0; b < buckets; b++ ) {
+                int i = m * buckets + b;
+
+                if( samples[i] < 1 ) {
+                    continue;
+                }
+                if( count == 0 || minimum[i] < min ) {
+                    min = minimum[i];
+                }
+                if( count == 0 || maximum[i] > max ) {
+                    max = maximum[i];
+                }
+                if( start < 0L ) {
+                    start = timestamps[i];
+                }
+                end = timestamps[i];
+                sum += average[i];
+                count++;
+            }
+            if( m == CPU ) {
+                stats.setSamples(count);
+                stats.setStartTimestamp(start < 0L ? startTimestamp : start);
+                stats.setEndTimestamp(end < 0L ? endTimestamp : end);
+            }
+            apply(stats, m, count == 0 ? 0.0 : sum / count, Math.max(0.0, min), max);
+        }
+        return stats;
+    }
+
+    static private void apply( @Nonnull VmStatistics stats, int metric, double avg, double min, double max ) {
+        switch( metric ) {
+            case CPU:
+                stats.setAverageCpuUtilization(avg);
+                stats.setMinimumCpuUtilization(min);
+                stats.setMaximumCpuUtilization(max);
+                break;
+            case DISK_READ_BYTES:
+                stats.setAverageDiskReadBytes(avg);
+                stats.setMinimumDiskReadBytes(min);
+                stats.setMaximumDiskReadBytes(max);
+                break;
+            case DISK_READ_OPS:
+                stats.setAverageDiskReadOperations(avg);
+                stats.setMinimumDiskReadOperations(min);
+                stats.setMaximumDiskReadOperations(max);
+                break;
+            case DISK_WRITE_BYTES:
+                stats.setAverageDiskWriteBytes(avg);
+                stats.setMinimumDiskWriteBytes(min);
+                stats.setMaximumDiskWriteBytes(max);
+                break;
+            case DISK_WRITE_OPS:
+                stats.setAverageDiskWriteOperations(avg);
+                stats.setMinimumDiskWriteOperations(min);
+                stats.setMaximumDiskWriteOperations(max);
+                break;
+            case NETWORK_IN:
+                stats.setAverageNetworkIn(avg);
+                stats.setMinimumNetworkIn(min);
+                stats.setMaximumNetworkIn(max);
+                break;
+            case NETWORK_OUT:
+                stats.setAverageNetworkOut(avg);
+                stats.setMinimumNetworkOut(min);
+                stats.setMaximumNetworkOut(max);
+                break;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+
+/**
+ * Streaming parser for DescribeSpotPriceHistory responses. Prices go straight into the columns of a
+ * {@link SpotPriceStore} as each {@code item} element ends, without building an object per price.
+ *
+ * @see EC2Instance#loadSpotPriceHistory(org.dasein.cloud.compute.SpotPriceHistoryFilterOptions)
+ */
+public class SpotPriceHistoryResponseParser implements XmlStreamParser<SpotPriceStore.Series> {
+    private final SpotPriceStore   store;
+    private final long             startTimestamp;
+    private final long             endTimestamp;
+    private final SimpleDateFormat timestampFormat;
+    private String                 nextToken;
+
+    /**
+     * @param store the store to add prices to
+     * @param startTimestamp the start of the requested range, or 0 to keep every price; AWS returns prices somewhat
+     * outside the range it is asked for, so those are dropped here
+     * @param endTimestamp the end of the requested range
+     */
+    public SpotPriceHistoryResponseParser( @Nonnull SpotPriceStore store, long startTimestamp, long endTimestamp ) {
+        this.store = store;
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        this.timestampFormat.setCalendar(Calendar.getInstance(new SimpleTimeZone(0, "GMT")));
+    }
+
+    /**
+     * @return the series that received prices from this response
+     */
+    @Override
+    public List<SpotPriceStore.Series> parse( InputStream stream ) throws IOException, CloudException, InternalException {
+        // a failed parse may be retried, so take back anything this attempt added
+        Map<SpotPriceStore.Series, Integer> marks = new LinkedHashMap<SpotPriceStore.Series, Integer>();
+        boolean done = false;
+        XMLStreamReader reader = null;
+
+        nextToken = null;
+        try {
+            reader = XMLInputFactory.newInstance().createXMLStreamReader(stream);
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamConstants.START_ELEMENT ) {
+                    String name = reader.getLocalName();
+
+                    if( "spotPriceHistorySet".equals(name) ) {
+                        readPrices(reader, marks);
+                    }
+                    else if( "nextToken".equals(name) ) {
+                        nextToken = trim(reader.getElementText());
+                    }
+                }
+            }
+            done = true;
+            return new ArrayList<SpotPriceStore.Series>(marks.keySet());
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            if( !done ) {
+                for( Map.Entry<SpotPriceStore.Series, Integer> mark : marks.entrySet() ) {
+                    mark.getKey().truncate(mark.getValue());
+                }
+            }
+            if( reader != null ) {
+                try {
+                    reader.close();
+                }
+                catch( XMLStreamException ignore ) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the token for the next page of history, or null if the last parsed response was the final page
+     */
+    public @Nullable String getNextToken() {
+        return nextToken;
+    }
+
+    private void readPrices( @Nonnull XMLStreamReader reader, @Nonnull Map<SpotPriceStore.Series, Integer> marks ) throws XMLStreamException, CloudException {
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            if( !"item".equals(reader.getLocalName()) ) {
+                skip(reader);
+                continue;
+            }
+            String product = null, zone = null, timestamp = null;
+            float price = -1.0f;
+
+            while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+                String name = reader.getLocalName();
+
+                if( "instanceType".equals(name) ) {
+                    product = trim(reader.getElementText());
+                }
+                else if( "availabilityZone".equals(name) ) {
+                    zone = trim(reader.getElementText());
+                }
+                else if( "timestamp".equals(name) ) {
+                    timestamp = trim(reader.getElementText());
+                }
+                else if( "spotPrice".equals(name) ) {
+                    String value = trim(reader.getElementText());
+
+                    try {
+                        price = ( value == null ? -1.0f : Float.parseFloat(value) );
+                    }
+                    catch( NumberFormatException e ) {
+                        throw new CloudException("Invalid spot price: " + value);
+                    }
+                }
+                else {
+                    skip(reader);
+                }
+            }
+            if( product == null || zone == null || timestamp == null || price < 0 ) {
+                continue;
+            }
+            long when;
+
+            try {
+                when = timestampFormat.parse(timestamp).getTime();
+            }
+            catch( ParseException e ) {
+                throw new CloudException(e);
+            }
+            if( startTimestamp > 0 && ( when < startTimestamp || endTimestamp < when ) ) {
+                continue;
+            }
+            SpotPriceStore.Series series = store.getOrCreate(product, zone);
+
+            if( !marks.containsKey(series) ) {
+                marks.put(series, series.size());
+            }
+            series.add(when, price);
+        }
+    }
+
+    static private @Nullable String trim( @Nullable String value ) {
+        if( value == null ) {
+            return null;
+        }
+        value = value.trim();
+        return ( value.length() == 0 ? null : value );
+    }
+
+    /**
+     * Skips past the end of the current element, including everything inside it.
+     */
+    static private void skip( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        int depth = 1;
+
+        while( depth > 0 && reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.START_ELEMENT ) {
+                depth++;
+            }
+            else if( event == XMLStreamConstants.END_ELEMENT ) {
+                depth--;
+            }
+        }
+    }
+}
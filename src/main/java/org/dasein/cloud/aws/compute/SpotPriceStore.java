@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.SpotPrice;
+import org.dasein.cloud.compute.SpotPriceHistory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact store for spot price history. Each product and availability zone has its own series of primitive
+ * timestamp and price columns, so months of history for a whole region stay small and can be queried without
+ * building a {@link SpotPrice} per point.
+ * <p>Series may be filled concurrently while history loads. Queries are only valid once the store has been
+ * {@link #seal() sealed}, which puts every series in time order.</p>
+ *
+ * @see EC2Instance#loadSpotPriceHistory(org.dasein.cloud.compute.SpotPriceHistoryFilterOptions)
+ */
+public class SpotPriceStore {
+    /**
+     * The price history of one product in one availability zone.
+     */
+    static public class Series {
+        static private final int INITIAL_CAPACITY = 64;
+
+        private final String productId;
+        private final String dataCenterId;
+        private long[]       timestamps = new long[INITIAL_CAPACITY];
+        private float[]      prices     = new float[INITIAL_CAPACITY];
+        private int          size       = 0;
+
+        Series( @Nonnull String productId, @Nonnull String dataCenterId ) {
+            this.productId = productId;
+            this.dataCenterId = dataCenterId;
+        }
+
+        public @Nonnull String getProductId() {
+            return productId;
+        }
+
+        public @Nonnull String getDataCenterId() {
+            return dataCenterId;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTimestamp( int index ) {
+            return timestamps[index];
+        }
+
+        public float getPrice( int index ) {
+            return prices[index];
+        }
+
+        synchronized void add( long timestamp, float price ) {
+            if( size == timestamps.length ) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                prices = Arrays.copyOf(prices, size * 2);
+            }
+            timestamps[size] = timestamp;
+            prices[size] = price;
+            size++;
+        }
+
+        /**
+         * Drops every point added after the series held the given number of points.
+         */
+        synchronized void truncate( int length ) {
+            if( length < size ) {
+                size = length;
+            }
+        }
+
+        /**
+         * Puts the points in time order. History arrives newest first, so the common case is a reversal.
+         */
+        synchronized void sort() {
+            boolean ascending = true, descending = true;
+
+            for( int i = 1; i < size && ( ascending || descending ); i++ ) {
+                if( timestamps[i] < timestamps[i - 1] ) {
+                    ascending = false;
+                }
+                else if( timestamps[i] > timestamps[i - 1] ) {
+                    descending = false;
+                }
+            }
+            if( ascending ) {
+                return;
+            }
+            if( descending ) {
+                for( int i = 0, j = size - 1; i < j; i++, j-- ) {
+                    swap(i, j);
+                }
+                return;
+            }
+            // heapsort keeps the two columns together without boxing
+            for( int i = size / 2 - 1; i >= 0; i-- ) {
+                siftDown(i, size);
+            }
+            for( int end = size - 1; end > 0; end-- ) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        private void siftDown( int root, int end ) {
+            while( 2 * root + 1 < end ) {
+                int child = 2 * root + 1;
+
+                if( child + 1 < end && timestamps[child + 1] > timestamps[child] ) {
+                    child++;
+                }
+                if( timestamps[root] >= timestamps[child] ) {
+                    return;
+                }
+                swap(root, child);
+                root = child;
+            }
+        }
+
+        private void swap( int i, int j ) {
+            long t = timestamps[i];
+            float p = prices[i];
+
+            timestamps[i] = timestamps[j];
+            prices[i] = prices[j];
+            timestamps[j] = t;
+            prices[j] = p;
+        }
+
+        /**
+         * @param timestamp the time to look for
+         * @return the index of the first point at or after the given time, or {@link #size()} if there is none
+         */
+        public int indexOf( long timestamp ) {
+            int low = 0, high = size;
+
+            while( low < high ) {
+                int mid = ( low + high ) >>> 1;
+
+                if( timestamps[mid] < timestamp ) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @param timestamp the time of interest
+         * @return the price in effect at the given time, or {@link Float#NaN} if the history starts after it
+         */
+        public float getPriceAt( long timestamp ) {
+            int i = indexOf(timestamp + 1) - 1;
+
+            return ( i < 0 ? Float.NaN : prices[i] );
+        }
+
+        /**
+         * @param fromTimestamp the start of the range, inclusive
+         * @param toTimestamp the end of the range, inclusive
+         * @return the prices quoted in the range, in time order
+         */
+        public @Nonnull float[] getPrices( long fromTimestamp, long toTimestamp ) {
+            int from = indexOf(fromTimestamp);
+            int to = Math.max(from, indexOf(toTimestamp + 1));
+
+            return Arrays.copyOfRange(prices, from, to);
+        }
+
+        /**
+         * Finds a percentile of the prices quoted in a range using the nearest-rank method.
+         * @param fromTimestamp the start of the range, inclusive
+         * @param toTimestamp the end of the range, inclusive
+         * @param percentile the percentile, from 0 to 100
+         * @return the price at the given percentile, or {@link Float#NaN} if no price was quoted in the range
+         */
+        public float getPercentile( long fromTimestamp, long toTimestamp, double percentile ) {
+            float[] range = getPrices(fromTimestamp, toTimestamp);
+
+            if( range.length == 0 ) {
+                return Float.NaN;
+            }
+            Arrays.sort(range);
+            int rank = ( int ) Math.ceil(( Math.max(0.0, Math.min(100.0, percentile)) / 100.0 ) * range.length);
+
+            return range[Math.max(0, rank - 1)];
+        }
+
+        /**
+         * @return the series as a Dasein price history
+         */
+        public @Nonnull SpotPriceHistory toHistory() {
+            SpotPrice[] list = new SpotPrice[size];
+
+            for( int i = 0; i < size; i++ ) {
+                list[i] = SpotPrice.getInstance(timestamps[i], prices[i]);
+            }
+            return SpotPriceHistory.getInstance(dataCenterId, productId, list);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<String, Series>();
+
+    /**
+     * @return the series for the given product and zone, creating it if this is its first price
+     */
+    @Nonnull Series getOrCreate( @Nonnull String productId, @Nonnull String dataCenterId ) {
+        String key = productId + "/" + dataCenterId;
+        Series s = series.get(key);
+
+        if( s == null ) {
+            Series created = new Series(productId, dataCenterId);
+
+            s = series.putIfAbsent(key, created);
+            if( s == null ) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Puts every series in time order. Call once all history has been added.
+     */
+    void seal() {
+        for( Series s : series.values() ) {
+            s.sort();
+        }
+    }
+
+    /**
+     * @param productId the instance type
+     * @param dataCenterId the availability zone
+     * @return the history of the product in the zone, or null if no prices were loaded for it
+     */
+    public @Nullable Series getSeries( @Nonnull String productId, @Nonnull String dataCenterId ) {
+        return series.get(productId + "/" + dataCenterId);
+    }
+
+    /**
+     * @return every series in the store
+     */
+    public @Nonnull Collection<Series> getSeries() {
+        return Collections.unmodifiableCollection(series.values());
+    }
+
+    /**
+     * @param productId the instance type
+     * @return the history of the product in every zone it was loaded for
+     */
+    public @Nonnull List<Series> getSeriesForProduct( @Nonnull String productId ) {
+        List<Series> list = new ArrayList<Series>();
+
+        for( Series s : series.values() ) {
+            if( s.getProductId().equals(productId) ) {
+                list.add(s);
+            }
+        }
+        return list;
+    }
+}
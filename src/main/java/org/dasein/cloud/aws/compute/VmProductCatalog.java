@@ -0,0 +1,439 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.dasein.util.uom.storage.Gigabyte;
+import org.dasein.util.uom.storage.Megabyte;
+import org.dasein.util.uom.storage.Storage;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The VM products defined in {@code vmproducts.json}, merged with any {@code vmproducts-custom.json} on the
+ * classpath. Each resource is read once per JVM, on first use, and each provider/cloud/endpoint combination gets one
+ * immutable catalog shared by every {@link AWSCloud} that uses it. Products are indexed by ID, and the product list
+ * of each region and architecture is built the first time it is asked for.
+ *
+ * @see EC2Instance#listProducts(org.dasein.cloud.compute.VirtualMachineProductFilterOptions, Architecture)
+ */
+final class VmProductCatalog {
+    static private final Logger logger = AWSCloud.getLogger(VmProductCatalog.class);
+
+    static private final String DEFAULT_PRODUCTS = "/org/dasein/cloud/aws/vmproducts.json";
+    static private final String CUSTOM_PRODUCTS  = "/org/dasein/cloud/aws/vmproducts-custom.json";
+
+    static private final ConcurrentHashMap<String, VmProductCatalog> catalogs = new ConcurrentHashMap<String, VmProductCatalog>();
+    static private volatile JSONArray defaultListings;
+    static private volatile JSONArray customListings;
+
+    /**
+     * @param providerName the provider name of the cloud
+     * @param cloudName the cloud name
+     * @param endpoint the cloud endpoint, used to pick between custom listings
+     * @return the catalog for the given cloud
+     * @throws InternalException the product resources could not be read
+     */
+    static @Nonnull VmProductCatalog getInstance( @Nonnull String providerName, @Nonnull String cloudName, @Nullable String endpoint ) throws InternalException {
+        String key = providerName + "/" + cloudName + "/" + endpoint;
+        VmProductCatalog catalog = catalogs.get(key);
+
+        if( catalog == null ) {
+            loadResources();
+            try {
+                catalog = new VmProductCatalog(providerName, cloudName, endpoint);
+            }
+            catch( JSONException e ) {
+                throw new InternalException(e);
+            }
+            VmProductCatalog existing = catalogs.putIfAbsent(key, catalog);
+
+            if( existing != null ) {
+                catalog = existing;
+            }
+        }
+        return catalog;
+    }
+
+    static private void loadResources() throws InternalException {
+        if( defaultListings == null ) {
+            synchronized( VmProductCatalog.class ) {
+                if( defaultListings == null ) {
+                    JSONArray custom = read(CUSTOM_PRODUCTS);
+                    JSONArray defaults = read(DEFAULT_PRODUCTS);
+
+                    if( defaults == null ) {
+                        logger.warn("No standard products resource exists for " + DEFAULT_PRODUCTS);
+                        defaults = new JSONArray();
+                    }
+                    customListings = custom;
+                    defaultListings = defaults;
+                }
+            }
+        }
+    }
+
+    static private @Nullable JSONArray read( @Nonnull String resource ) throws InternalException {
+        InputStream input = VmProductCatalog.class.getResourceAsStream(resource);
+
+        if( input == null ) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+            StringBuilder json = new StringBuilder();
+            String line;
+
+            while( ( line = reader.readLine() ) != null ) {
+                json.append(line);
+                json.append("\n");
+            }
+            return new JSONArray(json.toString());
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        catch( JSONException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch( IOException ignore ) {
+                // ignore
+            }
+        }
+    }
+
+    static private class Entry {
+        final VirtualMachineProduct   product;
+        final EnumSet<Architecture>   architectures;
+        final Set<String>             excludedRegions;
+
+        Entry( @Nonnull VirtualMachineProduct product, @Nonnull EnumSet<Architecture> architectures, @Nonnull Set<String> excludedRegions ) {
+            this.product = product;
+            this.architectures = architectures;
+            this.excludedRegions = excludedRegions;
+        }
+
+        boolean isAvailable( @Nonnull String regionId, @Nullable Architecture architecture ) {
+            return ( !excludedRegions.contains(regionId) && ( architecture == null || architectures.contains(architecture) ) );
+        }
+    }
+
+    private final List<Entry>                                          entries;
+    private final Map<String, Entry>                                   byId;
+    private final ConcurrentHashMap<String, List<VirtualMachineProduct>> byRegion = new ConcurrentHashMap<String, List<VirtualMachineProduct>>();
+
+    private VmProductCatalog( @Nonnull String providerName, @Nonnull String cloudName, @Nullable String endpoint ) throws JSONException, InternalException {
+        List<Entry> list = new ArrayList<Entry>();
+        JSONObject defaults = findDefaultListing(providerName, cloudName);
+        JSONObject custom = findCustomListing(providerName, cloudName, endpoint);
+
+        if( defaults == null ) {
+            logger.warn("No products were defined");
+        }
+        // custom products come first and may discard some or all of the defaults
+        if( custom != null ) {
+            Set<String> discard = new HashSet<String>();
+
+            if( custom.has("discard") ) {
+                JSONArray dlist = custom.getJSONArray("discard");
+
+                for( int i = 0; i < dlist.length(); i++ ) {
+                    discard.add(dlist.getString(i));
+                }
+            }
+            addProducts(list, custom, Collections.<String>emptySet());
+            if( custom.has("discardDefaults") && custom.getBoolean("discardDefaults") ) {
+                defaults = null;
+            }
+            if( defaults != null ) {
+                addProducts(list, defaults, discard);
+            }
+        }
+        else if( defaults != null ) {
+            addProducts(list, defaults, Collections.<String>emptySet());
+        }
+        Map<String, Entry> index = new HashMap<String, Entry>();
+
+        for( Entry entry : list ) {
+            String id = entry.product.getProviderProductId();
+
+            if( !index.containsKey(id) ) {
+                index.put(id, entry);
+            }
+        }
+        this.entries = Collections.unmodifiableList(list);
+        this.byId = Collections.unmodifiableMap(index);
+    }
+
+    static private @Nullable JSONObject findDefaultListing( @Nonnull String providerName, @Nonnull String cloudName ) throws JSONException {
+        JSONObject found = null;
+
+        for( int i = 0; i < defaultListings.length(); i++ ) {
+            JSONObject productSet = defaultListings.getJSONObject(i);
+
+            if( !productSet.has("cloud") || !productSet.has("provider") || !productSet.has("products") ) {
+                continue;
+            }
+            String cloud = productSet.getString("cloud");
+            String provider = productSet.getString("provider");
+
+            if( provider.equalsIgnoreCase(providerName) && cloud.equalsIgnoreCase(cloudName) ) {
+                return productSet;
+            }
+            if( found == null || ( provider.equals("AWS") && cloud.equals("AWS") ) ) {
+                found = productSet;
+            }
+        }
+        return found;
+    }
+
+    static private @Nullable JSONObject findCustomListing( @Nonnull String providerName, @Nonnull String cloudName, @Nullable String endpoint ) throws JSONException {
+        JSONArray listings = customListings;
+        JSONObject found = null;
+
+        if( listings == null ) {
+            return null;
+        }
+        for( int i = 0; i < listings.length(); i++ ) {
+            JSONObject listing = listings.getJSONObject(i);
+
+            if( !listing.has("cloud") || !listing.has("provider") ) {
+                continue;
+            }
+            if( !listing.getString("cloud").equals(cloudName) || !listing.getString("provider").equals(providerName) ) {
+                continue;
+            }
+            String listingEndpoint = ( listing.has("endpoint") ? listing.getString("endpoint") : null );
+
+            if( listingEndpoint != null && listingEndpoint.equals(endpoint) ) {
+                return listing;
+            }
+            if( listingEndpoint == null && found == null ) {
+                found = listing;
+            }
+        }
+        return found;
+    }
+
+    static private void addProducts( @Nonnull List<Entry> list, @Nonnull JSONObject listing, @Nonnull Set<String> discard ) throws JSONException, InternalException {
+        if( !listing.has("products") ) {
+            return;
+        }
+        JSONArray plist = listing.getJSONArray("products");
+
+        for( int i = 0; i < plist.length(); i++ ) {
+            JSONObject json = plist.getJSONObject(i);
+            VirtualMachineProduct product = toProduct(json);
+
+            if( product == null || discard.contains(product.getProviderProductId()) ) {
+                continue;
+            }
+            EnumSet<Architecture> architectures = EnumSet.noneOf(Architecture.class);
+            Set<String> excludedRegions = new HashSet<String>();
+
+            if( json.has("architectures") ) {
+                JSONArray values = json.getJSONArray("architectures");
+
+                for( int j = 0; j < values.length(); j++ ) {
+                    architectures.add(Architecture.valueOf(values.getString(j)));
+                }
+            }
+            if( json.has("excludesRegions") ) {
+                JSONArray regions = json.getJSONArray("excludesRegions");
+
+                for( int j = 0; j < regions.length(); j++ ) {
+                    excludedRegions.add(regions.getString(j));
+                }
+            }
+            list.add(new Entry(product, architectures, excludedRegions));
+        }
+    }
+
+    /**
+     * @param regionId the region the products must be offered in
+     * @param architecture the architecture the products must support, or null for any
+     * @return the products offered in the region, in catalog order
+     */
+    @Nonnull List<VirtualMachineProduct> list( @Nonnull String regionId, @Nullable Architecture architecture ) {
+        String key = regionId + "/" + ( architecture == null ? "ALL" : architecture.name() );
+        List<VirtualMachineProduct> products = byRegion.get(key);
+
+        if( products == null ) {
+            List<VirtualMachineProduct> list = new ArrayList<VirtualMachineProduct>();
+
+            for( Entry entry : entries ) {
+                if( entry.isAvailable(regionId, architecture) ) {
+                    list.add(entry.product);
+                }
+            }
+            products = Collections.unmodifiableList(list);
+            byRegion.putIfAbsent(key, products);
+        }
+        return products;
+    }
+
+    /**
+     * @param regionId the region the product must be offered in
+     * @param productId the product ID
+     * @return the product, or null if no such product is offered in the region
+     */
+    @Nullable VirtualMachineProduct get( @Nonnull String regionId, @Nonnull String productId ) {
+        Entry entry = byId.get(productId);
+
+        if( entry == null || entry.architectures.isEmpty() || !entry.isAvailable(regionId, null) ) {
+            return null;
+        }
+        return entry.product;
+    }
+
+    static private @Nullable VirtualMachineProduct toProduct( @Nonnull JSONObject json ) throws InternalException {
+        /*
+                    {
+                "architectures":["I32"],
+                "id":"m1.small",
+                "name":"Small Instance (m1.small)",
+                "description":"Small Instance (m1.small)",
+                "cpuCount":1,
+                "rootVolumeSizeInGb":160,
+                "ramSizeInMb": 1700,
+                "generation":"current",
+                "vt":["hvm"],
+                "rdt":["ebs","instance"]
+
+            },
+         */
+        VirtualMachineProduct prd = new VirtualMachineProduct();
+
+        try {
+            if( json.has("id") ) {
+                prd.setProviderProductId(json.getString("id"));
+            }
+            else {
+                return null;
+            }
+            if( json.has("name") ) {
+                prd.setName(json.getString("name"));
+            }
+            else {
+                prd.setName(prd.getProviderProductId());
+            }
+            if( json.has("description") ) {
+                prd.setDescription(json.getString("description"));
+            }
+            else {
+                prd.setDescription(prd.getName());
+            }
+            if( json.has("cpuCount") ) {
+                prd.setCpuCount(json.getInt("cpuCount"));
+            }
+            else {
+                prd.setCpuCount(1);
+            }
+            if( json.has("rootVolumeSizeInGb") ) {
+                prd.setRootVolumeSize(new Storage<Gigabyte>(json.getInt("rootVolumeSizeInGb"), Storage.GIGABYTE));
+            }
+            else {
+                prd.setRootVolumeSize(new Storage<Gigabyte>(1, Storage.GIGABYTE));
+            }
+            if( json.has("ramSizeInMb") ) {
+                prd.setRamSize(new Storage<Megabyte>(json.getInt("ramSizeInMb"), Storage.MEGABYTE));
+            }
+            else {
+                prd.setRamSize(new Storage<Megabyte>(512, Storage.MEGABYTE));
+            }
+            if( json.has("generation") && json.getString("generation").equalsIgnoreCase("previous")) {      	
+                   prd.setStatusDeprecated();
+            }
+            if( json.has("standardHourlyRates") ) {
+                JSONArray rates = json.getJSONArray("standardHourlyRates");
+
+                for( int i = 0; i < rates.length(); i++ ) {
+                    JSONObject rate = rates.getJSONObject(i);
+
+                    if( rate.has("rate") ) {
+                        prd.setStandardHourlyRate(( float ) rate.getDouble("rate"));
+                    }
+                }
+            }
+            if( json.has("architectures") ) {
+                List<Architecture> architectures = new ArrayList<Architecture>();
+                JSONArray values = json.getJSONArray("architectures");
+                for( int i=0; i<values.length(); i++ ) {
+                    String arch = values.getString(i);
+                    architectures.add(Architecture.valueOf(arch));
+                }
+                prd.setArchitectures(architectures.toArray(new Architecture[architectures.size()]));
+            }
+            if( json.has("vt") ) {
+                JSONArray vts = json.getJSONArray("vt");
+                StringBuilder sb = new StringBuilder();
+                for( int i=0; i<vts.length(); i++ ) {
+                    String vt = vts.getString(i);
+                    if( sb.length() > 0 ) {
+                        sb.append(",");
+                    }
+                    sb.append(vt);
+                }
+                prd.getProviderMetadata().put("vt", sb.toString());
+            }
+            if( json.has("rdt") ) {
+                JSONArray types = json.getJSONArray("rdt");
+                StringBuilder sb = new StringBuilder();
+                for( int i=0; i<types.length(); i++ ) {
+                    String type = types.getString(i);
+                    if( sb.length() > 0 ) {
+                        sb.append(",");
+                    }
+                    sb.append(type);
+                }
+                prd.getProviderMetadata().put("rdt", sb.toString());
+            }
+        } catch( JSONException e ) {
+            throw new InternalException(e);
+        }
+        return prd;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.VmState;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The outcome for one instance of a bulk lifecycle call such as
+ * {@link EC2Instance#stopVirtualMachines(java.util.Collection, boolean)}. Successful changes carry the states EC2
+ * reported for the transition; failed ones carry the error that kept the instance from changing state.
+ */
+public class VmStateChange {
+    private final String    instanceId;
+    private final VmState   previousState;
+    private final VmState   currentState;
+    private final Exception error;
+
+    public VmStateChange( @Nonnull String instanceId, @Nullable VmState previousState, @Nullable VmState currentState ) {
+        this.instanceId = instanceId;
+        this.previousState = previousState;
+        this.currentState = currentState;
+        this.error = null;
+    }
+
+    public VmStateChange( @Nonnull String instanceId, @Nonnull Exception error ) {
+        this.instanceId = instanceId;
+        this.previousState = null;
+        this.currentState = null;
+        this.error = error;
+    }
+
+    public @Nonnull String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return the state before the call, or null if the call failed or EC2 does not report one (as for reboots)
+     */
+    public @Nullable VmState getPreviousState() {
+        return previousState;
+    }
+
+    /**
+     * @return the state right after the call, or null if the call failed or EC2 does not report one (as for reboots)
+     */
+    public @Nullable VmState getCurrentState() {
+        return currentState;
+    }
+
+    /**
+     * @return the reason the instance did not change state, or null if the call succeeded for it
+     */
+    public @Nullable Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return ( error == null );
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        if( error != null ) {
+            return instanceId + ": " + error.getMessage();
+        }
+        return instanceId + ": " + previousState + " -> " + currentState;
+    }
+}
@@ -19,7 +19,11 @@
 
 package org.dasein.cloud.aws.model;
 
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Description
@@ -32,6 +36,7 @@ import java.util.List;
 public class DatabaseEngine {
     String               name;
     List<DatabaseRegion> regions;
+    private transient volatile Map<String, DatabaseRegion> regionIndex;
 
     public String getName() {
         return name;
@@ -47,5 +52,25 @@ public class DatabaseEngine {
 
     public void setRegions( List<DatabaseRegion> regions ) {
         this.regions = regions;
+        this.regionIndex = null;
+    }
+
+    public @Nullable DatabaseRegion findRegion( String name ) {
+        Map<String, DatabaseRegion> index = regionIndex;
+
+        if( index == null ) {
+            Map<String, DatabaseRegion> map = new HashMap<String, DatabaseRegion>();
+
+            if( regions != null ) {
+                for( DatabaseRegion region : regions ) {
+                    String key = region.getName().toLowerCase();
+                    if( !map.containsKey(key) ) {
+                        map.put(key, region);
+                    }
+                }
+            }
+            regionIndex = index = Collections.unmodifiableMap(map);
+        }
+        return ( name == null ? null : index.get(name.toLowerCase()) );
     }
 }
@@ -22,12 +22,17 @@ package org.dasein.cloud.aws.model;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.dasein.cloud.InternalException;
 
+import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Description
@@ -44,12 +49,38 @@ public class DatabaseProvider {
     Date created = new Date();
     List<DatabaseEngine> engines;
     private List<DatabaseProductDefinition> productDefinitions;
+    private transient volatile Map<String, DatabaseEngine> engineIndex;
+    private transient volatile Map<String, DatabaseProductDefinition> definitionIndex;
+
+    static private final ObjectMapper mapper = new ObjectMapper();
+    static private final ConcurrentHashMap<String, DatabaseProvider> shared = new ConcurrentHashMap<String, DatabaseProvider>();
+
+    /**
+     * Provides the configuration of a provider, reading the file the first time it is asked for and sharing the
+     * result JVM-wide from then on. Callers must treat the returned configuration as read-only.
+     * @param filename the classpath resource holding the product catalog
+     * @param providerId the provider to find in the catalog
+     * @return the shared provider configuration
+     * @throws InternalException the catalog could not be read or does not define the provider
+     */
+    public static @Nonnull DatabaseProvider getInstance(@Nonnull String filename, @Nonnull String providerId) throws InternalException {
+        String key = filename + "#" + providerId.toLowerCase();
+        DatabaseProvider provider = shared.get(key);
+
+        if( provider == null ) {
+            provider = fromFile(filename, providerId);
+            DatabaseProvider existing = shared.putIfAbsent(key, provider);
+            if( existing != null ) {
+                provider = existing;
+            }
+        }
+        return provider;
+    }
 
     public static DatabaseProvider fromFile(String filename, String providerId) throws InternalException {
         try {
-            ObjectMapper om = new ObjectMapper();
-            URL url = om.getClass().getResource(filename);
-            DatabaseProvider[] providers = om.readValue(url, DatabaseProvider[].class);
+            URL url = DatabaseProvider.class.getResource(filename);
+            DatabaseProvider[] providers = mapper.readValue(url, DatabaseProvider[].class);
             for( DatabaseProvider provider : providers ) {
                 if( provider.provider.equalsIgnoreCase(providerId) ) {
                     return provider;
@@ -84,6 +115,7 @@ public class DatabaseProvider {
 
     public void setEngines( List<DatabaseEngine> engines ) {
         this.engines = engines;
+        this.engineIndex = null;
     }
 
     public Date getCreated() {
@@ -92,6 +124,7 @@ public class DatabaseProvider {
 
     public void setProductDefinitions( List<DatabaseProductDefinition> productDefinitions ) {
         this.productDefinitions = productDefinitions;
+        this.definitionIndex = null;
     }
 
     public List<DatabaseProductDefinition> getProductDefinitions() {
@@ -99,21 +132,41 @@ public class DatabaseProvider {
     }
 
     public @Nullable DatabaseProductDefinition findProductDefinition(String productName) {
-        for(DatabaseProductDefinition def : productDefinitions ) {
-            if( def.getName().equalsIgnoreCase( productName ) ) {
-                return def;
+        Map<String, DatabaseProductDefinition> index = definitionIndex;
+
+        if( index == null ) {
+            Map<String, DatabaseProductDefinition> map = new HashMap<String, DatabaseProductDefinition>();
+
+            if( productDefinitions != null ) {
+                for( DatabaseProductDefinition def : productDefinitions ) {
+                    String key = def.getName().toLowerCase();
+                    if( !map.containsKey(key) ) {
+                        map.put(key, def);
+                    }
+                }
             }
+            definitionIndex = index = Collections.unmodifiableMap(map);
         }
-        return null;
+        return ( productName == null ? null : index.get(productName.toLowerCase()) );
     }
 
     public @Nullable DatabaseEngine findEngine(String name) {
-        for(DatabaseEngine engine : engines ) {
-            if( engine.getName().equalsIgnoreCase(name)) {
-                return engine;
+        Map<String, DatabaseEngine> index = engineIndex;
+
+        if( index == null ) {
+            Map<String, DatabaseEngine> map = new HashMap<String, DatabaseEngine>();
+
+            if( engines != null ) {
+                for( DatabaseEngine engine : engines ) {
+                    String key = engine.getName().toLowerCase();
+                    if( !map.containsKey(key) ) {
+                        map.put(key, engine);
+                    }
+                }
             }
+            engineIndex = index = Collections.unmodifiableMap(map);
         }
-        return null;
+        return ( name == null ? null : index.get(name.toLowerCase()) );
     }
 
 }
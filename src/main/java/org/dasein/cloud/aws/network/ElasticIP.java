@@ -23,6 +23,7 @@ import org.apache.http.conn.util.InetAddressUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.LookupBatcher;
 import org.dasein.cloud.aws.compute.EC2Exception;
 import org.dasein.cloud.aws.compute.EC2Method;
 import org.dasein.cloud.compute.ComputeServices;
@@ -41,14 +42,11 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class ElasticIP extends AbstractIpAddressSupport<AWSCloud> {
     static private final Logger logger = AWSCloud.getLogger(ElasticIP.class);
 
-    static private final ExecutorService threadPool = Executors.newFixedThreadPool(10);
     private transient volatile ElasticIPAddressCapabilities capabilities;
 
     ElasticIP(AWSCloud provider) {
@@ -179,46 +177,16 @@ public class ElasticIP extends AbstractIpAddressSupport<AWSCloud> {
     private @Nullable IpAddress getEC2Address(@Nonnull String addressId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "IpAddress.getEC2Address");
         try {
-            Map<String,String> parameters = getProvider().getStandardParameters(getContext(), EC2Method.DESCRIBE_ADDRESSES);
-            IpAddress address = null;
-            EC2Method method;
-            NodeList blocks;
-            Document doc;
-
-            parameters.put("PublicIp.1", addressId);
-            method = new EC2Method(getProvider(), parameters);
-            try {
-                doc = method.invoke();
-            }
-            catch( EC2Exception e ) {
-                String code = e.getCode();
+            LookupBatcher<IpAddress> batcher = getProvider().getLookupBatcher("address");
 
-                if( code != null && ( code.equals("InvalidAllocationID.NotFound")
-                        || code.equals("InvalidAddress.NotFound")
-                        || e.getMessage().contains("Invalid value") ) ) {
-                    return null;
-                }
-                logger.error(e.getSummary());
-                throw new CloudException(e);
-            }
-            blocks = doc.getElementsByTagName("addressesSet");
-            for( int i=0; i<blocks.getLength(); i++ ) {
-                NodeList items = blocks.item(i).getChildNodes();
-
-                for( int j=0; j<items.getLength(); j++ ) {
-                    Node item = items.item(j);
-
-                    if( item.getNodeName().equals("item") ) {
-                        address = toAddress(getContext(), item);
-                        // In case of EC2 the addressId should be the actual "x.x.x.x" address,
-                        // and not the "eipalloc-XXXX" since latter simply not available.
-                        if( address != null && addressId.equals(address.getRawAddress().getIpAddress())) {
-                            return address;
-                        }
+            if( batcher != null ) {
+                return batcher.get(addressId, new LookupBatcher.Lookup<IpAddress>() {
+                    public @Nonnull Map<String, IpAddress> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                        return describeAddresses(false, ids);
                     }
-                }
+                });
             }
-            return address;
+            return describeAddresses(false, Collections.singletonList(addressId)).get(addressId);
         }
         finally {
             APITrace.end();
@@ -283,46 +251,75 @@ public class ElasticIP extends AbstractIpAddressSupport<AWSCloud> {
     private @Nullable IpAddress getVPCAddress(@Nonnull String addressId) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "IpAddress.getVPCAddress");
         try {
-            Map<String,String> parameters = getProvider().getStandardParameters(getContext(), EC2Method.DESCRIBE_ADDRESSES);
-            IpAddress address = null;
-            EC2Method method;
-            NodeList blocks;
-            Document doc;
+            LookupBatcher<IpAddress> batcher = getProvider().getLookupBatcher("allocation");
 
-            parameters.put("AllocationId.1", addressId);
-            method = new EC2Method(getProvider(), parameters);
-            try {
-                doc = method.invoke();
+            if( batcher != null ) {
+                return batcher.get(addressId, new LookupBatcher.Lookup<IpAddress>() {
+                    public @Nonnull Map<String, IpAddress> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                        return describeAddresses(true, ids);
+                    }
+                });
             }
-            catch( EC2Exception e ) {
-                String code = e.getCode();
+            return describeAddresses(true, Collections.singletonList(addressId)).get(addressId);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
 
-                if( code != null && (code.equals("InvalidAllocationID.NotFound") || code.equals("InvalidAddress.NotFound") || e.getMessage().contains("Invalid value") || e.getMessage().startsWith("InvalidAllocation")) ) {
-                    return null;
+    /**
+     * Describes the given addresses in one call, keyed by public IP for EC2 addresses and by allocation ID for VPC
+     * addresses. A single unknown address yields an empty map; when several addresses are requested the error is
+     * thrown so the caller can tell which ID was at fault.
+     */
+    private @Nonnull Map<String, IpAddress> describeAddresses( boolean vpc, @Nonnull Collection<String> addressIds ) throws InternalException, CloudException {
+        Map<String,String> parameters = getProvider().getStandardParameters(getContext(), EC2Method.DESCRIBE_ADDRESSES);
+        Map<String, IpAddress> addresses = new HashMap<String, IpAddress>();
+        EC2Method method;
+        NodeList blocks;
+        Document doc;
+
+        AWSCloud.addIndexedParameters(parameters, vpc ? "AllocationId." : "PublicIp.", addressIds.toArray(new String[addressIds.size()]));
+        method = new EC2Method(getProvider(), parameters);
+        try {
+            doc = method.invoke();
+        }
+        catch( EC2Exception e ) {
+            String code = e.getCode();
+
+            if( code != null && (code.equals("InvalidAllocationID.NotFound") || code.equals("InvalidAddress.NotFound") || e.getMessage().contains("Invalid value") || e.getMessage().startsWith("InvalidAllocation")) ) {
+                if( addressIds.size() > 1 ) {
+                    throw e;
                 }
-                logger.error(e.getSummary());
-                throw new CloudException(e);
+                return addresses;
             }
-            blocks = doc.getElementsByTagName("addressesSet");
-            for( int i=0; i<blocks.getLength(); i++ ) {
-                NodeList items = blocks.item(i).getChildNodes();
+            logger.error(e.getSummary());
+            // rethrown as is so batched lookups can still read the error code
+            throw e;
+        }
+        blocks = doc.getElementsByTagName("addressesSet");
+        for( int i=0; i<blocks.getLength(); i++ ) {
+            NodeList items = blocks.item(i).getChildNodes();
 
-                for( int j=0; j<items.getLength(); j++ ) {
-                    Node item = items.item(j);
+            for( int j=0; j<items.getLength(); j++ ) {
+                Node item = items.item(j);
 
-                    if( item.getNodeName().equals("item") ) {
-                        address = toAddress(getContext(), item);
-                        if( address != null && addressId.equals(address.getProviderIpAddressId())) {
-                            return address;
+                if( item.getNodeName().equals("item") ) {
+                    IpAddress address = toAddress(getContext(), item);
+
+                    if( address != null ) {
+                        // In case of EC2 the addressId should be the actual "x.x.x.x" address,
+                        // and not the "eipalloc-XXXX" since latter simply not available.
+                        String id = ( vpc ? address.getProviderIpAddressId() : address.getRawAddress().getIpAddress() );
+
+                        if( addressIds.contains(id) ) {
+                            addresses.put(id, address);
                         }
                     }
                 }
             }
-            return address;
-        }
-        finally {
-            APITrace.end();
         }
+        return addresses;
     }
 
     @Override
@@ -357,7 +354,7 @@ public class ElasticIP extends AbstractIpAddressSupport<AWSCloud> {
     }
 
     public Future<Iterable<IpAddress>> listIpPoolConcurrently(IPVersion version, boolean unassignedOnly) throws CloudException, InternalException {
-      return threadPool.submit(
+      return getProvider().getRequestExecutor().submit(
         new ListIpPoolCallable(
           version,
           unassignedOnly
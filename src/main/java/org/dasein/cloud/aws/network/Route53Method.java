@@ -35,6 +35,7 @@ import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
 import org.dasein.cloud.aws.compute.EC2Exception;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.network.DNSSupport;
@@ -128,36 +129,46 @@ public class Route53Method {
         return fmt.format(new Date(timestamp));
     }
 
-    private Document delete() throws EC2Exception, CloudException, InternalException {
-        return invokeMethod(new HttpDelete(url));
-    }
-	   
-    private Document get() throws EC2Exception, CloudException, InternalException {
-        return invokeMethod(new HttpGet(url));
-    }
-	   
-	private Document post(String body) throws EC2Exception, CloudException, InternalException {
-	    HttpPost post = new HttpPost(url);
-
-        if( body != null ) {
-            post.setEntity(new StringEntity(body, ContentType.TEXT_XML));
-        }
-	    return invokeMethod(post);
-	}
-	
-	public Document invoke(String body) throws EC2Exception, CloudException, InternalException {
+	private HttpRequestBase createMethod(String body) throws InternalException {
 	    if( method.equals("GET") ) {
-	        return get();
+	        return new HttpGet(url);
 	    }
 	    else if( method.equals("DELETE") ) {
-	        return delete();
+	        return new HttpDelete(url);
 	    }
 	    else if( method.equals("POST") ) {
-	        return post(body);
+	        HttpPost post = new HttpPost(url);
+
+	        if( body != null ) {
+	            post.setEntity(new StringEntity(body, ContentType.TEXT_XML));
+	        }
+	        return post;
 	    }
 	    throw new InternalException("No such method: " + method);
 	}
 	
+	public Document invoke(String body) throws EC2Exception, CloudException, InternalException {
+	    RetryPolicy policy = RetryPolicy.getInstance(R53_PREFIX);
+
+	    while( true ) {
+	        try {
+	            // a fresh request each time since a sent request carries its headers with it
+	            return invokeMethod(createMethod(body));
+	        }
+	        catch( EC2Exception e ) {
+	            if( !policy.shouldRetry(attempts, e) ) {
+	                throw e;
+	            }
+	            if( logger.isDebugEnabled() ) {
+	                logger.debug("Retryable error from " + operation + ": " + e.getSummary());
+	            }
+	            if( !policy.backoff(attempts) ) {
+	                throw e;
+	            }
+	        }
+	    }
+	}
+	
 	public Document invoke() throws EC2Exception, CloudException, InternalException {
 	    return invoke( null );
 	}
@@ -166,9 +177,8 @@ public class Route53Method {
 		if( logger.isDebugEnabled() ) {
 			logger.debug("Talking to server at " + url);
 		}
-        HttpClient client = null;
 		try {
-            client = provider.getClient();
+            HttpClient client = provider.getClient();
             HttpResponse response;
     		int status;
     
@@ -289,29 +299,17 @@ public class Route53Method {
     		}
     		else {
     			if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-    				if( attempts >= 5 ) {
-    					String msg;
-    					
-    					if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-    						msg = "Cloud service is currently unavailable.";
-    					}
-    					else {
-    						msg = "The cloud service encountered a server error while processing your request.";
-                            msg = msg + "Response from server was:\n" + xml;
-    					}
-    					logger.error(msg);
-    					throw new CloudException(msg);
+    				String msg;
+
+    				if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+    					msg = "Cloud service is currently unavailable.";
     				}
     				else {
-    					try { Thread.sleep(5000L); }
-    					catch( InterruptedException ignore ) { }
-    					try {
-    					    return invokeMethod(method.getClass().newInstance());
-    					}
-    					catch( Throwable t ) {
-    					    throw new InternalException(t);
-    					}
+    					msg = "The cloud service encountered a server error while processing your request.";
+                        msg = msg + "Response from server was:\n" + xml;
     				}
+    				// classified and, if attempts remain, retried by invoke()
+    				throw EC2Exception.create(status, null, null, msg);
     			}
                 Document doc;
 
@@ -350,9 +348,6 @@ public class Route53Method {
     		}
         }
         finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
-            }
             logger.debug("Done");
         }
 	}
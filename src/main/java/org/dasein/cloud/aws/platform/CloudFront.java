@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -35,6 +37,8 @@ import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.ResourceStatus;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.LookupBatcher;
+import org.dasein.cloud.aws.StateWaiter;
 import org.dasein.cloud.aws.platform.CloudFrontMethod.CloudFrontResponse;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.platform.CDNCapabilities;
@@ -117,14 +121,7 @@ public class CloudFront implements CDNSupport {
                 }
                 update(distributionId, name, false, distribution.getAliases());
             }
-            while( true ) {
-                try { Thread.sleep(10000L); }
-                catch( InterruptedException e ) { /* ignore */ }
-                distribution = getDistribution(distributionId);
-                if( distribution == null || !distribution.isActive() ) {
-                    break;
-                }
-            }
+            waitUntilDisabled(distributionId);
             while( true ) {
                 HashMap<String,String> headers = new HashMap<String,String>();
                 CloudFrontMethod method;
@@ -156,6 +153,48 @@ public class CloudFront implements CDNSupport {
         }
 	}
 
+    /**
+     * Waits, without a time limit, for a distribution to be disabled or to disappear.
+     */
+    private void waitUntilDisabled( @Nonnull String distributionId ) throws InternalException, CloudException {
+        StateWaiter<Distribution> waiter = provider.getStateWaiter("distribution", 10000L, 30000L);
+        StateWaiter.Wait<Distribution> wait = waiter.waitFor(distributionId, new StateWaiter.Condition<Distribution>() {
+            @Override
+            public boolean isSatisfied( @Nullable Distribution distribution ) {
+                return ( distribution == null || !distribution.isActive() );
+            }
+        }, 0L, new LookupBatcher.Lookup<Distribution>() {
+            @Override
+            public @Nonnull Map<String, Distribution> lookup( @Nonnull Collection<String> ids ) throws CloudException, InternalException {
+                // CloudFront has no multi-ID describe, but the polls still share one schedule
+                Map<String, Distribution> distributions = new HashMap<String, Distribution>();
+
+                for( String id : ids ) {
+                    Distribution distribution = getDistribution(id);
+
+                    if( distribution != null ) {
+                        distributions.put(id, distribution);
+                    }
+                }
+                return distributions;
+            }
+        });
+
+        try {
+            wait.get();
+        }
+        catch( ExecutionException e ) {
+            if( e.getCause() instanceof CloudException ) {
+                throw ( CloudException ) e.getCause();
+            }
+            throw new InternalException(e.getCause());
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+    }
+
     @Override
     public @Nonnull CDNCapabilities getCapabilities() throws InternalException, CloudException {
         if( capabilities == null ) {
@@ -26,11 +26,13 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.platform.CDNSupport;
 import org.dasein.cloud.util.APITrace;
@@ -102,6 +104,27 @@ public class CloudFrontMethod {
 	}
 
 	CloudFrontResponse invoke(String ... args) throws CloudFrontException, CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance("cloudfront");
+
+        while( true ) {
+            try {
+                return invokeOnce(args);
+            }
+            catch( CloudFrontException e ) {
+                if( !policy.shouldRetry(attempts, e.getStatus(), e.getCode()) ) {
+                    throw e;
+                }
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Retryable error from " + action + ": " + e.getSummary());
+                }
+                if( !policy.backoff(attempts) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+	private CloudFrontResponse invokeOnce(String ... args) throws CloudFrontException, CloudException, InternalException {
         ProviderContext ctx = provider.getContext();
 
         if( ctx == null ) {
@@ -148,7 +171,7 @@ public class CloudFrontMethod {
         client = provider.getClient();
         CloudFrontResponse response = new CloudFrontResponse();
 
-        HttpResponse httpResponse;
+        HttpResponse httpResponse = null;
         int status;
 
         try {
@@ -205,23 +228,16 @@ public class CloudFrontMethod {
             }
             else {
                 if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-                    if( attempts >= 5 ) {
-                        String msg;
+                    String msg;
 
-                        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-                            msg = "Cloud service is currently unavailable.";
-                        }
-                        else {
-                            msg = "The cloud service encountered a server error while processing your request.";
-                        }
-                        logger.error(msg);
-                        throw new CloudException(msg);
+                    if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+                        msg = "Cloud service is currently unavailable.";
                     }
                     else {
-                        try { Thread.sleep(5000L); }
-                        catch( InterruptedException ignore ) { }
-                        return invoke(args);
+                        msg = "The cloud service encountered a server error while processing your request.";
                     }
+                    // classified and, if attempts remain, retried by invoke()
+                    throw new CloudFrontException(status, null, null, null, msg);
                 }
                 try {
                     HttpEntity entity = httpResponse.getEntity();
@@ -289,8 +305,10 @@ public class CloudFrontMethod {
                 }
             }
         } finally {
-            if (client != null) {
-                client.getConnectionManager().shutdown();
+            if( httpResponse != null ) {
+                // return the connection to the shared pool
+                try { EntityUtils.consume(httpResponse.getEntity()); }
+                catch( IOException ignore ) { }
             }
         }
     }
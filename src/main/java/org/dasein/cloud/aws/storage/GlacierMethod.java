@@ -123,7 +123,7 @@ public class GlacierMethod {
             throw new CloudException(e);
         } finally {
             if (clientAndResponse != null) {
-                clientAndResponse.client.getConnectionManager().shutdown();
+                clientAndResponse.release();
             }
         }
     }
@@ -145,7 +145,7 @@ public class GlacierMethod {
             }
             return headers;
         }finally {
-            clientAndResponse.client.getConnectionManager().shutdown();
+            clientAndResponse.release();
         }
     }
 
@@ -157,7 +157,7 @@ public class GlacierMethod {
     public void invoke() throws InternalException, CloudException {
 
         final ClientAndResponse clientAndResponse = invokeInternal();
-        clientAndResponse.client.getConnectionManager().shutdown();
+        clientAndResponse.release();
     }
 
     private ClientAndResponse invokeInternal() throws InternalException, CloudException {
@@ -368,6 +368,17 @@ public class GlacierMethod {
             this.client = client;
             this.response = response;
         }
+
+        /**
+         * Returns the underlying connection to the provider's shared pool.
+         */
+        private void release() {
+            try {
+                EntityUtils.consume(response.getEntity());
+            } catch (IOException ignore) {
+                // the pool discards connections it could not reuse
+            }
+        }
     }
 
     public static Builder build(@Nonnull AWSCloud provider, @Nonnull GlacierAction action) {
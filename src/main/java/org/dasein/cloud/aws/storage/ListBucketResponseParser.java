@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.TimestampParser;
+import org.dasein.cloud.aws.compute.XmlStreamParser;
+import org.dasein.cloud.storage.Blob;
+import org.dasein.util.uom.storage.Storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for pages of a GET Bucket (List Objects) response. It reads the objects of a page as blobs and
+ * collects the common prefixes, the truncation flag and the marker for the next page as it goes, without building
+ * a DOM of the page.
+ *
+ * @see S3#list(String)
+ */
+public class ListBucketResponseParser implements XmlStreamParser<Blob> {
+    // creating readers from a configured factory is thread-safe, and looking one up for every page is not cheap
+    static private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    private final String       bucket;
+    private final String       regionId;
+    private final List<String> commonPrefixes = new ArrayList<String>();
+    private String             lastKey;
+    private String             nextMarker;
+    private boolean            truncated;
+
+    /**
+     * @param regionId the region of the bucket
+     * @param bucket the bucket being listed
+     */
+    public ListBucketResponseParser( @Nonnull String regionId, @Nonnull String bucket ) {
+        this.regionId = regionId;
+        this.bucket = bucket;
+    }
+
+    /**
+     * @return the objects in the page, in key order
+     */
+    @Override
+    public List<Blob> parse( InputStream stream ) throws IOException, CloudException, InternalException {
+        List<Blob> blobs = new ArrayList<Blob>();
+        XMLStreamReader reader = null;
+
+        commonPrefixes.clear();
+        lastKey = null;
+        nextMarker = null;
+        truncated = false;
+        try {
+            reader = factory.createXMLStreamReader(stream);
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamConstants.START_ELEMENT ) {
+                    String name = reader.getLocalName();
+
+                    if( "Contents".equals(name) ) {
+                        Blob blob = readObject(reader);
+
+                        if( blob != null ) {
+                            blobs.add(blob);
+                        }
+                    }
+                    else if( "CommonPrefixes".equals(name) ) {
+                        readPrefix(reader);
+                    }
+                    else if( "IsTruncated".equals(name) ) {
+                        truncated = "true".equalsIgnoreCase(trim(reader.getElementText()));
+                    }
+                    else if( "NextMarker".equals(name) ) {
+                        nextMarker = trim(reader.getElementText());
+                    }
+                }
+            }
+            return blobs;
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            if( reader != null ) {
+                try {
+                    reader.close();
+                }
+                catch( XMLStreamException ignore ) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the common prefixes of the page when the listing was made with a delimiter
+     */
+    public @Nonnull List<String> getCommonPrefixes() {
+        return commonPrefixes;
+    }
+
+    /**
+     * S3 gives a next marker only when the listing uses a delimiter; otherwise the last key of the page serves, and
+     * with a delimiter the later of the last key and the last common prefix does.
+     * @return the marker to list the next page from, or null if the last parsed page was the final one
+     */
+    public @Nullable String getNextMarker() {
+        if( !truncated ) {
+            return null;
+        }
+        if( nextMarker != null ) {
+            return nextMarker;
+        }
+        String lastPrefix = ( commonPrefixes.isEmpty() ? null : commonPrefixes.get(commonPrefixes.size() - 1) );
+
+        if( lastKey == null || ( lastPrefix != null && lastPrefix.compareTo(lastKey) > 0 ) ) {
+            return lastPrefix;
+        }
+        return lastKey;
+    }
+
+    private @Nullable Blob readObject( @Nonnull XMLStreamReader reader ) throws XMLStreamException, CloudException {
+        String key = null;
+        long size = -1L, timestamp = -1L;
+
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            String name = reader.getLocalName();
+
+            if( "Key".equals(name) ) {
+                // keys may legitimately begin or end with spaces
+                key = reader.getElementText();
+            }
+            else if( "Size".equals(name) ) {
+                String value = trim(reader.getElementText());
+
+                try {
+                    size = ( value == null ? -1L : Long.parseLong(value) );
+                }
+                catch( NumberFormatException e ) {
+                    throw new CloudException("Invalid object size: " + value);
+                }
+            }
+            else if( "LastModified".equals(name) ) {
+                timestamp = TimestampParser.parse(trim(reader.getElementText()));
+            }
+            else {
+                skip(reader);
+            }
+        }
+        if( key == null ) {
+            return null;
+        }
+        lastKey = key;
+        if( size < 0L ) {
+            return null;
+        }
+        return Blob.getInstance(regionId, S3.getLocation(bucket, key), bucket, key, timestamp, new Storage<org.dasein.util.uom.storage.Byte>(size, Storage.BYTE));
+    }
+
+    private void readPrefix( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        while( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+            if( "Prefix".equals(reader.getLocalName()) ) {
+                String prefix = reader.getElementText();
+
+                if( prefix.length() > 0 ) {
+                    commonPrefixes.add(prefix);
+                }
+            }
+            else {
+                skip(reader);
+            }
+        }
+    }
+
+    static private @Nullable String trim( @Nullable String value ) {
+        if( value == null ) {
+            return null;
+        }
+        value = value.trim();
+        return ( value.length() == 0 ? null : value );
+    }
+
+    /**
+     * Skips past the end of the current element, including everything inside it.
+     */
+    static private void skip( @Nonnull XMLStreamReader reader ) throws XMLStreamException {
+        int depth = 1;
+
+        while( depth > 0 && reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamConstants.START_ELEMENT ) {
+                depth++;
+            }
+            else if( event == XMLStreamConstants.END_ELEMENT ) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Works through the tasks of a large transfer, such as its parts or the objects of a bucket, with a fixed number of
+ * workers. Each worker takes the next task from a shared iterator until none are left, so no more tasks are in
+ * flight than there are workers however many tasks there are, and tasks may be taken while the iterator is still
+ * being filled. After the first failure, workers finish the task they are on and take no more.
+ * @param <T> the type of task
+ */
+abstract class PartWorkers<T> {
+    /**
+     * @param first the first index
+     * @param count the end of the range; indexes run up to but not including this
+     * @return the part indexes from first up to count, for transfers whose tasks are numbered parts
+     */
+    static @Nonnull Iterator<Integer> range( final int first, final int count ) {
+        return new Iterator<Integer>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return ( next < count );
+            }
+
+            @Override
+            public Integer next() {
+                if( next >= count ) {
+                    throw new NoSuchElementException();
+                }
+                return next++;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private final AtomicBoolean      failed  = new AtomicBoolean(false);
+    private final List<Future<Void>> workers = new ArrayList<Future<Void>>();
+
+    /**
+     * Carries out one task.
+     * @param task the task
+     * @throws Exception the task failed
+     */
+    protected abstract void transfer( @Nonnull T task ) throws Exception;
+
+    /**
+     * Starts the workers. The iterator is only ever used by one worker at a time, so it need not be thread-safe,
+     * and it may block in {@code hasNext()} while more tasks are fetched. Null tasks are skipped.
+     * @param executor the executor to run the workers on
+     * @param tasks the tasks to carry out
+     * @param parallelism the most workers to run
+     */
+    void start( @Nonnull ExecutorService executor, @Nonnull final Iterator<? extends T> tasks, int parallelism ) {
+        for( int i=0; i<parallelism; i++ ) {
+            workers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while( !failed.get() ) {
+                        T task;
+
+                        synchronized( tasks ) {
+                            if( failed.get() || !tasks.hasNext() ) {
+                                return null;
+                            }
+                            task = tasks.next();
+                        }
+                        if( task == null ) {
+                            continue;
+                        }
+                        try {
+                            transfer(task);
+                        }
+                        catch( Exception e ) {
+                            failed.set(true);
+                            throw e;
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Waits for all workers to finish.
+     * @throws CloudException the first failure, if it was a cloud error
+     * @throws InternalException the first failure, if it was anything else, or the wait was interrupted
+     */
+    void await() throws CloudException, InternalException {
+        Throwable error = null;
+
+        for( Future<Void> worker : workers ) {
+            try {
+                worker.get();
+            }
+            catch( InterruptedException e ) {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            catch( ExecutionException e ) {
+                if( error == null ) {
+                    error = e.getCause();
+                }
+            }
+        }
+        if( error instanceof CloudException ) {
+            throw ( CloudException ) error;
+        }
+        if( error instanceof InternalException ) {
+            throw ( InternalException ) error;
+        }
+        if( error != null ) {
+            throw new InternalException(error);
+        }
+    }
+
+    /**
+     * Stops the workers from taking more parts and waits for the parts in flight, ignoring their outcome. Used when
+     * the transfer has failed elsewhere and its resources are about to be released.
+     */
+    void cancel() {
+        failed.set(true);
+        for( Future<Void> worker : workers ) {
+            try {
+                worker.get();
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch( ExecutionException ignore ) {
+                // the caller reports its own failure
+            }
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.http.Header;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
 import org.dasein.cloud.aws.storage.S3Method.S3Response;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.storage.AbstractBlobStoreSupport;
@@ -55,8 +56,6 @@ import java.io.*;
 import java.net.URLEncoder;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 
 public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
@@ -66,6 +65,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
 
     static private final Random random = new Random();
     private static final int MAX_RETRIES = 0;
+    static private final int RENAME_ATTEMPTS = 5;
 
     public S3( AWSCloud provider ) {
         super(provider);
@@ -82,6 +82,83 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         return capabilities;
     }
 
+    @Override
+    public void clearBucket( @Nonnull String bucket ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.clearBucket");
+        try {
+            if( !getProvider().getEC2Provider().isAWS() ) {
+                super.clearBucket(bucket);
+                return;
+            }
+            final Iterator<Blob> files = list(bucket).iterator();
+            Map<String,String> errors = removeObjects(bucket, new Iterable<String>() {
+                @Override
+                public @Nonnull Iterator<String> iterator() {
+                    return new Iterator<String>() {
+                        @Override
+                        public boolean hasNext() {
+                            return files.hasNext();
+                        }
+
+                        @Override
+                        public String next() {
+                            Blob file = files.next();
+
+                            return ( file == null ? null : file.getObjectName() );
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            });
+
+            if( !errors.isEmpty() ) {
+                Map.Entry<String,String> first = errors.entrySet().iterator().next();
+
+                throw new CloudException("Unable to remove " + errors.size() + " objects from " + bucket + ", including " + first.getKey() + " (" + first.getValue() + ")");
+            }
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
+    @Override
+    public void copy( @Nullable String sourceBucket, @Nullable String sourceObject, @Nullable String targetBucket, @Nullable String targetObject ) throws InternalException, CloudException {
+        APITrace.begin(getProvider(), "Blob.copy");
+        try {
+            if( sourceBucket == null ) {
+                throw new CloudException("No source bucket was specified");
+            }
+            if( targetBucket == null ) {
+                throw new CloudException("No target bucket was specified");
+            }
+            if( sourceObject == null ) {
+                throw new CloudException("No source object was specified");
+            }
+            if( targetObject == null ) {
+                targetObject = sourceObject;
+            }
+            if( !getProvider().getEC2Provider().isAWS() ) {
+                super.copy(sourceBucket, sourceObject, targetBucket, targetObject);
+                return;
+            }
+            HashMap<String, String> headers = null;
+
+            if( isPublic(targetBucket, null) ) {
+                headers = new HashMap<String, String>();
+                headers.put("x-amz-acl", "public-read");
+            }
+            new S3ObjectCopy(getProvider(), sourceBucket, sourceObject, targetBucket, targetObject, headers).copy();
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
     @Override
     public @Nonnull Blob createBucket( @Nonnull String bucketName, boolean findFreeName ) throws InternalException, CloudException {
         APITrace.begin(getProvider(), "Blob.createBucket");
@@ -431,78 +508,12 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
                 return null;
             }
 
-            HashMap<String, String> parameters = new HashMap<String, String>();
-            S3Response response;
-            String marker = null;
-            boolean done = false;
-            S3Method method;
-
-            while( !done ) {
-                NodeList blocks;
+            // the object, if present, is the first key at or after its own name
+            List<Blob> page = S3BucketListing.listPage(getProvider(), new ListBucketResponseParser(regionId, bucketName), bucketName, objectName, null, null, 1);
 
-                parameters.clear();
-                if( marker != null ) {
-                    parameters.put("marker", marker);
-                }
-                parameters.put("max-keys", String.valueOf(30));
-                method = new S3Method(getProvider(), S3Action.LIST_CONTENTS, parameters, null);
-                try {
-                    response = method.invoke(bucketName, null);
-                }
-                catch( S3Exception e ) {
-                    String code = e.getCode();
-
-                    if( code == null || !code.equals("SignatureDoesNotMatch") ) {
-                        throw new CloudException(e);
-                    }
-                    logger.error(e.getSummary());
-                    throw new CloudException(e);
-                }
-                blocks = response.document.getElementsByTagName("IsTruncated");
-                if( blocks.getLength() > 0 ) {
-                    done = blocks.item(0).getFirstChild().getNodeValue().trim().equalsIgnoreCase("false");
-                }
-                blocks = response.document.getElementsByTagName("Contents");
-                for( int i = 0; i < blocks.getLength(); i++ ) {
-                    Node object = blocks.item(i);
-                    Storage<org.dasein.util.uom.storage.Byte> size = null;
-                    String name = null;
-                    long ts = -1L;
-
-                    if( object.hasChildNodes() ) {
-                        NodeList attrs = object.getChildNodes();
-
-                        for( int j = 0; j < attrs.getLength(); j++ ) {
-                            Node attr = attrs.item(j);
-
-                            if( attr.getNodeName().equalsIgnoreCase("Key") ) {
-                                String key = attr.getFirstChild().getNodeValue().trim();
-
-                                name = key;
-                                marker = key;
-                            }
-                            else if( attr.getNodeName().equalsIgnoreCase("Size") ) {
-                                size = new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(attr.getFirstChild().getNodeValue().trim()), Storage.BYTE);
-                            }
-                            else if( attr.getNodeName().equalsIgnoreCase("LastModified") ) {
-                                SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                                String dateString = attr.getFirstChild().getNodeValue().trim();
-
-                                try {
-                                    ts = fmt.parse(dateString).getTime();
-                                }
-                                catch( ParseException e ) {
-                                    logger.error(e);
-                                    e.printStackTrace();
-                                    throw new CloudException(e);
-                                }
-                            }
-                        }
-                    }
-                    if( !objectName.equals(name) || size == null ) {
-                        continue;
-                    }
-                    return Blob.getInstance(regionId, getLocation(bucketName, name), bucketName, name, ts, size);
+            for( Blob blob : page ) {
+                if( objectName.equals(blob.getObjectName()) ) {
+                    return blob;
                 }
             }
             return null;
@@ -584,7 +595,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
-    private @Nonnull String getLocation( @Nonnull String bucketName, @Nullable String objectName ) {
+    static @Nonnull String getLocation( @Nonnull String bucketName, @Nullable String objectName ) {
         if( objectName == null ) {
             return ( "http://" + bucketName + ".s3.amazonaws.com" );
         }
@@ -696,6 +707,10 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( bucket == null ) {
                 throw new CloudException("No bucket was specified");
             }
+            if( getProvider().getEC2Provider().isAWS() ) {
+                new S3RangedDownload(getProvider(), bucket, object, toFile, transfer).download();
+                return;
+            }
             IOException lastError = null;
             int attempts = 0;
 
@@ -1042,80 +1057,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
     }
 
     private void loadObjects( @Nonnull String regionId, @Nonnull String bucket, @Nonnull Jiterator<Blob> iterator ) throws CloudException, InternalException {
-        HashMap<String, String> parameters = new HashMap<String, String>();
-        S3Response response;
-        String marker = null;
-        boolean done = false;
-        S3Method method;
-
-        while( !done ) {
-            NodeList blocks;
-
-            parameters.clear();
-            if( marker != null ) {
-                parameters.put("marker", marker);
-            }
-            parameters.put("max-keys", String.valueOf(30));
-            method = new S3Method(getProvider(), S3Action.LIST_CONTENTS, parameters, null);
-            try {
-                response = method.invoke(bucket, null);
-            }
-            catch( S3Exception e ) {
-                String code = e.getCode();
-
-                if( code == null || !code.equals("SignatureDoesNotMatch") ) {
-                    throw new CloudException(e);
-                }
-                logger.error(e.getSummary());
-                throw new CloudException(e);
-            }
-            blocks = response.document.getElementsByTagName("IsTruncated");
-            if( blocks.getLength() > 0 ) {
-                done = blocks.item(0).getFirstChild().getNodeValue().trim().equalsIgnoreCase("false");
-            }
-            blocks = response.document.getElementsByTagName("Contents");
-            for( int i = 0; i < blocks.getLength(); i++ ) {
-                Node object = blocks.item(i);
-                Storage<org.dasein.util.uom.storage.Byte> size = null;
-                String name = null;
-                long ts = -1L;
-
-                if( object.hasChildNodes() ) {
-                    NodeList attrs = object.getChildNodes();
-
-                    for( int j = 0; j < attrs.getLength(); j++ ) {
-                        Node attr = attrs.item(j);
-
-                        if( attr.getNodeName().equalsIgnoreCase("Key") ) {
-                            String key = attr.getFirstChild().getNodeValue().trim();
-
-                            name = key;
-                            marker = key;
-                        }
-                        else if( attr.getNodeName().equalsIgnoreCase("Size") ) {
-                            size = new Storage<org.dasein.util.uom.storage.Byte>(Long.parseLong(attr.getFirstChild().getNodeValue().trim()), Storage.BYTE);
-                        }
-                        else if( attr.getNodeName().equalsIgnoreCase("LastModified") ) {
-                            SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                            String dateString = attr.getFirstChild().getNodeValue().trim();
-
-                            try {
-                                ts = fmt.parse(dateString).getTime();
-                            }
-                            catch( ParseException e ) {
-                                logger.error(e);
-                                e.printStackTrace();
-                                throw new CloudException(e);
-                            }
-                        }
-                    }
-                }
-                if( name == null || size == null ) {
-                    continue;
-                }
-                iterator.push(Blob.getInstance(regionId, getLocation(bucket, name), bucket, name, ts, size));
-            }
-        }
+        new S3BucketListing(getProvider(), regionId, bucket, iterator).list();
     }
 
     @Override
@@ -1314,6 +1256,10 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
                 headers = new HashMap<String, String>();
                 headers.put("x-amz-acl", "public-read");
             }
+            if( bucket != null && S3MultipartUpload.isMultipart(getProvider(), file) ) {
+                new S3MultipartUpload(getProvider(), bucket, object, file, headers).upload();
+                return;
+            }
             method = new S3Method(getProvider(), S3Action.PUT_OBJECT, null, headers, "application/octet-stream", file);
             try {
                 method.invoke(bucket, object);
@@ -1389,6 +1335,16 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
                 if( code != null && ( code.equals("NoSuchBucket") ) ) {
                     return;
                 }
+                if( code != null && code.equals("BucketNotEmpty") && getProvider().getEC2Provider().isAWS() ) {
+                    clearBucket(bucket);
+                    try {
+                        new S3Method(getProvider(), S3Action.DELETE_BUCKET).invoke(bucket, null);
+                        return;
+                    }
+                    catch( S3Exception again ) {
+                        e = again;
+                    }
+                }
                 logger.error(e.getSummary());
                 throw new CloudException(e);
             }
@@ -1398,6 +1354,25 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         }
     }
 
+    /**
+     * Removes many objects from a bucket with multi-object delete requests of up to 1,000 keys each, several
+     * requests at a time. The keys are read as the requests need them, so they may come straight from a listing.
+     * @param bucket the bucket holding the objects
+     * @param keys the keys of the objects to remove
+     * @return the keys that could not be removed, mapped to the error S3 gave for each
+     * @throws CloudException a request failed outright
+     * @throws InternalException the requests could not be made
+     */
+    public @Nonnull Map<String,String> removeObjects( @Nonnull String bucket, @Nonnull Iterable<String> keys ) throws CloudException, InternalException {
+        APITrace.begin(getProvider(), "Blob.removeObjects");
+        try {
+            return new S3BulkDelete(getProvider(), bucket).remove(keys);
+        }
+        finally {
+            APITrace.end();
+        }
+    }
+
     @Override
     public void removeObject( @Nullable String bucket, @Nonnull String name ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.removeObject");
@@ -1431,27 +1406,7 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
         try {
             Blob bucket = createBucket(newName, findFreeName);
 
-            for( Blob file : list(oldName) ) {
-                int retries = 10;
-
-                while( true ) {
-                    retries--;
-                    try {
-                        move(oldName, file.getObjectName(), bucket.getBucketName());
-                        break;
-                    }
-                    catch( CloudException e ) {
-                        if( retries < 1 ) {
-                            throw e;
-                        }
-                    }
-                    try {
-                        Thread.sleep(retries * 10000L);
-                    }
-                    catch( InterruptedException ignore ) {
-                    }
-                }
-            }
+            moveAll(oldName, bucket.getBucketName());
             boolean ok = true;
             for( Blob file : list(oldName) ) {
                 if( file != null ) {
@@ -1461,13 +1416,58 @@ public class S3 extends AbstractBlobStoreSupport<AWSCloud> {
             if( ok ) {
                 removeBucket(oldName);
             }
-            return newName;
+            return bucket.getBucketName();
         }
         finally {
             APITrace.end();
         }
     }
 
+    /**
+     * Moves every object in a bucket to another with server-side copies, several at a time. The workers share the
+     * listing as it streams in rather than waiting for all of it.
+     * @param sourceBucket the bucket to empty
+     * @param targetBucket the bucket to move the objects to
+     * @throws CloudException an object could not be moved
+     * @throws InternalException the move was interrupted
+     */
+    private void moveAll( @Nonnull final String sourceBucket, @Nonnull final String targetBucket ) throws CloudException, InternalException {
+        PartWorkers<Blob> workers = new PartWorkers<Blob>() {
+            @Override
+            protected void transfer( @Nonnull Blob file ) throws Exception {
+                if( file.getObjectName() != null ) {
+                    moveWithRetries(sourceBucket, file.getObjectName(), targetBucket);
+                }
+            }
+        };
+
+        // moves wait on part copies, which run on the transfer executor, so the moves themselves must not
+        workers.start(getProvider().getRequestExecutor(), list(sourceBucket).iterator(), S3ObjectCopy.getParallelism(getProvider().getContext()));
+        workers.await();
+    }
+
+    private void moveWithRetries( @Nonnull String sourceBucket, @Nonnull String object, @Nonnull String targetBucket ) throws CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance(S3Method.SERVICE_ID);
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            try {
+                move(sourceBucket, object, targetBucket);
+                return;
+            }
+            catch( CloudException e ) {
+                if( attempt >= RENAME_ATTEMPTS ) {
+                    throw e;
+                }
+                logger.warn("Retrying move of " + sourceBucket + "/" + object + " to " + targetBucket + ": " + e.getMessage());
+            }
+            if( !policy.backoff(attempt) ) {
+                throw new InternalException("Interrupted while moving " + sourceBucket + "/" + object);
+            }
+        }
+    }
+
     @Override
     public void renameObject( @Nullable String bucket, @Nonnull String object, @Nonnull String newName ) throws CloudException, InternalException {
         APITrace.begin(getProvider(), "Blob.renameObject");
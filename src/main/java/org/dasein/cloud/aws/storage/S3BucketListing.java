@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.dasein.cloud.storage.Blob;
+import org.dasein.util.Jiterator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+/**
+ * Lists the objects in a bucket into a {@link Jiterator}, a page of up to {@link #MAX_KEYS} keys at a time, parsing
+ * each page as it streams in.
+ * <p>By default pages are fetched one after another, as S3 requires within a single listing. With
+ * {@link #CP_LIST_PARALLELISM} above one, the listing instead discovers the key prefixes under the
+ * {@link #CP_LIST_DELIMITER delimiter}, down to {@link #CP_LIST_FAN_OUT_DEPTH} levels, and lists the prefixes
+ * concurrently on the {@link AWSCloud#getListExecutor() list executor}. Objects then arrive grouped by prefix rather
+ * than in overall key order.</p>
+ */
+class S3BucketListing {
+    static private final Logger logger = AWSCloud.getLogger(S3BucketListing.class);
+
+    /**
+     * Custom property for the number of prefixes of a bucket listed at once; listings are sequential unless it is
+     * above one.
+     */
+    static public final String CP_LIST_PARALLELISM   = "s3ListParallelism";
+    /**
+     * Custom property for the delimiter that splits keys into the prefixes listed in parallel.
+     */
+    static public final String CP_LIST_DELIMITER     = "s3ListDelimiter";
+    /**
+     * Custom property for the number of delimited levels of prefixes discovered before each prefix is listed whole.
+     */
+    static public final String CP_LIST_FAN_OUT_DEPTH = "s3ListFanOutDepth";
+
+    /**
+     * The most keys S3 returns in one page of a listing.
+     */
+    static public final int MAX_KEYS = 1000;
+
+    static private final String DEFAULT_DELIMITER     = "/";
+    static private final int    DEFAULT_FAN_OUT_DEPTH = 2;
+
+    /**
+     * Fetches one page of a listing.
+     * @param provider the provider to list through
+     * @param parser the parser for the page, which also holds the marker for the next one
+     * @param bucket the bucket to list
+     * @param prefix only keys beginning with this are listed, or null for all keys
+     * @param delimiter keys containing this after the prefix are rolled up into common prefixes, or null
+     * @param marker the key to list after, or null to start at the beginning
+     * @param maxKeys the most keys to return
+     * @return the objects in the page
+     * @throws CloudException the bucket could not be listed
+     * @throws InternalException the response could not be read
+     */
+    static @Nonnull List<Blob> listPage( @Nonnull AWSCloud provider, @Nonnull ListBucketResponseParser parser, @Nonnull String bucket, @Nullable String prefix, @Nullable String delimiter, @Nullable String marker, int maxKeys ) throws CloudException, InternalException {
+        Map<String,String> parameters = new HashMap<String,String>();
+
+        if( prefix != null ) {
+            parameters.put("prefix", prefix);
+        }
+        if( delimiter != null ) {
+            parameters.put("delimiter", delimiter);
+        }
+        if( marker != null ) {
+            parameters.put("marker", marker);
+        }
+        parameters.put("max-keys", String.valueOf(maxKeys));
+        S3Method method = new S3Method(provider, S3Action.LIST_CONTENTS, parameters, null);
+
+        S3Response response;
+
+        method.setStreamResponse(true);
+        try {
+            response = method.invoke(bucket, null);
+        }
+        catch( S3Exception e ) {
+            String code = e.getCode();
+
+            if( code != null && code.equals("SignatureDoesNotMatch") ) {
+                logger.error(e.getSummary());
+            }
+            throw new CloudException(e);
+        }
+
+        if( response == null || response.input == null ) {
+            throw new CloudException("No listing was returned for " + bucket);
+        }
+        try {
+            return parser.parse(response.input);
+        }
+        catch( IOException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    /**
+     * A prefix waiting to be listed.
+     */
+    static private class PrefixTask {
+        private final String prefix;
+        private final int    depth;
+
+        private PrefixTask( @Nullable String prefix, int depth ) {
+            this.prefix = prefix;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The prefixes still to be listed. Listing one prefix may discover more, so {@link #hasNext()} waits while any
+     * prefix is being listed and only reports the end once none are queued or outstanding, or the listing has
+     * failed. Workers share it under its own lock, which waiting releases.
+     */
+    static private class PrefixQueue implements Iterator<PrefixTask> {
+        private final LinkedList<PrefixTask> queued = new LinkedList<PrefixTask>();
+        private boolean closed;
+        // prefixes queued or being listed; the listing is over when this reaches zero
+        private int     outstanding;
+
+        synchronized void add( @Nonnull PrefixTask task ) {
+            queued.add(task);
+            outstanding++;
+            notifyAll();
+        }
+
+        synchronized void done() {
+            outstanding--;
+            notifyAll();
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized boolean hasNext() {
+            while( !closed && queued.isEmpty() && outstanding > 0 ) {
+                try {
+                    wait();
+                }
+                catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return ( !closed && !queued.isEmpty() );
+        }
+
+        @Override
+        public synchronized PrefixTask next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            return queued.removeFirst();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final String         bucket;
+    private final Jiterator<Blob> iterator;
+    private final AWSCloud       provider;
+    private final String         regionId;
+
+    /**
+     * @param provider the provider to list through
+     * @param regionId the region of the bucket
+     * @param bucket the bucket to list
+     * @param iterator the iterator to push the objects to
+     */
+    S3BucketListing( @Nonnull AWSCloud provider, @Nonnull String regionId, @Nonnull String bucket, @Nonnull Jiterator<Blob> iterator ) {
+        this.provider = provider;
+        this.regionId = regionId;
+        this.bucket = bucket;
+        this.iterator = iterator;
+    }
+
+    /**
+     * Lists every object in the bucket.
+     * @throws CloudException the bucket could not be listed
+     * @throws InternalException the listing failed or was interrupted
+     */
+    void list() throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+        int parallelism = ( int ) S3MultipartUpload.getLongProperty(ctx, CP_LIST_PARALLELISM, 1L);
+        Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+        String delimiter = ( props == null ? null : props.getProperty(CP_LIST_DELIMITER) );
+
+        if( delimiter == null || delimiter.length() < 1 ) {
+            delimiter = DEFAULT_DELIMITER;
+        }
+        if( parallelism < 2 ) {
+            listPrefix(null, null);
+        }
+        else {
+            fanOut(parallelism, delimiter, ( int ) S3MultipartUpload.getLongProperty(ctx, CP_LIST_FAN_OUT_DEPTH, DEFAULT_FAN_OUT_DEPTH));
+        }
+    }
+
+    /**
+     * Lists the objects under a prefix, page by page.
+     * @param prefix the prefix to list, or null for the whole bucket
+     * @param delimiter the delimiter to roll deeper keys up by, or null to list every key under the prefix
+     * @return the common prefixes found when listing with a delimiter
+     */
+    private @Nonnull List<String> listPrefix( @Nullable String prefix, @Nullable String delimiter ) throws CloudException, InternalException {
+        ListBucketResponseParser parser = new ListBucketResponseParser(regionId, bucket);
+        List<String> prefixes = new ArrayList<String>();
+        String marker = null;
+
+        do {
+            List<Blob> page = listPage(provider, parser, bucket, prefix, delimiter, marker, MAX_KEYS);
+
+            for( Blob blob : page ) {
+                iterator.push(blob);
+            }
+            prefixes.addAll(parser.getCommonPrefixes());
+            marker = parser.getNextMarker();
+        } while( marker != null );
+        return prefixes;
+    }
+
+    private void fanOut( int parallelism, @Nonnull final String delimiter, final int maxDepth ) throws CloudException, InternalException {
+        final PrefixQueue queue = new PrefixQueue();
+        PartWorkers<PrefixTask> workers = new PartWorkers<PrefixTask>() {
+            @Override
+            protected void transfer( @Nonnull PrefixTask task ) throws Exception {
+                try {
+                    // below the fan-out depth a prefix is listed whole
+                    for( String found : listPrefix(task.prefix, task.depth < maxDepth ? delimiter : null) ) {
+                        queue.add(new PrefixTask(found, task.depth + 1));
+                    }
+                }
+                catch( Exception e ) {
+                    // wake the workers waiting for more prefixes
+                    queue.close();
+                    throw e;
+                }
+                finally {
+                    queue.done();
+                }
+            }
+        };
+
+        queue.add(new PrefixTask(null, 0));
+        workers.start(provider.getListExecutor(), queue, parallelism);
+        workers.await();
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Listed " + bucket + " with " + parallelism + " workers");
+        }
+    }
+}
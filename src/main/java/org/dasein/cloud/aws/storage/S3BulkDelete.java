@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes many objects from a bucket with multi-object delete requests of up to {@link #MAX_KEYS} keys each. Several
+ * requests are in flight at once, each worker taking its next batch straight from a shared key iterator, so keys can
+ * be fed from a listing as it streams in without holding them all. The requests run on the
+ * {@link AWSCloud#getTransferExecutor() transfer executor}: a listing feeding the keys uses the
+ * {@link AWSCloud#getListExecutor() list executor}, and workers blocked on it must not be the ones holding its
+ * threads. Keys S3 fails to remove with a transient error
+ * are sent again; other failures are collected and reported per key.
+ */
+class S3BulkDelete {
+    static private final Logger logger = AWSCloud.getLogger(S3BulkDelete.class);
+
+    /**
+     * Custom property for the number of multi-object delete requests sent at once.
+     */
+    static public final String CP_DELETE_PARALLELISM = "s3DeleteParallelism";
+
+    /**
+     * The most keys S3 accepts in one multi-object delete request.
+     */
+    static public final int MAX_KEYS = 1000;
+
+    static private final int DEFAULT_PARALLELISM = 8;
+    static private final int BATCH_ATTEMPTS      = 3;
+
+    private final String              bucket;
+    private final Map<String,String>  errors  = new ConcurrentHashMap<String,String>();
+    private final AWSCloud            provider;
+    private final AtomicLong          removed = new AtomicLong(0L);
+
+    /**
+     * @param provider the provider to delete through
+     * @param bucket the bucket holding the objects
+     */
+    S3BulkDelete( @Nonnull AWSCloud provider, @Nonnull String bucket ) {
+        this.provider = provider;
+        this.bucket = bucket;
+    }
+
+    /**
+     * Removes the objects with the given keys. Keys that do not exist count as removed, as they do for S3.
+     * @param keys the keys to remove, read once and by several threads in turn
+     * @return the keys that could not be removed, mapped to the error S3 gave for each
+     * @throws CloudException a request failed outright
+     * @throws InternalException the requests could not be made or were interrupted
+     */
+    @Nonnull Map<String,String> remove( @Nonnull Iterable<String> keys ) throws CloudException, InternalException {
+        final RetryPolicy policy = RetryPolicy.getInstance(S3Method.SERVICE_ID);
+        final DeleteRequest request = new DeleteRequest() {
+            @Override
+            public @Nullable S3Response invoke( @Nonnull String xml ) throws CloudException, InternalException {
+                Map<String,String> parameters = new HashMap<String,String>();
+
+                parameters.put("delete", null);
+                return new S3Method(provider, S3Action.DELETE_OBJECTS, parameters, null, "application/xml", xml).invoke(bucket, null);
+            }
+        };
+        PartWorkers<List<String>> workers = new PartWorkers<List<String>>() {
+            @Override
+            protected void transfer( @Nonnull List<String> batch ) throws Exception {
+                removed.addAndGet(send(batch, request, policy, errors, bucket));
+            }
+        };
+
+        workers.start(provider.getTransferExecutor(), batches(keys.iterator()), ( int ) S3MultipartUpload.getLongProperty(provider.getContext(), CP_DELETE_PARALLELISM, DEFAULT_PARALLELISM));
+        workers.await();
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Removed " + removed.get() + " objects from " + bucket + " with " + errors.size() + " failures");
+        }
+        return errors;
+    }
+
+    /**
+     * @param keys the keys to remove
+     * @return the keys in batches of up to {@link #MAX_KEYS}, skipping null keys
+     */
+    static @Nonnull Iterator<List<String>> batches( @Nonnull final Iterator<String> keys ) {
+        return new Iterator<List<String>>() {
+            private List<String> batch;
+
+            @Override
+            public boolean hasNext() {
+                if( batch == null ) {
+                    List<String> next = new ArrayList<String>();
+
+                    while( next.size() < MAX_KEYS && keys.hasNext() ) {
+                        String key = keys.next();
+
+                        if( key != null ) {
+                            next.add(key);
+                        }
+                    }
+                    batch = ( next.isEmpty() ? null : next );
+                }
+                return ( batch != null );
+            }
+
+            @Override
+            public List<String> next() {
+                if( !hasNext() ) {
+                    throw new NoSuchElementException();
+                }
+                List<String> next = batch;
+
+                batch = null;
+                return next;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * One multi-object delete request.
+     */
+    interface DeleteRequest {
+        @Nullable S3Response invoke( @Nonnull String xml ) throws CloudException, InternalException;
+    }
+
+    /**
+     * Removes one batch of keys, sending again the keys S3 fails to remove with a transient error.
+     * @param keys the keys to remove
+     * @param request sends the delete request
+     * @param policy the retry policy for S3
+     * @param errors collects the keys that could not be removed, mapped to the error S3 gave for each
+     * @param bucket the bucket holding the objects, for error messages
+     * @return the number of keys removed
+     * @throws CloudException the request failed outright
+     * @throws InternalException the request could not be made or the wait to retry was interrupted
+     */
+    static int send( @Nonnull List<String> keys, @Nonnull DeleteRequest request, @Nonnull RetryPolicy policy, @Nonnull Map<String,String> errors, @Nonnull String bucket ) throws CloudException, InternalException {
+        int attempt = 0;
+        int count = 0;
+
+        while( !keys.isEmpty() ) {
+            attempt++;
+            S3Response response = request.invoke(toXml(keys));
+            S3Exception embedded = S3MultipartUpload.getEmbeddedError(response);
+
+            if( embedded != null ) {
+                if( !policy.shouldRetry(attempt, embedded) ) {
+                    throw embedded;
+                }
+            }
+            else {
+                List<String> retry = new ArrayList<String>();
+                int failures = 0;
+
+                if( response != null && response.document != null ) {
+                    NodeList children = response.document.getDocumentElement().getChildNodes();
+
+                    for( int i=0; i<children.getLength(); i++ ) {
+                        Node child = children.item(i);
+
+                        if( child.getNodeName().equals("Error") ) {
+                            String key = getKey(child);
+                            String code = S3MultipartUpload.getText(child, "Code");
+
+                            if( key == null ) {
+                                continue;
+                            }
+                            failures++;
+                            if( attempt < BATCH_ATTEMPTS && policy.isRetryable(0, code) ) {
+                                retry.add(key);
+                            }
+                            else {
+                                errors.put(key, code + ": " + S3MultipartUpload.getText(child, "Message"));
+                            }
+                        }
+                    }
+                }
+                count += keys.size() - failures;
+                keys = retry;
+                if( keys.isEmpty() ) {
+                    return count;
+                }
+            }
+            if( !policy.backoff(attempt) ) {
+                throw new InternalException("Interrupted while removing objects from " + bucket);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the key of a failed object exactly as S3 returned it; keys may begin or end with whitespace, so unlike
+     * the other fields of the response it must not be trimmed.
+     */
+    static private @Nullable String getKey( @Nonnull Node error ) {
+        NodeList children = error.getChildNodes();
+
+        for( int i=0; i<children.getLength(); i++ ) {
+            Node child = children.item(i);
+
+            if( child.getNodeName().equals("Key") ) {
+                String key = child.getTextContent();
+
+                return ( key == null || key.length() < 1 ? null : key );
+            }
+        }
+        return null;
+    }
+
+    static @Nonnull String toXml( @Nonnull List<String> keys ) {
+        StringBuilder xml = new StringBuilder(64 * keys.size());
+
+        // quiet mode lists only the keys that failed
+        xml.append("<Delete><Quiet>true</Quiet>");
+        for( String key : keys ) {
+            xml.append("<Object><Key>");
+            xml.append(AWSCloud.escapeXml(key));
+            xml.append("</Key></Object>");
+        }
+        xml.append("</Delete>");
+        return xml.toString();
+    }
+}
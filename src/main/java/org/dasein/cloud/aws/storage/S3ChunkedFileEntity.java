@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.AWSCloud;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Sends a file using {@code aws-chunked} encoding with {@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD} signing. Each chunk
+ * is hashed and signed as it is written, so the file is read once and never held in memory. The signature of the
+ * first chunk chains from the seed signature in the request's Authorization header.
+ */
+class S3ChunkedFileEntity extends AbstractHttpEntity {
+    static public final int CHUNK_SIZE = 64 * 1024;
+
+    static private final Charset ASCII           = Charset.forName("US-ASCII");
+    static private final String  SIGNATURE_PARAM = ";chunk-signature=";
+    static private final String  CRLF            = "\r\n";
+    static private final int     SIGNATURE_SIZE  = 64;
+
+    /**
+     * Calculates the length of a payload once it has been encoded into signed chunks.
+     * @param length the length of the decoded payload
+     * @return the length of the encoded payload that must be sent as Content-Length
+     */
+    static public long getEncodedLength( long length ) {
+        long full = length / CHUNK_SIZE;
+        int remainder = ( int ) ( length % CHUNK_SIZE );
+        long encoded = full * getChunkLength(CHUNK_SIZE);
+
+        if( remainder > 0 ) {
+            encoded += getChunkLength(remainder);
+        }
+        return encoded + getChunkLength(0);
+    }
+
+    static private long getChunkLength( int size ) {
+        return Integer.toHexString(size).length() + SIGNATURE_PARAM.length() + SIGNATURE_SIZE + CRLF.length() + size + CRLF.length();
+    }
+
+    private final File     file;
+    private final AWSCloud provider;
+    private final String   secretKey;
+    private final String   amzDate;
+    private final String   credentialScope;
+    private final String   seedSignature;
+
+    /**
+     * @param provider the provider used to sign each chunk
+     * @param file the file to send
+     * @param contentType the content type of the decoded file
+     * @param secretKey the secret key that signed the request
+     * @param amzDate the x-amz-date of the request
+     * @param authorization the Authorization header of the request, which carries the credential scope and seed signature
+     * @throws InternalException the Authorization header is not a V4 signature
+     */
+    S3ChunkedFileEntity( @Nonnull AWSCloud provider, @Nonnull File file, @Nullable String contentType, @Nonnull String secretKey, @Nonnull String amzDate, @Nonnull String authorization ) throws InternalException {
+        this.provider = provider;
+        this.file = file;
+        this.secretKey = secretKey;
+        this.amzDate = amzDate;
+        String credential = extract(authorization, "Credential=", ",");
+
+        // the credential is access-key/scope; only the scope takes part in chunk signatures
+        if( credential.indexOf('/') < 0 ) {
+            throw new InternalException("No credential scope in authorization: " + authorization);
+        }
+        this.credentialScope = credential.substring(credential.indexOf('/') + 1);
+        this.seedSignature = extract(authorization, "Signature=", null);
+        setContentType(contentType);
+    }
+
+    static private @Nonnull String extract( @Nonnull String authorization, @Nonnull String name, @Nullable String end ) throws InternalException {
+        int idx = authorization.indexOf(name);
+
+        if( idx < 0 ) {
+            throw new InternalException("No " + name + " in authorization: " + authorization);
+        }
+        String value = authorization.substring(idx + name.length());
+
+        if( end != null && value.contains(end) ) {
+            value = value.substring(0, value.indexOf(end));
+        }
+        return value.trim();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return getEncodedLength(file.length());
+    }
+
+    /**
+     * Provides the encoded payload as a stream that reads, signs and encodes one chunk of the file at a time.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        final InputStream input = new FileInputStream(file);
+
+        return new InputStream() {
+            private final byte[]      chunk     = new byte[CHUNK_SIZE];
+            private final ChunkBuffer encoded   = new ChunkBuffer();
+            private String            signature = seedSignature;
+            private int               position  = 0;
+            private boolean           finished  = false;
+
+            /**
+             * Encodes the next chunk once the current one has been read.
+             * @return false when the final, empty chunk has been read
+             */
+            private boolean next() throws IOException {
+                if( position < encoded.size() ) {
+                    return true;
+                }
+                if( finished ) {
+                    return false;
+                }
+                int size = fill(input, chunk);
+
+                encoded.reset();
+                position = 0;
+                signature = writeChunk(encoded, chunk, size, signature);
+                finished = ( size == 0 );
+                return true;
+            }
+
+            @Override
+            public int read() throws IOException {
+                if( !next() ) {
+                    return -1;
+                }
+                return ( encoded.getBuffer()[position++] & 0xff );
+            }
+
+            @Override
+            public int read( @Nonnull byte[] b, int off, int len ) throws IOException {
+                if( len == 0 ) {
+                    return 0;
+                }
+                if( !next() ) {
+                    return -1;
+                }
+                int count = Math.min(len, encoded.size() - position);
+
+                System.arraycopy(encoded.getBuffer(), position, b, off, count);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() throws IOException {
+                input.close();
+            }
+        };
+    }
+
+    /**
+     * Holds one encoded chunk and exposes its buffer so reads do not copy it.
+     */
+    static private class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer() {
+            super(CHUNK_SIZE + 128);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo( OutputStream out ) throws IOException {
+        if( out == null ) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        InputStream input = new FileInputStream(file);
+
+        try {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            String signature = seedSignature;
+            int size;
+
+            while( ( size = fill(input, chunk) ) > 0 ) {
+                signature = writeChunk(out, chunk, size, signature);
+            }
+            writeChunk(out, chunk, 0, signature);
+            out.flush();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads until the chunk is full or the file ends so that every chunk but the last has the same size.
+     */
+    private int fill( @Nonnull InputStream input, @Nonnull byte[] chunk ) throws IOException {
+        int size = 0;
+        int read;
+
+        while( size < chunk.length && ( read = input.read(chunk, size, chunk.length - size) ) != -1 ) {
+            size += read;
+        }
+        return size;
+    }
+
+    private @Nonnull String writeChunk( @Nonnull OutputStream out, @Nonnull byte[] chunk, int size, @Nonnull String previousSignature ) throws IOException {
+        String signature;
+
+        try {
+            signature = provider.getV4ChunkSignature(secretKey, amzDate, credentialScope, previousSignature, AWSCloud.computeSHA256Hash(chunk, 0, size));
+        }
+        catch( InternalException e ) {
+            throw new IOException("Unable to sign chunk: " + e.getMessage());
+        }
+        out.write((Integer.toHexString(size) + SIGNATURE_PARAM + signature + CRLF).getBytes(ASCII));
+        out.write(chunk, 0, size);
+        out.write(CRLF.getBytes(ASCII));
+        return signature;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sends one region of a file, such as a part of a multipart upload. The region is read with positional
+ * {@link FileChannel} reads, so any number of regions of the same file can be sent at once, and it is read again
+ * from disk each time it is written rather than held in memory.
+ */
+class S3FileRegionEntity extends AbstractHttpEntity {
+    static private final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @param file the file holding the region
+     * @param offset the position of the first byte to send
+     * @param length the number of bytes to send
+     * @param contentType the content type of the region
+     */
+    S3FileRegionEntity( @Nonnull File file, long offset, long length, @Nullable String contentType ) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        setContentType(contentType);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final FileChannel channel = raf.getChannel();
+
+        return new InputStream() {
+            private final ByteBuffer single   = ByteBuffer.allocate(1);
+            private long             position = offset;
+            private final long       end      = offset + length;
+
+            @Override
+            public int read() throws IOException {
+                single.clear();
+                return ( read(single) < 1 ? -1 : single.get(0) & 0xff );
+            }
+
+            @Override
+            public int read( @Nonnull byte[] b, int off, int len ) throws IOException {
+                if( len == 0 ) {
+                    return 0;
+                }
+                return read(ByteBuffer.wrap(b, off, len));
+            }
+
+            private int read( @Nonnull ByteBuffer buffer ) throws IOException {
+                long remaining = end - position;
+
+                if( remaining < 1 ) {
+                    return -1;
+                }
+                if( buffer.remaining() > remaining ) {
+                    buffer.limit(buffer.position() + ( int ) remaining);
+                }
+                int read = channel.read(buffer, position);
+
+                if( read > 0 ) {
+                    position += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                raf.close();
+            }
+        };
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void writeTo( OutputStream out ) throws IOException {
+        if( out == null ) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(( int ) Math.min(BUFFER_SIZE, Math.max(1L, length)));
+            long position = offset;
+            long end = offset + length;
+
+            while( position < end ) {
+                buffer.clear();
+                if( buffer.remaining() > end - position ) {
+                    buffer.limit(( int ) ( end - position ));
+                }
+                int read = channel.read(buffer, position);
+
+                if( read < 0 ) {
+                    throw new IOException("File " + file + " ended at " + position + " while sending bytes " + offset + "-" + ( end - 1 ));
+                }
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+            out.flush();
+        }
+        finally {
+            raf.close();
+        }
+    }
+}
@@ -34,7 +34,10 @@ import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RequestRateLimiter;
+import org.dasein.cloud.aws.RetryPolicy;
 import org.dasein.cloud.identity.ServiceAction;
 import org.dasein.cloud.storage.BlobStoreSupport;
 import org.dasein.cloud.util.APITrace;
@@ -55,8 +58,6 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.regex.Pattern;
 
-import static org.apache.http.entity.ContentType.APPLICATION_XML;
-
 public class S3Method {
     static private final Logger logger = Logger.getLogger(S3Method.class);
 
@@ -140,14 +141,56 @@ public class S3Method {
         return new String(b64);
     }
 
-    private S3Action           action      = null;
-    private int                attempts    = 0;
-    private String             body        = null;
-    private String             contentType = null;
-    private Map<String,String> headers     = null;
-    private Map<String,String> parameters  = null;
-    private AWSCloud           provider    = null;
-    private File               uploadFile  = null;
+    /**
+     * How the body of a request is covered by its V4 signature.
+     */
+    public enum PayloadSigning {
+        /**
+         * The whole payload is hashed before the request is signed.
+         */
+        SIGNED,
+        /**
+         * The payload is sent as UNSIGNED-PAYLOAD and relies on TLS for integrity; nothing is read before sending.
+         */
+        UNSIGNED,
+        /**
+         * File uploads are sent with aws-chunked encoding and each chunk is signed as it is sent.
+         */
+        STREAMING
+    }
+
+    /**
+     * Context property naming the default {@link PayloadSigning} for requests that do not set one.
+     */
+    static public final String CP_PAYLOAD_SIGNING = "s3PayloadSigning";
+
+    static public final String UNSIGNED_PAYLOAD  = "UNSIGNED-PAYLOAD";
+    static public final String STREAMING_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+
+    static private final ContentType XML_CONTENT = ContentType.create("application/xml", "UTF-8");
+
+    /**
+     * Wraps an XML request body in the entity it is sent as. Keys in the body may be any Unicode, so it is always
+     * encoded as UTF-8, and hashes of the body must be taken over this entity's content.
+     * @param body the XML document
+     * @return the entity carrying the body
+     */
+    static @Nonnull StringEntity toXmlEntity( @Nonnull String body ) {
+        return new StringEntity(body, XML_CONTENT);
+    }
+
+    private S3Action           action         = null;
+    private int                attempts       = 0;
+    private String             body           = null;
+    private String             contentType    = null;
+    private Map<String,String> headers        = null;
+    private Map<String,String> parameters     = null;
+    private PayloadSigning     payloadSigning = null;
+    private boolean            streamResponse = false;
+    private AWSCloud           provider       = null;
+    private File               uploadFile     = null;
+    private long               uploadOffset   = 0L;
+    private long               uploadLength   = -1L;
 
     public S3Method(AWSCloud provider, S3Action action) {
         this.action = action;
@@ -180,6 +223,74 @@ public class S3Method {
         this.parameters = parameters;
     }
 
+    /**
+     * Sends only a region of the file as the request body, as a multipart upload does for each of its parts.
+     * @param uploadOffset the position in the file of the first byte to send
+     * @param uploadLength the number of bytes to send
+     */
+    public S3Method(AWSCloud provider, S3Action action, Map<String,String> parameters, Map<String,String> headers, String contentType, File uploadFile, long uploadOffset, long uploadLength) {
+        this(provider, action, parameters, headers, contentType, uploadFile);
+        this.uploadOffset = uploadOffset;
+        this.uploadLength = uploadLength;
+    }
+
+    private boolean isFileRegion() {
+        return ( uploadFile != null && uploadLength > -1L );
+    }
+
+    /**
+     * Selects how the payload of this request is signed, overriding the {@link #CP_PAYLOAD_SIGNING} context property.
+     * @param payloadSigning the signing mode for this request
+     */
+    public void setPayloadSigning( @Nullable PayloadSigning payloadSigning ) {
+        this.payloadSigning = payloadSigning;
+    }
+
+    /**
+     * Hands a successful XML response back unparsed in {@link S3Response#input} so it can be read with a streaming
+     * parser instead of being built into a DOM. Error responses are parsed as usual.
+     * @param streamResponse true to leave successful responses unparsed
+     */
+    public void setStreamResponse( boolean streamResponse ) {
+        this.streamResponse = streamResponse;
+    }
+
+    private @Nonnull PayloadSigning getPayloadSigning( @Nonnull String url ) {
+        PayloadSigning signing = payloadSigning;
+
+        if( signing == null ) {
+            ProviderContext ctx = provider.getContext();
+            Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+            String value = ( props == null ? null : props.getProperty(CP_PAYLOAD_SIGNING) );
+
+            signing = PayloadSigning.SIGNED;
+            if( value != null ) {
+                try {
+                    signing = PayloadSigning.valueOf(value.trim().toUpperCase());
+                }
+                catch( IllegalArgumentException e ) {
+                    logger.warn("Ignoring unknown " + CP_PAYLOAD_SIGNING + ": " + value);
+                }
+            }
+        }
+        if( signing == PayloadSigning.SIGNED || !provider.getEC2Provider().isAWS() ) {
+            return PayloadSigning.SIGNED;
+        }
+        if( !url.startsWith("https://") ) {
+            logger.warn("Signing the payload of " + action + " because " + signing + " requires TLS");
+            return PayloadSigning.SIGNED;
+        }
+        if( signing == PayloadSigning.STREAMING && uploadFile == null ) {
+            // small in-memory bodies gain nothing from chunking
+            return PayloadSigning.SIGNED;
+        }
+        if( signing == PayloadSigning.STREAMING && isFileRegion() ) {
+            // the chunked entity always sends the whole file
+            return PayloadSigning.SIGNED;
+        }
+        return signing;
+    }
+
     private String getDate() throws CloudException {
         if( provider.getEC2Provider().isStorage() && "google".equalsIgnoreCase(provider.getProviderName()) ) {
             SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ssz", new Locale("US"));
@@ -203,13 +314,76 @@ public class S3Method {
 
     static private final Logger wire = AWSCloud.getWireLogger(S3.class);
 
-    // TODO(stas): This method screams for some heavy refactoring
     S3Response invoke(@Nullable String bucket, @Nullable String object, @Nullable String temporaryEndpoint) throws S3Exception, CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance(SERVICE_ID);
+        RequestRateLimiter.Bucket limiter = RequestRateLimiter.getBucket(provider.getContext(), SERVICE_ID, action.isReadOnly() ? RequestRateLimiter.ACTION_CLASS_READ : RequestRateLimiter.ACTION_CLASS_WRITE);
+
+        while( true ) {
+            if( !limiter.acquire() ) {
+                throw new InternalException("Interrupted while waiting to send " + action);
+            }
+            try {
+                S3Response response = invokeOnce(bucket, object, temporaryEndpoint);
+
+                limiter.onSuccess();
+                return response;
+            }
+            catch( S3Exception e ) {
+                // S3 signals throttling with a 503 SlowDown that may arrive without a parsed error code
+                if( e.getStatus() == HttpServletResponse.SC_SERVICE_UNAVAILABLE || RequestRateLimiter.isThrottling(e.getCode()) ) {
+                    limiter.onThrottle();
+                }
+                if( !policy.shouldRetry(attempts, e) ) {
+                    if( attempts > 1 && policy.isRetryable(e) ) {
+                        logger.error("Giving up on " + action + " after " + attempts + " attempts: " + e.getSummary());
+                    }
+                    throw e;
+                }
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Retryable error from " + action + ": " + e.getSummary());
+                }
+                if( !policy.backoff(attempts) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hashes the request body by streaming it through a fixed buffer rather than reading it into memory. The hash
+     * covers the bytes actually sent, whatever the charset of the entity.
+     */
+    private @Nonnull String getPayloadHash( @Nonnull HttpRequestBase method ) throws InternalException {
+        HttpEntity entity = null;
+
+        if( method instanceof HttpEntityEnclosingRequestBase ) {
+            entity = ((HttpEntityEnclosingRequestBase)method).getEntity();
+        }
+        if( entity == null ) {
+            return provider.getRequestBodyHash("");
+        }
+        try {
+            InputStream input = entity.getContent();
+
+            try {
+                return AWSCloud.computeSHA256Hash(input);
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    // TODO(stas): This method screams for some heavy refactoring
+    private S3Response invokeOnce(@Nullable String bucket, @Nullable String object, @Nullable String temporaryEndpoint) throws S3Exception, CloudException, InternalException {
         if( wire.isDebugEnabled() ) {
             wire.debug("");
             wire.debug("----------------------------------------------------------------------------------");
         }
-        HttpClient client = null;
+        HttpClient client;
         boolean leaveOpen = false;
         try {
             StringBuilder url = new StringBuilder();
@@ -322,7 +496,7 @@ public class S3Method {
             if( object != null ) {
                 url.append(object);
             }
-            else if( parameters != null ) {
+            if( parameters != null ) {
                 boolean first = true;
 
                 if( object != null && object.indexOf('?') != -1 ) {
@@ -368,9 +542,23 @@ public class S3Method {
             String host = method.getURI().getHost();
             headers.put("host", host);
 
-            if(action.equals(S3Action.PUT_BUCKET_TAG))
+            PayloadSigning signing = getPayloadSigning(url.toString());
+
+            if( signing == PayloadSigning.STREAMING ) {
+                headers.put("Content-Encoding", "aws-chunked");
+                headers.put("x-amz-decoded-content-length", String.valueOf(uploadFile.length()));
+                headers.put(AWSCloud.P_AWS_CONTENT_SHA256, STREAMING_PAYLOAD);
+            }
+            else if( signing == PayloadSigning.UNSIGNED ) {
+                headers.put(AWSCloud.P_AWS_CONTENT_SHA256, UNSIGNED_PAYLOAD);
+            }
+
+            StringEntity xml = ( body == null ? null : toXmlEntity(body) );
+
+            // S3 insists on an MD5 for these bodies even when they are signed
+            if( xml != null && ( action.equals(S3Action.PUT_BUCKET_TAG) || action.equals(S3Action.DELETE_OBJECTS) ) )
             	try {
-            		headers.put("Content-MD5", toBase64(computeMD5Hash(body)));
+            		headers.put("Content-MD5", toBase64(computeMD5Hash(xml.getContent())));
             	} catch (NoSuchAlgorithmException e) {
             		logger.error(e);
             	} catch (IOException e) {
@@ -383,28 +571,29 @@ public class S3Method {
                 }
             }
 
-            if( body != null ) {
-                ((HttpEntityEnclosingRequestBase)method).setEntity(new StringEntity(body, APPLICATION_XML));
+            if( xml != null ) {
+                ((HttpEntityEnclosingRequestBase)method).setEntity(xml);
+            }
+            else if( isFileRegion() ) {
+                ((HttpEntityEnclosingRequestBase)method).setEntity(new S3FileRegionEntity(uploadFile, uploadOffset, uploadLength, contentType));
             }
-            else if( uploadFile != null ) {
+            else if( uploadFile != null && signing != PayloadSigning.STREAMING ) {
                 ((HttpEntityEnclosingRequestBase)method).setEntity(new FileEntity(uploadFile, contentType));
             }
             try {
-                String hash = null;
-                if( method instanceof HttpEntityEnclosingRequestBase ) {
-                    try {
-                        hash = provider.getRequestBodyHash(EntityUtils.toString(((HttpEntityEnclosingRequestBase)method).getEntity()));
-                    }
-                    catch( IOException e ) {
-                        throw new InternalException(e);
-                    }
-                }
-                else {
-                    hash = provider.getRequestBodyHash("");
-                }
-
                 String signature;
                 if( provider.getEC2Provider().isAWS() ) {
+                    String hash;
+
+                    if( signing == PayloadSigning.STREAMING ) {
+                        hash = STREAMING_PAYLOAD;
+                    }
+                    else if( signing == PayloadSigning.UNSIGNED ) {
+                        hash = UNSIGNED_PAYLOAD;
+                    }
+                    else {
+                        hash = getPayloadHash(method);
+                    }
                     // Sign v4 for AWS
                     signature = provider.getV4Authorization(
                             new String(provider.getAccessKey()[0]),
@@ -414,9 +603,19 @@ public class S3Method {
                             SERVICE_ID,
                             headers,
                             hash);
-                    if( hash != null ) {
+                    if( !headers.containsKey(AWSCloud.P_AWS_CONTENT_SHA256) ) {
                         method.addHeader(AWSCloud.P_AWS_CONTENT_SHA256, hash);
                     }
+                    if( signing == PayloadSigning.STREAMING ) {
+                        // chunk signatures chain from the request signature, so the entity can only be built now
+                        ((HttpEntityEnclosingRequestBase)method).setEntity(new S3ChunkedFileEntity(
+                                provider,
+                                uploadFile,
+                                contentType,
+                                new String(provider.getAccessKey()[1]),
+                                headers.get(AWSCloud.P_AWS_DATE),
+                                signature));
+                    }
                 }
                 else {
                     // Eucalyptus et al use v2
@@ -491,7 +690,7 @@ public class S3Method {
                 }
             }
             try {
-                if( status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED || status == HttpServletResponse.SC_ACCEPTED ) {
+                if( status == HttpServletResponse.SC_OK || status == HttpServletResponse.SC_CREATED || status == HttpServletResponse.SC_ACCEPTED || status == HttpServletResponse.SC_PARTIAL_CONTENT ) {
                     Header clen = httpResponse.getFirstHeader("Content-Length");
                     long len = -1L;
                     
@@ -502,7 +701,8 @@ public class S3Method {
                         try {
                             Header ct = httpResponse.getFirstHeader("Content-Type");
     
-                            if( (ct != null && (ct.getValue().startsWith("application/xml") || ct.getValue().startsWith("text/xml"))) || ( action.equals(S3Action.GET_BUCKET_TAG) && input != null )) {
+                            // object content is returned as is, whatever its type
+                            if( (!streamResponse && !action.equals(S3Action.GET_OBJECT) && !action.equals(S3Action.OBJECT_EXISTS) && ct != null && (ct.getValue().startsWith("application/xml") || ct.getValue().startsWith("text/xml"))) || ( action.equals(S3Action.GET_BUCKET_TAG) && input != null )) {
                                 try {
                                     response.document = parseResponse(input);
                                     return response;
@@ -545,28 +745,16 @@ public class S3Method {
                 }
                 else {
                     if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE || status == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
-                        if( attempts >= 5 ) {
-                            String msg;
-                            
-                            if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
-                                msg = "Cloud service is currently unavailable.";
-                            }
-                            else {
-                                msg = "The cloud service encountered a server error while processing your request.";
-                            }
-                            logger.error(msg);
-                            throw new CloudException(msg);
+                        String msg;
+
+                        if( status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ) {
+                            msg = "Cloud service is currently unavailable.";
                         }
                         else {
-                            leaveOpen = true;
-                            if( input != null ) {
-                                try { input.close(); }
-                                catch( IOException ignore ) { }
-                            }
-                            try { Thread.sleep(5000L); }
-                            catch( InterruptedException ignore ) { }
-                            return invoke(bucket, object);
+                            msg = "The cloud service encountered a server error while processing your request.";
                         }
+                        // classified and, if attempts remain, retried by the caller
+                        throw new S3Exception(status, null, null, msg);
                     }
                     try {
                         Document doc;
@@ -650,9 +838,6 @@ public class S3Method {
             }
         }
         finally {
-            if (!leaveOpen && client != null) {
-                client.getConnectionManager().shutdown();
-            }
             if( wire.isDebugEnabled() ) {
                 wire.debug("----------------------------------------------------------------------------------");
                 wire.debug("");
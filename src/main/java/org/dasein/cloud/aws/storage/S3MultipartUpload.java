@@ -0,0 +1,626 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Uploads a large file to S3 as a multipart upload. The file is cut into parts at fixed offsets and the parts are
+ * sent concurrently on the {@link AWSCloud#getTransferExecutor() transfer executor}, each read straight from disk
+ * with positional reads. Each part is retried on its own, and the upload ID and the ETags of finished parts are
+ * saved to a state file after every part, so that uploading the same file to the same key again after a failure
+ * or a crash sends only the parts that are missing.
+ */
+class S3MultipartUpload {
+    static private final Logger logger = AWSCloud.getLogger(S3MultipartUpload.class);
+
+    /**
+     * Custom property for the file size in bytes above which uploads are sent in parts.
+     */
+    static public final String CP_MULTIPART_THRESHOLD = "s3MultipartThreshold";
+    /**
+     * Custom property for the size in bytes of each part of a multipart upload.
+     */
+    static public final String CP_PART_SIZE           = "s3PartSize";
+    /**
+     * Custom property for the number of parts of a single upload that are sent at once.
+     */
+    static public final String CP_UPLOAD_PARALLELISM  = "s3UploadParallelism";
+    /**
+     * Custom property for the directory holding the state of unfinished multipart uploads.
+     */
+    static public final String CP_UPLOAD_STATE_DIR    = "s3UploadStateDir";
+
+    static public final long MIN_PART_SIZE   = 5L * 1024L * 1024L;
+    static public final long MAX_PART_SIZE   = 5L * 1024L * 1024L * 1024L;
+    static public final int  MAX_PARTS       = 10000;
+
+    static private final long DEFAULT_THRESHOLD   = 100L * 1024L * 1024L;
+    static private final long DEFAULT_PART_SIZE   = 64L * 1024L * 1024L;
+    static private final int  DEFAULT_PARALLELISM = 8;
+    static private final int  PART_ATTEMPTS       = 3;
+    static private final long MEGABYTE            = 1024L * 1024L;
+
+    /**
+     * @param provider the provider the upload would be made through
+     * @param file the file to upload
+     * @return true if the file is large enough to be sent in parts and the cloud supports multipart uploads
+     */
+    static boolean isMultipart( @Nonnull AWSCloud provider, @Nonnull File file ) {
+        return ( provider.getEC2Provider().isAWS() && file.length() > getLongProperty(provider.getContext(), CP_MULTIPART_THRESHOLD, DEFAULT_THRESHOLD) );
+    }
+
+    /**
+     * Chooses the part size for a file, raising the requested size as needed to stay within the S3 limits on the
+     * size and number of parts.
+     * @param length the length of the file in bytes
+     * @param requested the configured part size
+     * @return the part size to use
+     * @throws InternalException the file is too large for a multipart upload
+     */
+    static long getPartSize( long length, long requested ) throws InternalException {
+        long size = Math.max(MIN_PART_SIZE, requested);
+        long minimum = ( length + MAX_PARTS - 1 ) / MAX_PARTS;
+
+        if( size < minimum ) {
+            size = ( ( minimum + MEGABYTE - 1 ) / MEGABYTE ) * MEGABYTE;
+        }
+        if( size > MAX_PART_SIZE ) {
+            throw new InternalException("A file of " + length + " bytes is too large for a multipart upload");
+        }
+        return size;
+    }
+
+    /**
+     * @param ctx the context whose part size setting applies
+     * @param length the length of the file in bytes
+     * @return the part size an upload of the file through the context would use
+     * @throws InternalException the file is too large for a multipart upload
+     */
+    static long getPartSize( @Nullable ProviderContext ctx, long length ) throws InternalException {
+        return getPartSize(length, getLongProperty(ctx, CP_PART_SIZE, DEFAULT_PART_SIZE));
+    }
+
+    static long getLongProperty( @Nullable ProviderContext ctx, @Nonnull String name, long defaultValue ) {
+        Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+        String value = ( props == null ? null : props.getProperty(name) );
+
+        if( value == null || value.trim().length() < 1 ) {
+            return defaultValue;
+        }
+        try {
+            long l = Long.parseLong(value.trim());
+
+            return ( l > 0L ? l : defaultValue );
+        }
+        catch( NumberFormatException e ) {
+            logger.warn("Ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The persistent record of an unfinished upload. Part ETags are held in a sorted map so the completion request
+     * lists them in order.
+     */
+    static class UploadState {
+        String                     uploadId;
+        long                       length;
+        long                       lastModified;
+        long                       partSize;
+        final TreeMap<Integer,String> parts = new TreeMap<Integer,String>();
+
+        static @Nullable UploadState load( @Nonnull File stateFile ) {
+            if( !stateFile.exists() ) {
+                return null;
+            }
+            Properties props = new Properties();
+
+            try {
+                InputStream input = new FileInputStream(stateFile);
+
+                try {
+                    props.load(input);
+                }
+                finally {
+                    input.close();
+                }
+                UploadState state = new UploadState();
+
+                state.uploadId = props.getProperty("uploadId");
+                state.length = Long.parseLong(props.getProperty("length"));
+                state.lastModified = Long.parseLong(props.getProperty("lastModified"));
+                state.partSize = Long.parseLong(props.getProperty("partSize"));
+                for( String name : props.stringPropertyNames() ) {
+                    if( name.startsWith("part.") ) {
+                        state.parts.put(Integer.parseInt(name.substring(5)), props.getProperty(name));
+                    }
+                }
+                return ( state.uploadId == null ? null : state );
+            }
+            catch( Exception e ) {
+                logger.warn("Ignoring unreadable upload state " + stateFile + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Writes the state to a temporary file beside the state file and renames it into place, so a crash while
+         * saving leaves the previous state intact.
+         * @param stateFile the state file to write
+         * @throws IOException the state could not be written
+         */
+        synchronized void save( @Nonnull File stateFile ) throws IOException {
+            Properties props = new Properties();
+
+            props.setProperty("uploadId", uploadId);
+            props.setProperty("length", String.valueOf(length));
+            props.setProperty("lastModified", String.valueOf(lastModified));
+            props.setProperty("partSize", String.valueOf(partSize));
+            for( Map.Entry<Integer,String> entry : parts.entrySet() ) {
+                props.setProperty("part." + entry.getKey(), entry.getValue());
+            }
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            OutputStream output = new FileOutputStream(tmp);
+
+            try {
+                props.store(output, null);
+            }
+            finally {
+                output.close();
+            }
+            if( !tmp.renameTo(stateFile) ) {
+                // some platforms will not rename over an existing file
+                //noinspection ResultOfMethodCallIgnored
+                stateFile.delete();
+                if( !tmp.renameTo(stateFile) ) {
+                    throw new IOException("Unable to replace " + stateFile);
+                }
+            }
+        }
+
+        /**
+         * @param file the file being uploaded
+         * @return true if the file is unchanged since this upload was started
+         */
+        boolean matches( @Nonnull File file ) {
+            return ( length == file.length() && lastModified == file.lastModified() );
+        }
+
+        synchronized void putPart( int partNumber, @Nonnull String etag ) {
+            parts.put(partNumber, etag);
+        }
+
+        synchronized @Nonnull Map<Integer,String> getParts() {
+            return new TreeMap<Integer,String>(parts);
+        }
+    }
+
+    private final String              bucket;
+    private final File                file;
+    private final Map<String,String>  headers;
+    private final String              object;
+    private final AWSCloud            provider;
+
+    /**
+     * @param provider the provider to upload through
+     * @param bucket the target bucket
+     * @param object the target key
+     * @param file the file to upload
+     * @param headers headers for the new object, such as a canned ACL, or null
+     */
+    S3MultipartUpload( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull File file, @Nullable Map<String,String> headers ) {
+        this.provider = provider;
+        this.bucket = bucket;
+        this.object = object;
+        this.file = file;
+        this.headers = headers;
+    }
+
+    /**
+     * Uploads the file, picking up an earlier attempt at the same upload if its state file is found and the file
+     * has not changed since. If any part fails, the upload is left open and its state kept so a later call can
+     * resume it.
+     * @throws CloudException the upload failed
+     * @throws InternalException the file or the upload state could not be read or written
+     */
+    void upload() throws CloudException, InternalException {
+        File stateFile = getStateFile();
+        UploadState state = UploadState.load(stateFile);
+
+        if( state != null && !state.matches(file) ) {
+            logger.info("Abandoning upload " + state.uploadId + " of " + file + " because the file has changed");
+            abortQuietly(provider, bucket, object, state.uploadId);
+            state = null;
+        }
+        if( state != null ) {
+            Map<Integer,String> uploaded = listParts(state.uploadId);
+
+            if( uploaded == null ) {
+                logger.info("Upload " + state.uploadId + " of " + file + " no longer exists, starting over");
+                state = null;
+            }
+            else {
+                // S3 is the authority on which parts arrived, including any that finished after the state was saved
+                state.parts.clear();
+                state.parts.putAll(uploaded);
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Resuming upload " + state.uploadId + " of " + file + " with " + uploaded.size() + " parts in place");
+                }
+            }
+        }
+        if( state == null ) {
+            state = new UploadState();
+            state.length = file.length();
+            state.lastModified = file.lastModified();
+            state.partSize = getPartSize(provider.getContext(), state.length);
+            state.uploadId = initiate(provider, bucket, object, headers, "application/octet-stream");
+        }
+        saveState(state, stateFile);
+        uploadParts(state, stateFile);
+        complete(provider, bucket, object, state.uploadId, state.getParts());
+        //noinspection ResultOfMethodCallIgnored
+        stateFile.delete();
+    }
+
+    private @Nonnull File getStateFile() throws InternalException {
+        ProviderContext ctx = provider.getContext();
+        Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+        String dir = ( props == null ? null : props.getProperty(CP_UPLOAD_STATE_DIR) );
+
+        if( dir == null || dir.trim().length() < 1 ) {
+            dir = System.getProperty("java.io.tmpdir");
+        }
+        String key = ( ctx == null ? "" : ctx.getAccountNumber() + "/" + ctx.getRegionId() ) + "/" + bucket + "/" + object + "\n" + file.getAbsolutePath();
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+
+            return new File(dir.trim(), "s3-upload-" + Hex.encodeHexString(digest.digest(key.getBytes("UTF-8"))) + ".properties");
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    private void saveState( @Nonnull UploadState state, @Nonnull File stateFile ) throws InternalException {
+        try {
+            state.save(stateFile);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Starts a multipart upload.
+     * @param provider the provider to upload through
+     * @param bucket the target bucket
+     * @param object the target key
+     * @param headers headers for the new object, such as a canned ACL, or null
+     * @param contentType the content type of the new object
+     * @return the ID of the new upload
+     * @throws CloudException the upload could not be started
+     * @throws InternalException the request could not be made
+     */
+    static @Nonnull String initiate( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nullable Map<String,String> headers, @Nullable String contentType ) throws CloudException, InternalException {
+        Map<String,String> parameters = new HashMap<String,String>();
+
+        parameters.put("uploads", null);
+        Map<String,String> initHeaders = new HashMap<String,String>();
+
+        if( headers != null ) {
+            initHeaders.putAll(headers);
+        }
+        S3Method method = new S3Method(provider, S3Action.INITIATE_MULTIPART, parameters, initHeaders, contentType, ( String ) null);
+        S3Response response = method.invoke(bucket, object);
+        String uploadId = ( response == null || response.document == null ? null : getText(response.document.getDocumentElement(), "UploadId") );
+
+        if( uploadId == null ) {
+            throw new CloudException("No upload ID was returned for " + bucket + "/" + object);
+        }
+        return uploadId;
+    }
+
+    /**
+     * @param uploadId the upload to inspect
+     * @return the ETags of the parts S3 holds for the upload, or null if the upload no longer exists
+     */
+    private @Nullable Map<Integer,String> listParts( @Nonnull String uploadId ) throws CloudException, InternalException {
+        Map<Integer,String> parts = new TreeMap<Integer,String>();
+        String marker = null;
+
+        while( true ) {
+            Map<String,String> parameters = new HashMap<String,String>();
+
+            parameters.put("uploadId", uploadId);
+            if( marker != null ) {
+                parameters.put("part-number-marker", marker);
+            }
+            S3Response response;
+
+            try {
+                response = new S3Method(provider, S3Action.LIST_PARTS, parameters, null).invoke(bucket, object);
+            }
+            catch( S3Exception e ) {
+                if( e.getStatus() == HttpServletResponse.SC_NOT_FOUND ) {
+                    return null;
+                }
+                throw e;
+            }
+            if( response == null || response.document == null ) {
+                return parts;
+            }
+            Node root = response.document.getDocumentElement();
+            NodeList children = root.getChildNodes();
+
+            for( int i=0; i<children.getLength(); i++ ) {
+                Node child = children.item(i);
+
+                if( child.getNodeName().equals("Part") ) {
+                    String number = getText(child, "PartNumber");
+                    String etag = getText(child, "ETag");
+
+                    if( number != null && etag != null ) {
+                        parts.put(Integer.parseInt(number), etag);
+                    }
+                }
+            }
+            marker = getText(root, "NextPartNumberMarker");
+            if( !"true".equalsIgnoreCase(getText(root, "IsTruncated")) || marker == null ) {
+                return parts;
+            }
+        }
+    }
+
+    private void uploadParts( @Nonnull final UploadState state, @Nonnull final File stateFile ) throws CloudException, InternalException {
+        int count = getPartCount(state.length, state.partSize);
+        List<Integer> pending = getPendingParts(count, state.getParts());
+
+        if( pending.isEmpty() ) {
+            return;
+        }
+        PartWorkers<Integer> workers = new PartWorkers<Integer>() {
+            @Override
+            protected void transfer( @Nonnull Integer partNumber ) throws Exception {
+                state.putPart(partNumber, uploadPart(state, partNumber));
+                state.save(stateFile);
+            }
+        };
+
+        workers.start(provider.getTransferExecutor(), pending.iterator(), Math.min(pending.size(), ( int ) getLongProperty(provider.getContext(), CP_UPLOAD_PARALLELISM, DEFAULT_PARALLELISM)));
+        try {
+            workers.await();
+        }
+        catch( CloudException e ) {
+            logger.warn("Upload " + state.uploadId + " of " + file + " stopped with " + state.getParts().size() + " of " + count + " parts sent; it will resume from there");
+            throw e;
+        }
+        catch( InternalException e ) {
+            logger.warn("Upload " + state.uploadId + " of " + file + " stopped with " + state.getParts().size() + " of " + count + " parts sent; it will resume from there");
+            throw e;
+        }
+    }
+
+    /**
+     * @param length the length of the file in bytes
+     * @param partSize the part size of the upload
+     * @return the number of parts the file is sent in
+     */
+    static int getPartCount( long length, long partSize ) {
+        return ( int ) Math.max(1L, ( length + partSize - 1 ) / partSize);
+    }
+
+    /**
+     * @param count the number of parts in the upload
+     * @param done the ETags of the parts already uploaded, by part number
+     * @return the numbers of the parts still to be sent, in order
+     */
+    static @Nonnull List<Integer> getPendingParts( int count, @Nonnull Map<Integer,String> done ) {
+        List<Integer> pending = new ArrayList<Integer>();
+
+        for( int n=1; n<=count; n++ ) {
+            if( !done.containsKey(n) ) {
+                pending.add(n);
+            }
+        }
+        return pending;
+    }
+
+    private @Nonnull String uploadPart( @Nonnull UploadState state, int partNumber ) throws CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance(S3Method.SERVICE_ID);
+        long offset = ( partNumber - 1 ) * state.partSize;
+        long length = Math.min(state.partSize, state.length - offset);
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            Map<String,String> parameters = new HashMap<String,String>();
+
+            parameters.put("partNumber", String.valueOf(partNumber));
+            parameters.put("uploadId", state.uploadId);
+            try {
+                S3Response response = new S3Method(provider, S3Action.UPLOAD_PART, parameters, null, null, file, offset, length).invoke(bucket, object);
+                String etag = getHeader(response, "ETag");
+
+                if( etag == null ) {
+                    throw new CloudException("No ETag was returned for part " + partNumber + " of " + bucket + "/" + object);
+                }
+                return etag;
+            }
+            catch( CloudException e ) {
+                // the request itself retries throttling and server errors; this covers timeouts and bad digests too
+                if( attempt >= PART_ATTEMPTS || !( policy.isRetryable(e) || "RequestTimeout".equals(e.getProviderCode()) || "BadDigest".equals(e.getProviderCode()) ) ) {
+                    throw e;
+                }
+                logger.warn("Retrying part " + partNumber + " of " + bucket + "/" + object + ": " + e.getMessage());
+            }
+            catch( InternalException e ) {
+                // connection failures surface here
+                if( attempt >= PART_ATTEMPTS ) {
+                    throw e;
+                }
+                logger.warn("Retrying part " + partNumber + " of " + bucket + "/" + object + ": " + e.getMessage());
+            }
+            if( !policy.backoff(attempt) ) {
+                throw new InternalException("Interrupted while retrying part " + partNumber + " of " + bucket + "/" + object);
+            }
+        }
+    }
+
+    /**
+     * Assembles the object from its parts, retrying if S3 reports a transient failure.
+     * @param provider the provider to upload through
+     * @param bucket the target bucket
+     * @param object the target key
+     * @param uploadId the upload to complete
+     * @param parts the ETags of all parts, by part number
+     * @throws CloudException the object could not be assembled
+     * @throws InternalException the request could not be made
+     */
+    static void complete( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull String uploadId, @Nonnull Map<Integer,String> parts ) throws CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance(S3Method.SERVICE_ID);
+        StringBuilder xml = new StringBuilder();
+
+        xml.append("<CompleteMultipartUpload>");
+        for( Map.Entry<Integer,String> part : new TreeMap<Integer,String>(parts).entrySet() ) {
+            xml.append("<Part><PartNumber>");
+            xml.append(part.getKey());
+            xml.append("</PartNumber><ETag>");
+            xml.append(AWSCloud.escapeXml(part.getValue()));
+            xml.append("</ETag></Part>");
+        }
+        xml.append("</CompleteMultipartUpload>");
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            Map<String,String> parameters = new HashMap<String,String>();
+
+            parameters.put("uploadId", uploadId);
+            S3Response response = new S3Method(provider, S3Action.COMPLETE_MULTIPART, parameters, null, "application/xml", xml.toString()).invoke(bucket, object);
+            S3Exception e = getEmbeddedError(response);
+
+            if( e == null ) {
+                return;
+            }
+            if( !policy.shouldRetry(attempt, e) ) {
+                throw e;
+            }
+            if( !policy.backoff(attempt) ) {
+                throw new InternalException("Interrupted while completing upload of " + bucket + "/" + object);
+            }
+        }
+    }
+
+    /**
+     * S3 may report the failure of a long-running request, such as completing an upload or copying an object, inside
+     * a 200 response once it has started sending it.
+     * @param response the response to check
+     * @return the error the response holds, or null if it succeeded
+     */
+    static @Nullable S3Exception getEmbeddedError( @Nullable S3Response response ) {
+        Document doc = ( response == null ? null : response.document );
+
+        if( doc == null || !doc.getDocumentElement().getNodeName().equals("Error") ) {
+            return null;
+        }
+        Node error = doc.getDocumentElement();
+
+        return new S3Exception(HttpServletResponse.SC_OK, getText(error, "RequestId"), getText(error, "Code"), getText(error, "Message"));
+    }
+
+    static void abortQuietly( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull String uploadId ) {
+        Map<String,String> parameters = new HashMap<String,String>();
+
+        parameters.put("uploadId", uploadId);
+        try {
+            new S3Method(provider, S3Action.ABORT_MULTIPART, parameters, null).invoke(bucket, object);
+        }
+        catch( Exception e ) {
+            logger.warn("Unable to abort upload " + uploadId + " of " + bucket + "/" + object + ": " + e.getMessage());
+        }
+    }
+
+    static @Nullable String getHeader( @Nullable S3Response response, @Nonnull String name ) {
+        if( response == null ) {
+            return null;
+        }
+        if( response.input != null ) {
+            response.close();
+        }
+        if( response.headers != null ) {
+            for( Header header : response.headers ) {
+                if( header.getName().equalsIgnoreCase(name) ) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    static @Nullable String getText( @Nonnull Node parent, @Nonnull String name ) {
+        NodeList children = parent.getChildNodes();
+
+        for( int i=0; i<children.getLength(); i++ ) {
+            Node child = children.item(i);
+
+            if( child.getNodeName().equals(name) && child.hasChildNodes() ) {
+                String value = child.getFirstChild().getNodeValue().trim();
+
+                return ( value.length() < 1 ? null : value );
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copies an S3 object within S3, without its content passing through this host. Objects up to the multipart copy
+ * threshold take a single {@code x-amz-copy-source} PUT. Larger objects, including those over the 5 GB limit of a
+ * single copy, are copied as a multipart upload whose parts are {@code UploadPartCopy} requests sent in parallel on
+ * the {@link AWSCloud#getTransferExecutor() transfer executor}. Every request names the source ETag in
+ * {@code x-amz-copy-source-if-match}, so a source replaced mid-copy fails the copy.
+ */
+class S3ObjectCopy {
+    static private final Logger logger = AWSCloud.getLogger(S3ObjectCopy.class);
+
+    /**
+     * Custom property for the object size in bytes above which copies are made in parts.
+     */
+    static public final String CP_MULTIPART_COPY_THRESHOLD = "s3MultipartCopyThreshold";
+    /**
+     * Custom property for the size in bytes of each part of a multipart copy.
+     */
+    static public final String CP_COPY_PART_SIZE           = "s3CopyPartSize";
+    /**
+     * Custom property for the number of parts, or of objects when copying a whole bucket, copied at once.
+     */
+    static public final String CP_COPY_PARALLELISM         = "s3CopyParallelism";
+
+    static public final long MAX_COPY_SIZE = 5L * 1024L * 1024L * 1024L;
+
+    static private final long DEFAULT_PART_SIZE   = 512L * 1024L * 1024L;
+    static private final int  DEFAULT_PARALLELISM = 8;
+    static private final int  COPY_ATTEMPTS       = 3;
+
+    /**
+     * @param ctx the context whose setting applies
+     * @return the number of parts or objects to copy at once
+     */
+    static int getParallelism( @Nullable ProviderContext ctx ) {
+        return ( int ) S3MultipartUpload.getLongProperty(ctx, CP_COPY_PARALLELISM, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param length the value of the source's Content-Length header
+     * @param description the source, for the error message
+     * @return the size of the source in bytes
+     * @throws CloudException the length is missing or is not a valid size
+     */
+    static long getObjectSize( @Nullable String length, @Nonnull String description ) throws CloudException {
+        if( length == null || length.trim().length() < 1 ) {
+            throw new CloudException("No Content-Length was returned for " + description);
+        }
+        try {
+            long size = Long.parseLong(length.trim());
+
+            if( size >= 0L ) {
+                return size;
+            }
+        }
+        catch( NumberFormatException ignore ) {
+            // reported below
+        }
+        throw new CloudException("Invalid Content-Length for " + description + ": " + length);
+    }
+
+    /**
+     * A multipart copy starts a new object, so the metadata a single copy would carry over is set explicitly on the
+     * initiating request.
+     * @param source the headers of the source object
+     * @param headers headers for the new object, such as a canned ACL, which win over those of the source, or null
+     * @return the headers to initiate the multipart copy with, not including the content type
+     */
+    static @Nonnull Map<String,String> getInitiateHeaders( @Nonnull Header[] source, @Nullable Map<String,String> headers ) {
+        Map<String,String> initHeaders = new HashMap<String,String>();
+
+        for( Header header : source ) {
+            String name = header.getName().toLowerCase();
+
+            if( name.startsWith("x-amz-meta-") || name.equals("cache-control") || name.equals("content-disposition") || name.equals("content-encoding") ) {
+                initHeaders.put(header.getName(), header.getValue());
+            }
+        }
+        if( headers != null ) {
+            initHeaders.putAll(headers);
+        }
+        return initHeaders;
+    }
+
+    /**
+     * @param index the index of the part, counting from 0
+     * @param partSize the part size of the copy
+     * @param size the size of the source object
+     * @return the {@code x-amz-copy-source-range} value for the part; the last part ends at the end of the object
+     */
+    static @Nonnull String getSourceRange( int index, long partSize, long size ) {
+        long from = index * partSize;
+
+        return "bytes=" + from + "-" + ( Math.min(size, from + partSize) - 1L );
+    }
+
+    /**
+     * One attempt at a copy request.
+     */
+    interface CopyRequest {
+        @Nullable S3Response invoke() throws CloudException, InternalException;
+    }
+
+    /**
+     * Sends a copy request, retrying it if it fails with a retryable error. S3 may report the failure of a copy
+     * in a 200 response once it has started sending it, so such errors are retried as well.
+     * @param request the request to send
+     * @param policy the retry policy for S3
+     * @param description what is being copied, for log messages
+     * @return the response to the request
+     * @throws CloudException the request failed, or failed too many times
+     * @throws InternalException the request could not be made, or the wait to retry was interrupted
+     */
+    static @Nullable S3Response send( @Nonnull CopyRequest request, @Nonnull RetryPolicy policy, @Nonnull String description ) throws CloudException, InternalException {
+        int attempt = 0;
+
+        while( true ) {
+            attempt++;
+            try {
+                S3Response response = request.invoke();
+                S3Exception error = S3MultipartUpload.getEmbeddedError(response);
+
+                if( error != null ) {
+                    throw error;
+                }
+                return response;
+            }
+            catch( CloudException e ) {
+                // the request itself retries throttling and server errors; this covers errors reported in a 200
+                if( attempt >= COPY_ATTEMPTS || !policy.isRetryable(e) ) {
+                    throw e;
+                }
+                logger.warn("Retrying " + description + ": " + e.getMessage());
+            }
+            if( !policy.backoff(attempt) ) {
+                throw new InternalException("Interrupted while retrying " + description);
+            }
+        }
+    }
+
+    private final AWSCloud           provider;
+    private final String             sourceBucket;
+    private final String             sourceObject;
+    private final String             targetBucket;
+    private final String             targetObject;
+    private final Map<String,String> headers;
+
+    /**
+     * @param provider the provider to copy through
+     * @param sourceBucket the bucket holding the source object
+     * @param sourceObject the key of the source object
+     * @param targetBucket the bucket to copy to
+     * @param targetObject the key to copy to
+     * @param headers headers for the new object, such as a canned ACL, or null
+     */
+    S3ObjectCopy( @Nonnull AWSCloud provider, @Nonnull String sourceBucket, @Nonnull String sourceObject, @Nonnull String targetBucket, @Nonnull String targetObject, @Nullable Map<String,String> headers ) {
+        this.provider = provider;
+        this.sourceBucket = sourceBucket;
+        this.sourceObject = sourceObject;
+        this.targetBucket = targetBucket;
+        this.targetObject = targetObject;
+        this.headers = headers;
+    }
+
+    /**
+     * Copies the object, keeping its content type and user metadata.
+     * @throws CloudException the source does not exist or the copy failed
+     * @throws InternalException the requests could not be made
+     */
+    void copy() throws CloudException, InternalException {
+        S3Response head = new S3Method(provider, S3Action.OBJECT_EXISTS).invoke(sourceBucket, sourceObject);
+
+        if( head == null || head.headers == null ) {
+            throw new CloudException("Unable to read " + sourceBucket + "/" + sourceObject);
+        }
+        String etag = S3MultipartUpload.getHeader(head, "ETag");
+        String length = S3MultipartUpload.getHeader(head, "Content-Length");
+        long size = getObjectSize(length, sourceBucket + "/" + sourceObject);
+        long threshold = Math.min(MAX_COPY_SIZE, S3MultipartUpload.getLongProperty(provider.getContext(), CP_MULTIPART_COPY_THRESHOLD, MAX_COPY_SIZE));
+
+        if( size <= threshold ) {
+            copyObject(etag);
+        }
+        else {
+            copyParts(head, size, etag);
+        }
+    }
+
+    private @Nonnull Map<String,String> getCopyHeaders( @Nullable String etag ) throws InternalException {
+        Map<String,String> copyHeaders = new HashMap<String,String>();
+
+        copyHeaders.put("x-amz-copy-source", "/" + sourceBucket + "/" + AWSCloud.encode(sourceObject, true));
+        if( etag != null ) {
+            copyHeaders.put("x-amz-copy-source-if-match", etag);
+        }
+        return copyHeaders;
+    }
+
+    private void copyObject( @Nullable String etag ) throws CloudException, InternalException {
+        final Map<String,String> copyHeaders = getCopyHeaders(etag);
+
+        if( headers != null ) {
+            copyHeaders.putAll(headers);
+        }
+        send(new CopyRequest() {
+            @Override
+            public @Nullable S3Response invoke() throws CloudException, InternalException {
+                return new S3Method(provider, S3Action.COPY_OBJECT, null, new HashMap<String,String>(copyHeaders)).invoke(targetBucket, targetObject);
+            }
+        }, RetryPolicy.getInstance(S3Method.SERVICE_ID), "the copy of " + sourceBucket + "/" + sourceObject);
+    }
+
+    private void copyParts( @Nonnull S3Response head, final long size, @Nullable final String etag ) throws CloudException, InternalException {
+        Map<String,String> initHeaders = getInitiateHeaders(head.headers, headers);
+        String contentType = S3MultipartUpload.getHeader(head, "Content-Type");
+        final long partSize = S3MultipartUpload.getPartSize(size, S3MultipartUpload.getLongProperty(provider.getContext(), CP_COPY_PART_SIZE, DEFAULT_PART_SIZE));
+        final String uploadId = S3MultipartUpload.initiate(provider, targetBucket, targetObject, initHeaders, contentType);
+        final Map<Integer,String> parts = new ConcurrentHashMap<Integer,String>();
+        int count = ( int ) ( ( size + partSize - 1 ) / partSize );
+        boolean completed = false;
+
+        try {
+            PartWorkers<Integer> workers = new PartWorkers<Integer>() {
+                @Override
+                protected void transfer( @Nonnull Integer index ) throws Exception {
+                    parts.put(index + 1, copyPart(uploadId, index + 1, getSourceRange(index, partSize, size), etag));
+                }
+            };
+
+            workers.start(provider.getTransferExecutor(), PartWorkers.range(0, count), Math.min(count, getParallelism(provider.getContext())));
+            workers.await();
+            S3MultipartUpload.complete(provider, targetBucket, targetObject, uploadId, parts);
+            completed = true;
+        }
+        finally {
+            if( !completed ) {
+                // nothing is saved to resume a copy from, so its parts would only be billed
+                S3MultipartUpload.abortQuietly(provider, targetBucket, targetObject, uploadId);
+            }
+        }
+    }
+
+    private @Nonnull String copyPart( @Nonnull String uploadId, int partNumber, @Nonnull String range, @Nullable String etag ) throws CloudException, InternalException {
+        final Map<String,String> parameters = new HashMap<String,String>();
+        final Map<String,String> copyHeaders = getCopyHeaders(etag);
+
+        parameters.put("partNumber", String.valueOf(partNumber));
+        parameters.put("uploadId", uploadId);
+        copyHeaders.put("x-amz-copy-source-range", range);
+        S3Response response = send(new CopyRequest() {
+            @Override
+            public @Nullable S3Response invoke() throws CloudException, InternalException {
+                return new S3Method(provider, S3Action.UPLOAD_PART, new HashMap<String,String>(parameters), new HashMap<String,String>(copyHeaders)).invoke(targetBucket, targetObject);
+            }
+        }, RetryPolicy.getInstance(S3Method.SERVICE_ID), "part " + partNumber + " of the copy of " + sourceBucket + "/" + sourceObject);
+        String partETag = ( response == null || response.document == null ? null : S3MultipartUpload.getText(response.document.getDocumentElement(), "ETag") );
+
+        if( partETag == null ) {
+            throw new CloudException("No ETag was returned for part " + partNumber + " of the copy of " + sourceBucket + "/" + sourceObject);
+        }
+        return partETag;
+    }
+}
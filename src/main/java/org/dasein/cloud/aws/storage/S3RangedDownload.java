@@ -0,0 +1,456 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.aws.AWSCloud;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads an S3 object as byte ranges fetched concurrently on the {@link AWSCloud#getTransferExecutor() transfer
+ * executor}. The first range is requested at once and its response gives the size and ETag of the object; the file
+ * is then preallocated and the remaining ranges are fetched while the first is still streaming, each written at its
+ * own offset with positional {@link FileChannel} writes. Every range is sent with {@code If-Match} on that ETag so
+ * an object replaced mid-download fails rather than producing a mix of two versions. Objects no larger than one
+ * range take a single request, as before.
+ */
+class S3RangedDownload {
+    static private final Logger logger = AWSCloud.getLogger(S3RangedDownload.class);
+
+    /**
+     * Custom property for the size in bytes of each range of a download.
+     */
+    static public final String CP_RANGE_SIZE            = "s3RangeSize";
+    /**
+     * Custom property for the number of ranges of a single download that are fetched at once.
+     */
+    static public final String CP_DOWNLOAD_PARALLELISM  = "s3DownloadParallelism";
+    /**
+     * Custom property that turns off checking downloads against the object's ETag when set to {@code false}.
+     */
+    static public final String CP_VERIFY_DOWNLOADS      = "s3VerifyDownloads";
+
+    static private final long DEFAULT_RANGE_SIZE          = 32L * 1024L * 1024L;
+    static private final int  DEFAULT_PARALLELISM         = 8;
+    static private final int  RANGE_ATTEMPTS              = 3;
+    static private final int  BUFFER_SIZE                 = 64 * 1024;
+    static private final long MEGABYTE                    = 1024L * 1024L;
+    static private final int  SC_REQUESTED_RANGE_INVALID  = 416;
+
+    /**
+     * Computes the ETag S3 gives an object with the given content when it is uploaded whole or in parts of the
+     * given size.
+     * @param channel the content
+     * @param length the number of bytes of content
+     * @param partSize the part size of a multipart upload, or 0 for a single upload
+     * @return the ETag, without quotes
+     * @throws IOException the content could not be read
+     */
+    static @Nonnull String computeETag( @Nonnull FileChannel channel, long length, long partSize ) throws IOException {
+        MessageDigest part, whole;
+
+        try {
+            part = MessageDigest.getInstance("MD5");
+            whole = MessageDigest.getInstance("MD5");
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IOException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long limit = ( partSize > 0L ? partSize : length );
+        long position = 0L, inPart = 0L;
+        int parts = 0;
+
+        while( position < length ) {
+            buffer.clear();
+            buffer.limit(( int ) Math.min(buffer.capacity(), Math.min(length - position, limit - inPart)));
+            int read = channel.read(buffer, position);
+
+            if( read < 0 ) {
+                throw new IOException("Content ended at " + position + " of " + length + " bytes");
+            }
+            part.update(buffer.array(), 0, read);
+            position += read;
+            inPart += read;
+            if( inPart == limit && partSize > 0L ) {
+                whole.update(part.digest());
+                inPart = 0L;
+                parts++;
+            }
+        }
+        if( partSize < 1L ) {
+            return Hex.encodeHexString(part.digest());
+        }
+        if( inPart > 0L ) {
+            whole.update(part.digest());
+            parts++;
+        }
+        return Hex.encodeHexString(whole.digest()) + "-" + parts;
+    }
+
+    private final String       bucket;
+    private final String       object;
+    private final AWSCloud     provider;
+    private final File         toFile;
+    private final FileTransfer transfer;
+    private final AtomicLong   transferred = new AtomicLong(0L);
+
+    /**
+     * @param provider the provider to download through
+     * @param bucket the bucket holding the object
+     * @param object the key of the object
+     * @param toFile the file to write, which is replaced
+     * @param transfer the transfer to report progress to, or null
+     */
+    S3RangedDownload( @Nonnull AWSCloud provider, @Nonnull String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer ) {
+        this.provider = provider;
+        this.bucket = bucket;
+        this.object = object;
+        this.toFile = toFile;
+        this.transfer = transfer;
+    }
+
+    /**
+     * Downloads the object into the file and checks it against the object's ETag.
+     * @throws CloudException the object could not be fetched or failed verification
+     * @throws InternalException the file could not be written
+     */
+    void download() throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+        long rangeSize = Math.max(MEGABYTE, S3MultipartUpload.getLongProperty(ctx, CP_RANGE_SIZE, DEFAULT_RANGE_SIZE));
+        RandomAccessFile raf;
+
+        try {
+            raf = new RandomAccessFile(toFile, "rw");
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        try {
+            FileChannel channel = raf.getChannel();
+            S3Response first = fetch(0L, rangeSize - 1L, null);
+            long length;
+            String etag;
+
+            try {
+                etag = getHeader(first, "ETag");
+                length = getObjectLength(first);
+                raf.setLength(length);
+                if( transfer != null ) {
+                    transfer.setBytesToTransfer(length);
+                    transfer.setBytesTransferred(0L);
+                }
+                PartWorkers<Integer> workers = null;
+                long firstEnd = Math.min(length, rangeSize);
+
+                if( length > rangeSize ) {
+                    workers = fetchRemaining(channel, length, rangeSize, etag);
+                }
+                boolean streamed = false;
+
+                try {
+                    // the first range resumes from wherever its stream fails, with the same attempts as the others
+                    fetchRange(channel, 0L, firstEnd, etag, first);
+                    streamed = true;
+                }
+                finally {
+                    if( !streamed && workers != null ) {
+                        // stop the other ranges before the file is closed under them
+                        workers.cancel();
+                    }
+                }
+                if( workers != null ) {
+                    workers.await();
+                }
+            }
+            finally {
+                first.close();
+            }
+            verify(channel, length, etag, first.headers);
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            try { raf.close(); }
+            catch( IOException ignore ) { }
+        }
+    }
+
+    private @Nonnull PartWorkers<Integer> fetchRemaining( @Nonnull final FileChannel channel, final long length, final long rangeSize, @Nullable final String etag ) {
+        int ranges = ( int ) ( ( length + rangeSize - 1 ) / rangeSize );
+        PartWorkers<Integer> workers = new PartWorkers<Integer>() {
+            @Override
+            protected void transfer( @Nonnull Integer index ) throws Exception {
+                long from = index * rangeSize;
+
+                fetchRange(channel, from, Math.min(length, from + rangeSize), etag, null);
+            }
+        };
+
+        // range 0 is streamed by the calling thread
+        workers.start(provider.getTransferExecutor(), PartWorkers.range(1, ranges), Math.min(ranges - 1, ( int ) S3MultipartUpload.getLongProperty(provider.getContext(), CP_DOWNLOAD_PARALLELISM, DEFAULT_PARALLELISM)));
+        return workers;
+    }
+
+    /**
+     * Fetches the bytes from {@code from} up to {@code to} into the file, picking up where a failed attempt stopped.
+     * @param started a response already fetched for this range, which counts as the first attempt, or null
+     */
+    private void fetchRange( @Nonnull FileChannel channel, long from, long to, @Nullable String etag, @Nullable S3Response started ) throws CloudException, InternalException {
+        RetryPolicy policy = RetryPolicy.getInstance(S3Method.SERVICE_ID);
+        int attempt = 0;
+
+        while( from < to ) {
+            attempt++;
+            try {
+                S3Response response = ( started == null ? fetch(from, to - 1L, etag) : started );
+
+                started = null;
+                try {
+                    from += write(response, channel, from, to);
+                }
+                finally {
+                    response.close();
+                }
+                if( from >= to ) {
+                    return;
+                }
+                logger.warn("Range of " + bucket + "/" + object + " ended early at " + from);
+            }
+            catch( CloudException e ) {
+                // the request itself retries throttling and server errors
+                if( attempt >= RANGE_ATTEMPTS || !policy.isRetryable(e) ) {
+                    throw e;
+                }
+                logger.warn("Retrying range of " + bucket + "/" + object + " from " + from + ": " + e.getMessage());
+            }
+            catch( IOException e ) {
+                if( attempt >= RANGE_ATTEMPTS ) {
+                    throw new InternalException(e);
+                }
+                logger.warn("Retrying range of " + bucket + "/" + object + " from " + from + ": " + e.getMessage());
+            }
+            if( attempt >= RANGE_ATTEMPTS ) {
+                throw new CloudException("Unable to fetch " + bucket + "/" + object + " beyond byte " + from);
+            }
+            if( !policy.backoff(attempt) ) {
+                throw new InternalException("Interrupted while fetching " + bucket + "/" + object);
+            }
+        }
+    }
+
+    private @Nonnull S3Response fetch( long from, long to, @Nullable String etag ) throws CloudException, InternalException {
+        Map<String,String> headers = new HashMap<String,String>();
+
+        headers.put("Range", "bytes=" + from + "-" + to);
+        if( etag != null ) {
+            headers.put("If-Match", etag);
+        }
+        S3Response response;
+
+        try {
+            response = new S3Method(provider, S3Action.GET_OBJECT, null, headers).invoke(bucket, object);
+        }
+        catch( S3Exception e ) {
+            if( e.getStatus() != SC_REQUESTED_RANGE_INVALID || from > 0L ) {
+                throw e;
+            }
+            // an empty object has no byte 0 to ask for
+            response = new S3Method(provider, S3Action.GET_OBJECT).invoke(bucket, object);
+        }
+        if( response == null ) {
+            throw new CloudException("No content was returned for " + bucket + "/" + object);
+        }
+        return response;
+    }
+
+    /**
+     * Copies a response into the file starting at {@code position}, stopping at {@code end}. A failure reading the
+     * response ends the copy early, so the caller can resume from the bytes already written.
+     * @return the number of bytes written, which is short if the response ended early
+     * @throws IOException the file could not be written
+     */
+    long write( @Nonnull S3Response response, @Nonnull FileChannel channel, long position, long end ) throws IOException {
+        InputStream input = response.input;
+        long start = position;
+
+        if( input == null ) {
+            return 0L;
+        }
+        byte[] bytes = new byte[BUFFER_SIZE];
+
+        while( position < end ) {
+            int count;
+
+            try {
+                count = input.read(bytes, 0, ( int ) Math.min(bytes.length, end - position));
+            }
+            catch( IOException e ) {
+                logger.warn("Reading " + bucket + "/" + object + " failed at byte " + position + ": " + e.getMessage());
+                break;
+            }
+            if( count < 0 ) {
+                break;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+
+            while( buffer.hasRemaining() ) {
+                position += channel.write(buffer, position);
+            }
+            progress(count);
+        }
+        return position - start;
+    }
+
+    private void progress( int count ) {
+        if( transfer != null ) {
+            // totals from several threads are applied in order so progress never moves backwards
+            synchronized( transfer ) {
+                transfer.setBytesTransferred(transferred.addAndGet(count));
+            }
+        }
+    }
+
+    private long getObjectLength( @Nonnull S3Response response ) throws CloudException {
+        String range = getHeader(response, "Content-Range");
+
+        if( range != null ) {
+            int idx = range.lastIndexOf('/');
+
+            if( idx != -1 && !range.endsWith("*") ) {
+                return Long.parseLong(range.substring(idx + 1).trim());
+            }
+        }
+        // a 200 response carries the whole object
+        if( response.input == null ) {
+            return 0L;
+        }
+        if( response.contentLength < 0L ) {
+            throw new CloudException("S3 did not give the size of " + bucket + "/" + object);
+        }
+        return response.contentLength;
+    }
+
+    /**
+     * Checks the file against the object's ETag. A plain ETag is the MD5 of the content. A multipart ETag depends on
+     * the part size of the upload, which is not recorded, so the part sizes our own uploads and the common tools use
+     * are tried; if none fits, the file is accepted unverified.
+     */
+    private void verify( @Nonnull FileChannel channel, long length, @Nullable String etag, @Nullable Header[] headers ) throws CloudException, InternalException, IOException {
+        ProviderContext ctx = provider.getContext();
+        Properties props = ( ctx == null ? null : ctx.getCustomProperties() );
+        String setting = ( props == null ? null : props.getProperty(CP_VERIFY_DOWNLOADS) );
+
+        if( etag == null || "false".equalsIgnoreCase(setting) ) {
+            return;
+        }
+        if( headers != null ) {
+            for( Header header : headers ) {
+                String name = header.getName();
+
+                // objects encrypted with KMS or customer keys do not have MD5 ETags
+                if( ( name.equalsIgnoreCase("x-amz-server-side-encryption") && !"AES256".equalsIgnoreCase(header.getValue()) ) || name.equalsIgnoreCase("x-amz-server-side-encryption-customer-algorithm") ) {
+                    return;
+                }
+            }
+        }
+        String expected = etag.replace("\"", "").trim().toLowerCase();
+        int idx = expected.indexOf('-');
+
+        if( idx == -1 ) {
+            String actual = computeETag(channel, length, 0L);
+
+            if( !actual.equals(expected) ) {
+                throw new CloudException("Download of " + bucket + "/" + object + " has MD5 " + actual + " but its ETag is " + expected);
+            }
+            return;
+        }
+        int parts;
+
+        try {
+            parts = Integer.parseInt(expected.substring(idx + 1));
+        }
+        catch( NumberFormatException e ) {
+            logger.warn("Unable to verify " + bucket + "/" + object + " against ETag " + expected);
+            return;
+        }
+        Set<Long> candidates = new LinkedHashSet<Long>();
+
+        try {
+            candidates.add(S3MultipartUpload.getPartSize(ctx, length));
+        }
+        catch( InternalException ignore ) {
+            // too large for our own uploads, so not one of them
+        }
+        candidates.add(8L * MEGABYTE);
+        candidates.add(16L * MEGABYTE);
+        candidates.add(( ( length + parts - 1 ) / parts + MEGABYTE - 1 ) / MEGABYTE * MEGABYTE);
+        for( long partSize : candidates ) {
+            if( partSize > 0L && ( length + partSize - 1 ) / partSize == parts ) {
+                String actual = computeETag(channel, length, partSize);
+
+                if( actual.equals(expected) ) {
+                    return;
+                }
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Download of " + bucket + "/" + object + " does not match " + expected + " with " + partSize + " byte parts");
+                }
+            }
+        }
+        logger.warn("Unable to verify " + bucket + "/" + object + " against multipart ETag " + expected + "; its part size is unknown");
+    }
+
+    static private @Nullable String getHeader( @Nonnull S3Response response, @Nonnull String name ) {
+        if( response.headers != null ) {
+            for( Header header : response.headers ) {
+                if( header.getName().equalsIgnoreCase(name) ) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+}
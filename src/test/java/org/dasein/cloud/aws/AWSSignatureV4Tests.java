@@ -25,6 +25,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -416,6 +417,19 @@ for f in sorted(basenames):
         assertEquals("AWS4-HMAC-SHA256 Credential=AKIDEXAMPLE/20110909/us-east-1/host/aws4_request, SignedHeaders=content-type;date;host, Signature=b105eb10c6d318d2294de9d49dd8b031b55e3c3fe139f2e637da70511e9e7b71", authz);
     }
 
+    @Test
+    public void testV4PathNormalizationMatchesUri() throws Exception {
+        String[] paths = { "", "/", "//", "/./", "/foo/..", "/foo/bar/../..", "//foo//", "/a/./b", "/a/b/.", "/a/b/..", "/../a", "/a/b/../../..", "/.a/..b/" };
 
+        for( String path : paths ) {
+            assertEquals(path, new URI("https://host.foo.com" + path).normalize().getRawPath(), AWSCloud.normalizeV4Path(path));
+        }
+    }
 
+    @Test
+    public void testV4PathDecoding() throws Exception {
+        assertEquals("/ /foo", AWSCloud.decodeV4Path("/%20/foo"));
+        assertEquals("/caf\u00e9/a/b", AWSCloud.decodeV4Path("/caf%C3%A9/a%2Fb"));
+        assertEquals("/100%", AWSCloud.decodeV4Path("/100%"));
+    }
 }
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LookupBatcherTest {
+
+    @Test
+    public void testConcurrentLookupsShareOneCall() throws Exception {
+        final LookupBatcher<String> batcher = new LookupBatcher<String>(500L, 4);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final LookupBatcher.Lookup<String> lookup = new LookupBatcher.Lookup<String>() {
+            public Map<String, String> lookup( Collection<String> ids ) {
+                Map<String, String> results = new HashMap<String, String>();
+
+                calls.incrementAndGet();
+                for( String id : ids ) {
+                    results.put(id, "value-" + id);
+                }
+                return results;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            for( int i = 0; i < 4; i++ ) {
+                final String id = "i-" + i;
+
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return batcher.get(id, lookup);
+                    }
+                }));
+            }
+            for( int i = 0; i < 4; i++ ) {
+                assertEquals("value-i-" + i, results.get(i).get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsSplit() throws Exception {
+        final LookupBatcher<String> batcher = new LookupBatcher<String>(500L, 2);
+        final LookupBatcher.Lookup<String> lookup = new LookupBatcher.Lookup<String>() {
+            public Map<String, String> lookup( Collection<String> ids ) throws CloudException {
+                Map<String, String> results = new HashMap<String, String>();
+
+                for( String id : ids ) {
+                    if( id.equals("missing") ) {
+                        if( ids.size() > 1 ) {
+                            throw new CloudException(CloudErrorType.GENERAL, 400, "InvalidInstanceID.NotFound", "Not found");
+                        }
+                    }
+                    else {
+                        results.put(id, "value-" + id);
+                    }
+                }
+                return results;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            Future<String> missing = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return batcher.get("missing", lookup);
+                }
+            });
+            Future<String> found = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return batcher.get("found", lookup);
+                }
+            });
+
+            assertNull(missing.get(5, TimeUnit.SECONDS));
+            assertEquals("value-found", found.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testOtherFailuresAreNotSplit() throws Exception {
+        final LookupBatcher<String> batcher = new LookupBatcher<String>(500L, 2);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CloudException denied = new CloudException(CloudErrorType.AUTHENTICATION, 403, "UnauthorizedOperation", "Denied");
+        final LookupBatcher.Lookup<String> lookup = new LookupBatcher.Lookup<String>() {
+            public Map<String, String> lookup( Collection<String> ids ) throws CloudException {
+                calls.incrementAndGet();
+                throw denied;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            for( final String id : new String[] { "a", "b" } ) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return batcher.get(id, lookup);
+                    }
+                }));
+            }
+            for( Future<String> result : results ) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail("The batch failure should reach every caller");
+                }
+                catch( ExecutionException e ) {
+                    assertSame(denied, e.getCause());
+                }
+            }
+            assertEquals(1, calls.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUnknownIdCodes() {
+        assertTrue(LookupBatcher.isUnknownId(new CloudException(CloudErrorType.GENERAL, 400, "InvalidVolume.NotFound", "x")));
+        assertTrue(LookupBatcher.isUnknownId(new CloudException(CloudErrorType.GENERAL, 400, "InvalidInstanceID.Malformed", "x")));
+        assertFalse(LookupBatcher.isUnknownId(new CloudException(CloudErrorType.THROTTLING, 400, "RequestLimitExceeded", "x")));
+        assertFalse(LookupBatcher.isUnknownId(new CloudException("No code")));
+    }
+
+    @Test
+    public void testLoneLookupIsSentAfterWindow() throws CloudException, InternalException {
+        LookupBatcher<String> batcher = new LookupBatcher<String>(10L, 100);
+        final Map<String, String> results = new HashMap<String, String>();
+
+        results.put("a", "b");
+        assertEquals("b", batcher.get("a", new LookupBatcher.Lookup<String>() {
+            public Map<String, String> lookup( Collection<String> ids ) {
+                return results;
+            }
+        }));
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the window that keeps paginating populators one page ahead of their consumers.
+ *
+ * @see org.dasein.cloud.aws.PrefetchWindow
+ */
+public class PrefetchWindowTest {
+    @Test
+    public void firstTwoPagesDoNotWait() {
+        PrefetchWindow window = new PrefetchWindow(60000L);
+        long start = System.currentTimeMillis();
+
+        window.awaitPage(0);
+        window.awaitPage(10);
+        assertTrue(System.currentTimeMillis() - start < 1000L);
+    }
+
+    @Test
+    public void thirdPageWaitsForFirstToBeConsumed() throws Exception {
+        final PrefetchWindow window = new PrefetchWindow(60000L);
+        final CountDownLatch fetched = new CountDownLatch(1);
+        List<String> results = new ArrayList<String>();
+
+        for( int i = 0; i < 4; i++ ) {
+            results.add("item-" + i);
+        }
+        window.awaitPage(0);
+        window.awaitPage(2);
+        Thread populator = new Thread() {
+            public void run() {
+                window.awaitPage(2);
+                fetched.countDown();
+            }
+        };
+
+        populator.start();
+        Iterator<String> it = window.track(results).iterator();
+
+        it.next();
+        assertFalse(fetched.await(200, TimeUnit.MILLISECONDS));
+        it.next();
+        assertTrue(fetched.await(5, TimeUnit.SECONDS));
+        assertEquals(2, window.getConsumed());
+    }
+
+    @Test
+    public void stalledConsumerDoesNotBlockForever() {
+        PrefetchWindow window = new PrefetchWindow(100L);
+
+        window.awaitPage(0);
+        window.awaitPage(5);
+        window.awaitPage(5);
+        assertEquals(0, window.getConsumed());
+    }
+}
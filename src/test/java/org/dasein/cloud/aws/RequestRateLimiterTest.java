@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestRateLimiterTest {
+
+    @Test
+    public void testActionClasses() {
+        assertEquals(RequestRateLimiter.ACTION_CLASS_READ, RequestRateLimiter.getActionClass("DescribeInstances"));
+        assertEquals(RequestRateLimiter.ACTION_CLASS_READ, RequestRateLimiter.getActionClass("ListUsers"));
+        assertEquals(RequestRateLimiter.ACTION_CLASS_WRITE, RequestRateLimiter.getActionClass("RunInstances"));
+        assertEquals(RequestRateLimiter.ACTION_CLASS_WRITE, RequestRateLimiter.getActionClass(null));
+    }
+
+    @Test
+    public void testThrottlingCodes() {
+        assertTrue(RequestRateLimiter.isThrottling("RequestLimitExceeded"));
+        assertTrue(RequestRateLimiter.isThrottling("SlowDown"));
+        assertFalse(RequestRateLimiter.isThrottling("InternalError"));
+        assertFalse(RequestRateLimiter.isThrottling(null));
+    }
+
+    @Test
+    public void testThrottleHalvesRateAndSuccessRecovers() {
+        RequestRateLimiter.Bucket bucket = new RequestRateLimiter.Bucket("test", 10.0, 5);
+
+        bucket.onThrottle();
+        assertEquals(5.0, bucket.getRate(), 0.0001);
+        // a second throttle from the same burst is ignored
+        bucket.onThrottle();
+        assertEquals(5.0, bucket.getRate(), 0.0001);
+        for( int i = 0; i < 1000; i++ ) {
+            bucket.onSuccess();
+        }
+        assertEquals(10.0, bucket.getRate(), 0.0001);
+    }
+
+    @Test
+    public void testBurstIsServedImmediately() {
+        RequestRateLimiter.Bucket bucket = new RequestRateLimiter.Bucket("test", 1.0, 3);
+        long start = System.currentTimeMillis();
+
+        for( int i = 0; i < 3; i++ ) {
+            assertTrue(bucket.acquire());
+        }
+        assertTrue("Burst should not wait", System.currentTimeMillis() - start < 500L);
+        assertEquals(0, bucket.getQueueDepth());
+    }
+}
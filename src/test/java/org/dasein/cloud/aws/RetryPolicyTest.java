@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testThrottlingIsRetryable() {
+        RetryPolicy policy = RetryPolicy.getInstance("ec2");
+
+        assertTrue("RequestLimitExceeded should be retried", policy.isRetryable(400, "RequestLimitExceeded"));
+        assertTrue("Throttling should be retried", policy.isRetryable(400, "Throttling"));
+        assertFalse("Client errors should not be retried", policy.isRetryable(400, "InvalidInstanceID.NotFound"));
+    }
+
+    @Test
+    public void testServerErrorsAreRetryable() {
+        RetryPolicy policy = RetryPolicy.getInstance("ec2");
+
+        assertTrue(policy.isRetryable(500, null));
+        assertTrue(policy.isRetryable(503, null));
+        assertFalse(policy.isRetryable(403, null));
+    }
+
+    @Test
+    public void testServiceSpecificCodes() {
+        assertTrue("S3 SlowDown should be retried", RetryPolicy.getInstance("s3").isRetryable(400, "SlowDown"));
+        assertTrue("Route 53 PriorRequestNotComplete should be retried", RetryPolicy.getInstance("route53").isRetryable(400, "PriorRequestNotComplete"));
+        assertFalse("EC2 does not know about SlowDown", RetryPolicy.getInstance("ec2").isRetryable(400, "SlowDown"));
+        assertFalse("Clock skew is not fixed by waiting", RetryPolicy.getInstance("s3").isRetryable(403, "RequestTimeTooSkewed"));
+    }
+
+    @Test
+    public void testAttemptsAreCapped() {
+        RetryPolicy policy = RetryPolicy.getInstance("ec2");
+
+        assertTrue(policy.shouldRetry(1, 503, null));
+        assertFalse(policy.shouldRetry(policy.getMaxAttempts(), 503, null));
+    }
+
+    @Test
+    public void testDelayIsJitteredWithinCap() {
+        RetryPolicy policy = RetryPolicy.getInstance("ec2");
+
+        for( int attempt = 1; attempt < 50; attempt++ ) {
+            long bound = Math.min(RetryPolicy.DEFAULT_MAX_DELAY, attempt < 30 ? RetryPolicy.DEFAULT_BASE_DELAY << ( attempt - 1 ) : RetryPolicy.DEFAULT_MAX_DELAY);
+            long delay = policy.getDelay(attempt);
+
+            assertTrue("Delay " + delay + " for attempt " + attempt + " is out of range", delay >= 0L && delay <= bound);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallsShareOneRoundTrip() throws Exception {
+        final SingleFlight<String> flights = new SingleFlight<String>(null);
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+
+            for( int i = 0; i < 4; i++ ) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        return flights.execute("key", new SingleFlight.Call<String>() {
+                            public String call() throws CloudException, InternalException {
+                                calls.incrementAndGet();
+                                try {
+                                    release.await(5, TimeUnit.SECONDS);
+                                }
+                                catch( InterruptedException e ) {
+                                    throw new InternalException(e);
+                                }
+                                return "result";
+                            }
+                        });
+                    }
+                }));
+            }
+            // give the other callers time to join before the first call lands
+            Thread.sleep(200L);
+            release.countDown();
+            for( Future<String> result : results ) {
+                assertEquals("result", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(0, flights.getInFlightCount());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCompletedCallsAreNotCached() throws Exception {
+        SingleFlight<String> flights = new SingleFlight<String>(null);
+        final AtomicInteger calls = new AtomicInteger(0);
+        SingleFlight.Call<String> call = new SingleFlight.Call<String>() {
+            public String call() {
+                return String.valueOf(calls.incrementAndGet());
+            }
+        };
+
+        assertEquals("1", flights.execute("key", call));
+        assertEquals("2", flights.execute("key", call));
+    }
+}
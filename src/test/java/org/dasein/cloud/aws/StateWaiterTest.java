@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws;
+
+import org.dasein.cloud.CloudException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StateWaiterTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reports each resource as "pending" for the given number of polls and "ready" afterwards.
+     */
+    static private class CountingLookup implements LookupBatcher.Lookup<String> {
+        final List<Collection<String>> calls = Collections.synchronizedList(new ArrayList<Collection<String>>());
+        final int                      pendingPolls;
+
+        CountingLookup( int pendingPolls ) {
+            this.pendingPolls = pendingPolls;
+        }
+
+        public Map<String, String> lookup( Collection<String> ids ) throws CloudException {
+            Map<String, String> results = new HashMap<String, String>();
+
+            calls.add(new ArrayList<String>(ids));
+            for( String id : ids ) {
+                if( id.startsWith("bad") ) {
+                    if( ids.size() > 1 ) {
+                        throw new CloudException("The instance ID '" + id + "' does not exist");
+                    }
+                    continue;
+                }
+                results.put(id, calls.size() > pendingPolls ? "ready" : "pending");
+            }
+            return results;
+        }
+    }
+
+    static private final StateWaiter.Condition<String> READY = new StateWaiter.Condition<String>() {
+        public boolean isSatisfied( String resource ) {
+            return "ready".equals(resource);
+        }
+    };
+
+    @Test
+    public void testWaitsArePolledTogether() throws Exception {
+        StateWaiter<String> waiter = new StateWaiter<String>("test", executor, 50L, 100L);
+        CountingLookup lookup = new CountingLookup(1);
+        List<StateWaiter.Wait<String>> waits = new ArrayList<StateWaiter.Wait<String>>();
+
+        for( int i = 0; i < 5; i++ ) {
+            waits.add(waiter.waitFor("i-" + i, READY, 5000L, lookup));
+        }
+        for( StateWaiter.Wait<String> wait : waits ) {
+            assertEquals("ready", wait.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, lookup.calls.size());
+        assertEquals(5, lookup.calls.get(0).size());
+        assertEquals(0, waiter.getPendingCount());
+    }
+
+    @Test
+    public void testWaitTimesOut() throws Exception {
+        StateWaiter<String> waiter = new StateWaiter<String>("test", executor, 20L, 20L);
+        StateWaiter.Wait<String> wait = waiter.waitFor("i-slow", READY, 100L, new CountingLookup(Integer.MAX_VALUE));
+
+        try {
+            wait.get(5, TimeUnit.SECONDS);
+            fail("The wait should have timed out");
+        }
+        catch( ExecutionException expected ) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testUnknownIdDoesNotFailOthers() throws Exception {
+        StateWaiter<String> waiter = new StateWaiter<String>("test", executor, 20L, 20L);
+        CountingLookup lookup = new CountingLookup(0);
+        StateWaiter.Wait<String> good = waiter.waitFor("i-good", READY, 5000L, lookup);
+        StateWaiter.Wait<String> bad = waiter.waitFor("bad-id", StateWaiter.<String>exists(), 200L, lookup);
+
+        assertEquals("ready", good.get(5, TimeUnit.SECONDS));
+        try {
+            bad.get(5, TimeUnit.SECONDS);
+            fail("The unknown resource should never exist");
+        }
+        catch( ExecutionException expected ) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testListenersRunOnCompletion() throws Exception {
+        StateWaiter<String> waiter = new StateWaiter<String>("test", executor, 20L, 20L);
+        StateWaiter.Wait<String> wait = waiter.waitFor("i-1", READY, 5000L, new CountingLookup(0));
+        final CountDownLatch ran = new CountDownLatch(2);
+        Runnable listener = new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        };
+
+        wait.addListener(listener);
+        wait.get(5, TimeUnit.SECONDS);
+        wait.addListener(listener);
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+}
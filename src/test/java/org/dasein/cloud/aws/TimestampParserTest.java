@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimestampParserTest {
+
+    @Test
+    public void testMatchesSimpleDateFormatInUtc() throws Exception {
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        Random random = new Random(7L);
+
+        fmt.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        for( int i=0; i<10000; i++ ) {
+            // from 1900 to about 2150, across leap years and month ends
+            long when = ( long ) ( random.nextDouble() * 8000000000000L ) - 2208988800000L;
+            String value = fmt.format(when);
+
+            assertEquals(value, when, TimestampParser.parse(value));
+        }
+    }
+
+    @Test
+    public void testFractionsAndOffsets() {
+        assertEquals(1433161845000L, TimestampParser.parse("2015-06-01T12:30:45Z"));
+        assertEquals(1433161845120L, TimestampParser.parse("2015-06-01T12:30:45.12Z"));
+        assertEquals(1433161845123L, TimestampParser.parse("2015-06-01T12:30:45.123456Z"));
+        assertEquals(1433161845000L, TimestampParser.parse("2015-06-01T14:30:45+02:00"));
+        assertEquals(1433161845000L, TimestampParser.parse("2015-06-01T07:00:45-05:30"));
+        assertEquals(951782400000L, TimestampParser.parse("2000-02-29T00:00:00.000Z"));
+    }
+
+    @Test
+    public void testMalformedValuesAreRejected() {
+        assertEquals(-1L, TimestampParser.parse(null));
+        assertEquals(-1L, TimestampParser.parse(""));
+        assertEquals(-1L, TimestampParser.parse("2015-06-01 12:30:45Z"));
+        assertEquals(-1L, TimestampParser.parse("2015-13-01T12:30:45Z"));
+        assertEquals(-1L, TimestampParser.parse("2015-06-01T12:30:45."));
+        assertEquals(-1L, TimestampParser.parse("2015-06-01T12:30:45"));
+        assertEquals(-1L, TimestampParser.parse("2015-06-01T12:30:45.000Zjunk"));
+    }
+}
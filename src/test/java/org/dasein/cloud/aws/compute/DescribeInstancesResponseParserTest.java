@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.compute.VMFilterOptions;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.network.IpAddress;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the streaming parser used to parse DescribeInstances responses.
+ *
+ * @see org.dasein.cloud.aws.compute.DescribeInstancesResponseParser
+ */
+public class DescribeInstancesResponseParserTest {
+    static final String XML_WEB = "<item>\n" +
+            "    <instanceId>i-web</instanceId>\n" +
+            "    <imageId>ami-1ecae776</imageId>\n" +
+            "    <instanceState><code>16</code><name>running</name></instanceState>\n" +
+            "    <privateDnsName>ip-10-0-1-24.ec2.internal</privateDnsName>\n" +
+            "    <dnsName/>\n" +
+            "    <instanceType>m3.medium</instanceType>\n" +
+            "    <placement><availabilityZone>us-east-1a</availabilityZone><tenancy>default</tenancy></placement>\n" +
+            "    <subnetId>subnet-56f5f633</subnetId>\n" +
+            "    <vpcId>vpc-11112222</vpcId>\n" +
+            "    <groupSet><item><groupId>sg-3f4b5653</groupId><groupName>web</groupName></item></groupSet>\n" +
+            "    <rootDeviceType>ebs</rootDeviceType>\n" +
+            "    <rootDeviceName>/dev/xvda</rootDeviceName>\n" +
+            "    <blockDeviceMapping><item><deviceName>/dev/xvda</deviceName>" +
+            "<ebs><volumeId>vol-1</volumeId><status>attached</status><deleteOnTermination>true</deleteOnTermination></ebs></item></blockDeviceMapping>\n" +
+            "    <tagSet><item><key>Name</key><value>web-1</value></item><item><key>empty</key><value/></item></tagSet>\n" +
+            "    <networkInterfaceSet><item><networkInterfaceId>eni-1</networkInterfaceId><subnetId>subnet-other</subnetId>" +
+            "<privateIpAddress>10.9.9.9</privateIpAddress><groupSet><item><groupId>sg-eni</groupId></item></groupSet></item></networkInterfaceSet>\n" +
+            "</item>\n";
+
+    static final String XML_DB = "<item>\n" +
+            "    <instanceId>i-db</instanceId>\n" +
+            "    <instanceState><code>80</code><name>stopped</name></instanceState>\n" +
+            "    <instanceType>m1.small</instanceType>\n" +
+            "    <tagSet><item><key>Name</key><value>db-1</value></item></tagSet>\n" +
+            "</item>\n";
+
+    static String response( String ... instances ) {
+        StringBuilder xml = new StringBuilder("<DescribeInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">" +
+                "<requestId>fdcdcab1</requestId><reservationSet><item><reservationId>r-1</reservationId>" +
+                "<groupSet><item><groupId>sg-reservation</groupId></item></groupSet><instancesSet>");
+
+        for( String instance : instances ) {
+            xml.append(instance);
+        }
+        return xml.append("</instancesSet></item></reservationSet></DescribeInstancesResponse>").toString();
+    }
+
+    @Test
+    public void parsesDirectChildrenOfEachInstance() throws Exception {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+        new DescribeInstancesResponseParser("123456789012", "us-east-1", null, null, list).parse(new ByteArrayInputStream(response(XML_WEB, XML_DB).getBytes("UTF-8")));
+        assertEquals(2, list.size());
+
+        VirtualMachine web = list.get(0);
+
+        assertEquals("i-web", web.getProviderVirtualMachineId());
+        assertEquals(VmState.RUNNING, web.getCurrentState());
+        assertEquals("web-1", web.getName());
+        assertEquals("us-east-1a", web.getProviderDataCenterId());
+        // nested network interface values must not leak onto the instance
+        assertEquals("subnet-56f5f633", web.getProviderSubnetId());
+        assertArrayEquals(new String[] { "sg-3f4b5653" }, web.getProviderFirewallIds());
+        assertArrayEquals(new String[] { "eni-1" }, web.getProviderNetworkInterfaceIds());
+        assertEquals("10.0.1.24", web.getPrivateAddresses()[0].getIpAddress());
+        assertNull(web.getPublicDnsAddress());
+        assertNull(web.getTag("empty"));
+        assertTrue(web.isPersistent());
+        assertEquals(1, web.getVolumes().length);
+        assertTrue(web.getVolumes()[0].isRootVolume());
+
+        VirtualMachine db = list.get(1);
+
+        assertEquals(VmState.STOPPED, db.getCurrentState());
+        assertEquals("db-1 (m1.small)", db.getDescription());
+    }
+
+    @Test
+    public void appliesFilterOptionsInline() throws Exception {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+        new DescribeInstancesResponseParser("123456789012", "us-east-1", VMFilterOptions.getInstance(false, "web.*"), null, list).parse(new ByteArrayInputStream(response(XML_WEB, XML_DB).getBytes("UTF-8")));
+        assertEquals(1, list.size());
+        assertEquals("i-web", list.get(0).getProviderVirtualMachineId());
+    }
+
+    @Test
+    public void capturesNextToken() throws Exception {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+        String paged = response(XML_WEB).replace("</DescribeInstancesResponse>", "<nextToken> page2 </nextToken></DescribeInstancesResponse>");
+        DescribeInstancesResponseParser parser = new DescribeInstancesResponseParser("123456789012", "us-east-1", null, null, list);
+
+        parser.parse(new ByteArrayInputStream(paged.getBytes("UTF-8")));
+        assertEquals("page2", parser.getNextToken());
+        parser.parse(new ByteArrayInputStream(response(XML_DB).getBytes("UTF-8")));
+        assertNull(parser.getNextToken());
+        assertEquals(2, list.size());
+    }
+
+    @Test
+    public void joinsElasticIpsOnPublicAddress() throws Exception {
+        final IpAddress elastic = new IpAddress();
+
+        elastic.setAddress("54.10.10.10");
+        elastic.setIpAddressId("eipalloc-1");
+        FutureTask<Iterable<IpAddress>> pool = new FutureTask<Iterable<IpAddress>>(new Callable<Iterable<IpAddress>>() {
+            @Override
+            public Iterable<IpAddress> call() {
+                return Arrays.asList(elastic);
+            }
+        });
+
+        pool.run();
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+        String web = XML_WEB.replace("<dnsName/>", "<dnsName/><ipAddress>54.10.10.10</ipAddress>");
+        String db = XML_DB.replace("<instanceType>", "<ipAddress>54.20.20.20</ipAddress><instanceType>");
+
+        new DescribeInstancesResponseParser("123456789012", "us-east-1", null, pool, list).parse(new ByteArrayInputStream(response(web, db).getBytes("UTF-8")));
+        assertEquals("eipalloc-1", list.get(0).getProviderAssignedIpAddressId());
+        assertEquals("54.20.20.20", list.get(1).getPublicAddresses()[0].getIpAddress());
+        assertNull(list.get(1).getProviderAssignedIpAddressId());
+    }
+
+    @Test
+    public void failedParseLeavesListUntouched() throws Exception {
+        List<VirtualMachine> list = new ArrayList<VirtualMachine>();
+        String truncated = response(XML_WEB, XML_DB);
+
+        truncated = truncated.substring(0, truncated.indexOf("i-db"));
+        try {
+            new DescribeInstancesResponseParser("123456789012", "us-east-1", null, null, list).parse(new ByteArrayInputStream(truncated.getBytes("UTF-8")));
+            fail("Truncated response should not parse");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+        assertEquals(0, list.size());
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.aws.LookupBatcher;
+import org.dasein.cloud.aws.StateWaiter;
+import org.dasein.cloud.compute.VmState;
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the bulk lifecycle calls of {@link EC2Instance}.
+ */
+public class EC2InstanceStateChangeTest {
+    static private final String STOP_RESPONSE = "<StopInstancesResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">" +
+            "<requestId>59dbff89-35bd-4eac-99ed-be587EXAMPLE</requestId><instancesSet>" +
+            "<item><instanceId>i-1</instanceId><currentState><code>64</code><name>stopping</name></currentState>" +
+            "<previousState><code>16</code><name>running</name></previousState></item>" +
+            "<item><instanceId>i-2</instanceId><currentState><code>80</code><name>stopped</name></currentState>" +
+            "<previousState><code>80</code><name>stopped</name></previousState></item>" +
+            "</instancesSet></StopInstancesResponse>";
+
+    static private Document parse( String xml ) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    /**
+     * Reports every instance it is given as having started, except those it is told to leave out.
+     */
+    static private class StartCall implements EC2Instance.StateChangeCall {
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        final List<String>       omitted;
+
+        StartCall( String ... omitted ) {
+            this.omitted = Arrays.asList(omitted);
+        }
+
+        @Override
+        public Map<String, VmStateChange> invoke( List<String> ids ) throws CloudException {
+            Map<String, VmStateChange> changes = new HashMap<String, VmStateChange>();
+
+            batches.add(new ArrayList<String>(ids));
+            for( String id : ids ) {
+                if( !omitted.contains(id) ) {
+                    changes.put(id, new VmStateChange(id, VmState.STOPPED, VmState.PENDING));
+                }
+            }
+            return changes;
+        }
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void parsesStopInstancesResponse() throws Exception {
+        Map<String, VmStateChange> changes = EC2Instance.toStateChanges(parse(STOP_RESPONSE));
+
+        assertEquals(2, changes.size());
+        assertEquals(VmState.RUNNING, changes.get("i-1").getPreviousState());
+        assertEquals(VmState.STOPPING, changes.get("i-1").getCurrentState());
+        assertEquals(VmState.STOPPED, changes.get("i-2").getCurrentState());
+        assertTrue(changes.get("i-2").isSuccessful());
+    }
+
+    @Test
+    public void instanceMissingFromResponseFails() {
+        Map<String, VmStateChange> changes = EC2Instance.changeStates(EC2Method.START_INSTANCES, Arrays.asList("i-1", "i-2"), 100, true, executor, new StartCall("i-2"));
+
+        assertTrue(changes.get("i-1").isSuccessful());
+        assertFalse(changes.get("i-2").isSuccessful());
+        assertTrue(changes.get("i-2").getError().getMessage().contains("i-2"));
+    }
+
+    @Test
+    public void rebootsReportNoStates() {
+        Map<String, VmStateChange> changes = EC2Instance.changeStates(EC2Method.REBOOT_INSTANCES, Arrays.asList("i-1"), 100, false, executor, new StartCall("i-1"));
+
+        assertTrue(changes.get("i-1").isSuccessful());
+        assertNull(changes.get("i-1").getCurrentState());
+    }
+
+    @Test
+    public void failedBatchOnlyFailsItsOwnInstances() {
+        final RuntimeException broken = new IllegalStateException("connection reset");
+        StartCall call = new StartCall() {
+            @Override
+            public Map<String, VmStateChange> invoke( List<String> ids ) throws CloudException {
+                if( ids.contains("i-3") ) {
+                    throw broken;
+                }
+                return super.invoke(ids);
+            }
+        };
+        Map<String, VmStateChange> changes = EC2Instance.changeStates(EC2Method.START_INSTANCES, Arrays.asList("i-1", "i-2", "i-3", "i-4"), 2, true, executor, call);
+
+        assertEquals(Arrays.asList("i-1", "i-2", "i-3", "i-4"), new ArrayList<String>(changes.keySet()));
+        assertTrue(changes.get("i-1").isSuccessful());
+        assertTrue(changes.get("i-2").isSuccessful());
+        assertSame(broken, changes.get("i-3").getError());
+        assertSame(broken, changes.get("i-4").getError());
+    }
+
+    @Test
+    public void batchesAreSentInParallel() {
+        final CountDownLatch started = new CountDownLatch(3);
+        StartCall call = new StartCall() {
+            @Override
+            public Map<String, VmStateChange> invoke( List<String> ids ) throws CloudException {
+                started.countDown();
+                try {
+                    // completes only if every batch is in flight at once
+                    if( !started.await(10, TimeUnit.SECONDS) ) {
+                        throw new CloudException("batches were sent one after another");
+                    }
+                }
+                catch( InterruptedException e ) {
+                    throw new CloudException(e);
+                }
+                return super.invoke(ids);
+            }
+        };
+        Map<String, VmStateChange> changes = EC2Instance.changeStates(EC2Method.STOP_INSTANCES, Arrays.asList("i-1", "i-2", "i-3", "i-4", "i-5"), 2, true, executor, call);
+
+        assertEquals(Arrays.asList("i-1", "i-2", "i-3", "i-4", "i-5"), new ArrayList<String>(changes.keySet()));
+        for( VmStateChange change : changes.values() ) {
+            assertTrue(change.isSuccessful());
+        }
+        assertEquals(3, call.batches.size());
+    }
+
+    @Test
+    public void rejectedBatchIsSplit() {
+        StartCall call = new StartCall() {
+            @Override
+            public Map<String, VmStateChange> invoke( List<String> ids ) throws CloudException {
+                if( ids.contains("i-bad") ) {
+                    throw new CloudException(CloudErrorType.GENERAL, 400, "IncorrectInstanceState", "i-bad cannot be started");
+                }
+                return super.invoke(ids);
+            }
+        };
+        Map<String, VmStateChange> changes = EC2Instance.changeStates(EC2Method.START_INSTANCES, Arrays.asList("i-1", "i-bad"), 100, true, executor, call);
+
+        assertTrue(changes.get("i-1").isSuccessful());
+        assertFalse(changes.get("i-bad").isSuccessful());
+        // only the single-instance retry for i-1 got through
+        assertEquals(Arrays.asList(Arrays.asList("i-1")), call.batches);
+    }
+
+    @Test
+    public void invisibleInstancesAreReported() {
+        LookupBatcher.Lookup<String> lookup = new LookupBatcher.Lookup<String>() {
+            public Map<String, String> lookup( Collection<String> ids ) throws CloudException {
+                Map<String, String> found = new HashMap<String, String>();
+
+                for( String id : ids ) {
+                    if( !id.equals("i-2") ) {
+                        found.put(id, "pending");
+                    }
+                }
+                return found;
+            }
+        };
+        StateWaiter<String> waiter = new StateWaiter<String>("instance", executor, 20L, 20L);
+        List<StateWaiter.Wait<String>> waits = new ArrayList<StateWaiter.Wait<String>>();
+
+        for( String id : Arrays.asList("i-1", "i-2", "i-3") ) {
+            waits.add(waiter.waitFor(id, StateWaiter.<String>exists(), 200L, lookup));
+        }
+        assertEquals(Arrays.asList("i-2"), EC2Instance.awaitVisible(waits));
+    }
+
+    @Test
+    public void interruptedWaitReportsTheRest() {
+        StateWaiter<String> waiter = new StateWaiter<String>("instance", executor, 20L, 20L);
+        LookupBatcher.Lookup<String> nothing = new LookupBatcher.Lookup<String>() {
+            public Map<String, String> lookup( Collection<String> ids ) throws CloudException {
+                return Collections.emptyMap();
+            }
+        };
+        List<StateWaiter.Wait<String>> waits = new ArrayList<StateWaiter.Wait<String>>();
+
+        waits.add(waiter.waitFor("i-1", StateWaiter.<String>exists(), 5000L, nothing));
+        waits.add(waiter.waitFor("i-2", StateWaiter.<String>exists(), 5000L, nothing));
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(Arrays.asList("i-1", "i-2"), EC2Instance.awaitVisible(waits));
+            assertTrue(Thread.currentThread().isInterrupted());
+        }
+        finally {
+            Thread.interrupted();
+            for( StateWaiter.Wait<String> wait : waits ) {
+                wait.cancel(true);
+            }
+        }
+    }
+}
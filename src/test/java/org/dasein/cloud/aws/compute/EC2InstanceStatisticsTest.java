@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.VmStatistics;
+import org.dasein.util.CalendarWrapper;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for the CloudWatch statistics calls of {@link EC2Instance}.
+ */
+public class EC2InstanceStatisticsTest {
+    static private final long START  = 1420070400000L;                 // 2015-01-01T00:00:00Z
+    static private final long OFFSET = 25000L;
+
+    static private final String RESPONSE = "<GetMetricStatisticsResponse xmlns=\"http://monitoring.amazonaws.com/doc/2010-08-01/\">" +
+            "<GetMetricStatisticsResult><Datapoints>" +
+            "<member><Timestamp>2015-01-01T00:03:00Z</Timestamp><SampleCount>2.0</SampleCount><Unit>Percent</Unit>" +
+            "<Average>12.5</Average><Minimum>10.0</Minimum><Maximum>15.0</Maximum></member>" +
+            "<member><Timestamp>2015-01-01T00:01:00Z</Timestamp><SampleCount>1.0</SampleCount><Unit>Percent</Unit>" +
+            "<Average>40.0</Average><Minimum>40.0</Minimum><Maximum>40.0</Maximum></member>" +
+            "</Datapoints><Label>CPUUtilization</Label></GetMetricStatisticsResult></GetMetricStatisticsResponse>";
+
+    @Test
+    public void recordsDatapointsAtTheirOwnTimestamps() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(RESPONSE.getBytes("UTF-8")));
+        MetricBuckets buckets = new MetricBuckets(START + OFFSET, START + 10 * CalendarWrapper.MINUTE);
+
+        EC2Instance.recordDatapoints(MetricBuckets.CPU, doc, buckets);
+
+        List<VmStatistics> list = buckets.toStatistics();
+
+        assertEquals(2, list.size());
+        assertEquals(START + CalendarWrapper.MINUTE, list.get(0).getStartTimestamp());
+        assertEquals(40.0, list.get(0).getAverageCpuUtilization(), 0.0);
+        assertEquals(START + 3 * CalendarWrapper.MINUTE, list.get(1).getStartTimestamp());
+        assertEquals(2, list.get(1).getSamples());
+    }
+
+    @Test
+    public void fleetStatisticsAreKeyedByInstance() throws Exception {
+        final Map<String, String> queriedVolumes = new ConcurrentHashMap<String, String>();
+        final Map<String, Double> cpu = new HashMap<String, Double>();
+        EC2Instance.MetricSource source = new EC2Instance.MetricSource() {
+            @Override
+            public void query( int metric, @Nonnull String instanceId, @Nullable String volumeId, @Nonnull MetricBuckets into, long startTimestamp, long endTimestamp ) {
+                if( volumeId != null ) {
+                    queriedVolumes.put(instanceId, volumeId);
+                }
+                if( metric == MetricBuckets.CPU ) {
+                    into.record(metric, START + 2 * CalendarWrapper.MINUTE, 1, cpu.get(instanceId), 0.0, 100.0);
+                }
+            }
+        };
+        Map<String, String> volumeIds = new HashMap<String, String>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        cpu.put("i-1", 10.0);
+        cpu.put("i-2", 20.0);
+        volumeIds.put("i-1", null);
+        volumeIds.put("i-2", "vol-2");
+        try {
+            EC2Instance.MetricQueries queries = new EC2Instance.MetricQueries(executor, new Semaphore(2), source);
+            Map<String, Iterable<VmStatistics>> results = EC2Instance.collectFleetMetrics(Arrays.asList("i-2", "i-missing", "i-1"), volumeIds, START + OFFSET, START + 10 * CalendarWrapper.MINUTE, EC2Instance.PER_MINUTE, queries);
+
+            assertEquals(Arrays.asList("i-2", "i-1"), new ArrayList<String>(results.keySet()));
+            for( String id : results.keySet() ) {
+                Iterator<VmStatistics> it = results.get(id).iterator();
+                VmStatistics stats = it.next();
+
+                assertEquals(cpu.get(id), stats.getAverageCpuUtilization(), 0.0);
+                assertEquals(START + 2 * CalendarWrapper.MINUTE, stats.getStartTimestamp());
+                assertFalse(it.hasNext());
+            }
+            assertEquals("vol-2", queriedVolumes.get("i-2"));
+            assertNull(queriedVolumes.get("i-1"));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EC2MethodTest {
+
+    @Test
+    public void testOnlyListedReadActionsAreCoalesced() {
+        assertTrue(EC2Method.isCoalesced(EC2Method.DESCRIBE_INSTANCES));
+        assertTrue(EC2Method.isCoalesced(EC2Method.LIST_METRICS));
+        assertFalse("Password data is per caller", EC2Method.isCoalesced(EC2Method.GET_PASSWORD_DATA));
+        assertFalse("Federation tokens are minted per call", EC2Method.isCoalesced("GetFederationToken"));
+        assertFalse(EC2Method.isCoalesced(EC2Method.START_INSTANCES));
+        assertFalse(EC2Method.isCoalesced(null));
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.VmStatistics;
+import org.dasein.util.CalendarWrapper;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for the per-minute metric buckets behind the VM statistics calls.
+ *
+ * @see org.dasein.cloud.aws.compute.MetricBuckets
+ */
+public class MetricBucketsTest {
+    static private final long START = 1420070400000L;
+
+    @Test
+    public void mergesMetricsOfTheSameMinute() {
+        MetricBuckets buckets = new MetricBuckets(START, START + 10 * CalendarWrapper.MINUTE);
+
+        buckets.record(MetricBuckets.NETWORK_IN, START + 2 * CalendarWrapper.MINUTE, 3, 10.0, 5.0, 20.0);
+        buckets.record(MetricBuckets.CPU, START + 2 * CalendarWrapper.MINUTE + 1000L, 1, 50.0, 40.0, 60.0);
+        buckets.record(MetricBuckets.CPU, START + 5 * CalendarWrapper.MINUTE, 0, 30.0, 30.0, 30.0);
+
+        List<VmStatistics> list = buckets.toStatistics();
+
+        assertEquals(2, list.size());
+        // CPU comes first, so its datapoint stamps the minute
+        assertEquals(START + 2 * CalendarWrapper.MINUTE + 1000L, list.get(0).getStartTimestamp());
+        assertEquals(50.0, list.get(0).getAverageCpuUtilization(), 0.0);
+        assertEquals(20.0, list.get(0).getMaximumNetworkIn(), 0.0);
+        assertEquals(1, list.get(1).getSamples());
+        assertEquals(0.0, list.get(1).getAverageNetworkIn(), 0.0);
+    }
+
+    @Test
+    public void dropsDatapointsOutsideTheRange() {
+        MetricBuckets buckets = new MetricBuckets(START, START + 2 * CalendarWrapper.MINUTE);
+
+        buckets.record(MetricBuckets.CPU, START - 1L, 1, 1.0, 1.0, 1.0);
+        buckets.record(MetricBuckets.CPU, START + 3 * CalendarWrapper.MINUTE, 1, 1.0, 1.0, 1.0);
+        buckets.record(MetricBuckets.CPU, START + 2 * CalendarWrapper.MINUTE, 1, 1.0, 1.0, 1.0);
+        assertEquals(1, buckets.toStatistics().size());
+    }
+
+    @Test
+    public void keepsDatapointTimestamps() {
+        // a request that starts part way through a minute must not shift the datapoints CloudWatch returns
+        long start = START + 25000L;
+        MetricBuckets buckets = new MetricBuckets(start, start + 10 * CalendarWrapper.MINUTE);
+
+        buckets.record(MetricBuckets.CPU, START + 3 * CalendarWrapper.MINUTE, 1, 1.0, 1.0, 1.0);
+        buckets.record(MetricBuckets.CPU, START + 4 * CalendarWrapper.MINUTE, 1, 1.0, 1.0, 1.0);
+
+        List<VmStatistics> list = buckets.toStatistics();
+        VmStatistics summary = buckets.summarize();
+
+        assertEquals(START + 3 * CalendarWrapper.MINUTE, list.get(0).getStartTimestamp());
+        assertEquals(START + 4 * CalendarWrapper.MINUTE, list.get(1).getEndTimestamp());
+        assertEquals(START + 3 * CalendarWrapper.MINUTE, summary.getStartTimestamp());
+        assertEquals(START + 4 * CalendarWrapper.MINUTE, summary.getEndTimestamp());
+    }
+
+    @Test
+    public void summarizesEachMetricAcrossTheRange() {
+        long end = START + 10 * CalendarWrapper.MINUTE;
+        MetricBuckets buckets = new MetricBuckets(START, end);
+
+        buckets.record(MetricBuckets.CPU, START + CalendarWrapper.MINUTE, 1, 20.0, 10.0, 30.0);
+        buckets.record(MetricBuckets.CPU, START + 4 * CalendarWrapper.MINUTE, 1, 40.0, 5.0, 90.0);
+        buckets.record(MetricBuckets.DISK_WRITE_OPS, START, 1, 7.0, 7.0, 7.0);
+
+        VmStatistics stats = buckets.summarize();
+
+        assertEquals(2, stats.getSamples());
+        assertEquals(START + CalendarWrapper.MINUTE, stats.getStartTimestamp());
+        assertEquals(START + 4 * CalendarWrapper.MINUTE, stats.getEndTimestamp());
+        assertEquals(30.0, stats.getAverageCpuUtilization(), 0.0);
+        assertEquals(5.0, stats.getMinimumCpuUtilization(), 0.0);
+        assertEquals(90.0, stats.getMaximumCpuUtilization(), 0.0);
+        assertEquals(7.0, stats.getAverageDiskWriteOperations(), 0.0);
+        assertEquals(0.0, stats.getMaximumNetworkOut(), 0.0);
+    }
+
+    @Test
+    public void summaryOfAnEmptyRangeSpansTheRequest() {
+        long end = START + 10 * CalendarWrapper.MINUTE;
+        VmStatistics stats = new MetricBuckets(START, end).summarize();
+
+        assertEquals(0, stats.getSamples());
+        assertEquals(START, stats.getStartTimestamp());
+        assertEquals(end, stats.getEndTimestamp());
+    }
+}
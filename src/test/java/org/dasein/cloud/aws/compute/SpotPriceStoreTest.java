@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.CloudException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the spot price store and the streaming parser that fills it.
+ *
+ * @see org.dasein.cloud.aws.compute.SpotPriceStore
+ * @see org.dasein.cloud.aws.compute.SpotPriceHistoryResponseParser
+ */
+public class SpotPriceStoreTest {
+    static private String item( String product, String zone, String timestamp, String price ) {
+        return "<item><instanceType>" + product + "</instanceType><productDescription>Linux/UNIX</productDescription>" +
+                "<spotPrice>" + price + "</spotPrice><timestamp>" + timestamp + "</timestamp>" +
+                "<availabilityZone>" + zone + "</availabilityZone></item>";
+    }
+
+    static private ByteArrayInputStream response( String nextToken, String ... items ) throws Exception {
+        StringBuilder xml = new StringBuilder("<DescribeSpotPriceHistoryResponse xmlns=\"http://ec2.amazonaws.com/doc/2014-10-01/\">" +
+                "<requestId>59dbff89</requestId><spotPriceHistorySet>");
+
+        for( String item : items ) {
+            xml.append(item);
+        }
+        xml.append("</spotPriceHistorySet>");
+        if( nextToken != null ) {
+            xml.append("<nextToken>").append(nextToken).append("</nextToken>");
+        }
+        return new ByteArrayInputStream(xml.append("</DescribeSpotPriceHistoryResponse>").toString().getBytes("UTF-8"));
+    }
+
+    @Test
+    public void streamsPricesIntoSeriesInTimeOrder() throws Exception {
+        SpotPriceStore store = new SpotPriceStore();
+        SpotPriceHistoryResponseParser parser = new SpotPriceHistoryResponseParser(store, 0L, 0L);
+
+        parser.parse(response("page2",
+                item("m3.medium", "us-east-1a", "2015-01-01T00:03:00.000Z", "0.0090"),
+                item("m3.medium", "us-east-1b", "2015-01-01T00:02:30.000Z", "0.0120"),
+                item("m3.medium", "us-east-1a", "2015-01-01T00:02:00.000Z", "0.0080")));
+        assertEquals("page2", parser.getNextToken());
+        parser.parse(response(null, item("m3.medium", "us-east-1a", "2015-01-01T00:01:00.000Z", "0.0070")));
+        assertNull(parser.getNextToken());
+        store.seal();
+
+        assertEquals(2, store.getSeries().size());
+        SpotPriceStore.Series series = store.getSeries("m3.medium", "us-east-1a");
+
+        assertEquals(3, series.size());
+        assertTrue(series.getTimestamp(0) < series.getTimestamp(1));
+        assertTrue(series.getTimestamp(1) < series.getTimestamp(2));
+        assertEquals(0.0070f, series.getPrice(0), 0.0f);
+        assertEquals(0.0090f, series.getPrice(2), 0.0f);
+    }
+
+    @Test
+    public void dropsPricesOutsideTheRequestedRange() throws Exception {
+        SpotPriceStore store = new SpotPriceStore();
+        long start = 1420070460000L; // 2015-01-01T00:01:00Z
+
+        new SpotPriceHistoryResponseParser(store, start, start + 60000L).parse(response(null,
+                item("c3.large", "us-east-1a", "2015-01-01T00:00:00.000Z", "0.05"),
+                item("c3.large", "us-east-1a", "2015-01-01T00:01:30.000Z", "0.06"),
+                item("c3.large", "us-east-1a", "2015-01-01T00:03:00.000Z", "0.07")));
+        store.seal();
+        assertEquals(1, store.getSeries("c3.large", "us-east-1a").size());
+    }
+
+    @Test
+    public void failedParseLeavesStoreUntouched() throws Exception {
+        SpotPriceStore store = new SpotPriceStore();
+
+        new SpotPriceHistoryResponseParser(store, 0L, 0L).parse(response(null, item("c3.large", "us-east-1a", "2015-01-01T00:00:00.000Z", "0.05")));
+        try {
+            new SpotPriceHistoryResponseParser(store, 0L, 0L).parse(response(null, item("c3.large", "us-east-1a", "2015-01-01T00:01:00.000Z", "0.06"), "<item><instanceType>"));
+            fail("Truncated response should not parse");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+        assertEquals(1, store.getSeries("c3.large", "us-east-1a").size());
+    }
+
+    @Test
+    public void answersRangeAndPercentileQueries() {
+        SpotPriceStore store = new SpotPriceStore();
+        SpotPriceStore.Series series = store.getOrCreate("m3.large", "us-west-2a");
+        float[] prices = { 0.5f, 0.1f, 0.4f, 0.2f, 0.3f };
+        long[] times = { 500L, 100L, 400L, 200L, 300L };
+
+        for( int i = 0; i < prices.length; i++ ) {
+            series.add(times[i], prices[i]);
+        }
+        store.seal();
+
+        assertArrayEquals(new float[] { 0.2f, 0.3f, 0.4f }, series.getPrices(200L, 400L), 0.0f);
+        assertEquals(0, series.getPrices(600L, 900L).length);
+        assertEquals(0.3f, series.getPriceAt(350L), 0.0f);
+        assertTrue(Float.isNaN(series.getPriceAt(50L)));
+        assertEquals(0.3f, series.getPercentile(0L, 1000L, 50.0), 0.0f);
+        assertEquals(0.5f, series.getPercentile(0L, 1000L, 100.0), 0.0f);
+        assertEquals(0.1f, series.getPercentile(0L, 1000L, 0.0), 0.0f);
+        assertTrue(Float.isNaN(series.getPercentile(600L, 900L, 50.0)));
+    }
+}
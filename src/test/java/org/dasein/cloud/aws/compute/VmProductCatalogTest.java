@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.compute;
+
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.VirtualMachineProduct;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the shared VM product catalog, run against the bundled {@code vmproducts.json}.
+ *
+ * @see org.dasein.cloud.aws.compute.VmProductCatalog
+ */
+public class VmProductCatalogTest {
+    static private boolean contains( List<VirtualMachineProduct> products, String id ) {
+        for( VirtualMachineProduct product : products ) {
+            if( product.getProviderProductId().equals(id) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void catalogIsSharedPerCloud() throws Exception {
+        VmProductCatalog catalog = VmProductCatalog.getInstance("AWS", "AWS", null);
+
+        assertSame(catalog, VmProductCatalog.getInstance("AWS", "AWS", null));
+        assertSame(catalog.list("us-east-1", Architecture.I64), catalog.list("us-east-1", Architecture.I64));
+    }
+
+    @Test
+    public void filtersByRegionAndArchitecture() throws Exception {
+        VmProductCatalog catalog = VmProductCatalog.getInstance("AWS", "AWS", null);
+
+        assertTrue(contains(catalog.list("us-east-1", Architecture.I32), "m1.small"));
+        assertFalse(contains(catalog.list("us-east-1", Architecture.I32), "m1.large"));
+        assertTrue(contains(catalog.list("us-east-1", Architecture.I64), "m1.large"));
+        assertFalse(contains(catalog.list("eu-central-1", Architecture.I64), "m1.small"));
+        assertTrue(catalog.list("us-east-1", null).size() >= catalog.list("us-east-1", Architecture.I64).size());
+    }
+
+    @Test
+    public void looksUpProductsById() throws Exception {
+        VmProductCatalog catalog = VmProductCatalog.getInstance("AWS", "AWS", null);
+        VirtualMachineProduct product = catalog.get("us-east-1", "m1.small");
+
+        assertNotNull(product);
+        assertEquals("m1.small", product.getProviderProductId());
+        assertNull(catalog.get("eu-central-1", "m1.small"));
+        assertNull(catalog.get("us-east-1", "no.such-type"));
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for the indexed lookups of the RDS product catalog, run against the bundled {@code dbproducts.json}.
+ *
+ * @see org.dasein.cloud.aws.model.DatabaseProvider
+ */
+public class DatabaseProviderTest {
+    static private final String CATALOG = "/org/dasein/cloud/aws/dbproducts.json";
+
+    @Test
+    public void catalogIsReadOnce() throws Exception {
+        assertSame(DatabaseProvider.getInstance(CATALOG, "AWS"), DatabaseProvider.getInstance(CATALOG, "aws"));
+    }
+
+    @Test
+    public void findsEnginesRegionsAndDefinitionsIgnoringCase() throws Exception {
+        DatabaseProvider provider = DatabaseProvider.getInstance(CATALOG, "AWS");
+        DatabaseEngine engine = provider.findEngine("mysql");
+
+        assertNotNull(engine);
+        assertEquals("MySQL", engine.getName());
+        assertNotNull(engine.findRegion("US-EAST-1"));
+        assertNull(engine.findRegion("nowhere-1"));
+        assertNull(provider.findEngine("no-such-engine"));
+        assertEquals("db.m3.medium", provider.findProductDefinition("DB.M3.MEDIUM").getName());
+        assertNull(provider.findProductDefinition(null));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.storage.Blob;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the streaming parser of GET Bucket (List Objects) pages.
+ *
+ * @see org.dasein.cloud.aws.storage.ListBucketResponseParser
+ */
+public class ListBucketResponseParserTest {
+    static private final String HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">\n" +
+            "    <Name>bucket</Name>\n";
+    static private final String TAIL = "</ListBucketResult>\n";
+
+    static private String object( String key ) {
+        return "    <Contents>\n" +
+               "        <Key>" + key + "</Key>\n" +
+               "        <LastModified>2009-10-12T17:50:30.000Z</LastModified>\n" +
+               "        <ETag>\"fba9dede5f27731c9771645a39863328\"</ETag>\n" +
+               "        <Size>434234</Size>\n" +
+               "        <StorageClass>STANDARD</StorageClass>\n" +
+               "        <Owner><ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID><DisplayName>mtd@amazon.com</DisplayName></Owner>\n" +
+               "    </Contents>\n";
+    }
+
+    static private String prefix( String prefix ) {
+        return "    <CommonPrefixes><Prefix>" + prefix + "</Prefix></CommonPrefixes>\n";
+    }
+
+    static private String truncated( boolean truncated ) {
+        return "    <IsTruncated>" + truncated + "</IsTruncated>\n";
+    }
+
+    static private List<Blob> parse( ListBucketResponseParser parser, String xml ) throws Exception {
+        return parser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void objectsAreReadInOrder() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+        List<Blob> blobs = parse(parser, HEAD + truncated(false) + object("a.txt") + object("photos/b.jpg") + TAIL);
+
+        assertEquals(2, blobs.size());
+        assertEquals("a.txt", blobs.get(0).getObjectName());
+        assertEquals("photos/b.jpg", blobs.get(1).getObjectName());
+        assertNull("A complete listing has no next page", parser.getNextMarker());
+    }
+
+    @Test
+    public void spacesAtEitherEndOfAKeyAreKept() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+        List<Blob> blobs = parse(parser, HEAD + truncated(true) + object(" leading.txt") + object("trailing.txt  ") + TAIL);
+
+        assertEquals(" leading.txt", blobs.get(0).getObjectName());
+        assertEquals("trailing.txt  ", blobs.get(1).getObjectName());
+        assertEquals("The marker must be the exact last key", "trailing.txt  ", parser.getNextMarker());
+    }
+
+    @Test
+    public void truncatedListingWithoutDelimiterContinuesFromTheLastKey() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+
+        parse(parser, HEAD + truncated(true) + object("a.txt") + object("b.txt") + TAIL);
+        assertEquals("b.txt", parser.getNextMarker());
+    }
+
+    @Test
+    public void nextMarkerIsUsedWhenGiven() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+
+        parse(parser, HEAD + truncated(true) + "    <NextMarker>photos/</NextMarker>\n" + object("a.txt") + prefix("photos/") + TAIL);
+        assertEquals("photos/", parser.getNextMarker());
+    }
+
+    @Test
+    public void withoutNextMarkerTheLaterOfKeyAndPrefixIsUsed() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+
+        parse(parser, HEAD + truncated(true) + object("a.txt") + prefix("docs/") + prefix("photos/") + object("z.txt") + TAIL);
+        assertEquals("z.txt", parser.getNextMarker());
+        parse(parser, HEAD + truncated(true) + object("a.txt") + prefix("docs/") + prefix("photos/") + TAIL);
+        assertEquals("photos/", parser.getNextMarker());
+        parse(parser, HEAD + truncated(true) + prefix("docs/") + TAIL);
+        assertEquals("A page of only prefixes continues from the last prefix", "docs/", parser.getNextMarker());
+    }
+
+    @Test
+    public void commonPrefixesAreCollected() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+        List<Blob> blobs = parse(parser, HEAD + truncated(false) + object("index.html") + prefix("docs/") + prefix("photos/2006/") + TAIL);
+
+        assertEquals(1, blobs.size());
+        assertEquals(Arrays.asList("docs/", "photos/2006/"), parser.getCommonPrefixes());
+    }
+
+    @Test
+    public void stateIsResetForEachPage() throws Exception {
+        ListBucketResponseParser parser = new ListBucketResponseParser("us-east-1", "bucket");
+
+        parse(parser, HEAD + truncated(true) + "    <NextMarker>docs/</NextMarker>\n" + prefix("docs/") + TAIL);
+        parse(parser, HEAD + truncated(false) + object("z.txt") + TAIL);
+        assertTrue(parser.getCommonPrefixes().isEmpty());
+        assertNull(parser.getNextMarker());
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.CloudException;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for running the tasks of a transfer with a fixed number of workers.
+ *
+ * @see org.dasein.cloud.aws.storage.PartWorkers
+ */
+public class PartWorkersTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void rangeRunsUpToTheCount() {
+        List<Integer> indexes = new ArrayList<Integer>();
+
+        for( Iterator<Integer> it = PartWorkers.range(1, 4); it.hasNext(); ) {
+            indexes.add(it.next());
+        }
+        assertEquals(Arrays.asList(1, 2, 3), indexes);
+        assertFalse(PartWorkers.range(3, 3).hasNext());
+    }
+
+    @Test
+    public void everyTaskIsTakenOnce() throws Exception {
+        final List<String> done = Collections.synchronizedList(new ArrayList<String>());
+        List<String> tasks = new ArrayList<String>();
+
+        for( int i=0; i<100; i++ ) {
+            tasks.add("key-" + i);
+        }
+        tasks.add(50, null);
+        PartWorkers<String> workers = new PartWorkers<String>() {
+            @Override
+            protected void transfer( @Nonnull String task ) throws Exception {
+                done.add(task);
+            }
+        };
+
+        workers.start(executor, tasks.iterator(), 4);
+        workers.await();
+        tasks.remove(null);
+        Collections.sort(done);
+        Collections.sort(tasks);
+        assertEquals("Null tasks should be skipped and the rest taken once each", tasks, done);
+    }
+
+    @Test
+    public void firstFailureStopsTheWorkers() throws Exception {
+        final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+        PartWorkers<Integer> workers = new PartWorkers<Integer>() {
+            @Override
+            protected void transfer( @Nonnull Integer index ) throws Exception {
+                if( index == 3 ) {
+                    throw new CloudException("part " + index + " failed");
+                }
+                done.add(index);
+            }
+        };
+
+        workers.start(executor, PartWorkers.range(0, 1000), 2);
+        try {
+            workers.await();
+            fail("The failure should be reported");
+        }
+        catch( CloudException expected ) {
+            assertEquals("part 3 failed", expected.getMessage());
+        }
+        assertTrue("Workers should stop taking parts after a failure", done.size() < 999);
+    }
+}
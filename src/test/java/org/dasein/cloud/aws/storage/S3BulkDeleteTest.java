@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for building and reading multi-object delete requests.
+ *
+ * @see org.dasein.cloud.aws.storage.S3BulkDelete
+ */
+public class S3BulkDeleteTest {
+    static private final String DELETED = "<DeleteResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"></DeleteResult>";
+
+    private final RetryPolicy policy = new RetryPolicy(new HashSet<String>(Arrays.asList("InternalError", "SlowDown")), RetryPolicy.DEFAULT_MAX_ATTEMPTS, 1L, 1L);
+
+    @Test
+    public void keysAreEscapedInTheRequest() throws Exception {
+        List<String> keys = Arrays.asList("plain.txt", "a&b.txt", "<tag>.txt", "quote\"s'.txt", "dir/with space .txt");
+        Document doc = parse(S3BulkDelete.toXml(keys));
+        NodeList nodes = doc.getElementsByTagName("Key");
+        List<String> parsed = new ArrayList<String>();
+
+        for( int i=0; i<nodes.getLength(); i++ ) {
+            parsed.add(nodes.item(i).getTextContent());
+        }
+        assertEquals(keys, parsed);
+        assertEquals("true", doc.getElementsByTagName("Quiet").item(0).getTextContent());
+    }
+
+    @Test
+    public void nonAsciiKeysAreSentAsUtf8() throws Exception {
+        List<String> keys = Arrays.asList("r\u00e9sum\u00e9.txt", "\u65e5\u672c\u8a9e/\u30c6\u30b9\u30c8.txt");
+        String xml = S3BulkDelete.toXml(keys);
+        StringEntity entity = S3Method.toXmlEntity(xml);
+        byte[] sent = EntityUtils.toByteArray(entity);
+
+        assertArrayEquals(xml.getBytes("UTF-8"), sent);
+        assertTrue(entity.getContentType().getValue().contains("UTF-8"));
+        // the Content-MD5 is taken over the entity, so it covers exactly the bytes sent
+        assertArrayEquals(S3Method.computeMD5Hash(new ByteArrayInputStream(sent)), S3Method.computeMD5Hash(entity.getContent()));
+
+        NodeList nodes = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(sent)).getElementsByTagName("Key");
+
+        assertEquals(keys.get(0), nodes.item(0).getTextContent());
+        assertEquals(keys.get(1), nodes.item(1).getTextContent());
+    }
+
+    @Test
+    public void keysAreBatchedAndNullsSkipped() {
+        List<String> keys = new ArrayList<String>();
+
+        for( int i=0; i<S3BulkDelete.MAX_KEYS * 2 + 50; i++ ) {
+            keys.add(i % 100 == 0 ? null : "key-" + i);
+        }
+        List<Integer> sizes = new ArrayList<Integer>();
+        int total = 0;
+
+        for( Iterator<List<String>> batches = S3BulkDelete.batches(keys.iterator()); batches.hasNext(); ) {
+            List<String> batch = batches.next();
+
+            assertFalse(batch.contains(null));
+            sizes.add(batch.size());
+            total += batch.size();
+        }
+        assertEquals(3, sizes.size());
+        assertEquals(S3BulkDelete.MAX_KEYS, ( int ) sizes.get(0));
+        assertEquals(keys.size() - 21, total);
+        assertFalse(S3BulkDelete.batches(Arrays.asList(( String ) null, null).iterator()).hasNext());
+    }
+
+    @Test
+    public void failedKeysAreReportedWithTheirErrors() throws Exception {
+        Map<String,String> errors = new HashMap<String,String>();
+        Responses responses = new Responses("<DeleteResult>" +
+                "<Error><Key>locked.txt</Key><Code>AccessDenied</Code><Message>Access Denied</Message></Error>" +
+                "<Error><Key>held.txt</Key><Code>InvalidObjectState</Code><Message>The object is under legal hold</Message></Error>" +
+                "</DeleteResult>");
+        int removed = S3BulkDelete.send(Arrays.asList("a.txt", "locked.txt", "b.txt", "held.txt"), responses, policy, errors, "bucket");
+
+        assertEquals(2, removed);
+        assertEquals(1, responses.requests.size());
+        assertEquals(2, errors.size());
+        assertEquals("AccessDenied: Access Denied", errors.get("locked.txt"));
+        assertTrue(errors.get("held.txt").startsWith("InvalidObjectState"));
+    }
+
+    @Test
+    public void transientFailuresAreSentAgain() throws Exception {
+        Map<String,String> errors = new HashMap<String,String>();
+        Responses responses = new Responses(
+                "<DeleteResult><Error><Key>b.txt</Key><Code>InternalError</Code><Message>We encountered an internal error.</Message></Error>" +
+                "<Error><Key>c.txt</Key><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error></DeleteResult>",
+                DELETED);
+        int removed = S3BulkDelete.send(Arrays.asList("a.txt", "b.txt", "c.txt"), responses, policy, errors, "bucket");
+
+        assertEquals(3, removed);
+        assertTrue(errors.isEmpty());
+        assertEquals(2, responses.requests.size());
+        assertEquals(Arrays.asList("b.txt", "c.txt"), keysOf(responses.requests.get(1)));
+    }
+
+    @Test
+    public void failedKeysAreNotTrimmed() throws Exception {
+        Map<String,String> errors = new HashMap<String,String>();
+        Responses responses = new Responses(
+                "<DeleteResult><Error><Key> padded.txt </Key><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error>" +
+                "<Error><Key>locked.txt\t</Key><Code>AccessDenied</Code><Message>Access Denied</Message></Error></DeleteResult>",
+                DELETED);
+        int removed = S3BulkDelete.send(Arrays.asList("padded.txt", " padded.txt ", "locked.txt\t"), responses, policy, errors, "bucket");
+
+        assertEquals(2, removed);
+        assertEquals(Arrays.asList(" padded.txt "), keysOf(responses.requests.get(1)));
+        assertEquals(Collections.singleton("locked.txt\t"), errors.keySet());
+    }
+
+    @Test
+    public void transientFailuresGiveUpAfterTheLastAttempt() throws Exception {
+        String busy = "<DeleteResult><Error><Key>b.txt</Key><Code>SlowDown</Code><Message>Please reduce your request rate.</Message></Error></DeleteResult>";
+        Map<String,String> errors = new HashMap<String,String>();
+        Responses responses = new Responses(busy, busy, busy, DELETED);
+        int removed = S3BulkDelete.send(Arrays.asList("a.txt", "b.txt"), responses, policy, errors, "bucket");
+
+        assertEquals(1, removed);
+        assertEquals(3, responses.requests.size());
+        assertEquals(Collections.singleton("b.txt"), errors.keySet());
+    }
+
+    @Test
+    public void errorForTheWholeRequestIsRetriedThenThrown() throws Exception {
+        String error = "<Error><Code>InternalError</Code><Message>We encountered an internal error.</Message><RequestId>4442587FB7D0A2F9</RequestId></Error>";
+        Responses responses = new Responses(error, DELETED);
+
+        assertEquals(2, S3BulkDelete.send(Arrays.asList("a.txt", "b.txt"), responses, policy, new HashMap<String,String>(), "bucket"));
+        assertEquals(2, responses.requests.size());
+
+        responses = new Responses("<Error><Code>MalformedXML</Code><Message>The XML you provided was not well-formed.</Message></Error>");
+        try {
+            S3BulkDelete.send(Arrays.asList("a.txt"), responses, policy, new HashMap<String,String>(), "bucket");
+            fail("A malformed request should fail outright");
+        }
+        catch( S3Exception expected ) {
+            assertEquals("MalformedXML", expected.getCode());
+        }
+    }
+
+    /**
+     * Records each request and answers it with the next of a list of XML bodies.
+     */
+    static private class Responses implements S3BulkDelete.DeleteRequest {
+        private final LinkedList<String> bodies   = new LinkedList<String>();
+        final List<String>               requests = new ArrayList<String>();
+
+        Responses( String ... bodies ) {
+            Collections.addAll(this.bodies, bodies);
+        }
+
+        @Override
+        public @Nullable S3Response invoke( @Nonnull String xml ) throws CloudException, InternalException {
+            requests.add(xml);
+            if( bodies.isEmpty() ) {
+                throw new InternalException("Unexpected request " + xml);
+            }
+            S3Response response = new S3Response();
+
+            try {
+                response.document = parse(bodies.removeFirst());
+            }
+            catch( Exception e ) {
+                throw new InternalException(e);
+            }
+            return response;
+        }
+    }
+
+    static private List<String> keysOf( String xml ) throws Exception {
+        NodeList nodes = parse(xml).getElementsByTagName("Key");
+        List<String> keys = new ArrayList<String>();
+
+        for( int i=0; i<nodes.getLength(); i++ ) {
+            keys.add(nodes.item(i).getTextContent());
+        }
+        return keys;
+    }
+
+    static private Document parse( String xml ) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the pieces of a multipart upload that do not talk to S3.
+ *
+ * @see org.dasein.cloud.aws.storage.S3MultipartUpload
+ */
+public class S3MultipartUploadTest {
+    static private final long MEGABYTE = 1024L * 1024L;
+
+    private File stateFile;
+
+    @Before
+    public void setUp() throws Exception {
+        stateFile = File.createTempFile("s3-upload", ".properties");
+        //noinspection ResultOfMethodCallIgnored
+        stateFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        stateFile.delete();
+    }
+
+    @Test
+    public void partSizeHasAFloor() throws Exception {
+        assertEquals(S3MultipartUpload.MIN_PART_SIZE, S3MultipartUpload.getPartSize(1024L * MEGABYTE, MEGABYTE));
+        assertEquals(64L * MEGABYTE, S3MultipartUpload.getPartSize(1024L * MEGABYTE, 64L * MEGABYTE));
+    }
+
+    @Test
+    public void partSizeGrowsToStayWithinThePartLimit() throws Exception {
+        long length = 1024L * 1024L * MEGABYTE;
+        long size = S3MultipartUpload.getPartSize(length, S3MultipartUpload.MIN_PART_SIZE);
+
+        assertEquals("Part size should be rounded up to whole megabytes", 0L, size % MEGABYTE);
+        assertEquals(105L * MEGABYTE, size);
+        assertTrue(S3MultipartUpload.getPartCount(length, size) <= S3MultipartUpload.MAX_PARTS);
+        assertTrue(S3MultipartUpload.getPartCount(length, size - MEGABYTE) > S3MultipartUpload.MAX_PARTS);
+    }
+
+    @Test
+    public void fileTooLargeForTenThousandPartsIsRejected() {
+        try {
+            S3MultipartUpload.getPartSize(S3MultipartUpload.MAX_PART_SIZE * S3MultipartUpload.MAX_PARTS + 1L, S3MultipartUpload.MIN_PART_SIZE);
+            fail("A file over the multipart limit should be rejected");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void contextWithoutCustomPropertiesUsesTheDefault() {
+        assertEquals(42L, S3MultipartUpload.getLongProperty(new ProviderContext("2123454", "us-east-1"), S3MultipartUpload.CP_PART_SIZE, 42L));
+        assertEquals(42L, S3MultipartUpload.getLongProperty(null, S3MultipartUpload.CP_PART_SIZE, 42L));
+    }
+
+    @Test
+    public void partCountCoversTheLastPartialPart() {
+        assertEquals(1, S3MultipartUpload.getPartCount(0L, S3MultipartUpload.MIN_PART_SIZE));
+        assertEquals(1, S3MultipartUpload.getPartCount(S3MultipartUpload.MIN_PART_SIZE, S3MultipartUpload.MIN_PART_SIZE));
+        assertEquals(2, S3MultipartUpload.getPartCount(S3MultipartUpload.MIN_PART_SIZE + 1L, S3MultipartUpload.MIN_PART_SIZE));
+    }
+
+    @Test
+    public void stateSurvivesSaveAndLoad() throws Exception {
+        S3MultipartUpload.UploadState state = new S3MultipartUpload.UploadState();
+
+        state.uploadId = "upload-1";
+        state.length = 3L * S3MultipartUpload.MIN_PART_SIZE;
+        state.lastModified = 1234567890000L;
+        state.partSize = S3MultipartUpload.MIN_PART_SIZE;
+        state.putPart(3, "\"etag-3\"");
+        state.putPart(1, "\"etag-1\"");
+        state.save(stateFile);
+
+        S3MultipartUpload.UploadState loaded = S3MultipartUpload.UploadState.load(stateFile);
+
+        assertNotNull(loaded);
+        assertEquals("upload-1", loaded.uploadId);
+        assertEquals(state.length, loaded.length);
+        assertEquals(state.lastModified, loaded.lastModified);
+        assertEquals(state.partSize, loaded.partSize);
+        assertEquals(state.getParts(), loaded.getParts());
+        assertFalse("The temporary file should have been renamed into place", new File(stateFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void missingStateLoadsAsNothing() {
+        assertNull(S3MultipartUpload.UploadState.load(stateFile));
+    }
+
+    @Test
+    public void corruptStateIsIgnored() throws Exception {
+        write(stateFile, "uploadId=upload-1\nlength=not-a-number\nlastModified=1\npartSize=5242880\n");
+        assertNull(S3MultipartUpload.UploadState.load(stateFile));
+        write(stateFile, "length=10\nlastModified=1\npartSize=5242880\n");
+        assertNull("A state without an upload ID cannot be resumed", S3MultipartUpload.UploadState.load(stateFile));
+    }
+
+    @Test
+    public void stateDoesNotMatchAChangedFile() throws Exception {
+        File file = File.createTempFile("s3-upload", ".bin");
+
+        try {
+            write(file, "0123456789");
+            S3MultipartUpload.UploadState state = new S3MultipartUpload.UploadState();
+
+            state.length = file.length();
+            state.lastModified = file.lastModified();
+            assertTrue(state.matches(file));
+            write(file, "0123456789abc");
+            assertFalse("A file of a different length should not match", state.matches(file));
+            state.length = file.length();
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(state.lastModified + 10000L);
+            assertFalse("A file modified since should not match", state.matches(file));
+        }
+        finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void resumeSkipsPartsAlreadySent() {
+        Map<Integer,String> done = new HashMap<Integer,String>();
+
+        done.put(1, "\"etag-1\"");
+        done.put(3, "\"etag-3\"");
+        done.put(4, "\"etag-4\"");
+        assertEquals(Arrays.asList(2, 5), S3MultipartUpload.getPendingParts(5, done));
+    }
+
+    @Test
+    public void resumeOfACompleteUploadSendsNothing() {
+        Map<Integer,String> done = new HashMap<Integer,String>();
+
+        done.put(1, "\"etag-1\"");
+        done.put(2, "\"etag-2\"");
+        assertTrue(S3MultipartUpload.getPendingParts(2, done).isEmpty());
+
+        List<Integer> all = S3MultipartUpload.getPendingParts(3, Collections.<Integer,String>emptyMap());
+
+        assertEquals(Arrays.asList(1, 2, 3), all);
+    }
+
+    @Test
+    public void embeddedErrorIsFoundInASuccessfulResponse() throws Exception {
+        S3Response response = new S3Response();
+
+        response.document = parse("<Error><Code>InternalError</Code><Message>We encountered an internal error. Please try again.</Message><RequestId>656c76696e6727732072657175657374</RequestId></Error>");
+
+        S3Exception e = S3MultipartUpload.getEmbeddedError(response);
+
+        assertNotNull(e);
+        assertEquals(200, e.getStatus());
+        assertEquals("InternalError", e.getCode());
+        assertEquals("656c76696e6727732072657175657374", e.getRequestId());
+    }
+
+    @Test
+    public void successfulResponseHasNoEmbeddedError() throws Exception {
+        S3Response response = new S3Response();
+
+        response.document = parse("<CompleteMultipartUploadResult><Bucket>bucket</Bucket><Key>key</Key><ETag>\"etag-2\"</ETag></CompleteMultipartUploadResult>");
+        assertNull(S3MultipartUpload.getEmbeddedError(response));
+        assertNull(S3MultipartUpload.getEmbeddedError(new S3Response()));
+        assertNull(S3MultipartUpload.getEmbeddedError(null));
+    }
+
+    static private Document parse( String xml ) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    static private void write( File file, String content ) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            out.close();
+        }
+    }
+}
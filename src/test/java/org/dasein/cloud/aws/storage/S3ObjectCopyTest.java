@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.aws.RetryPolicy;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for the pieces of a server-side copy that do not talk to S3.
+ *
+ * @see org.dasein.cloud.aws.storage.S3ObjectCopy
+ */
+public class S3ObjectCopyTest {
+    static private final long MEGABYTE = 1024L * 1024L;
+
+    static private final String INTERNAL_ERROR = "<Error><Code>InternalError</Code><Message>We encountered an internal error. Please try again.</Message><RequestId>4442587FB7D0A2F9</RequestId></Error>";
+    static private final String ACCESS_DENIED  = "<Error><Code>AccessDenied</Code><Message>Access Denied</Message><RequestId>4442587FB7D0A2F9</RequestId></Error>";
+    static private final String PART_RESULT    = "<CopyPartResult><LastModified>2011-04-11T20:34:56.000Z</LastModified><ETag>\"9b2cf535f27731c974343645a3985328\"</ETag></CopyPartResult>";
+
+    private final RetryPolicy policy = new RetryPolicy(new HashSet<String>(Arrays.asList("InternalError", "SlowDown")), RetryPolicy.DEFAULT_MAX_ATTEMPTS, 1L, 1L);
+
+    @Test
+    public void partRangesCoverTheObject() {
+        long partSize = 5L * MEGABYTE;
+        long size = 12L * MEGABYTE + 3L;
+
+        assertEquals("bytes=0-" + ( partSize - 1L ), S3ObjectCopy.getSourceRange(0, partSize, size));
+        assertEquals("bytes=" + partSize + "-" + ( 2L * partSize - 1L ), S3ObjectCopy.getSourceRange(1, partSize, size));
+        assertEquals("The last part should end at the last byte", "bytes=" + ( 2L * partSize ) + "-" + ( size - 1L ), S3ObjectCopy.getSourceRange(2, partSize, size));
+    }
+
+    @Test
+    public void lastPartOfAnExactMultipleIsFull() {
+        long partSize = 5L * MEGABYTE;
+
+        assertEquals("bytes=" + partSize + "-" + ( 2L * partSize - 1L ), S3ObjectCopy.getSourceRange(1, partSize, 2L * partSize));
+    }
+
+    @Test
+    public void rangesBeyondTheIntRangeDoNotOverflow() {
+        long partSize = 512L * MEGABYTE;
+        long size = 6L * 1024L * MEGABYTE;
+
+        assertEquals("bytes=" + ( 11L * partSize ) + "-" + ( size - 1L ), S3ObjectCopy.getSourceRange(11, partSize, size));
+    }
+
+    @Test
+    public void initiateCarriesOverMetadata() {
+        Header[] source = new Header[] {
+                new BasicHeader("Content-Type", "image/png"),
+                new BasicHeader("Content-Length", "12582915"),
+                new BasicHeader("ETag", "\"abc-2\""),
+                new BasicHeader("Last-Modified", "Wed, 12 Oct 2009 17:50:00 GMT"),
+                new BasicHeader("Cache-Control", "max-age=3600"),
+                new BasicHeader("Content-Disposition", "attachment; filename=a.png"),
+                new BasicHeader("Content-Encoding", "gzip"),
+                new BasicHeader("x-amz-meta-owner", "alice"),
+                new BasicHeader("x-amz-request-id", "4442587FB7D0A2F9")
+        };
+        Map<String,String> headers = S3ObjectCopy.getInitiateHeaders(source, null);
+        Map<String,String> expected = new HashMap<String,String>();
+
+        expected.put("Cache-Control", "max-age=3600");
+        expected.put("Content-Disposition", "attachment; filename=a.png");
+        expected.put("Content-Encoding", "gzip");
+        expected.put("x-amz-meta-owner", "alice");
+        assertEquals(expected, headers);
+    }
+
+    @Test
+    public void requestedHeadersWinOverTheSource() {
+        Header[] source = new Header[] { new BasicHeader("x-amz-meta-owner", "alice") };
+        Map<String,String> requested = new HashMap<String,String>();
+
+        requested.put("x-amz-meta-owner", "bob");
+        requested.put("x-amz-acl", "public-read");
+
+        Map<String,String> headers = S3ObjectCopy.getInitiateHeaders(source, requested);
+
+        assertEquals("bob", headers.get("x-amz-meta-owner"));
+        assertEquals("public-read", headers.get("x-amz-acl"));
+    }
+
+    @Test
+    public void objectSizeIsParsed() throws Exception {
+        assertEquals(12582915L, S3ObjectCopy.getObjectSize(" 12582915 ", "bucket/key"));
+        assertEquals(0L, S3ObjectCopy.getObjectSize("0", "bucket/key"));
+    }
+
+    @Test
+    public void missingOrInvalidSizeFails() {
+        for( String length : new String[] { null, "", "twelve", "-1" } ) {
+            try {
+                S3ObjectCopy.getObjectSize(length, "bucket/key");
+                fail("A Content-Length of " + length + " should be rejected");
+            }
+            catch( CloudException expected ) {
+                assertTrue(expected.getMessage().contains("bucket/key"));
+            }
+        }
+    }
+
+    @Test
+    public void embeddedErrorIsRetried() throws Exception {
+        Responses responses = new Responses(INTERNAL_ERROR, PART_RESULT);
+        S3Response response = S3ObjectCopy.send(responses, policy, "part 1");
+
+        assertEquals(2, responses.calls);
+        assertEquals("CopyPartResult", response.document.getDocumentElement().getNodeName());
+    }
+
+    @Test
+    public void embeddedErrorGivesUpAfterTheLastAttempt() throws Exception {
+        Responses responses = new Responses(INTERNAL_ERROR, INTERNAL_ERROR, INTERNAL_ERROR, PART_RESULT);
+
+        try {
+            S3ObjectCopy.send(responses, policy, "part 1");
+            fail("The copy should fail once its attempts are used up");
+        }
+        catch( S3Exception expected ) {
+            assertEquals("InternalError", expected.getCode());
+            assertEquals(200, expected.getStatus());
+        }
+        assertEquals(3, responses.calls);
+    }
+
+    @Test
+    public void permanentEmbeddedErrorIsNotRetried() throws Exception {
+        Responses responses = new Responses(ACCESS_DENIED, PART_RESULT);
+
+        try {
+            S3ObjectCopy.send(responses, policy, "part 1");
+            fail("AccessDenied should not be retried");
+        }
+        catch( S3Exception expected ) {
+            assertEquals("AccessDenied", expected.getCode());
+        }
+        assertEquals(1, responses.calls);
+    }
+
+    @Test
+    public void thrownRetryableErrorIsRetried() throws Exception {
+        final S3Response ok = response(PART_RESULT);
+        final int[] calls = new int[] { 0 };
+        S3Response response = S3ObjectCopy.send(new S3ObjectCopy.CopyRequest() {
+            @Override
+            public @Nullable S3Response invoke() throws CloudException, InternalException {
+                if( ++calls[0] == 1 ) {
+                    throw new S3Exception(503, "4442587FB7D0A2F9", "SlowDown", "Please reduce your request rate.");
+                }
+                return ok;
+            }
+        }, policy, "part 1");
+
+        assertSame(ok, response);
+        assertEquals(2, calls[0]);
+    }
+
+    @Test
+    public void emptyResponseIsNotAnError() throws Exception {
+        Responses responses = new Responses();
+
+        assertNull(S3ObjectCopy.send(responses, policy, "the copy"));
+        assertEquals(1, responses.calls);
+    }
+
+    /**
+     * Answers each call with the next of a list of XML bodies, all with a 200 status.
+     */
+    static private class Responses implements S3ObjectCopy.CopyRequest {
+        private final LinkedList<String> bodies = new LinkedList<String>();
+        int calls;
+
+        Responses( String ... bodies ) {
+            Collections.addAll(this.bodies, bodies);
+        }
+
+        @Override
+        public @Nullable S3Response invoke() throws CloudException, InternalException {
+            calls++;
+            return ( bodies.isEmpty() ? null : response(bodies.removeFirst()) );
+        }
+    }
+
+    static private S3Response response( String xml ) throws InternalException {
+        S3Response response = new S3Response();
+
+        try {
+            response.document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        }
+        catch( Exception e ) {
+            throw new InternalException(e);
+        }
+        return response;
+    }
+}
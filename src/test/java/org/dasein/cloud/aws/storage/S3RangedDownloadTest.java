@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2009-2015 Dell, Inc.
+ * See annotations for authorship information
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+
+package org.dasein.cloud.aws.storage;
+
+import org.apache.commons.codec.binary.Hex;
+import org.dasein.cloud.aws.storage.S3Method.S3Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for writing ranged downloads and checking them against S3 ETags.
+ *
+ * @see org.dasein.cloud.aws.storage.S3RangedDownload
+ */
+public class S3RangedDownloadTest {
+    static private final int PART_SIZE = 5 * 1024 * 1024;
+
+    /**
+     * Fails with an {@link IOException} once the wrapped stream runs out.
+     */
+    static private class FailingInputStream extends InputStream {
+        private final InputStream input;
+
+        FailingInputStream( InputStream input ) {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = input.read();
+
+            if( b < 0 ) {
+                throw new IOException("Connection reset");
+            }
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len ) throws IOException {
+            int count = input.read(b, off, len);
+
+            if( count < 0 ) {
+                throw new IOException("Connection reset");
+            }
+            return count;
+        }
+    }
+
+    private File   file;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new byte[2 * PART_SIZE + 7];
+        new Random(1L).nextBytes(data);
+        file = File.createTempFile("etag", ".bin");
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(data);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    @Test
+    public void singleUploadETagIsTheMD5() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            String md5 = Hex.encodeHexString(MessageDigest.getInstance("MD5").digest(data));
+
+            assertEquals(md5, S3RangedDownload.computeETag(raf.getChannel(), data.length, 0L));
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void multipartETagIsTheMD5OfPartMD5s() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            MessageDigest whole = MessageDigest.getInstance("MD5");
+
+            for( int offset=0; offset<data.length; offset += PART_SIZE ) {
+                whole.update(MessageDigest.getInstance("MD5").digest(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + PART_SIZE))));
+            }
+            assertEquals(Hex.encodeHexString(whole.digest()) + "-3", S3RangedDownload.computeETag(raf.getChannel(), data.length, PART_SIZE));
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void failedReadEndsTheRangeAtTheBytesWritten() throws Exception {
+        int failAt = 100000;
+        S3Response response = new S3Response();
+
+        // a connection that resets part way through the range
+        response.input = new FailingInputStream(new ByteArrayInputStream(data, 0, failAt));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            raf.setLength(0L);
+            long written = new S3RangedDownload(null, "bucket", "object", file, null).write(response, raf.getChannel(), 0L, data.length);
+            byte[] copy = new byte[failAt];
+
+            assertEquals(failAt, written);
+            raf.seek(0L);
+            raf.readFully(copy);
+            assertArrayEquals(Arrays.copyOf(data, failAt), copy);
+        }
+        finally {
+            raf.close();
+        }
+    }
+}